@@ -0,0 +1,72 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapAbsentEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+interface AdjacencyStore {
+
+    String name();
+
+    int size();
+
+    long offHeapMemoryUsed();
+
+    long edgeCount();
+
+    int degree(String source);
+
+    void forEachDegree(IntConsumer consumer);
+
+    boolean add(String source, String target);
+
+    boolean addAll(String source, Collection<String> targets);
+
+    boolean remove(String source, String target);
+
+    boolean contains(String source, String target);
+
+    boolean containsKey(String source);
+
+    Set<String> get(String source);
+
+    Set<String> remove(String source);
+
+    int forEach(String source, NeighbourConsumer consumer);
+
+    // Adds up to limit neighbours that sort after the cursor, or from the start for a null one, and returns the cursor
+    // for the next page, or null if there is none. Each store decides what order and cursor it uses.
+    String page(String source, String cursor, int limit, List<String> into);
+
+    void forEachSource(Consumer<String> consumer);
+
+    int segmentOf(String source);
+
+    void close();
+
+    // Closes the store and removes its files.
+    void delete();
+
+    // Fills an empty store of the same kind, however it is sized, with everything in this one.
+    void copyTo(AdjacencyStore target);
+
+    // Moves the serialized entries across as they are, without decoding a single value. The target isn't visible to
+    // anyone else yet, so taking its locks inside the source segment's is safe.
+    static <K, V> void copyEntries(ChronicleMap<K, V> from, ChronicleMap<K, V> to) {
+        from.forEachEntry(entry -> {
+            try (ExternalMapQueryContext<K, V, ?> c = to.queryContext(entry.key())) {
+                c.updateLock().lock();
+                MapAbsentEntry<K, V> absentEntry = c.absentEntry();
+                if (absentEntry != null) {
+                    absentEntry.doInsert(entry.value());
+                }
+            }
+        });
+    }
+}
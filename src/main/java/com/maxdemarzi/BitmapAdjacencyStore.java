@@ -0,0 +1,613 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapAbsentEntry;
+import net.openhft.chronicle.map.MapEntry;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/*
+ * Each node's neighbours are split into chunks by the high bits of the neighbour id, one chunk per 2^16 ids unless
+ * the store is made with smaller ones, which lines up with a single RoaringBitmap container. A chunk is its own map entry, so adding or removing an edge only
+ * rewrites one bounded-size chunk no matter how many neighbours the node has. The index map records which chunks a
+ * node has so reads don't have to probe the whole id space. Since a node's neighbours are spread over chunks, its
+ * degree is kept in a map of its own, changed under the chunk lock whenever a chunk actually gains or loses ids.
+ */
+class BitmapAdjacencyStore implements AdjacencyStore {
+
+    static final int CHUNK_BITS = 16;
+    private static final int EXPECTED_CHUNKS_PER_NODE = 4;
+
+    private final GraphDirectory directory;
+    private final String file;
+    private final ChronicleMap<Integer, RoaringBitmap> index;
+    private final ChronicleMap<Long, RoaringBitmap> chunks;
+    private final ChronicleMap<Integer, Integer> degrees;
+    private final int chunkBits;
+    private final LongAdder edges = new LongAdder();
+    private final NodeDictionary dictionary;
+    // Index and chunk bytes; the degree side map is a fixed four bytes a write and isn't counted.
+    private final GraphMetrics.ByteCounter bytes;
+
+    BitmapAdjacencyStore(GraphDirectory directory, String name, Integer maximum, Integer average, NodeDictionary dictionary) {
+        this(directory, name, name, maximum, average, dictionary, GraphMetrics.UNCOUNTED);
+    }
+
+    BitmapAdjacencyStore(GraphDirectory directory, String name, String file, Integer maximum, Integer average,
+                         NodeDictionary dictionary, GraphMetrics.ByteCounter bytes) {
+        this(directory, name, file, maximum, average, Math.max(1, Math.min(average, EXPECTED_CHUNKS_PER_NODE)),
+                CHUNK_BITS, dictionary, bytes);
+    }
+
+    // Smaller chunks for sources that are written far more often than they are read whole, such as a label's nodes,
+    // so each write rewrites fewer ids.
+    BitmapAdjacencyStore(GraphDirectory directory, String name, Integer maximum, Integer average, int chunksPerNode,
+                         int chunkBits, NodeDictionary dictionary) {
+        this(directory, name, name, maximum, average, chunksPerNode, chunkBits, dictionary, GraphMetrics.UNCOUNTED);
+    }
+
+    private BitmapAdjacencyStore(GraphDirectory directory, String name, String file, Integer maximum, Integer average,
+                                 int chunksPerNode, int chunkBits, NodeDictionary dictionary,
+                                 GraphMetrics.ByteCounter bytes) {
+        this.directory = directory;
+        this.file = file;
+        this.dictionary = dictionary;
+        this.bytes = bytes;
+        this.chunkBits = chunkBits;
+
+        RoaringBitmap avgIndexValue = new RoaringBitmap();
+        for (int i = 0; i < chunksPerNode; i++) {
+            avgIndexValue.add(i);
+        }
+
+        // Spread the sample ids out inside the chunk, like a real neighbour list would be.
+        RoaringBitmap avgChunkValue = new RoaringBitmap();
+        for (int i = 0; i < Math.max(1, average / chunksPerNode); i++) {
+            avgChunkValue.add((i * 101) & ((1 << chunkBits) - 1));
+        }
+
+        index = directory.open(ChronicleMap
+                .of(Integer.class, RoaringBitmap.class)
+                .name(name)
+                .entries(maximum)
+                .averageValue(avgIndexValue)
+                .valueMarshaller(RoaringBitmapMarshaller.INSTANCE), file);
+
+        chunks = directory.open(ChronicleMap
+                .of(Long.class, RoaringBitmap.class)
+                .name(name + "-chunks")
+                .entries((long) maximum * chunksPerNode)
+                .averageValue(avgChunkValue)
+                .valueMarshaller(RoaringBitmapMarshaller.INSTANCE), file + "-chunks");
+
+        degrees = directory.open(ChronicleMap
+                .of(Integer.class, Integer.class)
+                .name(name + "-degrees")
+                .entries(maximum), file + "-degrees");
+
+        // Stores written before degrees were kept get theirs counted from the chunks once.
+        if (degrees.isEmpty() && !index.isEmpty()) {
+            for (Integer sourceId : index.keySet()) {
+                degrees.put(sourceId, getIds(sourceId).getCardinality());
+            }
+        }
+        forEachDegree(edges::add);
+    }
+
+    static long chunkKey(int node, int chunk) {
+        return ((long) node << 32) | chunk;
+    }
+
+    @Override
+    public String name() {
+        return index.name();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public long offHeapMemoryUsed() {
+        return index.offHeapMemoryUsed() + chunks.offHeapMemoryUsed() + degrees.offHeapMemoryUsed();
+    }
+
+    @Override
+    public long edgeCount() {
+        return edges.sum();
+    }
+
+    @Override
+    public int degree(String source) {
+        int sourceId = dictionary.get(source);
+        if (sourceId < 0) {
+            return 0;
+        }
+        Integer degree = degrees.get(sourceId);
+        return degree == null ? 0 : degree;
+    }
+
+    int degree(int sourceId) {
+        Integer degree = degrees.get(sourceId);
+        return degree == null ? 0 : degree;
+    }
+
+    @Override
+    public void forEachDegree(IntConsumer consumer) {
+        degrees.forEachEntry(entry -> consumer.accept(entry.value().get()));
+    }
+
+    @Override
+    public boolean add(String source, String target) {
+        if (source.equals(target)) {
+            return false;
+        }
+        return add(dictionary.getOrCreate(source), dictionary.getOrCreate(target));
+    }
+
+    boolean add(int sourceId, int targetId) {
+        int chunk = targetId >>> chunkBits;
+        try (ExternalMapQueryContext<Long, RoaringBitmap, ?> cc = chunks.queryContext(chunkKey(sourceId, chunk))) {
+            cc.updateLock().lock();
+            MapEntry<Long, RoaringBitmap> cEntry = cc.entry();
+            if (cEntry == null) {
+                writeChunk(cc, sourceId, chunk, RoaringBitmap.bitmapOf(targetId), 1);
+                return true;
+            }
+            RoaringBitmap cNeighbours = cEntry.value().get();
+            if (cNeighbours.checkedAdd(targetId)) {
+                writeChunk(cc, sourceId, chunk, cNeighbours, 1);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(String source, Collection<String> targets) {
+        int sourceId = dictionary.getOrCreate(source);
+        RoaringBitmap targetIds = new RoaringBitmap();
+        for (String target : targets) {
+            if (!target.equals(source)) {
+                targetIds.add(dictionary.getOrCreate(target));
+            }
+        }
+
+        // Walk the ids in order so every chunk they fall into is rewritten exactly once.
+        IntIterator iterator = targetIds.getIntIterator();
+        RoaringBitmap part = new RoaringBitmap();
+        int chunk = -1;
+        while (iterator.hasNext()) {
+            int targetId = iterator.next();
+            if (targetId >>> chunkBits != chunk) {
+                if (chunk >= 0) {
+                    addToChunk(sourceId, chunk, part);
+                    part = new RoaringBitmap();
+                }
+                chunk = targetId >>> chunkBits;
+            }
+            part.add(targetId);
+        }
+        if (chunk >= 0) {
+            addToChunk(sourceId, chunk, part);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(String source, String target) {
+        int sourceId = dictionary.get(source);
+        int targetId = dictionary.get(target);
+        if (sourceId < 0 || targetId < 0) {
+            return false;
+        }
+        return remove(sourceId, targetId);
+    }
+
+    boolean remove(int sourceId, int targetId) {
+        int chunk = targetId >>> chunkBits;
+        try (ExternalMapQueryContext<Long, RoaringBitmap, ?> cc = chunks.queryContext(chunkKey(sourceId, chunk))) {
+            cc.updateLock().lock();
+            MapEntry<Long, RoaringBitmap> cEntry = cc.entry();
+            if (cEntry == null) {
+                return false;
+            }
+            RoaringBitmap cNeighbours = cEntry.value().get();
+            if (!cNeighbours.checkedRemove(targetId)) {
+                return false;
+            }
+            if (cNeighbours.isEmpty()) {
+                cc.remove(cEntry);
+                updateIndex(sourceId, chunk, false);
+            } else {
+                Data<RoaringBitmap> data = cc.wrapValueAsData(cNeighbours);
+                cEntry.doReplaceValue(data);
+                bytes.wrote(data);
+            }
+            updateDegree(sourceId, -1);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(String source, String target) {
+        int sourceId = dictionary.get(source);
+        int targetId = dictionary.get(target);
+        if (sourceId < 0 || targetId < 0) {
+            return false;
+        }
+        RoaringBitmap chunk = chunks.get(chunkKey(sourceId, targetId >>> chunkBits));
+        return chunk != null && chunk.contains(targetId);
+    }
+
+    @Override
+    public boolean containsKey(String source) {
+        int sourceId = dictionary.get(source);
+        return sourceId >= 0 && index.containsKey(sourceId);
+    }
+
+    @Override
+    public Set<String> get(String source) {
+        int sourceId = dictionary.get(source);
+        if (sourceId < 0) {
+            return null;
+        }
+        return toKeys(getIds(sourceId));
+    }
+
+    @Override
+    public Set<String> remove(String source) {
+        int sourceId = dictionary.get(source);
+        if (sourceId < 0) {
+            return null;
+        }
+        RoaringBitmap chunkNumbers = index.remove(sourceId);
+        if (chunkNumbers == null) {
+            return null;
+        }
+        RoaringBitmap neighbours = new RoaringBitmap();
+        IntIterator iterator = chunkNumbers.getIntIterator();
+        while (iterator.hasNext()) {
+            RoaringBitmap chunk = chunks.remove(chunkKey(sourceId, iterator.next()));
+            if (chunk != null) {
+                neighbours.or(chunk);
+            }
+        }
+        degrees.remove(sourceId);
+        edges.add(-neighbours.getCardinality());
+        return toKeys(neighbours);
+    }
+
+    @Override
+    public int forEach(String source, NeighbourConsumer consumer) {
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            readIds(dictionary.get(source), buffers);
+            for (int i = 0; i < buffers.ids.size(); i++) {
+                if (dictionary.readKey(buffers.ids.get(i), buffers, buffers.current)) {
+                    consumer.accept(buffers.current);
+                }
+            }
+            return buffers.ids.size();
+        } finally {
+            buffers.release();
+        }
+    }
+
+    // Pages go by node id, a chunk at a time from the one the cursor is in, so at most one chunk's ids are ever read
+    // that don't end up on the page.
+    @Override
+    public String page(String source, String cursor, int limit, List<String> into) {
+        int sourceId = dictionary.get(source);
+        if (sourceId < 0) {
+            return null;
+        }
+        int after = cursor == null ? -1 : Integer.parseInt(cursor);
+        int added = 0;
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            readChunkNumbers(sourceId, buffers);
+            for (int i = 0; i < buffers.chunks.size(); i++) {
+                int chunk = buffers.chunks.get(i);
+                if (after >= 0 && chunk < after >>> chunkBits) {
+                    continue;
+                }
+                buffers.ids.clear();
+                readChunk(sourceId, chunk, buffers);
+                for (int j = 0; j < buffers.ids.size(); j++) {
+                    int id = buffers.ids.get(j);
+                    if (id <= after) {
+                        continue;
+                    }
+                    if (added == limit) {
+                        return Integer.toString(after);
+                    }
+                    String key = dictionary.getKey(id);
+                    if (key != null) {
+                        into.add(key);
+                        added++;
+                    }
+                    after = id;
+                }
+            }
+            return null;
+        } finally {
+            buffers.release();
+        }
+    }
+
+    int forEachId(String source, IntConsumer consumer) {
+        return forEachId(dictionary.get(source), consumer);
+    }
+
+    int forEachId(int sourceId, IntConsumer consumer) {
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            readIds(sourceId, buffers);
+            for (int i = 0; i < buffers.ids.size(); i++) {
+                consumer.accept(buffers.ids.get(i));
+            }
+            return buffers.ids.size();
+        } finally {
+            buffers.release();
+        }
+    }
+
+    @Override
+    public void forEachSource(Consumer<String> consumer) {
+        for (Integer sourceId : index.keySet()) {
+            consumer.accept(dictionary.getKey(sourceId));
+        }
+    }
+
+    void forEachSourceId(IntConsumer consumer) {
+        for (Integer sourceId : index.keySet()) {
+            consumer.accept(sourceId);
+        }
+    }
+
+    @Override
+    public int segmentOf(String source) {
+        try (ExternalMapQueryContext<Integer, RoaringBitmap, ?> ic = index.queryContext(dictionary.getOrCreate(source))) {
+            return ic.segmentIndex();
+        }
+    }
+
+    @Override
+    public void close() {
+        index.close();
+        chunks.close();
+        degrees.close();
+    }
+
+    @Override
+    public void copyTo(AdjacencyStore target) {
+        BitmapAdjacencyStore store = (BitmapAdjacencyStore) target;
+        AdjacencyStore.copyEntries(index, store.index);
+        AdjacencyStore.copyEntries(chunks, store.chunks);
+        AdjacencyStore.copyEntries(degrees, store.degrees);
+        store.edges.add(edges.sum());
+    }
+
+    @Override
+    public void delete() {
+        close();
+        directory.delete(file);
+        directory.delete(file + "-chunks");
+        directory.delete(file + "-degrees");
+    }
+
+    RoaringBitmap getIds(int sourceId) {
+        RoaringBitmap chunkNumbers = index.get(sourceId);
+        if (chunkNumbers == null) {
+            return null;
+        }
+        boolean counting = bytes.counting();
+        long read = counting ? chunkNumbers.serializedSizeInBytes() : 0;
+        RoaringBitmap neighbours = new RoaringBitmap();
+        IntIterator iterator = chunkNumbers.getIntIterator();
+        while (iterator.hasNext()) {
+            RoaringBitmap chunk = chunks.get(chunkKey(sourceId, iterator.next()));
+            if (chunk != null) {
+                neighbours.or(chunk);
+                if (counting) {
+                    read += chunk.serializedSizeInBytes();
+                }
+            }
+        }
+        bytes.read(read);
+        return neighbours;
+    }
+
+    // The ids that are also the source's, reading only the chunks they fall in rather than all of the source's.
+    RoaringBitmap intersect(int sourceId, RoaringBitmap ids) {
+        RoaringBitmap shared = new RoaringBitmap();
+        RoaringBitmap chunkNumbers = ids.isEmpty() ? null : index.get(sourceId);
+        if (chunkNumbers == null) {
+            return shared;
+        }
+        long read = 0;
+        IntIterator iterator = ids.getIntIterator();
+        int previous = -1;
+        while (iterator.hasNext()) {
+            int chunk = iterator.next() >>> chunkBits;
+            if (chunk == previous) {
+                continue;
+            }
+            previous = chunk;
+            RoaringBitmap chunkIds = chunkNumbers.contains(chunk) ? chunks.get(chunkKey(sourceId, chunk)) : null;
+            if (chunkIds != null) {
+                shared.or(chunkIds);
+                read += bytes.counting() ? chunkIds.serializedSizeInBytes() : 0;
+            }
+        }
+        bytes.read(read);
+        shared.and(ids);
+        return shared;
+    }
+
+    // Reads the index and then each chunk under its own read lock, never holding two at once, and parses the serialized
+    // bitmaps in place. The ids come out sorted since the chunks are.
+    private void readIds(int sourceId, ReadBuffers buffers) {
+        if (sourceId < 0) {
+            return;
+        }
+        readChunkNumbers(sourceId, buffers);
+        for (int i = 0; i < buffers.chunks.size(); i++) {
+            readChunk(sourceId, buffers.chunks.get(i), buffers);
+        }
+    }
+
+    private void readChunkNumbers(int sourceId, ReadBuffers buffers) {
+        try (ExternalMapQueryContext<Integer, RoaringBitmap, ?> ic = index.queryContext(buffers.key(sourceId), 0, 4)) {
+            ic.readLock().lock();
+            MapEntry<Integer, RoaringBitmap> iEntry = ic.entry();
+            if (iEntry == null) {
+                return;
+            }
+            Data<RoaringBitmap> value = iEntry.value();
+            bytes.read(value);
+            RoaringBitmapMarshaller.readInto(value.bytes(), value.offset(), buffers.chunks);
+        }
+    }
+
+    private void readChunk(int sourceId, int chunk, ReadBuffers buffers) {
+        long key = chunkKey(sourceId, chunk);
+        try (ExternalMapQueryContext<Long, RoaringBitmap, ?> cc = chunks.queryContext(buffers.key(key), 0, 8)) {
+            cc.readLock().lock();
+            MapEntry<Long, RoaringBitmap> cEntry = cc.entry();
+            if (cEntry != null) {
+                Data<RoaringBitmap> value = cEntry.value();
+                bytes.read(value);
+                RoaringBitmapMarshaller.readInto(value.bytes(), value.offset(), buffers.ids);
+            }
+        }
+    }
+
+    private void addToChunk(int sourceId, int chunk, RoaringBitmap targetIds) {
+        try (ExternalMapQueryContext<Long, RoaringBitmap, ?> cc = chunks.queryContext(chunkKey(sourceId, chunk))) {
+            cc.updateLock().lock();
+            MapEntry<Long, RoaringBitmap> cEntry = cc.entry();
+            if (cEntry == null) {
+                writeChunk(cc, sourceId, chunk, targetIds, targetIds.getCardinality());
+                return;
+            }
+            RoaringBitmap cNeighbours = cEntry.value().get();
+            int before = cNeighbours.getCardinality();
+            cNeighbours.or(targetIds);
+            if (cNeighbours.getCardinality() != before) {
+                writeChunk(cc, sourceId, chunk, cNeighbours, cNeighbours.getCardinality() - before);
+            }
+        }
+    }
+
+    // Indexes a new chunk and counts the added ids before writing the chunk itself, and takes both back if the chunk
+    // can't be written, so a write that runs out of room leaves the node as it found it and can simply be retried.
+    // Callers hold the chunk lock, so a concurrent remove can't drop the chunk from the index under us.
+    private void writeChunk(ExternalMapQueryContext<Long, RoaringBitmap, ?> cc, int sourceId, int chunk,
+                            RoaringBitmap cNeighbours, int added) {
+        MapEntry<Long, RoaringBitmap> cEntry = cc.entry();
+        if (cEntry == null) {
+            updateIndex(sourceId, chunk, true);
+        }
+        try {
+            updateDegree(sourceId, added);
+        } catch (RuntimeException e) {
+            if (cEntry == null) {
+                updateIndex(sourceId, chunk, false);
+            }
+            throw e;
+        }
+        try {
+            Data<RoaringBitmap> data = cc.wrapValueAsData(cNeighbours);
+            if (cEntry == null) {
+                MapAbsentEntry<Long, RoaringBitmap> cAbsentEntry = cc.absentEntry();
+                assert cAbsentEntry != null;
+                cAbsentEntry.doInsert(data);
+            } else {
+                cEntry.doReplaceValue(data);
+            }
+            bytes.wrote(data);
+        } catch (RuntimeException e) {
+            updateDegree(sourceId, -added);
+            if (cEntry == null) {
+                updateIndex(sourceId, chunk, false);
+            }
+            throw e;
+        }
+    }
+
+    // Two chunks of the same node can change at once, so the count is read and written under the degree entry's lock.
+    private void updateDegree(int sourceId, int delta) {
+        try (ExternalMapQueryContext<Integer, Integer, ?> dc = degrees.queryContext(sourceId)) {
+            dc.updateLock().lock();
+            MapEntry<Integer, Integer> dEntry = dc.entry();
+            if (dEntry == null) {
+                MapAbsentEntry<Integer, Integer> dAbsentEntry = dc.absentEntry();
+                assert dAbsentEntry != null;
+                dAbsentEntry.doInsert(dc.wrapValueAsData(delta));
+            } else {
+                int degree = dEntry.value().get() + delta;
+                if (degree > 0) {
+                    dEntry.doReplaceValue(dc.wrapValueAsData(degree));
+                } else {
+                    dc.remove(dEntry);
+                }
+            }
+        }
+        edges.add(delta);
+    }
+
+    private void updateIndex(int sourceId, int chunk, boolean add) {
+        try (ExternalMapQueryContext<Integer, RoaringBitmap, ?> ic = index.queryContext(sourceId)) {
+            ic.updateLock().lock();
+            MapEntry<Integer, RoaringBitmap> iEntry = ic.entry();
+            if (iEntry != null) {
+                RoaringBitmap chunkNumbers = iEntry.value().get();
+                if (add) {
+                    if (chunkNumbers.checkedAdd(chunk)) {
+                        Data<RoaringBitmap> data = ic.wrapValueAsData(chunkNumbers);
+                        iEntry.doReplaceValue(data);
+                        bytes.wrote(data);
+                    }
+                } else if (chunkNumbers.checkedRemove(chunk)) {
+                    if (chunkNumbers.isEmpty()) {
+                        ic.remove(iEntry);
+                    } else {
+                        Data<RoaringBitmap> data = ic.wrapValueAsData(chunkNumbers);
+                        iEntry.doReplaceValue(data);
+                        bytes.wrote(data);
+                    }
+                }
+            } else if (add) {
+                MapAbsentEntry<Integer, RoaringBitmap> iAbsentEntry = ic.absentEntry();
+                assert iAbsentEntry != null;
+                Data<RoaringBitmap> data = ic.wrapValueAsData(RoaringBitmap.bitmapOf(chunk));
+                iAbsentEntry.doInsert(data);
+                bytes.wrote(data);
+            }
+        }
+    }
+
+    private Set<String> toKeys(RoaringBitmap neighbours) {
+        if (neighbours == null) {
+            return null;
+        }
+        Set<String> keys = new HashSet<>((int) (neighbours.getCardinality() / 0.75) + 1);
+        IntIterator iterator = neighbours.getIntIterator();
+        while (iterator.hasNext()) {
+            keys.add(dictionary.getKey(iterator.next()));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,201 @@
+package com.maxdemarzi;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.ToIntFunction;
+
+class BulkLoader {
+
+    static final int BATCH_SIZE = 1_000_000;
+
+    private BulkLoader() {
+    }
+
+    // Each node is written under its key's lock, like ChronicleGraph.addNode, so its indexes match whichever write of
+    // the node came last, and it goes into the log, when there is one, under that lock once the maps have it.
+    static long importNodes(PropertyStore<String> nodes, PropertyIndexRegistry indexes, EdgeLocks nodeLocks,
+                            ChangeLog log, PropertyCodec codec, Iterator<Map.Entry<String, Object>> entries) {
+        long count = 0;
+        while (entries.hasNext()) {
+            // Left to grow with what is read, so a small import doesn't pay for a whole batch up front.
+            HashMap<String, Object> batch = new HashMap<>();
+            while (entries.hasNext() && batch.size() < BATCH_SIZE) {
+                Map.Entry<String, Object> entry = entries.next();
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            List<List<Map.Entry<String, Object>>> partitions = partition(batch, nodes::segmentOf);
+            partitions.parallelStream().forEach(partition -> {
+                for (Map.Entry<String, Object> entry : partition) {
+                    byte[] encoded = log == null ? null : codec.encode(entry.getValue());
+                    synchronized (nodeLocks.lockFor(entry.getKey())) {
+                        Object previous = log == null ? nodes.put(entry.getKey(), entry.getValue())
+                                : nodes.putEncoded(entry.getKey(), encoded);
+                        indexes.update(entry.getKey(), previous, entry.getValue());
+                        if (log != null) {
+                            log.addNode(entry.getKey(), null, encoded);
+                        }
+                    }
+                }
+            });
+            count += batch.size();
+        }
+        return count;
+    }
+
+    // Returns how many relationships went in that weren't there before, so repeats in the input, relationships the
+    // graph already had and self loops aren't counted. Ones the type ran out of room for are left out on both sides.
+    static long importRelationships(RelationshipTypeRegistry related, String type, NodeTypeMemberships memberships,
+                                    EdgeLocks edgeLocks, ChangeLog log, Iterator<String[]> relationships) {
+        int typeId = related.typeId(type);
+        long count = 0;
+        while (relationships.hasNext()) {
+            HashMap<String, List<String>> outgoing = new HashMap<>();
+            HashMap<String, List<String>> incoming = new HashMap<>();
+            LongAdder added = new LongAdder();
+            int read = 0;
+            while (relationships.hasNext() && read < BATCH_SIZE) {
+                String[] relationship = relationships.next();
+                if (relationship[0].equals(relationship[1])) {
+                    continue;
+                }
+                outgoing.computeIfAbsent(relationship[0], k -> new ArrayList<>()).add(relationship[1]);
+                incoming.computeIfAbsent(relationship[1], k -> new ArrayList<>()).add(relationship[0]);
+                read++;
+            }
+            // Batches don't take the edge stripes addRelationship and removeRelationship do, so they keep the type's
+            // other writers out altogether until both halves are in, and a remove can't land between the two.
+            Map<String, List<String>> dropped;
+            Lock exclusive = related.exclusiveLock(type);
+            exclusive.lock();
+            try {
+                dropped = write(related, type, true, outgoing, memberships,
+                        NodeTypeMemberships.slot(typeId, NodeTypeMemberships.OUTGOING), added);
+                for (Map.Entry<String, List<String>> entry : dropped.entrySet()) {
+                    for (String to : entry.getValue()) {
+                        List<String> from = incoming.get(to);
+                        if (from != null && from.removeIf(entry.getKey()::equals) && from.isEmpty()) {
+                            incoming.remove(to);
+                        }
+                    }
+                }
+                Map<String, List<String>> unmatched = write(related, type, false, incoming, memberships,
+                        NodeTypeMemberships.slot(typeId, NodeTypeMemberships.INCOMING), null);
+                added.add(-rollBack(related, type, unmatched));
+            } finally {
+                exclusive.unlock();
+            }
+            if (log != null) {
+                log(related, type, edgeLocks, log, outgoing, dropped);
+            }
+            related.checkCapacity(type);
+            count += added.sum();
+        }
+        return count;
+    }
+
+    // Each node's whole batch of neighbours goes in with a single addAll, and the nodes are split by the segment of the
+    // map the store indexes its sources in, so workers mostly stay out of each other's way. BITMAPS chunk and degree
+    // maps aren't split along the same lines, so there workers can still wait on each other's segment locks. Nodes
+    // whose write ran out of room are written again, addAll being idempotent, once the type has been grown. Returns
+    // the ones that still didn't fit when the type couldn't grow any more, and counts the neighbours that were new into
+    // added.
+    private static Map<String, List<String>> write(RelationshipTypeRegistry related, String type, boolean outgoing,
+                                                   Map<String, List<String>> neighbours, NodeTypeMemberships memberships,
+                                                   int slot, LongAdder added) {
+        for (int attempt = 1; !neighbours.isEmpty(); attempt++) {
+            Map<String, List<String>> failed = new ConcurrentHashMap<>();
+            AtomicReference<RuntimeException> failure = new AtomicReference<>();
+            Lock lock = related.writeLock(type);
+            lock.lock();
+            int generation = related.generation(type);
+            try {
+                AdjacencyStore store = outgoing ? related.outgoing(type) : related.incoming(type);
+                List<List<Map.Entry<String, List<String>>>> partitions = partition(neighbours, store::segmentOf);
+                partitions.parallelStream().forEach(partition -> {
+                    for (Map.Entry<String, List<String>> entry : partition) {
+                        try {
+                            int before = added == null ? 0 : store.degree(entry.getKey());
+                            if (store.addAll(entry.getKey(), entry.getValue())) {
+                                memberships.add(entry.getKey(), slot);
+                                if (added != null) {
+                                    added.add(store.degree(entry.getKey()) - before);
+                                }
+                            }
+                        } catch (IllegalStateException | IllegalArgumentException e) {
+                            failed.put(entry.getKey(), entry.getValue());
+                            failure.set(e);
+                        }
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+            if (!failed.isEmpty() && !related.grow(type, generation, failure.get(), attempt)) {
+                related.failed(type, failed.values().stream().mapToLong(List::size).sum());
+                return failed;
+            }
+            neighbours = failed;
+        }
+        return Collections.emptyMap();
+    }
+
+    // Takes back the outgoing half of relationships whose incoming half didn't fit, unless the incoming side had them
+    // from before, and returns how many were taken back.
+    private static long rollBack(RelationshipTypeRegistry related, String type, Map<String, List<String>> unmatched) {
+        if (unmatched.isEmpty()) {
+            return 0;
+        }
+        long removed = 0;
+        Lock lock = related.writeLock(type);
+        lock.lock();
+        try {
+            AdjacencyStore outgoing = related.outgoing(type);
+            AdjacencyStore incoming = related.incoming(type);
+            for (Map.Entry<String, List<String>> entry : unmatched.entrySet()) {
+                for (String from : new HashSet<>(entry.getValue())) {
+                    if (!incoming.contains(entry.getKey(), from) && outgoing.remove(from, entry.getKey())) {
+                        removed++;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    // A batch goes into the log once it is in the maps, an edge at a time under the stripe addRelationship logs under,
+    // and only the edges the graph has by then. So the log never holds one the type ran out of room for, and when a
+    // remove of the same edge got in after the batch, its record is the last word on the edge rather than ours.
+    private static void log(RelationshipTypeRegistry related, String type, EdgeLocks edgeLocks, ChangeLog log,
+                            Map<String, List<String>> outgoing, Map<String, List<String>> dropped) {
+        for (Map.Entry<String, List<String>> entry : outgoing.entrySet()) {
+            String from = entry.getKey();
+            if (dropped.containsKey(from)) {
+                continue;
+            }
+            for (String to : new LinkedHashSet<>(entry.getValue())) {
+                synchronized (edgeLocks.lockFor(type, from, to)) {
+                    if (related.outgoing(type).contains(from, to)) {
+                        log.addRelationship(type, from, to, null);
+                    }
+                }
+            }
+        }
+    }
+
+    private static <V> List<List<Map.Entry<String, V>>> partition(Map<String, V> batch, ToIntFunction<String> segmentOf) {
+        int workers = Runtime.getRuntime().availableProcessors();
+        List<List<Map.Entry<String, V>>> partitions = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            partitions.add(new ArrayList<>(batch.size() / workers + 1));
+        }
+        for (Map.Entry<String, V> entry : batch.entrySet()) {
+            partitions.get(segmentOf.applyAsInt(entry.getKey()) % workers).add(entry);
+        }
+        return partitions;
+    }
+}
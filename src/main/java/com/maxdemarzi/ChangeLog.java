@@ -0,0 +1,318 @@
+package com.maxdemarzi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * An append-only journal of the changes made to a graph, written front to back into memory-mapped segment files named
+ * after the first sequence they hold. Appending is a copy into the page cache, so a change outlives the process as
+ * soon as it is in; forcing it to disk, which it needs to outlive the machine, is batched to once every so many
+ * changes or milliseconds, whichever comes first.
+ *
+ * A record is [length][crc32][kind][sequence] and then its fields, each one [length][bytes] with -1 for null. A node's
+ * labels, when it was given some, go in its second field separated by NULs. The end of a segment is the first record
+ * with a zero length or a checksum that doesn't match, which is also how a record torn by a crash is found and written
+ * over on the next open. Properties are kept as PropertyCodec bytes, and the first value in a segment to use a schema
+ * is preceded by a SCHEMA record with its descriptor, so a segment can be read without the graph that wrote it.
+ *
+ * The graph appends a change only after its maps have taken it, inside the same node or edge lock, so the log never
+ * holds a change the maps refused and the changes to any one key are in the order they were made. The other side of
+ * that is that a crash between the two leaves the maps with a change the log never got, which replaying or tailing
+ * the log won't see.
+ */
+class ChangeLog {
+
+    static final byte SCHEMA = 64;
+    static final int HEADER = 4 + 4;
+    static final int SEGMENT_BYTES = 64 << 20;
+    static final String LABEL_SEPARATOR = "\u0000";
+    private static final int SCHEMA_RECORD = HEADER + 1 + 8 + 4;
+    private static final String SUFFIX = ".log";
+
+    private final File directory;
+    private final PropertyCodec codec;
+    private final int segmentBytes;
+    private final int syncEvery;
+    private final long syncNanos;
+    private final CRC32 crc = new CRC32();
+    // Schemas the current segment has a SCHEMA record for.
+    private final BitSet schemas = new BitSet();
+    private MappedByteBuffer segment;
+    private volatile long segmentStart;
+    private volatile long next;
+    private int unsynced;
+    private long lastSync = System.nanoTime();
+    private int waiting;
+    private boolean closed;
+
+    // Zero turns either sync trigger off; with both off the operating system writes changes back when it likes.
+    ChangeLog(File directory, PropertyCodec codec, int syncEvery, long syncMillis, int segmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create change log directory " + directory);
+        }
+        this.directory = directory.getCanonicalFile();
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+        this.syncEvery = syncEvery;
+        this.syncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+
+        List<File> segments = segments(directory);
+        if (segments.isEmpty()) {
+            roll(0, 0);
+            return;
+        }
+        // Carry on after the last whole record of the newest segment.
+        File last = segments.get(segments.size() - 1);
+        segment = map(last, Math.max(segmentBytes, last.length()));
+        segmentStart = firstSequence(last);
+        next = segmentStart;
+        int position = 0;
+        for (int length; (length = recordAt(segment, position, crc)) >= 0; position += HEADER + length) {
+            if (segment.get(position + HEADER) == SCHEMA) {
+                schemas.set(segment.getInt(position + HEADER + 1 + 8));
+            } else {
+                next = segment.getLong(position + HEADER + 1) + 1;
+            }
+        }
+        clear(segment, position);
+        segment.position(position);
+    }
+
+    // Zeroes whatever a crash left after the last whole record, so the records written over it end at a zero length
+    // rather than at the remains of a torn one. Only pages that aren't zero already are written to.
+    private static void clear(MappedByteBuffer segment, int from) {
+        int position = from;
+        for (; position + 8 <= segment.limit(); position += 8) {
+            if (segment.getLong(position) != 0) {
+                segment.putLong(position, 0);
+            }
+        }
+        for (; position < segment.limit(); position++) {
+            segment.put(position, (byte) 0);
+        }
+    }
+
+    File directory() {
+        return directory;
+    }
+
+    // The sequence the next change will get.
+    long next() {
+        return next;
+    }
+
+    long segmentStart() {
+        return segmentStart;
+    }
+
+    // Labels are null when the node's labels were left as they were.
+    long addNode(String key, String[] labels, byte[] properties) {
+        return append(GraphChange.Kind.ADD_NODE, key, labels == null ? null : String.join(LABEL_SEPARATOR, labels), null,
+                properties);
+    }
+
+    long removeNode(String key) {
+        return append(GraphChange.Kind.REMOVE_NODE, key, null, null, null);
+    }
+
+    // Properties are null for a relationship added without any.
+    long addRelationship(String type, String from, String to, byte[] properties) {
+        return append(GraphChange.Kind.ADD_RELATIONSHIP, type, from, to, properties);
+    }
+
+    long removeRelationship(String type, String from, String to) {
+        return append(GraphChange.Kind.REMOVE_RELATIONSHIP, type, from, to, null);
+    }
+
+    private synchronized long append(GraphChange.Kind kind, String first, String second, String third,
+                                     byte[] properties) {
+        if (closed) {
+            throw new IllegalStateException("The change log in " + directory + " is closed");
+        }
+        byte[] a = utf8(first);
+        byte[] b = utf8(second);
+        byte[] c = utf8(third);
+        int schema = properties == null ? -1 : PropertyCodec.schemaIdOf(properties);
+        byte[] descriptor = schema < 0 ? null : utf8(codec.descriptor(schema));
+        int length = 1 + 8 + sizeOf(a) + sizeOf(b) + sizeOf(c) + sizeOf(properties);
+        int needed = HEADER + length + (descriptor == null ? 0 : SCHEMA_RECORD + sizeOf(descriptor));
+        if (segment.remaining() < needed) {
+            try {
+                roll(next, needed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (descriptor != null && !schemas.get(schema)) {
+            int start = begin(SCHEMA, next);
+            segment.putInt(schema);
+            put(descriptor);
+            finish(start);
+            schemas.set(schema);
+        }
+        int start = begin((byte) kind.ordinal(), next);
+        put(a);
+        put(b);
+        put(c);
+        put(properties);
+        finish(start);
+        long sequence = next++;
+
+        if (waiting > 0) {
+            notifyAll();
+        }
+        unsynced++;
+        if ((syncEvery > 0 && unsynced >= syncEvery) || (syncNanos > 0 && System.nanoTime() - lastSync >= syncNanos)) {
+            sync();
+        }
+        return sequence;
+    }
+
+    private int begin(byte kind, long sequence) {
+        int start = segment.position();
+        segment.position(start + HEADER);
+        segment.put(kind);
+        segment.putLong(sequence);
+        return start;
+    }
+
+    // The length goes in last, so a record only counts once all of it is there.
+    private void finish(int start) {
+        int end = segment.position();
+        ByteBuffer body = segment.duplicate();
+        body.limit(end);
+        body.position(start + HEADER);
+        crc.reset();
+        crc.update(body);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, end - start - HEADER);
+    }
+
+    private void put(byte[] field) {
+        if (field == null) {
+            segment.putInt(-1);
+        } else {
+            segment.putInt(field.length);
+            segment.put(field);
+        }
+    }
+
+    // Starts a new segment, big enough for at least the record that didn't fit in the last one.
+    private void roll(long first, int needed) throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segment = map(new File(directory, String.format("%020d", first) + SUFFIX), Math.max(segmentBytes, needed));
+        segmentStart = first;
+        schemas.clear();
+    }
+
+    synchronized void sync() {
+        segment.force();
+        unsynced = 0;
+        lastSync = System.nanoTime();
+    }
+
+    // Waits for the change with the given sequence to be appended. False if it timed out or the log was closed first.
+    synchronized boolean await(long sequence, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        waiting++;
+        try {
+            while (next <= sequence && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return next > sequence;
+        } finally {
+            waiting--;
+        }
+    }
+
+    // Deletes the segments that only hold changes from before the given sequence, never the one being written.
+    synchronized int truncate(long before) throws IOException {
+        List<File> segments = segments(directory);
+        int deleted = 0;
+        for (int i = 0; i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= before; i++) {
+            Files.delete(segments.get(i).toPath());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    synchronized void close() {
+        if (!closed) {
+            segment.force();
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    // Oldest first.
+    static List<File> segments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    static long firstSequence(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // A size of zero maps the file as it is; the mapping stays valid after the file is closed.
+    static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, size == 0 ? "r" : "rw")) {
+            if (size > raf.length()) {
+                raf.setLength(size);
+            }
+            FileChannel channel = raf.getChannel();
+            return channel.map(size == 0 ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0,
+                    channel.size());
+        }
+    }
+
+    // The body length of the whole record at the position, or -1 if there isn't one there.
+    static int recordAt(ByteBuffer segment, int position, CRC32 crc) {
+        if (position > segment.limit() - HEADER) {
+            return -1;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || length > segment.limit() - position - HEADER) {
+            return -1;
+        }
+        ByteBuffer body = segment.duplicate();
+        body.limit(position + HEADER + length);
+        body.position(position + HEADER);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == segment.getInt(position + 4) ? length : -1;
+    }
+
+    private static int sizeOf(byte[] field) {
+        return 4 + (field == null ? 0 : field.length);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
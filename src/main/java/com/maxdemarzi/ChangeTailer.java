@@ -0,0 +1,152 @@
+package com.maxdemarzi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * Reads a change log in order from a given sequence on. Tailing a graph's open log, next waits for changes that
+ * haven't been made yet and is woken by the writer rather than polling for them; reading a log directory on its own,
+ * like a backup, ends at the last whole record. A tailer maps the segments itself and decodes properties with the
+ * schemas the log carries, so it needs nothing from the graph that wrote them. One tailer is for one thread.
+ */
+public class ChangeTailer implements AutoCloseable {
+
+    private static final GraphChange.Kind[] KINDS = GraphChange.Kind.values();
+
+    private final File directory;
+    // Null when reading a directory on its own.
+    private final ChangeLog log;
+    private final PropertyCodec codec = new PropertyCodec();
+    private final CRC32 crc = new CRC32();
+    private long sequence;
+    private ByteBuffer segment;
+    private long segmentStart = -1;
+    private int position;
+
+    ChangeTailer(File directory, ChangeLog log, long from) throws IOException {
+        this.directory = directory;
+        this.log = log;
+        this.sequence = from;
+        List<File> segments = ChangeLog.segments(directory);
+        if (!segments.isEmpty() && from < ChangeLog.firstSequence(segments.get(0))) {
+            throw new IllegalArgumentException("Changes before " + ChangeLog.firstSequence(segments.get(0))
+                    + " are no longer in " + directory + ", so it can't be read from " + from);
+        }
+        // Start with the last segment that begins at or before the sequence asked for.
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (ChangeLog.firstSequence(segments.get(i)) <= from) {
+                open(segments.get(i));
+                break;
+            }
+        }
+    }
+
+    // The sequence of the next change this will hand out.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // The next change, or null if there isn't one yet.
+    public GraphChange poll() throws IOException {
+        while (segment != null) {
+            int length = ChangeLog.recordAt(segment, position, crc);
+            if (length < 0) {
+                if (!advance()) {
+                    return null;
+                }
+                continue;
+            }
+            ByteBuffer in = segment.duplicate();
+            in.position(position + ChangeLog.HEADER);
+            position += ChangeLog.HEADER + length;
+            byte kind = in.get();
+            long recordSequence = in.getLong();
+            if (kind == ChangeLog.SCHEMA) {
+                int id = in.getInt();
+                codec.define(id, new String(bytes(in), StandardCharsets.UTF_8));
+            } else if (recordSequence >= sequence) {
+                sequence = recordSequence + 1;
+                return decode(recordSequence, KINDS[kind], in);
+            }
+        }
+        return null;
+    }
+
+    // Waits up to the timeout for the next change when tailing an open log, and returns null if none came or the log
+    // was closed. Reading a directory on its own it is the same as poll.
+    public GraphChange next(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            GraphChange change = poll();
+            if (change != null || log == null) {
+                return change;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !log.await(sequence, remaining)) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+    }
+
+    // Moves on to the segment after this one, if the log has started it.
+    private boolean advance() throws IOException {
+        if (log != null && log.segmentStart() <= segmentStart) {
+            return false;
+        }
+        for (File file : ChangeLog.segments(directory)) {
+            if (ChangeLog.firstSequence(file) > segmentStart) {
+                open(file);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void open(File file) throws IOException {
+        segment = ChangeLog.map(file, 0);
+        segmentStart = ChangeLog.firstSequence(file);
+        position = 0;
+    }
+
+    private GraphChange decode(long sequence, GraphChange.Kind kind, ByteBuffer in) {
+        String first = string(in);
+        String second = string(in);
+        String third = string(in);
+        byte[] encoded = bytes(in);
+        Object properties = encoded == null ? null : codec.decode(encoded);
+        if (kind == GraphChange.Kind.ADD_NODE) {
+            String[] labels = second == null ? null
+                    : second.isEmpty() ? new String[0] : second.split(ChangeLog.LABEL_SEPARATOR, -1);
+            return new GraphChange(sequence, kind, first, labels, null, null, null, properties);
+        }
+        if (kind == GraphChange.Kind.REMOVE_NODE) {
+            return new GraphChange(sequence, kind, first, null, null, null, null, properties);
+        }
+        return new GraphChange(sequence, kind, null, null, first, second, third, properties);
+    }
+
+    private static String string(ByteBuffer in) {
+        byte[] bytes = bytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -1,36 +1,91 @@
 package com.maxdemarzi;
 
-import net.openhft.chronicle.hash.serialization.SetMarshaller;
-import net.openhft.chronicle.hash.serialization.impl.CharSequenceBytesWriter;
-import net.openhft.chronicle.hash.serialization.impl.StringBytesReader;
+import com.maxdemarzi.GraphMetrics.Operation;
+
 import net.openhft.chronicle.map.ChronicleMap;
-import net.openhft.chronicle.map.ExternalMapQueryContext;
-import net.openhft.chronicle.map.MapAbsentEntry;
-import net.openhft.chronicle.map.MapEntry;
+import org.roaringbitmap.RoaringBitmap;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
 
 public class ChronicleGraph {
 
-    Integer DEFAULT_MAXIMUM_RELATIONSHIPS = 10_000_000;
+    // Types created on the fly start this small and are grown as they fill up.
+    Integer DEFAULT_MAXIMUM_RELATIONSHIPS = 65_536;
     Integer DEFAULT_OUTGOING = 100;
     Integer DEFAULT_INCOMING = 100;
+    Integer defaultMaximum;
+    // Below this many neighbours removeNode clears the other side of each edge on the calling thread.
+    static final int PARALLEL_UNLINK_THRESHOLD = 1000;
+    static final int DEFAULT_SYNC_CHANGES = 1000;
+    static final long DEFAULT_SYNC_MILLIS = 100;
+    // Where a snapshot's changes start, kept in its directory for replayChanges.
+    private static final String CHANGES_FROM = "changes-from";
 
-    private static ChronicleMap<String, Object> nodes;
-    private static ChronicleMap<String, Object> relationships;
-    private static HashMap<String, ChronicleMap<String, Set<String>>> related = new HashMap<>();
+    private final PropertyCodec codec;
+    private final PropertyStore<String> nodes;
+    private final PropertyStore<byte[]> relationships;
+    private final RelationshipTypeRegistry related;
+    private final NodeTypeMemberships memberships;
+    private final LabelIndex labels;
+    private final PropertyIndexRegistry indexes;
+    private final NodeDictionary dictionary;
+    private final GraphDirectory directory;
+    private final int maxNodes;
+    private final int maxRelationships;
+    private final StorageMode mode;
+    private final EdgeLocks edgeLocks = new EdgeLocks();
+    // Held by every node write, and by index builds re-reading a node, so the maps, labels, indexes and change log all
+    // see a node's changes in the same order.
+    private final EdgeLocks nodeLocks = new EdgeLocks();
+    private final GraphMetrics metrics = new GraphMetrics();
+    private ObjectName mbeanName;
+    // Off until setCacheSize turns them on.
+    private volatile ReadCache<Map.Entry<String, String>, Set<String>> neighbourCache;
+    private volatile ReadCache<String, Object> nodeCache;
+    private volatile ChangeLog changes;
 
     public ChronicleGraph(Integer maxNodes, Integer maxRelationships) {
+        this(maxNodes, maxRelationships, StorageMode.SETS);
+    }
+
+    public ChronicleGraph(Integer maxNodes, Integer maxRelationships, StorageMode mode) {
+        this(GraphDirectory.inMemory(), maxNodes, maxRelationships, mode);
+    }
+
+    public ChronicleGraph(File dataDirectory, Integer maxNodes, Integer maxRelationships) throws IOException {
+        this(dataDirectory, maxNodes, maxRelationships, StorageMode.SETS);
+    }
+
+    public ChronicleGraph(File dataDirectory, Integer maxNodes, Integer maxRelationships, StorageMode mode) throws IOException {
+        this(new GraphDirectory(dataDirectory), maxNodes, maxRelationships, mode);
+    }
+
+    private ChronicleGraph(GraphDirectory graphDirectory, Integer maxNodes, Integer maxRelationships, StorageMode mode) {
+        directory = graphDirectory;
+        this.maxNodes = maxNodes;
+        this.maxRelationships = maxRelationships;
+        this.mode = mode;
+        dictionary = new NodeDictionary(directory, maxNodes);
+        // An adjacency map holds at most one entry per node, so there is no point sizing it past the node count.
+        defaultMaximum = Math.min(DEFAULT_MAXIMUM_RELATIONSHIPS, maxNodes);
+
         HashMap<String, Object> relProperties = new HashMap<>();
         relProperties.put("one", 10000);
 
-        relationships = ChronicleMap
-                .of(String.class, Object.class)
-                .name("relationships")
-                .entries(maxRelationships)
-                .averageValue(relProperties)
-                .averageKey("100000-100000-TYPE")
-                .create();
+        codec = new PropertyCodec(directory);
+        relationships = new PropertyStore<>(directory, "edge-properties", ChronicleMap
+                .of(byte[].class, byte[].class)
+                .constantKeySizeBySample(new byte[EdgeKey.SIZE]), maxRelationships, relProperties, codec,
+                metrics.bytes("relationships"));
 
         HashMap<String, Object> nodeProperties = new HashMap<>();
         nodeProperties.put("one", 10000);
@@ -38,215 +93,1190 @@ public class ChronicleGraph {
         nodeProperties.put("three", "email@yahoo.com");
         nodeProperties.put("four", 50.55D);
 
-        nodes = ChronicleMap
-                .of(String.class, Object.class)
-                .name("nodes")
-                .entries(maxNodes)
-                .averageKey("uno-dos-tres-cuatro")
-                .averageValue(nodeProperties)
-                .create();
+        nodes = new PropertyStore<>(directory, "nodes", ChronicleMap
+                .of(String.class, byte[].class)
+                .averageKey("uno-dos-tres-cuatro"), maxNodes, nodeProperties, codec, metrics.bytes("nodes"));
+
+        related = new RelationshipTypeRegistry(directory, mode, dictionary, metrics);
+        metrics.watch(related);
+        boolean membershipsMissing = !directory.exists("node-types");
+        memberships = new NodeTypeMemberships(directory, maxNodes);
+        if (membershipsMissing && !related.getRelationshipTypes().isEmpty()) {
+            backfillMemberships();
+        }
+        indexes = new PropertyIndexRegistry(directory, dictionary, maxNodes);
+        labels = new LabelIndex(directory, dictionary, maxNodes);
+        if (directory.exists("relationships")) {
+            migrateRelationshipProperties(relProperties);
+        }
+    }
+
+    // Graphs written before nodes recorded their types have edges the memberships don't know about, and removeNode
+    // only visits the types a node is recorded under, so fill them in from the sources of every type's maps.
+    private void backfillMemberships() {
+        for (String type : related.getRelationshipTypes()) {
+            int typeId = related.typeId(type);
+            related.outgoing(type).forEachSource(node ->
+                    memberships.add(node, NodeTypeMemberships.slot(typeId, NodeTypeMemberships.OUTGOING)));
+            related.incoming(type).forEachSource(node ->
+                    memberships.add(node, NodeTypeMemberships.slot(typeId, NodeTypeMemberships.INCOMING)));
+        }
+    }
+
+    // Graphs written before edge keys went binary kept relationship properties under "from-toTYPE" strings, which
+    // can't be split apart again. Walking every edge finds them instead, and the old map goes once they are moved.
+    private void migrateRelationshipProperties(Object averageValue) {
+        PropertyStore<String> strings = new PropertyStore<>(directory, "relationships", ChronicleMap
+                .of(String.class, byte[].class)
+                .averageKey("100000-100000-TYPE"), maxRelationships, averageValue, codec, GraphMetrics.UNCOUNTED);
+        for (String type : related.getRelationshipTypes()) {
+            AdjacencyStore outgoing = related.outgoing(type);
+            List<String> sources = new ArrayList<>(outgoing.size());
+            outgoing.forEachSource(sources::add);
+            for (String from : sources) {
+                Set<String> targets = outgoing.get(from);
+                for (String to : targets == null ? Collections.<String>emptySet() : targets) {
+                    Object properties = strings.get(from + "-" + to + type);
+                    if (properties != null) {
+                        relationships.put(EdgeKey.of(related.typeId(type), dictionary.getOrCreate(from),
+                                dictionary.getOrCreate(to)), properties);
+                    }
+                }
+            }
+        }
+        strings.close();
+        directory.delete("relationships");
+    }
+
+    public void close() throws IOException {
+        unregisterMBean();
+        ChangeLog log = changes;
+        if (log != null) {
+            log.close();
+        }
+        related.close();
+        memberships.close();
+        labels.close();
+        indexes.close();
+        nodes.close();
+        relationships.close();
+        codec.close();
+        dictionary.close();
+        directory.markCleanShutdown();
     }
 
 
     public void addRelationshipType(String type, Integer maximum, Integer average_outgoing, Integer average_incoming) {
-        HashSet<String> avgOutgoingValue = new HashSet<>();
-        for (int i = 0; i < average_outgoing; i++) {
-            avgOutgoingValue.add("some key" + i);
-        }
-
-        HashSet<String> avgIncomingValue = new HashSet<>();
-        for (int i = 0; i < average_incoming; i++) {
-            avgIncomingValue.add("some key" + i);
-        }
-
-        SetMarshaller<String> cmValueMashaller = SetMarshaller
-                .of(new StringBytesReader(), CharSequenceBytesWriter.INSTANCE);
-        ChronicleMap<String, Set<String>> cmOut = ChronicleMap
-                .of(String.class, (Class<Set<String>>) (Class) Set.class)
-                .name(type+ "-out")
-                .entries(maximum)
-                .averageValue(avgOutgoingValue)
-                .averageKey("one key - another key")
-                .valueMarshaller(cmValueMashaller)
-                .create();
-        ChronicleMap<String, Set<String>> cmIn = ChronicleMap
-                .of(String.class, (Class<Set<String>>) (Class) Set.class)
-                .name(type+ "-in")
-                .entries(maximum)
-                .averageValue(avgIncomingValue)
-                .averageKey("one key - another key")
-                .valueMarshaller(cmValueMashaller)
-                .create();
-
-        related.put(type + "-out", cmOut);
-        related.put(type + "-in", cmIn);
+        related.addRelationshipType(type, maximum, average_outgoing, average_incoming);
+    }
+
+    /*
+     * Relationships of this type keep properties shaped like the sample, numbers and booleans only, inline with their
+     * source node rather than under a key of their own, so getOutgoingRelationshipProperties is a single read. Every
+     * relationship of the type added with properties has to have exactly those. Declare it before the first one.
+     */
+    public void addRelationshipType(String type, Integer maximum, Integer average_outgoing, Integer average_incoming,
+                                    Map<String, Object> inlineProperties) {
+        PropertySchema schema = InlineEdgeStore.schemaOf(inlineProperties);
+        if (schema == null) {
+            throw new IllegalArgumentException("Only numbers and booleans can be kept inline, not " + inlineProperties);
+        }
+        related.addRelationshipType(type, maximum, average_outgoing, average_incoming, schema);
+    }
+
+    public Set<String> getRelationshipTypes() {
+        return related.getRelationshipTypes();
+    }
+
+    // What the graph has taken off the heap: the memory of every map it has open, from nodes and relationships to the
+    // dictionary, labels, indexes and inline properties, including space set aside for entries still to come.
+    public long getOffHeapBytesUsed() {
+        return directory.offHeapMemoryUsed();
     }
 
     public HashMap<String, Object> getRelationshipTypeAttributes(String type) {
         HashMap<String, Object> attributes = new HashMap<>();
-        ChronicleMap relationshipTypeOut = related.get(type+"-out");
-        ChronicleMap relationshipTypeIn = related.get(type+"-in");
+        AdjacencyStore relationshipTypeOut = related.get(type+"-out");
+        AdjacencyStore relationshipTypeIn = related.get(type+"-in");
 
         attributes.put(relationshipTypeOut.name(), relationshipTypeOut.size());
         attributes.put(relationshipTypeIn.name(), relationshipTypeIn.size());
+        attributes.put(type + "-edges", relationshipTypeOut.edgeCount());
+        int[] sizing = related.sizing(type);
+        attributes.put(type + "-maximum", sizing[0]);
+        attributes.put(type + "-average-outgoing", sizing[1]);
+        attributes.put(type + "-average-incoming", sizing[2]);
+        attributes.put(relationshipTypeOut.name() + "-memory", relationshipTypeOut.offHeapMemoryUsed());
+        attributes.put(relationshipTypeIn.name() + "-memory", relationshipTypeIn.offHeapMemoryUsed());
 
         return attributes;
     }
 
+    /*
+     * Keeps up to the given number of bytes of decoded neighbour lists and node properties on the heap, in front of the
+     * off-heap maps, for skewed reads where a few nodes get most of the traffic. getOutgoingRelationshipNodeIds,
+     * getIncomingRelationshipNodeIds and getNode go through them and return read only values while they are on.
+     * Zero turns a cache off; changing a size starts that cache over empty.
+     */
+    public void setCacheSize(long neighbourBytes, long nodeBytes) {
+        neighbourCache = neighbourBytes > 0 ? new ReadCache<>(neighbourBytes, set -> ((CompactKeySet) set).weight()) : null;
+        nodeCache = nodeBytes > 0 ? new ReadCache<>(nodeBytes, ReadCache::estimate) : null;
+        metrics.watch("neighbours", neighbourCache);
+        metrics.watch("nodes", nodeCache);
+    }
+
+    public GraphMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Publishes the metrics on the platform MBean server as com.maxdemarzi:type=ChronicleGraph,name=<name> until the
+    // graph is closed. The name has to be a valid ObjectName value.
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName("com.maxdemarzi:type=ChronicleGraph,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mbeanName = objectName;
+        return objectName;
+    }
+
+    private synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            // Someone else already took it down.
+        }
+        mbeanName = null;
+    }
+
     public boolean addNode (String key) {
         return addNode(key,"");
     }
 
     public boolean addNode (String key, Object properties) {
-        nodes.put(key, properties);
-        return true;
+        return putNode(key, properties, null);
+    }
+
+    // Gives the node exactly these labels along with the properties. Adding a node without any leaves its labels be.
+    public boolean addNode (String key, Object properties, String... labels) {
+        return putNode(key, properties, labels);
+    }
+
+    private boolean putNode(String key, Object properties, String[] nodeLabels) {
+        long start = metrics.start();
+        try {
+            ChangeLog log = changes;
+            byte[] encoded = log == null ? null : codec.encode(properties);
+            // Held whether or not there is a log, so the index and labels always end up matching the last write.
+            synchronized (nodeLocks.lockFor(key)) {
+                Object previous = log == null ? nodes.put(key, properties) : nodes.putEncoded(key, encoded);
+                if (nodeLabels != null) {
+                    labels.set(key, nodeLabels);
+                }
+                indexes.update(key, previous, properties);
+                if (log != null) {
+                    log.addNode(key, nodeLabels, encoded);
+                }
+            }
+            invalidateNode(key);
+            return true;
+        } finally {
+            metrics.record(Operation.ADD_NODE, start);
+        }
+    }
+
+    public Set<String> getNodeLabels(String key) {
+        return labels.labelsOf(key);
+    }
+
+    // The labels at least one node has.
+    public Set<String> getLabels() {
+        return labels.labels();
+    }
+
+    // Read from the label's bitmap, not by scanning the nodes.
+    public Set<String> getNodesByLabel(String label) {
+        return labels.toKeys(labels.nodes(label));
+    }
+
+    public int getLabelCount(String label) {
+        return labels.count(label);
     }
 
     public Object getNode(String id) {
-        if (nodes.containsKey(id)) {
+        long start = metrics.start();
+        try {
+            Object node = getProperties(id);
+            if (node != null) {
+                return node;
+            } else {
+                return new HashMap<>();
+            }
+        } finally {
+            metrics.record(Operation.GET_NODE, start);
+        }
+    }
+
+    private Object getProperties(String id) {
+        ReadCache<String, Object> cache = nodeCache;
+        if (cache == null) {
             return nodes.get(id);
-        } else {
-            return new HashMap<>();
         }
+        return cache.get(id, key -> readOnly(nodes.get(key)));
+    }
+
+    private static Object readOnly(Object properties) {
+        if (properties instanceof Map) {
+            return Collections.unmodifiableMap((Map<?, ?>) properties);
+        }
+        if (properties instanceof List) {
+            return Collections.unmodifiableList((List<?>) properties);
+        }
+        return properties;
+    }
+
+    private void invalidateNode(String id) {
+        ReadCache<String, Object> cache = nodeCache;
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    // Keyed by map name, so the same node's outgoing and incoming lists are cached apart.
+    private Set<String> getNeighbours(String name, String node) {
+        ReadCache<Map.Entry<String, String>, Set<String>> cache = neighbourCache;
+        if (cache == null) {
+            return related.get(name).get(node);
+        }
+        return cache.get(new AbstractMap.SimpleImmutableEntry<>(name, node), key -> {
+            Set<String> neighbours = related.get(name).get(node);
+            return neighbours == null ? null : CompactKeySet.of(neighbours);
+        });
+    }
+
+    private void invalidateNeighbours(String name, String node) {
+        ReadCache<Map.Entry<String, String>, Set<String>> cache = neighbourCache;
+        if (cache != null) {
+            cache.invalidate(new AbstractMap.SimpleImmutableEntry<>(name, node));
+        }
+    }
+
+    private void invalidateEdge(String type, String from, String to) {
+        invalidateNeighbours(type + "-out", from);
+        invalidateNeighbours(type + "-in", to);
+    }
+
+    // Reads just the one property without decoding the rest of the node.
+    public Object getNodeProperty(String id, String property) {
+        return nodes.getProperty(id, property);
+    }
+
+    public boolean createIndex(String property) {
+        return indexes.create(property, nodes, nodeLocks);
+    }
+
+    public Set<String> getIndexedProperties() {
+        return indexes.getIndexedProperties();
     }
 
+    // Properties without an index still work, they just scan every node.
+    public Set<String> findNodes(String property, Object value) {
+        if (indexes.contains(property)) {
+            return indexes.find(property, value);
+        }
+        Set<String> results = new HashSet<>();
+        nodes.forEach((key, properties) -> {
+            if (properties instanceof Map && PropertyIndex.sameValue(value, ((Map) properties).get(property))) {
+                results.add(key);
+            }
+        });
+        return results;
+    }
+
+    public Set<String> findNodesInRange(String property, Object low, Object high) {
+        if (indexes.contains(property)) {
+            return indexes.findInRange(property, low, high);
+        }
+        Set<String> results = new HashSet<>();
+        nodes.forEach((key, properties) -> {
+            if (properties instanceof Map && PropertyIndex.inRange(((Map) properties).get(property), low, high)) {
+                results.add(key);
+            }
+        });
+        return results;
+    }
+
+    // Only visits the types the node has taken part in, rather than probing every type in both directions.
     public boolean removeNode(String id) {
-        nodes.remove(id);
-
-        for (Map.Entry<String, ChronicleMap<String, Set<String>>> entry : related.entrySet()) {
-            ChronicleMap<String, Set<String>> cm = entry.getValue();
-            if (entry.getKey().endsWith("-out")) {
-                if(cm.containsKey(id)) {
-                    ChronicleMap<String, Set<String>> reversecm = related.get(entry.getKey().replace("-out", "-in"));
-                    for (String other : cm.get(id)) {
-                        removeEdge(reversecm, other, id);
-                        relationships.remove(id + "-" + other + entry.getKey().replace("-out",""));
-                    }
-                    cm.remove(id);
+        long start = metrics.start();
+        try {
+            ChangeLog log = changes;
+            synchronized (nodeLocks.lockFor(id)) {
+                removeNodeAndRelationships(id);
+                if (log != null) {
+                    log.removeNode(id);
                 }
-            } else {
-                if(cm.containsKey(id)) {
-                    ChronicleMap<String, Set<String>> reversecm = related.get(entry.getKey().replace("-in", "-out"));
-                    for (String other : cm.get(id)) {
-                        removeEdge(reversecm, other, id);
-                        relationships.remove(other + "-" + id + entry.getKey().replace("-in",""));
-                    }
-                    cm.remove(id);
+                return true;
+            }
+        } finally {
+            metrics.record(Operation.REMOVE_NODE, start);
+        }
+    }
+
+    private boolean removeNodeAndRelationships(String id) {
+        Object previous = nodes.remove(id);
+        invalidateNode(id);
+        indexes.update(id, previous, null);
+        labels.remove(id);
+
+        IntList slots = memberships.remove(id);
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = slots.get(i);
+            String type = related.typeName(slot >>> 1);
+            boolean outgoing = (slot & 1) == NodeTypeMemberships.OUTGOING;
+            Set<String> others;
+            Lock lock = related.writeLock(type);
+            lock.lock();
+            try {
+                others = (outgoing ? related.outgoing(type) : related.incoming(type)).remove(id);
+                InlineEdgeStore inline = related.inline(type);
+                if (outgoing && inline != null) {
+                    inline.remove(id);
                 }
+            } finally {
+                lock.unlock();
+            }
+            invalidateNeighbours(type + (outgoing ? "-out" : "-in"), id);
+            if (others != null) {
+                unlink(type, id, others, outgoing);
             }
         }
         return true;
     }
 
+    // Clears the other side of every edge the node had of one type, spreading big neighbour sets across the pool.
+    private void unlink(String type, String id, Set<String> others, boolean outgoing) {
+        int typeId = related.typeId(type);
+        // Without an id the node can't have had any relationship properties.
+        int nodeId = dictionary.get(id);
+        Consumer<String> unlinkOne = other -> {
+            String from = outgoing ? id : other;
+            String to = outgoing ? other : id;
+            synchronized (edgeLocks.lockFor(type, from, to)) {
+                Lock lock = related.writeLock(type);
+                lock.lock();
+                InlineEdgeStore inline;
+                try {
+                    (outgoing ? related.incoming(type) : related.outgoing(type)).remove(other, id);
+                    inline = related.inline(type);
+                    if (inline != null && !outgoing && nodeId >= 0) {
+                        inline.remove(other, nodeId);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                invalidateNeighbours(type + (outgoing ? "-in" : "-out"), other);
+                int otherId = inline == null && nodeId >= 0 ? dictionary.get(other) : -1;
+                if (otherId >= 0) {
+                    relationships.delete(outgoing ? EdgeKey.of(typeId, nodeId, otherId) : EdgeKey.of(typeId, otherId, nodeId));
+                }
+            }
+        };
+        if (others.size() < PARALLEL_UNLINK_THRESHOLD) {
+            others.forEach(unlinkOne);
+        } else {
+            others.parallelStream().forEach(unlinkOne);
+        }
+    }
+
     public boolean addRelationship (String type, String from, String to) {
-        if(!related.containsKey(type+"-out")) {
-            addRelationshipType(type, DEFAULT_MAXIMUM_RELATIONSHIPS, DEFAULT_OUTGOING, DEFAULT_INCOMING);
+        long start = metrics.start();
+        try {
+            if(!related.containsKey(type+"-out")) {
+                addRelationshipType(type, defaultMaximum, DEFAULT_OUTGOING, DEFAULT_INCOMING);
+            }
+            synchronized (edgeLocks.lockFor(type, from, to)) {
+                boolean linked;
+                try {
+                    linked = linkOrGrow(type, from, to, -1, null);
+                } finally {
+                    invalidateEdge(type, from, to);
+                }
+                ChangeLog log = changes;
+                if (linked && log != null) {
+                    log.addRelationship(type, from, to, null);
+                }
+                return linked;
+            }
+        } finally {
+            metrics.record(Operation.ADD_RELATIONSHIP, start);
+        }
+    }
+
+    public boolean addRelationship (String type, String from, String to, Object properties) {
+        long start = metrics.start();
+        try {
+            if(!related.containsKey(type+"-out")) {
+                addRelationshipType(type, defaultMaximum, DEFAULT_OUTGOING, DEFAULT_INCOMING);
+            }
+            // Inline properties are checked before anything is written, and go in with the edge itself.
+            InlineEdgeStore inline = related.inline(type);
+            byte[] values = inline == null ? null : inline.encode(properties);
+            int toId = inline == null ? -1 : dictionary.getOrCreate(to);
+            synchronized (edgeLocks.lockFor(type, from, to)) {
+                boolean linked;
+                try {
+                    linked = linkOrGrow(type, from, to, toId, values);
+                } finally {
+                    invalidateEdge(type, from, to);
+                }
+                if (!linked) {
+                    return false;
+                }
+                ChangeLog log = changes;
+                byte[] encoded = log == null && values != null ? null : codec.encode(properties);
+                if (values == null) {
+                    relationships.putEncoded(EdgeKey.of(related.typeId(type), dictionary.getOrCreate(from),
+                            dictionary.getOrCreate(to)), encoded);
+                }
+                if (log != null) {
+                    log.addRelationship(type, from, to, encoded);
+                }
+                return true;
+            }
+        } finally {
+            metrics.record(Operation.ADD_RELATIONSHIP, start);
+        }
+    }
+
+    // Callers hold the edge's stripe. Locks come in the order stripe, then type, and a resize only ever takes the type
+    // lock, so growing the type from in here can't deadlock. Linking an edge twice is harmless, which makes retrying
+    // after a resize safe.
+    private boolean linkOrGrow(String type, String from, String to, int toId, byte[] values) {
+        for (int attempt = 1; ; attempt++) {
+            RuntimeException failure;
+            Lock lock = related.writeLock(type);
+            lock.lock();
+            int generation = related.generation(type);
+            try {
+                if (!link(type, from, to, toId, values)) {
+                    return false;
+                }
+                related.wrote(type);
+                return true;
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                failure = e;
+            } finally {
+                lock.unlock();
+            }
+            if (!related.grow(type, generation, failure, attempt)) {
+                related.failed(type, 1);
+                return false;
+            }
         }
-        addEdge(related.get(type + "-out"), from, to);
-        addEdge(related.get(type + "-in"), to, from);
+    }
 
+    // Callers hold the edge's stripe, so both halves are in the state the last writer left them. If the incoming half
+    // or the inline properties can't be written the edge was new, which makes undoing what was written safe.
+    private boolean link(String type, String from, String to, int toId, byte[] values) {
+        AdjacencyStore out = related.outgoing(type);
+        if (!out.add(from, to)) {
+            return false;
+        }
+        try {
+            AdjacencyStore in = related.incoming(type);
+            if (!in.add(to, from)) {
+                out.remove(from, to);
+                return false;
+            }
+            if (values != null) {
+                try {
+                    related.inline(type).put(from, toId, values);
+                } catch (RuntimeException e) {
+                    in.remove(to, from);
+                    throw e;
+                }
+            }
+        } catch (RuntimeException e) {
+            out.remove(from, to);
+            throw e;
+        }
+        int typeId = related.typeId(type);
+        memberships.add(from, NodeTypeMemberships.slot(typeId, NodeTypeMemberships.OUTGOING));
+        memberships.add(to, NodeTypeMemberships.slot(typeId, NodeTypeMemberships.INCOMING));
         return true;
     }
 
-    public boolean addRelationship (String type, String from, String to, Object properties) {
+    // Bulk loads skip invalidating key by key and drop the whole cache once they are done.
+    public long importNodes(Iterator<Map.Entry<String, Object>> entries) {
+        try {
+            return BulkLoader.importNodes(nodes, indexes, nodeLocks, changes, codec, entries);
+        } finally {
+            ReadCache<String, Object> cache = nodeCache;
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    // Returns how many of the relationships are new, so repeats and ones already in the graph aren't counted.
+    public long importRelationships(String type, Iterator<String[]> relationships) {
         if(!related.containsKey(type+"-out")) {
-            addRelationshipType(type, DEFAULT_MAXIMUM_RELATIONSHIPS, DEFAULT_OUTGOING, DEFAULT_INCOMING);
+            addRelationshipType(type, defaultMaximum, DEFAULT_OUTGOING, DEFAULT_INCOMING);
+        }
+        try {
+            return BulkLoader.importRelationships(related, type, memberships, edgeLocks, changes, relationships);
+        } finally {
+            ReadCache<Map.Entry<String, String>, Set<String>> cache = neighbourCache;
+            if (cache != null) {
+                cache.clear();
+            }
         }
-        relationships.put(from + "-" + to + type, properties);
-        addEdge(related.get(type+"-out"), from, to);
-        addEdge(related.get(type+"-in"), to, from);
-        return true;
+    }
+
+    public void openChangeLog(File directory) throws IOException {
+        openChangeLog(directory, DEFAULT_SYNC_CHANGES, DEFAULT_SYNC_MILLIS);
+    }
+
+    /*
+     * Starts recording every change to an append-only log in the directory, carrying on after what is already there.
+     * A change is in the log, and safe from the process dying, by the time the call that made it returns. Forcing it
+     * to disk so it is safe from the machine going down too is done once every syncEveryChanges or syncEveryMillis,
+     * whichever comes first; zero turns either off, and with both off it is left to the operating system. Open it
+     * before writing, as changes made while it opens may not be in it.
+     */
+    public void openChangeLog(File directory, int syncEveryChanges, long syncEveryMillis) throws IOException {
+        openChangeLog(directory, syncEveryChanges, syncEveryMillis, ChangeLog.SEGMENT_BYTES);
+    }
+
+    synchronized void openChangeLog(File directory, int syncEveryChanges, long syncEveryMillis, int segmentBytes)
+            throws IOException {
+        if (changes != null) {
+            throw new IllegalStateException("A change log is already open in " + changes.directory());
+        }
+        changes = new ChangeLog(directory, codec, syncEveryChanges, syncEveryMillis, segmentBytes);
+    }
+
+    // The sequence the next change will get, or 0 without a change log.
+    public long getChangeLogSequence() {
+        ChangeLog log = changes;
+        return log == null ? 0 : log.next();
+    }
+
+    // Forces every change made so far to disk, whatever the batching.
+    public void syncChangeLog() {
+        changeLog().sync();
+    }
+
+    // For keeping caches and search indexes up to date: next blocks until the next change is made.
+    public ChangeTailer tailChanges(long fromSequence) throws IOException {
+        ChangeLog log = changeLog();
+        return new ChangeTailer(log.directory(), log, fromSequence);
+    }
+
+    // Reads a log no graph has open, like a copy taken for a backup, up to the last whole change in it.
+    public static ChangeTailer readChanges(File directory, long fromSequence) throws IOException {
+        return new ChangeTailer(directory, null, fromSequence);
+    }
+
+    // Once a snapshot has been taken the changes before its sequence aren't needed to recover. Returns the number of
+    // segment files deleted.
+    public int truncateChangeLog(long beforeSequence) throws IOException {
+        return changeLog().truncate(beforeSequence);
+    }
+
+    private ChangeLog changeLog() {
+        ChangeLog log = changes;
+        if (log == null) {
+            throw new IllegalStateException("There is no change log open");
+        }
+        return log;
+    }
+
+    /*
+     * Copies the nodes and their labels, every relationship type and the relationship properties into a new graph in the target
+     * directory while writes carry on, and returns the sequence of the first change the copy may be missing. Each map
+     * is read a segment at a time as writers change it, so the copy is fuzzy, but every change from that sequence on
+     * is in the log and applying them over it, which is idempotent, lands exactly on the graph as of the last one.
+     * Opening the copy and calling replayChanges does that. Resizing a type waits while the type is being copied.
+     */
+    public long snapshot(File target) throws IOException {
+        String[] existing = target.list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalArgumentException("Snapshots go in a new directory, and " + target + " isn't empty");
+        }
+        long from = getChangeLogSequence();
+        ChronicleGraph copy = new ChronicleGraph(target, maxNodes, maxRelationships, mode);
+        try {
+            nodes.forEach((key, properties) -> copy.nodes.put(key, properties));
+            for (String label : labels.labels()) {
+                for (String key : labels.toKeys(labels.nodes(label))) {
+                    copy.labels.add(key, label);
+                }
+            }
+            for (String property : indexes.getIndexedProperties()) {
+                copy.createIndex(property);
+            }
+            for (String type : related.getRelationshipTypes()) {
+                int[] sizing = related.sizing(type);
+                InlineEdgeStore inline = related.inline(type);
+                copy.related.addRelationshipType(type, sizing[0], sizing[1], sizing[2],
+                        inline == null ? null : inline.schema());
+                Lock lock = related.writeLock(type);
+                lock.lock();
+                try {
+                    AdjacencyStore outgoing = related.outgoing(type);
+                    List<String> sources = new ArrayList<>(outgoing.size());
+                    outgoing.forEachSource(sources::add);
+                    copy.importRelationships(type, sources.stream().flatMap(source -> {
+                        Set<String> targets = outgoing.get(source);
+                        return targets == null ? Stream.empty() : targets.stream().map(to -> new String[] {source, to});
+                    }).iterator());
+                    // Node ids are the copy's own, so records and keys are rebuilt with those.
+                    if (related.inline(type) != null) {
+                        InlineEdgeStore copied = copy.related.inline(type);
+                        related.inline(type).forEachEdge((source, id, values) ->
+                                copied.put(source, copy.dictionary.getOrCreate(dictionary.getKey(id)), values));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            relationships.forEach((key, properties) -> copy.relationships.put(EdgeKey.of(
+                    copy.related.typeId(related.typeName(EdgeKey.typeId(key))),
+                    copy.dictionary.getOrCreate(dictionary.getKey(EdgeKey.fromId(key))),
+                    copy.dictionary.getOrCreate(dictionary.getKey(EdgeKey.toId(key)))), properties));
+            copy.directory.writeMarker(CHANGES_FROM, Long.toString(from));
+        } finally {
+            copy.close();
+        }
+        return from;
+    }
+
+    /*
+     * Applies the changes in a log directory that this graph doesn't have yet: from where the snapshot it was opened
+     * on starts, or from where the last replay got to, or from the beginning. Returns the sequence after the last
+     * change applied, which is also where the next replay will start.
+     */
+    public long replayChanges(File logDirectory) throws IOException {
+        ChangeLog log = changes;
+        if (log != null && log.directory().equals(logDirectory.getCanonicalFile())) {
+            throw new IllegalArgumentException("Can't replay the change log this graph is writing to");
+        }
+        String marker = directory.readMarker(CHANGES_FROM);
+        long next = marker == null ? 0 : Long.parseLong(marker);
+        try (ChangeTailer tailer = readChanges(logDirectory, next)) {
+            for (GraphChange change = tailer.poll(); change != null; change = tailer.poll()) {
+                change.applyTo(this);
+            }
+            next = tailer.getSequence();
+        }
+        directory.writeMarker(CHANGES_FROM, Long.toString(next));
+        return next;
     }
 
     public Object getRelationship(String type, String from, String to) {
-        return relationships.get(from + "-" + to + type);
+        InlineEdgeStore inline = related.inline(type);
+        if (inline != null) {
+            int toId = dictionary.get(to);
+            return toId < 0 ? null : inline.get(from, toId);
+        }
+        byte[] key = edgeKey(type, from, to);
+        return key == null ? null : relationships.get(key);
+    }
+
+    // Null if the type or either node has never been seen, in which case the edge can't have properties either.
+    private byte[] edgeKey(String type, String from, String to) {
+        int typeId = related.typeId(type);
+        int fromId = typeId < 0 ? -1 : dictionary.get(from);
+        int toId = fromId < 0 ? -1 : dictionary.get(to);
+        return toId < 0 ? null : EdgeKey.of(typeId, fromId, toId);
+    }
+
+    /*
+     * The properties of each of the node's outgoing relationships that has any, by neighbour. For a type that keeps
+     * them inline that is the one read of the node's records; otherwise it is a lookup per neighbour.
+     */
+    public Map<String, Object> getOutgoingRelationshipProperties(String type, String from) {
+        AdjacencyStore store = related.outgoing(type);
+        Map<String, Object> properties = new HashMap<>();
+        if (store == null) {
+            return properties;
+        }
+        long start = metrics.start();
+        try {
+            InlineEdgeStore inline = related.inline(type);
+            if (inline != null) {
+                inline.forEach(from, (values, target) -> properties.put(dictionary.getKey(target), values));
+                return properties;
+            }
+            int typeId = related.typeId(type);
+            int fromId = dictionary.get(from);
+            if (fromId < 0) {
+                return properties;
+            }
+            for (String to : neighbourKeys(type + "-out", store, from)) {
+                int toId = dictionary.get(to);
+                Object values = toId < 0 ? null : relationships.get(EdgeKey.of(typeId, fromId, toId));
+                if (values != null) {
+                    properties.put(to, values);
+                }
+            }
+            return properties;
+        } finally {
+            metrics.record(Operation.GET_OUTGOING, start);
+        }
+    }
+
+    public Object getRelationshipProperty(String type, String from, String to, String property) {
+        InlineEdgeStore inline = related.inline(type);
+        if (inline != null) {
+            int toId = dictionary.get(to);
+            return toId < 0 ? null : inline.getProperty(from, toId, property);
+        }
+        byte[] key = edgeKey(type, from, to);
+        return key == null ? null : relationships.getProperty(key, property);
     }
 
     public boolean removeRelationship (String type, String from, String to) {
         if(!related.containsKey(type+"-out")) {
             return false;
         }
-        removeEdge(related.get(type+"-out"), from, to);
-        removeEdge(related.get(type+"-in"), to, from);
-        relationships.remove(from + "-" + to + type);
-        return true;
+        long start = metrics.start();
+        try {
+            synchronized (edgeLocks.lockFor(type, from, to)) {
+                Lock lock = related.writeLock(type);
+                lock.lock();
+                InlineEdgeStore inline;
+                try {
+                    related.get(type+"-out").remove(from, to);
+                    related.get(type+"-in").remove(to, from);
+                    inline = related.inline(type);
+                    int toId = inline == null ? -1 : dictionary.get(to);
+                    if (toId >= 0) {
+                        inline.remove(from, toId);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                invalidateEdge(type, from, to);
+                byte[] key = inline == null ? edgeKey(type, from, to) : null;
+                if (key != null) {
+                    relationships.delete(key);
+                }
+                ChangeLog log = changes;
+                if (log != null) {
+                    log.removeRelationship(type, from, to);
+                }
+            }
+            return true;
+        } finally {
+            metrics.record(Operation.REMOVE_RELATIONSHIP, start);
+        }
+    }
+
+    public boolean hasRelationship(String type, String from, String to) {
+        if(!related.containsKey(type+"-out")) {
+            return false;
+        }
+        return related.get(type+"-out").contains(from, to);
     }
 
     public Set<String> getOutgoingRelationshipNodeIds(String type, String from) {
-        return related.get(type+"-out").get(from);
+        long start = metrics.start();
+        try {
+            return getNeighbours(type+"-out", from);
+        } finally {
+            metrics.record(Operation.GET_OUTGOING, start);
+        }
     }
 
     public Set<String> getIncomingRelationshipNodeIds(String type, String to) {
-        return related.get(type+"-in").get(to);
+        long start = metrics.start();
+        try {
+            return getNeighbours(type+"-in", to);
+        } finally {
+            metrics.record(Operation.GET_INCOMING, start);
+        }
     }
 
-    public Set<Object> getOutgoingRelationshipNodes(String type, String from) {
-        Set<Object> results = new HashSet<>();
-        for (String key : related.get(type+"-out").get(from) ) {
-            HashMap<String, Object> properties = new HashMap<>();
-            properties.put("_id", key);
-            properties.put("properties", nodes.get(key));
-            results.add(properties);
+    // Only the neighbours that have the label, e.g. the :Item nodes a person LIKES. Null if there are none.
+    public Set<String> getOutgoingRelationshipNodeIds(String type, String from, String label) {
+        long start = metrics.start();
+        try {
+            return neighboursWithLabel(related.outgoing(type), from, label);
+        } finally {
+            metrics.record(Operation.GET_OUTGOING, start);
+        }
+    }
+
+    public Set<String> getIncomingRelationshipNodeIds(String type, String to, String label) {
+        long start = metrics.start();
+        try {
+            return neighboursWithLabel(related.incoming(type), to, label);
+        } finally {
+            metrics.record(Operation.GET_INCOMING, start);
+        }
+    }
+
+    private Set<String> neighboursWithLabel(AdjacencyStore store, String node, String label) {
+        if (store == null) {
+            return null;
+        }
+        RoaringBitmap neighbours = new RoaringBitmap();
+        if (store instanceof BitmapAdjacencyStore) {
+            ((BitmapAdjacencyStore) store).forEachId(node, neighbours::add);
+        } else {
+            store.forEach(node, neighbour -> {
+                int id = dictionary.get(neighbour.toString());
+                if (id >= 0) {
+                    neighbours.add(id);
+                }
+            });
+        }
+        RoaringBitmap labelled = labels.filter(label, neighbours);
+        return labelled.isEmpty() ? null : labels.toKeys(labelled);
+    }
+
+    // For nodes with too many neighbours to hold at once: up to limit of them after the cursor, starting from a null one.
+    public NeighbourPage getOutgoingRelationshipNodeIdPage(String type, String from, String cursor, int limit) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourPage.read(related.outgoing(type), from, cursor, limit);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public NeighbourPage getIncomingRelationshipNodeIdPage(String type, String to, String cursor, int limit) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourPage.read(related.incoming(type), to, cursor, limit);
+        } finally {
+            lease.release();
+        }
+    }
+
+    // Lazily paged, so only a page of neighbours is on the heap however far the stream is read.
+    public Stream<String> streamOutgoingRelationshipNodeIds(String type, String from) {
+        return NeighbourPage.stream(related, () -> related.outgoing(type), from);
+    }
+
+    public Stream<String> streamIncomingRelationshipNodeIds(String type, String to) {
+        return NeighbourPage.stream(related, () -> related.incoming(type), to);
+    }
+
+    // Degrees are kept per node as edges come and go, so these never read the neighbours themselves.
+    public int getOutDegree(String type, String from) {
+        AdjacencyStore store = related.outgoing(type);
+        if (store == null) {
+            return 0;
+        }
+        return store.degree(from);
+    }
+
+    public int getInDegree(String type, String to) {
+        AdjacencyStore store = related.incoming(type);
+        if (store == null) {
+            return 0;
+        }
+        return store.degree(to);
+    }
+
+    public DegreeStatistics getOutDegreeStatistics(String type) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return new DegreeStatistics(related.outgoing(type));
+        } finally {
+            lease.release();
+        }
+    }
+
+    public DegreeStatistics getInDegreeStatistics(String type) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return new DegreeStatistics(related.incoming(type));
+        } finally {
+            lease.release();
+        }
+    }
+
+    // The visitors below read neighbours straight out of the off-heap entries without building a Set. They return the
+    // number of neighbours visited.
+    public int forEachOutgoing(String type, String from, NeighbourConsumer consumer) {
+        AdjacencyStore store = related.outgoing(type);
+        if (store == null) {
+            return 0;
+        }
+        long start = metrics.start();
+        try {
+            return store.forEach(from, consumer);
+        } finally {
+            metrics.record(Operation.GET_OUTGOING, start);
+        }
+    }
+
+    public int forEachIncoming(String type, String to, NeighbourConsumer consumer) {
+        AdjacencyStore store = related.incoming(type);
+        if (store == null) {
+            return 0;
+        }
+        long start = metrics.start();
+        try {
+            return store.forEach(to, consumer);
+        } finally {
+            metrics.record(Operation.GET_INCOMING, start);
+        }
+    }
+
+    // Use getNodeKey to turn an id back into a node key. These are meant for BITMAPS storage, which hands over the ids
+    // it keeps. SETS storage keeps keys and only gives a node an id when something needs one, such as a label, an
+    // index or relationship properties, so its neighbours are looked up without writing to the dictionary and those
+    // that have no id are skipped. Returns how many ids were visited.
+    public int forEachOutgoingId(String type, String from, IntConsumer consumer) {
+        AdjacencyStore store = related.outgoing(type);
+        if (store == null) {
+            return 0;
+        }
+        long start = metrics.start();
+        try {
+            return forEachId(store, from, consumer);
+        } finally {
+            metrics.record(Operation.GET_OUTGOING, start);
+        }
+    }
+
+    public int forEachIncomingId(String type, String to, IntConsumer consumer) {
+        AdjacencyStore store = related.incoming(type);
+        if (store == null) {
+            return 0;
+        }
+        long start = metrics.start();
+        try {
+            return forEachId(store, to, consumer);
+        } finally {
+            metrics.record(Operation.GET_INCOMING, start);
+        }
+    }
+
+    private int forEachId(AdjacencyStore store, String node, IntConsumer consumer) {
+        if (store instanceof BitmapAdjacencyStore) {
+            return ((BitmapAdjacencyStore) store).forEachId(node, consumer);
+        }
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            int[] visited = new int[1];
+            store.forEach(node, neighbour -> {
+                int id = dictionary.get(neighbour, buffers);
+                if (id >= 0) {
+                    visited[0]++;
+                    consumer.accept(id);
+                }
+            });
+            return visited[0];
+        } finally {
+            buffers.release();
+        }
+    }
+
+    // Top nodes reached by start -out-> x -in-> y -out-> candidate that start isn't already connected to, with how
+    // many paths reach each one, most first.
+    public List<Map.Entry<String, Integer>> recommend(String type, String start, int limit) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            AdjacencyStore out = related.outgoing(type);
+            if (out == null) {
+                return new ArrayList<>();
+            }
+            return Recommender.recommend(out, related.incoming(type), start, limit, dictionary);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public Traversal traverse(String... start) {
+        return new Traversal(related, dictionary, Arrays.asList(start));
+    }
+
+    // People the node's friends are friends with, leaving out the node itself and the friends it already has.
+    public Set<String> friendsOfFriends(String type, String node) {
+        return traverse(node).out(type).out(type).distinct().keys();
+    }
+
+    // The nodes both a and b have a relationship of the type to, like mutual friends, without building either one's set.
+    public Set<String> commonNeighbours(String type, String a, String b) {
+        return commonNeighbours(type, a, b, Traversal.Direction.OUTGOING);
+    }
+
+    public Set<String> commonNeighbours(String type, String a, String b, Traversal.Direction direction) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourSets.common(stores(type, direction), a, b, dictionary);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public int intersectionSize(String type, String a, String b) {
+        return intersectionSize(type, a, b, Traversal.Direction.OUTGOING);
+    }
+
+    public int intersectionSize(String type, String a, String b, Traversal.Direction direction) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourSets.intersectionSize(stores(type, direction), a, b, dictionary);
+        } finally {
+            lease.release();
+        }
+    }
+
+    // Shared neighbours over all the neighbours either one has, from 0 to 1.
+    public double jaccard(String type, String a, String b) {
+        return jaccard(type, a, b, Traversal.Direction.OUTGOING);
+    }
+
+    public double jaccard(String type, String a, String b, Traversal.Direction direction) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourSets.jaccard(stores(type, direction), a, b, dictionary);
+        } finally {
+            lease.release();
+        }
+    }
+
+    // Triangles treat the type as undirected: a, b and c make one however their relationships point.
+    public long countTriangles(String type) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourSets.triangles(stores(type, Traversal.Direction.BOTH), dictionary);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public long countTriangles(String type, String node) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return NeighbourSets.triangles(stores(type, Traversal.Direction.BOTH), node, dictionary);
+        } finally {
+            lease.release();
         }
-        return results;
+    }
+
+    private AdjacencyStore[] stores(String type, Traversal.Direction direction) {
+        AdjacencyStore out = related.outgoing(type);
+        AdjacencyStore in = related.incoming(type);
+        if (out == null || in == null) {
+            return new AdjacencyStore[0];
+        }
+        switch (direction) {
+            case OUTGOING:
+                return new AdjacencyStore[] {out};
+            case INCOMING:
+                return new AdjacencyStore[] {in};
+            default:
+                return new AdjacencyStore[] {out, in};
+        }
+    }
+
+    public List<String> shortestPath(String type, String from, String to, int maxDepth) {
+        return shortestPath(from, to, Traversal.Direction.OUTGOING, maxDepth, type);
+    }
+
+    public List<String> shortestPath(String from, String to, Traversal.Direction direction, int maxDepth, String... types) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            return Traversal.shortestPath(related, dictionary, from, to, direction, maxDepth, types);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public GraphAnalytics analytics(String type) {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            AdjacencyStore out = related.outgoing(type);
+            if (out == null) {
+                throw new IllegalArgumentException("Unknown relationship type " + type);
+            }
+            return new GraphAnalytics(out);
+        } finally {
+            lease.release();
+        }
+    }
+
+    public int getNodeId(String key) {
+        return dictionary.get(key);
+    }
+
+    public String getNodeKey(int id) {
+        return dictionary.getKey(id);
+    }
+
+    public Set<Object> getOutgoingRelationshipNodes(String type, String from) {
+        return toNodeSet(getOutgoingRelationshipNodeBatch(type, from));
     }
 
     public Set<Object> getIncomingRelationshipNodes(String type, String from) {
+        return toNodeSet(getIncomingRelationshipNodeBatch(type, from));
+    }
+
+    private static Set<Object> toNodeSet(NodeBatch batch) {
         Set<Object> results = new HashSet<>();
-        for (String key : related.get(type+"-in").get(from) ) {
+        for (int row = 0; row < batch.size(); row++) {
             HashMap<String, Object> properties = new HashMap<>();
-            properties.put("_id", key);
-            properties.put("properties", nodes.get(key));
+            properties.put("_id", batch.getKey(row));
+            properties.put("properties", batch.getNode(row));
             results.add(properties);
         }
         return results;
     }
 
-    private static boolean addEdge(ChronicleMap<String, Set<String>> graph, String source, String target) {
-        if (source.equals(target)) {
-            return false;
+    // Neighbours and their properties in one go, either whole or just the named properties read in place, without a
+    // map per neighbour or a set of them to hash.
+    public NodeBatch getOutgoingRelationshipNodeBatch(String type, String from, String... properties) {
+        return getNodes(neighbourKeys(type + "-out", related.outgoing(type), from), properties);
+    }
+
+    public NodeBatch getIncomingRelationshipNodeBatch(String type, String to, String... properties) {
+        return getNodes(neighbourKeys(type + "-in", related.incoming(type), to), properties);
+    }
+
+    public NodeBatch getNodes(Collection<String> keys, String... properties) {
+        return getNodes(keys.toArray(new String[0]), properties);
+    }
+
+    private NodeBatch getNodes(String[] keys, String[] properties) {
+        if (properties.length > 0) {
+            Object[] values = new Object[keys.length * properties.length];
+            nodes.getAll(keys, properties, values);
+            return new NodeBatch(keys, properties.clone(), values);
         }
-        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
-            sc.updateLock().lock();
-            MapEntry<String, Set<String>> sEntry = sc.entry();
-            if (sEntry != null) {
-                Set<String> sNeighbours = sEntry.value().get();
-                if (sNeighbours.add(target)) {
-                    sEntry.doReplaceValue(sc.wrapValueAsData(sNeighbours));
-                }
-            } else {
-                Set<String> sNeighbours = new HashSet<>();
-                sNeighbours.add(target);
-                MapAbsentEntry<String, Set<String>> sAbsentEntry = sc.absentEntry();
-                assert sAbsentEntry != null;
-                sAbsentEntry.doInsert(sc.wrapValueAsData(sNeighbours));
+        Object[] values = new Object[keys.length];
+        if (nodeCache == null) {
+            nodes.getAll(keys, values);
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = getProperties(keys[i]);
             }
-        } catch (Exception e) {
-            return false;
         }
-        return true;
+        return new NodeBatch(keys, null, values);
     }
 
-    private static boolean removeEdge(ChronicleMap<String, Set<String>> graph, String source, String target) {
-        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
-            sc.updateLock().lock();
-            MapEntry<String, Set<String>> sEntry = sc.entry();
-            if (sEntry == null) {
-                return false;
-            }
-            Set<String> sNeighbours = sEntry.value().get();
-            if (!sNeighbours.remove(target)) {
-                return false;
-            }
-            if (sNeighbours.isEmpty()) {
-                sc.remove(sEntry);
-            } else {
-                sEntry.doReplaceValue(sc.wrapValueAsData(sNeighbours));
-            }
-            return true;
-        } catch (Exception e) {
-            return false;
+    // Straight out of the map without building a set, unless the neighbours are cached anyway.
+    private String[] neighbourKeys(String name, AdjacencyStore store, String node) {
+        if (store == null) {
+            return new String[0];
+        }
+        if (neighbourCache != null) {
+            Set<String> neighbours = getNeighbours(name, node);
+            return neighbours == null ? new String[0] : neighbours.toArray(new String[0]);
         }
+        List<String> keys = new ArrayList<>();
+        store.forEach(node, key -> keys.add(key.toString()));
+        return keys.toArray(new String[0]);
     }
 
 }
@@ -0,0 +1,71 @@
+package com.maxdemarzi;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// A read only set of node keys held as one sorted array, a fraction of a HashSet's size, for neighbour lists that are
+// cached and handed to many callers at once. Lookups are a binary search.
+final class CompactKeySet extends AbstractSet<String> {
+
+    // Object headers, the array and each String with its char[] on a 64 bit JVM with compressed oops.
+    private static final long SET_BYTES = 16 + 16;
+    private static final long KEY_BYTES = 4 + 24 + 16;
+
+    private final String[] keys;
+
+    private CompactKeySet(String[] keys) {
+        this.keys = keys;
+    }
+
+    static CompactKeySet of(Set<String> keys) {
+        String[] sorted = keys.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return new CompactKeySet(sorted);
+    }
+
+    long weight() {
+        long weight = SET_BYTES;
+        for (String key : keys) {
+            weight += KEY_BYTES + 2L * key.length();
+        }
+        return weight;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && Arrays.binarySearch(keys, o) >= 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < keys.length;
+            }
+
+            @Override
+            public String next() {
+                if (next == keys.length) {
+                    throw new NoSuchElementException();
+                }
+                return keys[next++];
+            }
+        };
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(keys, keys.length, Object[].class);
+    }
+}
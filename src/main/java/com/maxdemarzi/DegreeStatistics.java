@@ -0,0 +1,51 @@
+package com.maxdemarzi;
+
+import java.util.Arrays;
+
+/*
+ * Degree distribution of one side of a relationship type, built from the per node counts without reading a single
+ * neighbour list. Histogram bucket i counts the nodes whose degree is in [2^i, 2^(i+1)), so bucket 0 is degree 1,
+ * bucket 1 is 2-3, bucket 2 is 4-7 and so on; the long tail that makes supernodes shows up in the last few buckets.
+ */
+public class DegreeStatistics {
+
+    private long nodes;
+    private long edges;
+    private int maxDegree;
+    private final long[] histogram = new long[32];
+
+    DegreeStatistics(AdjacencyStore store) {
+        store.forEachDegree(this::add);
+    }
+
+    private void add(int degree) {
+        if (degree <= 0) {
+            return;
+        }
+        nodes++;
+        edges += degree;
+        maxDegree = Math.max(maxDegree, degree);
+        histogram[31 - Integer.numberOfLeadingZeros(degree)]++;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getEdges() {
+        return edges;
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public double getAverageDegree() {
+        return nodes == 0 ? 0 : (double) edges / nodes;
+    }
+
+    // Trimmed after the highest bucket in use.
+    public long[] getHistogram() {
+        return Arrays.copyOf(histogram, 32 - Integer.numberOfLeadingZeros(maxDegree));
+    }
+}
@@ -0,0 +1,43 @@
+package com.maxdemarzi;
+
+// Relationship property keys: the type id and both node ids as three fixed-width ints, so no two edges can share one
+// the way two concatenated strings could, and building one is a few shifts rather than a string.
+final class EdgeKey {
+
+    static final int SIZE = 3 * 4;
+
+    private EdgeKey() {
+    }
+
+    static byte[] of(int typeId, int fromId, int toId) {
+        byte[] key = new byte[SIZE];
+        write(key, 0, typeId);
+        write(key, 4, fromId);
+        write(key, 8, toId);
+        return key;
+    }
+
+    static int typeId(byte[] key) {
+        return read(key, 0);
+    }
+
+    static int fromId(byte[] key) {
+        return read(key, 4);
+    }
+
+    static int toId(byte[] key) {
+        return read(key, 8);
+    }
+
+    private static void write(byte[] key, int offset, int value) {
+        key[offset] = (byte) (value >>> 24);
+        key[offset + 1] = (byte) (value >>> 16);
+        key[offset + 2] = (byte) (value >>> 8);
+        key[offset + 3] = (byte) value;
+    }
+
+    private static int read(byte[] key, int offset) {
+        return (key[offset] & 0xFF) << 24 | (key[offset + 1] & 0xFF) << 16 | (key[offset + 2] & 0xFF) << 8
+                | (key[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,30 @@
+package com.maxdemarzi;
+
+/*
+ * Writers of the same edge take the same stripe, so an edge's -out and -in halves always change together, while
+ * writers of different edges rarely share one. A writer only ever holds a single stripe and takes the map segment
+ * locks inside it one at a time, so stripes can't deadlock with each other or with the maps.
+ */
+final class EdgeLocks {
+
+    private static final int STRIPES = 1 << 10;
+
+    private final Object[] locks = new Object[STRIPES];
+
+    EdgeLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    Object lockFor(String type, String from, String to) {
+        int hash = (type.hashCode() * 31 + from.hashCode()) * 31 + to.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    // For a set of stripes kept apart from the edge ones, one per node key.
+    Object lockFor(String key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,219 @@
+package com.maxdemarzi;
+
+import no.uib.cipr.matrix.sparse.CompColMatrix;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * A point in time copy of one relationship type as a sparse adjacency matrix, so whole-graph analytics can run in
+ * process instead of exporting the graph. Every node that appears on either end of the type gets a dense index and
+ * A[i][j] is 1 when i -> j. The matrix is kept both row compressed (outgoing) and column compressed (incoming) so each
+ * algorithm can split its work by the side it writes to and run on the common fork join pool without locking. The
+ * snapshot is taken map by map, so writes that land while it is being built may or may not show up.
+ */
+public class GraphAnalytics {
+
+    private final String[] nodes;
+    private final Map<String, Integer> indexes;
+    private final CompRowMatrix outgoing;
+    private final CompColMatrix incoming;
+    private final ThreadLocal<SimilarityScratch> scratch;
+
+    GraphAnalytics(AdjacencyStore out) {
+        List<String> keys = new ArrayList<>();
+        indexes = new HashMap<>();
+        List<IntList> rows = new ArrayList<>();
+        // Collect the sources before reading any of them so no read happens while a segment is being iterated.
+        List<String> sources = new ArrayList<>();
+        out.forEachSource(sources::add);
+        for (String source : sources) {
+            int row = indexOf(source, keys);
+            IntList targets = new IntList();
+            out.forEach(source, target -> targets.add(indexOf(target.toString(), keys)));
+            while (rows.size() <= row) {
+                rows.add(null);
+            }
+            rows.set(row, targets);
+        }
+        nodes = keys.toArray(new String[keys.size()]);
+        int n = nodes.length;
+
+        int[][] rowEntries = new int[n][];
+        int[] columnSizes = new int[n];
+        for (int row = 0; row < n; row++) {
+            IntList targets = row < rows.size() ? rows.get(row) : null;
+            int[] columns = new int[targets == null ? 0 : targets.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = targets.get(i);
+                columnSizes[columns[i]]++;
+            }
+            Arrays.sort(columns);
+            rowEntries[row] = columns;
+        }
+        // Walking the rows in order leaves every column's row indices sorted, which is what CompColMatrix expects.
+        int[][] columnEntries = new int[n][];
+        for (int column = 0; column < n; column++) {
+            columnEntries[column] = new int[columnSizes[column]];
+        }
+        int[] filled = new int[n];
+        for (int row = 0; row < n; row++) {
+            for (int column : rowEntries[row]) {
+                columnEntries[column][filled[column]++] = row;
+            }
+        }
+
+        outgoing = new CompRowMatrix(n, n, rowEntries);
+        Arrays.fill(outgoing.getData(), 1.0);
+        incoming = new CompColMatrix(n, n, columnEntries);
+        Arrays.fill(incoming.getData(), 1.0);
+        scratch = ThreadLocal.withInitial(() -> new SimilarityScratch(n));
+    }
+
+    private int indexOf(String key, List<String> keys) {
+        Integer index = indexes.get(key);
+        if (index == null) {
+            index = keys.size();
+            keys.add(key);
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public String getNode(int index) {
+        return nodes[index];
+    }
+
+    public int getIndex(String key) {
+        Integer index = indexes.get(key);
+        return index == null ? -1 : index;
+    }
+
+    public CompRowMatrix getAdjacencyMatrix() {
+        return outgoing;
+    }
+
+    // Power iteration that pulls each node's new rank from its incoming neighbours. Rank held by nodes with no
+    // outgoing relationships is spread evenly over every node. Stops once the L1 change drops under tolerance.
+    public double[] pageRank(double damping, int maxIterations, double tolerance) {
+        int n = nodes.length;
+        if (n == 0) {
+            return new double[0];
+        }
+        int[] rowPointers = outgoing.getRowPointers();
+        int[] columnPointers = incoming.getColumnPointers();
+        int[] rowIndices = incoming.getRowIndices();
+
+        double[] rank = new double[n];
+        Arrays.fill(rank, 1.0 / n);
+        double[] share = new double[n];
+        double[] next = new double[n];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double[] current = rank;
+            double dangling = IntStream.range(0, n).parallel().mapToDouble(node -> {
+                int degree = rowPointers[node + 1] - rowPointers[node];
+                share[node] = degree == 0 ? 0 : current[node] / degree;
+                return degree == 0 ? current[node] : 0;
+            }).sum();
+
+            double base = (1 - damping) / n + damping * dangling / n;
+            double[] updated = next;
+            double change = IntStream.range(0, n).parallel().mapToDouble(node -> {
+                double sum = 0;
+                for (int i = columnPointers[node]; i < columnPointers[node + 1]; i++) {
+                    sum += share[rowIndices[i]];
+                }
+                updated[node] = base + damping * sum;
+                return Math.abs(updated[node] - current[node]);
+            }).sum();
+
+            next = rank;
+            rank = updated;
+            if (change < tolerance) {
+                break;
+            }
+        }
+        return rank;
+    }
+
+    // Cosine similarity between the incoming sides of two nodes: |common sources| / sqrt(in degree a * in degree b),
+    // which is A^T A normalized. Only nodes that share at least one source are scored.
+    public List<Map.Entry<String, Double>> similarTo(String key, int limit) {
+        int column = getIndex(key);
+        if (column < 0) {
+            return new ArrayList<>();
+        }
+        return similarTo(column, limit);
+    }
+
+    // The top similar nodes for every node with incoming relationships, worked out in parallel.
+    public Map<String, List<Map.Entry<String, Double>>> similarities(int limit) {
+        int[] columnPointers = incoming.getColumnPointers();
+        return IntStream.range(0, nodes.length).parallel()
+                .filter(column -> columnPointers[column + 1] > columnPointers[column])
+                .boxed()
+                .collect(Collectors.toMap(column -> nodes[column], column -> similarTo(column, limit)));
+    }
+
+    private List<Map.Entry<String, Double>> similarTo(int column, int limit) {
+        int[] rowPointers = outgoing.getRowPointers();
+        int[] columnIndices = outgoing.getColumnIndices();
+        int[] columnPointers = incoming.getColumnPointers();
+        int[] rowIndices = incoming.getRowIndices();
+
+        SimilarityScratch s = scratch.get();
+        s.touched.clear();
+        for (int i = columnPointers[column]; i < columnPointers[column + 1]; i++) {
+            int row = rowIndices[i];
+            for (int j = rowPointers[row]; j < rowPointers[row + 1]; j++) {
+                int other = columnIndices[j];
+                if (other != column && s.common[other]++ == 0) {
+                    s.touched.add(other);
+                }
+            }
+        }
+
+        double degree = columnPointers[column + 1] - columnPointers[column];
+        PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(Math.max(1, limit),
+                Comparator.comparingDouble((Map.Entry<String, Double> e) -> e.getValue())
+                        .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()));
+        for (int i = 0; i < s.touched.size(); i++) {
+            int other = s.touched.get(i);
+            double score = s.common[other] / Math.sqrt(degree * (columnPointers[other + 1] - columnPointers[other]));
+            s.common[other] = 0;
+            if (limit <= 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(new AbstractMap.SimpleImmutableEntry<>(nodes[other], score));
+            } else if (score > best.peek().getValue()
+                    || (score == best.peek().getValue() && nodes[other].compareTo(best.peek().getKey()) < 0)) {
+                best.poll();
+                best.add(new AbstractMap.SimpleImmutableEntry<>(nodes[other], score));
+            }
+        }
+
+        List<Map.Entry<String, Double>> results = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            results.add(best.poll());
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    // Per thread counters for similarTo, cleared as they are read so they never need a full reset.
+    private static final class SimilarityScratch {
+        private final int[] common;
+        private final IntList touched = new IntList();
+
+        SimilarityScratch(int size) {
+            common = new int[size];
+        }
+    }
+}
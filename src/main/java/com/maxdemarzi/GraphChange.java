@@ -0,0 +1,100 @@
+package com.maxdemarzi;
+
+/*
+ * One change read back from a change log, numbered in the order the log took them. Node changes carry the node key,
+ * relationship changes the type and both ends. An added node also carries the labels it was given, or null if it kept
+ * the ones it had. Properties are the ones written, or null for removals and for relationships added without any.
+ * Applying a change means making the graph look the way it did right after, so applying one twice, or on top of a
+ * snapshot that already saw it, does no harm.
+ */
+public class GraphChange {
+
+    public enum Kind {
+        ADD_NODE, REMOVE_NODE, ADD_RELATIONSHIP, REMOVE_RELATIONSHIP
+    }
+
+    private final long sequence;
+    private final Kind kind;
+    private final String key;
+    private final String[] labels;
+    private final String type;
+    private final String from;
+    private final String to;
+    private final Object properties;
+
+    GraphChange(long sequence, Kind kind, String key, String[] labels, String type, String from, String to, Object properties) {
+        this.sequence = sequence;
+        this.kind = kind;
+        this.key = key;
+        this.labels = labels;
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.properties = properties;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // Null for relationship changes.
+    public String getKey() {
+        return key;
+    }
+
+    public String[] getLabels() {
+        return labels;
+    }
+
+    // The relationship type, and its two ends; null for node changes.
+    public String getType() {
+        return type;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public Object getProperties() {
+        return properties;
+    }
+
+    void applyTo(ChronicleGraph graph) {
+        switch (kind) {
+            case ADD_NODE:
+                if (labels == null) {
+                    graph.addNode(key, properties);
+                } else {
+                    graph.addNode(key, properties, labels);
+                }
+                break;
+            case REMOVE_NODE:
+                graph.removeNode(key);
+                break;
+            case ADD_RELATIONSHIP:
+                if (properties == null) {
+                    graph.addRelationship(type, from, to);
+                } else {
+                    graph.addRelationship(type, from, to, properties);
+                }
+                break;
+            default:
+                graph.removeRelationship(type, from, to);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String subject = key != null ? key + (labels == null ? "" : ":" + String.join(":", labels))
+                : from + "-[" + type + "]->" + to;
+        return sequence + " " + kind + " " + subject + (properties == null ? "" : " " + properties);
+    }
+}
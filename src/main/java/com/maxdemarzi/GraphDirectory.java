@@ -0,0 +1,130 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class GraphDirectory {
+
+    private static final String CLEAN_SHUTDOWN = "clean-shutdown";
+
+    private final File root;
+    private final boolean recovering;
+    // Every map opened here, for adding up what they hold; closed ones drop out as they are found.
+    private final Queue<ChronicleMap<?, ?>> opened = new ConcurrentLinkedQueue<>();
+
+    private GraphDirectory() {
+        root = null;
+        recovering = false;
+    }
+
+    GraphDirectory(File root) throws IOException {
+        this.root = root;
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create graph directory " + root);
+        }
+        // The marker is only written by close(), so if it is missing the last process died with the maps open
+        // and every existing file has to go through recovery before we trust its segment locks.
+        File marker = new File(root, CLEAN_SHUTDOWN);
+        recovering = !marker.exists();
+        Files.deleteIfExists(marker.toPath());
+    }
+
+    // One per graph, so what its maps hold can be told apart from any other graph's.
+    static GraphDirectory inMemory() {
+        return new GraphDirectory();
+    }
+
+    boolean isPersistent() {
+        return root != null;
+    }
+
+    boolean isRecovering() {
+        return recovering;
+    }
+
+    <K, V> ChronicleMap<K, V> open(ChronicleMapBuilder<K, V> builder, String name) {
+        ChronicleMap<K, V> map = create(builder, name);
+        opened.add(map);
+        return map;
+    }
+
+    private <K, V> ChronicleMap<K, V> create(ChronicleMapBuilder<K, V> builder, String name) {
+        if (root == null) {
+            return builder.create();
+        }
+        File file = new File(root, name + ".dat");
+        try {
+            if (recovering && file.exists()) {
+                return builder.recoverPersistedTo(file, true);
+            }
+            return builder.createPersistedTo(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The memory every map still open has taken off the heap, as Chronicle counts it: segments, tiers and entry space,
+    // whether or not entries fill it yet.
+    long offHeapMemoryUsed() {
+        long bytes = 0;
+        for (Iterator<ChronicleMap<?, ?>> maps = opened.iterator(); maps.hasNext(); ) {
+            ChronicleMap<?, ?> map = maps.next();
+            try {
+                if (map.isOpen()) {
+                    bytes += map.offHeapMemoryUsed();
+                    continue;
+                }
+            } catch (IllegalStateException e) {
+                // Closed while we looked, as a resized type's old maps are.
+            }
+            maps.remove();
+        }
+        return bytes;
+    }
+
+    boolean exists(String name) {
+        return root != null && new File(root, name + ".dat").exists();
+    }
+
+    // Only for maps that have already been closed.
+    void delete(String name) {
+        if (root == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(new File(root, name + ".dat").toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Small values kept beside the maps. Null if there is none, which is always the case in memory.
+    String readMarker(String name) throws IOException {
+        if (root == null) {
+            return null;
+        }
+        File file = new File(root, name);
+        return file.exists() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : null;
+    }
+
+    void writeMarker(String name, String value) throws IOException {
+        if (root != null) {
+            Files.write(new File(root, name).toPath(), value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    void markCleanShutdown() throws IOException {
+        if (root != null) {
+            Files.write(new File(root, CLEAN_SHUTDOWN).toPath(), new byte[0]);
+        }
+    }
+}
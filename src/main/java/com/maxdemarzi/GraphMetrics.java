@@ -0,0 +1,388 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.hash.Data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/*
+ * What the graph is doing and what it decided about sizing, readable from code or over JMX once registered with
+ * ChronicleGraph.registerMBean. Every public operation that touches nodes or neighbours is timed into a latency
+ * histogram and every map counts the serialized bytes it reads and writes. Turning it off leaves a volatile read and a
+ * branch per call, so it can stay on under load and be switched off from a JMX console when that isn't cheap enough.
+ * Writes that ran out of room and resizes are counted whether it is on or not; only the most recent sizing decisions
+ * are kept.
+ */
+public class GraphMetrics implements GraphMetricsMXBean {
+
+    static final int MAX_DECISIONS = 100;
+    static final ByteCounter UNCOUNTED = new GraphMetrics(false).bytes("");
+
+    public enum Operation {
+        ADD_NODE, GET_NODE, REMOVE_NODE, ADD_RELATIONSHIP, REMOVE_RELATIONSHIP, GET_OUTGOING, GET_INCOMING
+    }
+
+    private volatile boolean enabled;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final ConcurrentHashMap<String, ByteCounter> bytes = new ConcurrentHashMap<>();
+    private volatile RelationshipTypeRegistry types;
+    private final ConcurrentHashMap<String, ReadCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LongAdder> failedWrites = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> resizes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> failedResizes = new ConcurrentHashMap<>();
+    private final ArrayDeque<SizingDecision> decisions = new ArrayDeque<>();
+
+    GraphMetrics() {
+        this(true);
+    }
+
+    private GraphMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void watch(RelationshipTypeRegistry types) {
+        this.types = types;
+    }
+
+    // A null cache means it was turned off.
+    void watch(String name, ReadCache<?, ?> cache) {
+        if (cache == null) {
+            caches.remove(name);
+        } else {
+            caches.put(name, cache);
+        }
+    }
+
+    // Returns 0 when off, which record takes to mean there is nothing to record.
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Operation operation, long start) {
+        if (start != 0) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    // One per map, shared by every generation of it.
+    ByteCounter bytes(String map) {
+        return bytes.computeIfAbsent(map, k -> new ByteCounter(this));
+    }
+
+    void failedWrite(String type, long writes) {
+        failedWrites.computeIfAbsent(type, k -> new LongAdder()).add(writes);
+    }
+
+    // A rebuild that could not copy the type into its new maps; the old ones stay in use.
+    void failedResize(String type) {
+        failedResizes.computeIfAbsent(type, k -> new LongAdder()).increment();
+    }
+
+    void resized(SizingDecision decision) {
+        resizes.computeIfAbsent(decision.type, k -> new LongAdder()).increment();
+        synchronized (decisions) {
+            if (decisions.size() == MAX_DECISIONS) {
+                decisions.removeFirst();
+            }
+            decisions.addLast(decision);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Clears the latencies and byte counts; sizing counters and decisions are kept.
+    @Override
+    public void reset() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        for (ByteCounter counter : bytes.values()) {
+            counter.read.reset();
+            counter.written.reset();
+        }
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        return perOperation(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyNanos() {
+        Map<String, Double> means = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            means.put(operation.name(), latencies[operation.ordinal()].getMean());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getP50LatencyNanos() {
+        return perOperation(latency -> latency.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyNanos() {
+        return perOperation(latency -> latency.getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getP999LatencyNanos() {
+        return perOperation(latency -> latency.getPercentile(99.9));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyNanos() {
+        return perOperation(LatencyHistogram::getMax);
+    }
+
+    public long getBytesRead(String map) {
+        ByteCounter counter = bytes.get(map);
+        return counter == null ? 0 : counter.read.sum();
+    }
+
+    public long getBytesWritten(String map) {
+        ByteCounter counter = bytes.get(map);
+        return counter == null ? 0 : counter.written.sum();
+    }
+
+    @Override
+    public Map<String, Long> getBytesRead() {
+        Map<String, Long> totals = new TreeMap<>();
+        bytes.forEach((map, counter) -> totals.put(map, counter.read.sum()));
+        return totals;
+    }
+
+    @Override
+    public Map<String, Long> getBytesWritten() {
+        Map<String, Long> totals = new TreeMap<>();
+        bytes.forEach((map, counter) -> totals.put(map, counter.written.sum()));
+        return totals;
+    }
+
+    @Override
+    public Map<String, Long> getAdjacencySizes() {
+        RelationshipTypeRegistry registry = types;
+        return registry == null ? new TreeMap<>() : registry.sizes();
+    }
+
+    @Override
+    public Map<String, Long> getRelationshipCounts() {
+        RelationshipTypeRegistry registry = types;
+        return registry == null ? new TreeMap<>() : registry.edgeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getCacheCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        caches.forEach((name, cache) -> {
+            counts.put(name + "-hits", cache.hits());
+            counts.put(name + "-misses", cache.misses());
+            counts.put(name + "-evictions", cache.evictions());
+            counts.put(name + "-entries", (long) cache.size());
+            counts.put(name + "-bytes", cache.weight());
+        });
+        return counts;
+    }
+
+    @Override
+    public List<String> getRecentSizingDecisions() {
+        List<String> recent = new ArrayList<>();
+        for (SizingDecision decision : getSizingDecisions()) {
+            recent.add(decision.toString());
+        }
+        return recent;
+    }
+
+    private Map<String, Long> perOperation(ToLongFunction<LatencyHistogram> statistic) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            values.put(operation.name(), statistic.applyAsLong(latencies[operation.ordinal()]));
+        }
+        return values;
+    }
+
+    public long getFailedWrites(String type) {
+        LongAdder count = failedWrites.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getResizes(String type) {
+        LongAdder count = resizes.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    public long getFailedResizes(String type) {
+        LongAdder count = failedResizes.get(type);
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public Map<String, Long> getFailedWrites() {
+        return totals(failedWrites);
+    }
+
+    @Override
+    public Map<String, Long> getResizes() {
+        return totals(resizes);
+    }
+
+    @Override
+    public Map<String, Long> getFailedResizes() {
+        return totals(failedResizes);
+    }
+
+    // Oldest first.
+    public List<SizingDecision> getSizingDecisions() {
+        synchronized (decisions) {
+            return new ArrayList<>(decisions);
+        }
+    }
+
+    private static Map<String, Long> totals(Map<String, LongAdder> counters) {
+        Map<String, Long> totals = new TreeMap<>();
+        counters.forEach((type, count) -> totals.put(type, count.sum()));
+        return totals;
+    }
+
+    // Serialized bytes a map moved in and out of off-heap memory. Taking the size of a Data can mean serializing it, so
+    // that is left until the counter knows it is on.
+    static final class ByteCounter {
+        private final GraphMetrics metrics;
+        private final LongAdder read = new LongAdder();
+        private final LongAdder written = new LongAdder();
+
+        private ByteCounter(GraphMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        boolean counting() {
+            return metrics.enabled;
+        }
+
+        void read(long size) {
+            if (metrics.enabled) {
+                read.add(size);
+            }
+        }
+
+        void read(Data<?> data) {
+            if (metrics.enabled) {
+                read.add(data.size());
+            }
+        }
+
+        void wrote(long size) {
+            if (metrics.enabled) {
+                written.add(size);
+            }
+        }
+
+        void wrote(Data<?> data) {
+            if (metrics.enabled) {
+                written.add(data.size());
+            }
+        }
+    }
+
+    public static class SizingDecision {
+        private final String type;
+        private final String reason;
+        private final int[] before;
+        private final int[] after;
+        private final long nodes;
+        private final long edges;
+        private final long millis;
+        private final long timestamp = System.currentTimeMillis();
+
+        // Sizings are {maximum, average outgoing, average incoming}.
+        SizingDecision(String type, String reason, int[] before, int[] after, long nodes, long edges, long millis) {
+            this.type = type;
+            this.reason = reason;
+            this.before = before;
+            this.after = after;
+            this.nodes = nodes;
+            this.edges = edges;
+            this.millis = millis;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public int getPreviousMaximum() {
+            return before[0];
+        }
+
+        public int getMaximum() {
+            return after[0];
+        }
+
+        public int getPreviousAverageOutgoing() {
+            return before[1];
+        }
+
+        public int getAverageOutgoing() {
+            return after[1];
+        }
+
+        public int getPreviousAverageIncoming() {
+            return before[2];
+        }
+
+        public int getAverageIncoming() {
+            return after[2];
+        }
+
+        // Nodes and edges on the outgoing side when the type was rebuilt.
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getEdges() {
+            return edges;
+        }
+
+        // How long writes to the type waited while its maps were copied.
+        public long getMillis() {
+            return millis;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return type + " resized " + Arrays.toString(before) + " -> " + Arrays.toString(after) + " at " + nodes
+                    + " nodes and " + edges + " edges in " + millis + "ms: " + reason;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.maxdemarzi;
+
+import java.util.List;
+import java.util.Map;
+
+// The JMX face of GraphMetrics. Latencies are keyed by operation, bytes by map and the rest by relationship type. As an
+// MXBean the maps show up as tables in any JMX console without GraphMetrics on its classpath.
+public interface GraphMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getMeanLatencyNanos();
+
+    Map<String, Long> getP50LatencyNanos();
+
+    Map<String, Long> getP99LatencyNanos();
+
+    Map<String, Long> getP999LatencyNanos();
+
+    Map<String, Long> getMaxLatencyNanos();
+
+    Map<String, Long> getBytesRead();
+
+    Map<String, Long> getBytesWritten();
+
+    Map<String, Long> getAdjacencySizes();
+
+    Map<String, Long> getRelationshipCounts();
+
+    // Hits, misses, evictions, entries and bytes of each read cache that is on.
+    Map<String, Long> getCacheCounts();
+
+    Map<String, Long> getFailedWrites();
+
+    Map<String, Long> getResizes();
+
+    Map<String, Long> getFailedResizes();
+
+    List<String> getRecentSizingDecisions();
+}
@@ -0,0 +1,40 @@
+package com.maxdemarzi;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * What a ShardedGraph needs from one of its partitions, whether that is a ChronicleGraph in the same process or one
+ * behind a ShardServer. Everything a traversal touches goes through expand, a whole frontier at a time, so a hop costs
+ * one call per shard however many nodes it starts from.
+ */
+interface GraphShard {
+
+    // Properties may be null.
+    boolean addNode(String key, Object properties);
+
+    Object getNode(String key);
+
+    boolean removeNode(String key);
+
+    void addRelationshipType(String type, Integer maximum, Integer averageOutgoing, Integer averageIncoming);
+
+    Set<String> getRelationshipTypes();
+
+    // Properties may be null.
+    boolean addRelationship(String type, String from, String to, Object properties);
+
+    long importRelationships(String type, List<String[]> relationships);
+
+    Object getRelationship(String type, String from, String to);
+
+    boolean removeRelationship(String type, String from, String to);
+
+    // Every neighbour of the frontier's nodes along the types, with the summed weights of the nodes it was reached
+    // from, so path counts carry from one hop to the next.
+    Map<String, Integer> expand(Traversal.Direction direction, String[] types, Map<String, Integer> frontier);
+
+    void close() throws IOException;
+}
@@ -0,0 +1,242 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/*
+ * Small fixed-width relationship properties, like a weight or a timestamp, kept with the source node instead of under
+ * a key per edge. Each source has one value holding a record per neighbour, its node id and then the properties laid
+ * out as the type's schema says, sorted by node id: a single edge is a binary search away and all of a node's come
+ * back from one read. Only numbers and booleans fit, and every relationship of the type has to have exactly them.
+ */
+class InlineEdgeStore {
+
+    // One neighbour's record, for copying a store into a graph whose node ids differ.
+    interface EdgeVisitor {
+        void accept(String source, int target, byte[] values);
+    }
+
+    private final GraphDirectory directory;
+    private final String file;
+    private final PropertySchema schema;
+    private final int width;
+    private final ChronicleMap<String, byte[]> records;
+    private final GraphMetrics.ByteCounter bytes;
+
+    InlineEdgeStore(GraphDirectory directory, String name, String file, int maximum, int average, PropertySchema schema,
+                    GraphMetrics.ByteCounter bytes) {
+        this.directory = directory;
+        this.file = file;
+        this.schema = schema;
+        this.width = 4 + schema.fixedSize;
+        this.bytes = bytes;
+        records = directory.open(ChronicleMap
+                .of(String.class, byte[].class)
+                .name(name)
+                .entries(maximum)
+                .averageKey("one key - another key")
+                .averageValueSize(Math.max(1, average) * width), file);
+    }
+
+    // Null if the sample has anything but numbers and booleans, or nothing at all.
+    static PropertySchema schemaOf(Map<String, Object> sample) {
+        String descriptor = PropertySchema.descriptorOf(sample);
+        if (descriptor == null || sample.isEmpty()) {
+            return null;
+        }
+        PropertySchema schema = new PropertySchema(-1, descriptor);
+        for (PropertyType type : schema.types) {
+            if (!type.isFixedWidth()) {
+                return null;
+            }
+        }
+        return schema;
+    }
+
+    PropertySchema schema() {
+        return schema;
+    }
+
+    // The properties as a record lays them out.
+    byte[] encode(Object properties) {
+        if (!(properties instanceof Map) || !schema.matches((Map<?, ?>) properties)) {
+            throw new IllegalArgumentException("Relationships of this type keep " + schema.descriptor
+                    + " inline and nothing else, so they can't have " + properties);
+        }
+        Map<?, ?> values = (Map<?, ?>) properties;
+        Bytes<byte[]> out = Bytes.wrapForWrite(new byte[schema.fixedSize]);
+        for (int i = 0; i < schema.names.length; i++) {
+            PropertyCodec.write(out, schema.types[i], values.get(schema.names[i]), null);
+        }
+        return out.underlyingObject();
+    }
+
+    void put(String source, int target, byte[] values) {
+        records.compute(source, (key, existing) -> {
+            int count = existing == null ? 0 : existing.length / width;
+            if (existing != null) {
+                bytes.read(existing.length);
+            }
+            int index = existing == null ? -1 : search(BytesStore.wrap(existing), 0, count, target);
+            byte[] updated;
+            if (index >= 0) {
+                updated = existing.clone();
+                System.arraycopy(values, 0, updated, index * width + 4, values.length);
+            } else {
+                int at = -index - 1;
+                updated = new byte[(count + 1) * width];
+                if (existing != null) {
+                    System.arraycopy(existing, 0, updated, 0, at * width);
+                    System.arraycopy(existing, at * width, updated, (at + 1) * width, (count - at) * width);
+                }
+                BytesStore.wrap(updated).writeInt(at * width, target);
+                System.arraycopy(values, 0, updated, at * width + 4, values.length);
+            }
+            bytes.wrote(updated.length);
+            return updated;
+        });
+    }
+
+    boolean remove(String source, int target) {
+        boolean[] removed = new boolean[1];
+        records.computeIfPresent(source, (key, existing) -> {
+            int count = existing.length / width;
+            int index = search(BytesStore.wrap(existing), 0, count, target);
+            if (index < 0) {
+                return existing;
+            }
+            removed[0] = true;
+            if (count == 1) {
+                return null;
+            }
+            byte[] updated = new byte[(count - 1) * width];
+            System.arraycopy(existing, 0, updated, 0, index * width);
+            System.arraycopy(existing, (index + 1) * width, updated, index * width, (count - index - 1) * width);
+            return updated;
+        });
+        return removed[0];
+    }
+
+    boolean remove(String source) {
+        return records.remove(source) != null;
+    }
+
+    Map<String, Object> get(String source, int target) {
+        try (ExternalMapQueryContext<String, byte[], ?> c = records.queryContext(source)) {
+            c.readLock().lock();
+            MapEntry<String, byte[]> entry = c.entry();
+            if (entry == null) {
+                return null;
+            }
+            Data<byte[]> value = entry.value();
+            bytes.read(value.size());
+            int index = search(value.bytes(), value.offset(), (int) (value.size() / width), target);
+            return index < 0 ? null : decode(value.bytes(), value.offset() + (long) index * width + 4);
+        }
+    }
+
+    Object getProperty(String source, int target, String name) {
+        int property = schema.indexOf(name);
+        if (property < 0) {
+            return null;
+        }
+        try (ExternalMapQueryContext<String, byte[], ?> c = records.queryContext(source)) {
+            c.readLock().lock();
+            MapEntry<String, byte[]> entry = c.entry();
+            if (entry == null) {
+                return null;
+            }
+            Data<byte[]> value = entry.value();
+            bytes.read(value.size());
+            int index = search(value.bytes(), value.offset(), (int) (value.size() / width), target);
+            if (index < 0) {
+                return null;
+            }
+            long offset = value.offset() + (long) index * width + 4 + schema.offsets[property];
+            return PropertyCodec.read(value.bytes(), offset, schema.types[property]);
+        }
+    }
+
+    // Every neighbour's properties in node id order, from the one read. Returns how many there were.
+    int forEach(String source, ObjIntConsumer<Map<String, Object>> consumer) {
+        try (ExternalMapQueryContext<String, byte[], ?> c = records.queryContext(source)) {
+            c.readLock().lock();
+            MapEntry<String, byte[]> entry = c.entry();
+            if (entry == null) {
+                return 0;
+            }
+            Data<byte[]> value = entry.value();
+            bytes.read(value.size());
+            RandomDataInput in = value.bytes();
+            int count = (int) (value.size() / width);
+            for (int i = 0; i < count; i++) {
+                long offset = value.offset() + (long) i * width;
+                consumer.accept(decode(in, offset + 4), in.readInt(offset));
+            }
+            return count;
+        }
+    }
+
+    void forEachEdge(EdgeVisitor visitor) {
+        records.forEach((source, value) -> {
+            for (int offset = 0; offset < value.length; offset += width) {
+                byte[] values = new byte[width - 4];
+                System.arraycopy(value, offset + 4, values, 0, values.length);
+                visitor.accept(source, BytesStore.wrap(value).readInt(offset), values);
+            }
+        });
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    // Like AdjacencyStore.copyTo, for when the type's maps are rebuilt.
+    void copyTo(InlineEdgeStore target) {
+        AdjacencyStore.copyEntries(records, target.records);
+    }
+
+    void close() {
+        records.close();
+    }
+
+    void delete() {
+        records.close();
+        directory.delete(file);
+    }
+
+    private Map<String, Object> decode(RandomDataInput in, long offset) {
+        HashMap<String, Object> properties = new HashMap<>((int) (schema.names.length / 0.75) + 1);
+        for (int i = 0; i < schema.names.length; i++) {
+            properties.put(schema.names[i], PropertyCodec.read(in, offset + schema.offsets[i], schema.types[i]));
+        }
+        return properties;
+    }
+
+    // The record's index, or -(insertion point) - 1 like Arrays.binarySearch.
+    private int search(RandomDataInput in, long offset, int count, int target) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = in.readInt(offset + (long) middle * width);
+            if (id < target) {
+                low = middle + 1;
+            } else if (id > target) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
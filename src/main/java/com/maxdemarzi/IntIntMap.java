@@ -0,0 +1,71 @@
+package com.maxdemarzi;
+
+import java.util.Arrays;
+
+// Open addressing map from node id to node id that never boxes, and grows with what is put in it rather than with how
+// big the ids are. Ids are never negative, so -1 marks an empty slot and is what get returns for a missing key.
+final class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    IntIntMap() {
+        this(16);
+    }
+
+    IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    void put(int key, int value) {
+        int slot = slot(key);
+        values[slot] = value;
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
+    }
+
+    int get(int key) {
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? EMPTY : values[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(int key) {
+        int slot = OccurrenceCounter.mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new int[keys.length];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.maxdemarzi;
+
+import java.util.Arrays;
+
+// Growable int array that is cleared and refilled instead of reallocated, so hot read paths don't box.
+final class IntList {
+
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        values = new int[capacity];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
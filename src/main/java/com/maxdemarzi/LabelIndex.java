@@ -0,0 +1,126 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+ * Node labels, like :Person or :Item. Each label gets a small id, and the node ids that have it live in a chunked
+ * bitmap store keyed by that id, the way a property index keeps a value's nodes, so listing or counting a label never
+ * touches the nodes map and filtering neighbours by label only reads the chunks they fall in. Each node's own label
+ * ids are kept as a bit set too, for removing it and for reading its labels back.
+ */
+class LabelIndex {
+
+    static final int MAX_LABELS = 1_000;
+    // Every labelled write rewrites the chunk the node falls in, so chunks cover 256 node ids rather than the usual
+    // 65536, which keeps that rewrite to a few hundred bytes and spreads writes to nearby nodes over many entries and
+    // segment locks. Listing a whole label reads more chunks for it, which counting it never does.
+    private static final int CHUNK_BITS = 8;
+    private static final int AVERAGE_NODES_PER_LABEL = 16_384;
+
+    private final NodeDictionary dictionary;
+    private final NodeDictionary labelIds;
+    private final BitmapAdjacencyStore postings;
+    private final NodeTypeMemberships nodeLabels;
+
+    LabelIndex(GraphDirectory directory, NodeDictionary dictionary, Integer maxNodes) {
+        this.dictionary = dictionary;
+        labelIds = new NodeDictionary(directory, "label", MAX_LABELS);
+        postings = new BitmapAdjacencyStore(directory, "label-nodes", MAX_LABELS, AVERAGE_NODES_PER_LABEL,
+                AVERAGE_NODES_PER_LABEL >>> CHUNK_BITS, CHUNK_BITS, dictionary);
+        nodeLabels = new NodeTypeMemberships(directory, "node-labels", maxNodes);
+    }
+
+    // Gives the node exactly these labels, taking it out of the ones it had that aren't among them. Its label bit set
+    // is written whole, so a reader never sees it part way; callers hold the node's lock, so writers don't interleave.
+    void set(String key, String... labels) {
+        int nodeId = dictionary.getOrCreate(key);
+        Set<Integer> wanted = new HashSet<>();
+        for (String label : labels) {
+            if (label == null || label.isEmpty()) {
+                throw new IllegalArgumentException("Labels can't be empty, " + Arrays.toString(labels));
+            }
+            wanted.add(labelIds.getOrCreate(label));
+        }
+        IntList had = nodeLabels.set(key, wanted);
+        for (int i = 0; i < had.size(); i++) {
+            if (!wanted.contains(had.get(i))) {
+                postings.remove(had.get(i), nodeId);
+            }
+        }
+        for (int labelId : wanted) {
+            postings.add(labelId, nodeId);
+        }
+    }
+
+    void add(String key, String label) {
+        int labelId = labelIds.getOrCreate(label);
+        nodeLabels.add(key, labelId);
+        postings.add(labelId, dictionary.getOrCreate(key));
+    }
+
+    void remove(String key) {
+        IntList had = nodeLabels.remove(key);
+        int nodeId = had.size() == 0 ? -1 : dictionary.get(key);
+        for (int i = 0; i < had.size() && nodeId >= 0; i++) {
+            postings.remove(had.get(i), nodeId);
+        }
+    }
+
+    // In the order the labels were first seen.
+    Set<String> labelsOf(String key) {
+        IntList ids = nodeLabels.get(key);
+        Set<String> labels = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            labels.add(labelIds.getKey(ids.get(i)));
+        }
+        return labels;
+    }
+
+    Set<String> labels() {
+        Set<String> labels = new HashSet<>();
+        labelIds.forEach((label, labelId) -> {
+            if (postings.degree(labelId) > 0) {
+                labels.add(label);
+            }
+        });
+        return labels;
+    }
+
+    int count(String label) {
+        int labelId = labelIds.get(label);
+        return labelId < 0 ? 0 : postings.degree(labelId);
+    }
+
+    RoaringBitmap nodes(String label) {
+        int labelId = labelIds.get(label);
+        RoaringBitmap nodeIds = labelId < 0 ? null : postings.getIds(labelId);
+        return nodeIds == null ? new RoaringBitmap() : nodeIds;
+    }
+
+    // The node ids that have the label.
+    RoaringBitmap filter(String label, RoaringBitmap nodeIds) {
+        int labelId = labelIds.get(label);
+        return labelId < 0 ? new RoaringBitmap() : postings.intersect(labelId, nodeIds);
+    }
+
+    Set<String> toKeys(RoaringBitmap nodeIds) {
+        Set<String> keys = new HashSet<>((int) (nodeIds.getCardinality() / 0.75) + 1);
+        IntIterator iterator = nodeIds.getIntIterator();
+        while (iterator.hasNext()) {
+            keys.add(dictionary.getKey(iterator.next()));
+        }
+        return keys;
+    }
+
+    void close() {
+        nodeLabels.close();
+        postings.close();
+        labelIds.close();
+    }
+}
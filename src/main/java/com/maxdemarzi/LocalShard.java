@@ -0,0 +1,85 @@
+package com.maxdemarzi;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// A shard in this process: the graph itself, also what a ShardServer answers with.
+class LocalShard implements GraphShard {
+
+    private final ChronicleGraph graph;
+
+    LocalShard(ChronicleGraph graph) {
+        this.graph = graph;
+    }
+
+    @Override
+    public boolean addNode(String key, Object properties) {
+        return properties == null ? graph.addNode(key) : graph.addNode(key, properties);
+    }
+
+    @Override
+    public Object getNode(String key) {
+        return graph.getNode(key);
+    }
+
+    @Override
+    public boolean removeNode(String key) {
+        return graph.removeNode(key);
+    }
+
+    @Override
+    public void addRelationshipType(String type, Integer maximum, Integer averageOutgoing, Integer averageIncoming) {
+        graph.addRelationshipType(type, maximum, averageOutgoing, averageIncoming);
+    }
+
+    @Override
+    public Set<String> getRelationshipTypes() {
+        return graph.getRelationshipTypes();
+    }
+
+    @Override
+    public boolean addRelationship(String type, String from, String to, Object properties) {
+        return properties == null ? graph.addRelationship(type, from, to) : graph.addRelationship(type, from, to, properties);
+    }
+
+    @Override
+    public long importRelationships(String type, List<String[]> relationships) {
+        return graph.importRelationships(type, relationships.iterator());
+    }
+
+    @Override
+    public Object getRelationship(String type, String from, String to) {
+        return graph.getRelationship(type, from, to);
+    }
+
+    @Override
+    public boolean removeRelationship(String type, String from, String to) {
+        return graph.removeRelationship(type, from, to);
+    }
+
+    @Override
+    public Map<String, Integer> expand(Traversal.Direction direction, String[] types, Map<String, Integer> frontier) {
+        HashMap<String, Integer> reached = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : frontier.entrySet()) {
+            Integer weight = entry.getValue();
+            NeighbourConsumer reach = neighbour -> reached.merge(neighbour.toString(), weight, Integer::sum);
+            for (String type : types) {
+                if (direction != Traversal.Direction.INCOMING) {
+                    graph.forEachOutgoing(type, entry.getKey(), reach);
+                }
+                if (direction != Traversal.Direction.OUTGOING) {
+                    graph.forEachIncoming(type, entry.getKey(), reach);
+                }
+            }
+        }
+        return reached;
+    }
+
+    @Override
+    public void close() throws IOException {
+        graph.close();
+    }
+}
@@ -0,0 +1,8 @@
+package com.maxdemarzi;
+
+@FunctionalInterface
+public interface NeighbourConsumer {
+
+    // The sequence is reused for the next neighbour, so call toString() on it if it has to outlive this call.
+    void accept(CharSequence neighbour);
+}
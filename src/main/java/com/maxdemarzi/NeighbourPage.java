@@ -0,0 +1,103 @@
+package com.maxdemarzi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * One page of a node's neighbours and the cursor to pass back for the next, which is null once there are no more.
+ * Pages come in an order new edges don't disturb, node id for BITMAPS and key for SETS, and the cursor marks where the
+ * last page stopped in that order, so paging never repeats or skips a neighbour that was there when it started. Ones
+ * added while it runs turn up if they sort after the cursor. Cursors are opaque: only hand back one a page of the same
+ * node and type returned.
+ */
+public class NeighbourPage {
+
+    static final int STREAM_PAGE_SIZE = 1024;
+    // SETS pages take a pass over the whole set each, so streams through big ones use bigger pages to bound the passes.
+    static final int MAX_STREAM_PASSES = 64;
+
+    private final List<String> keys;
+    private final String cursor;
+
+    NeighbourPage(List<String> keys, String cursor) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.cursor = cursor;
+    }
+
+    static NeighbourPage read(AdjacencyStore store, String node, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Pages need room for at least one neighbour, not " + limit);
+        }
+        List<String> keys = new ArrayList<>(Math.min(limit, STREAM_PAGE_SIZE));
+        if (store == null) {
+            return new NeighbourPage(keys, null);
+        }
+        return new NeighbourPage(keys, store.page(node, cursor, limit, keys));
+    }
+
+    // Reads a page at a time as the stream is consumed, so only one page is ever on the heap: STREAM_PAGE_SIZE
+    // neighbours, or 1/64th of them when that is more, which bounds the passes over a big set. The store is looked up
+    // again for every page, under a lease of its own, since a type that is resized while a stream is open moves to new
+    // maps and a stream can be left open for any length of time.
+    static Stream<String> stream(RelationshipTypeRegistry related, Supplier<AdjacencyStore> store, String node) {
+        int pageSize;
+        NeighbourPage first;
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            AdjacencyStore current = store.get();
+            pageSize = current == null ? STREAM_PAGE_SIZE
+                    : Math.max(STREAM_PAGE_SIZE, current.degree(node) / MAX_STREAM_PASSES + 1);
+            first = read(current, node, null, pageSize);
+        } finally {
+            lease.release();
+        }
+        Iterator<String> neighbours = new Iterator<String>() {
+            private NeighbourPage page = first;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == page.keys.size() && page.hasMore()) {
+                    RelationshipTypeRegistry.Lease lease = related.lease();
+                    try {
+                        page = read(store.get(), node, page.cursor, pageSize);
+                    } finally {
+                        lease.release();
+                    }
+                    next = 0;
+                }
+                return next < page.keys.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.keys.get(next++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(neighbours,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+}
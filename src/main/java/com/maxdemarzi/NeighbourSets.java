@@ -0,0 +1,257 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Set operations over neighbour lists as they are stored, for mutual friends, "also liked" and similarity scores,
+ * and triangle counts on top of them. The stores are the one side asked for, or both sides for Direction.BOTH.
+ *
+ * Bitmap stores load the smaller node's neighbour ids and AND them with only the chunks of the other node that they
+ * fall in. Set stores copy the smaller node's neighbours into an open addressed table and stream the other node's
+ * serialized set against it, so nothing but the smaller side and the result is ever made into Strings. Triangles are
+ * counted the same way, with the node's neighbours made into a table once and each neighbour's own streamed against
+ * it. Whole-graph counts go node by node on the common fork join pool, each triangle counted once from its smallest
+ * node.
+ */
+final class NeighbourSets {
+
+    private static final int EXPECTED_NEIGHBOURS = 64;
+
+    private NeighbourSets() {
+    }
+
+    static Set<String> common(AdjacencyStore[] stores, String a, String b, NodeDictionary dictionary) {
+        Set<String> shared = new HashSet<>();
+        if (stores.length == 0) {
+            return shared;
+        }
+        if (stores[0] instanceof BitmapAdjacencyStore) {
+            IntIterator iterator = commonIds(stores, a, b, dictionary).getIntIterator();
+            while (iterator.hasNext()) {
+                shared.add(dictionary.getKey(iterator.next()));
+            }
+            return shared;
+        }
+        OccurrenceCounter.Keys keys = commonKeys(stores, a, b);
+        for (int slot = 0; slot < keys.capacity(); slot++) {
+            if (keys.count(slot) != 0) {
+                shared.add(keys.key(slot));
+            }
+        }
+        return shared;
+    }
+
+    static int intersectionSize(AdjacencyStore[] stores, String a, String b, NodeDictionary dictionary) {
+        if (stores.length == 0) {
+            return 0;
+        }
+        if (stores[0] instanceof BitmapAdjacencyStore) {
+            return commonIds(stores, a, b, dictionary).getCardinality();
+        }
+        return commonKeys(stores, a, b).size();
+    }
+
+    // Shared neighbours over all the neighbours either one has; zero when neither has any.
+    static double jaccard(AdjacencyStore[] stores, String a, String b, NodeDictionary dictionary) {
+        int shared = intersectionSize(stores, a, b, dictionary);
+        int union = size(stores, a, dictionary) + size(stores, b, dictionary) - shared;
+        return union == 0 ? 0.0 : (double) shared / union;
+    }
+
+    // Pairs of the node's neighbours that are neighbours of each other, going either way along the type.
+    static long triangles(AdjacencyStore[] stores, String node, NodeDictionary dictionary) {
+        if (stores.length == 0) {
+            return 0;
+        }
+        long closed = 0;
+        if (stores[0] instanceof BitmapAdjacencyStore) {
+            int nodeId = dictionary.get(node);
+            if (nodeId < 0) {
+                return 0;
+            }
+            RoaringBitmap neighbours = ids(stores, nodeId);
+            neighbours.remove(nodeId);
+            IntIterator iterator = neighbours.getIntIterator();
+            while (iterator.hasNext()) {
+                int neighbour = iterator.next();
+                RoaringBitmap shared = intersect(stores, neighbour, neighbours);
+                shared.remove(neighbour);
+                closed += shared.getCardinality();
+            }
+        } else {
+            OccurrenceCounter.Keys neighbours = keys(stores, node);
+            int[] seen = new int[neighbours.capacity()];
+            for (int slot = 0; slot < neighbours.capacity(); slot++) {
+                String neighbour = neighbours.key(slot);
+                if (neighbours.count(slot) != 0 && !neighbour.equals(node)) {
+                    closed += closing(stores, neighbour, neighbours, null, seen, slot + 1);
+                }
+            }
+        }
+        // Each triangle turns up once from either of its other two nodes.
+        return closed / 2;
+    }
+
+    // Every triangle in the type once, ignoring which way its relationships point.
+    static long triangles(AdjacencyStore[] stores, NodeDictionary dictionary) {
+        if (stores.length == 0) {
+            return 0;
+        }
+        if (stores[0] instanceof BitmapAdjacencyStore) {
+            RoaringBitmap nodes = new RoaringBitmap();
+            for (AdjacencyStore store : stores) {
+                ((BitmapAdjacencyStore) store).forEachSourceId(nodes::add);
+            }
+            return Arrays.stream(nodes.toArray()).parallel().mapToLong(node -> trianglesFrom(stores, node)).sum();
+        }
+        Set<String> nodes = new HashSet<>();
+        for (AdjacencyStore store : stores) {
+            store.forEachSource(nodes::add);
+        }
+        return nodes.parallelStream().mapToLong(node -> trianglesFrom(stores, node)).sum();
+    }
+
+    // The triangles node < neighbour < other, so only the ids above each one are ever read.
+    private static long trianglesFrom(AdjacencyStore[] stores, int node) {
+        RoaringBitmap above = ids(stores, node);
+        above.remove(0L, node + 1L);
+        long closed = 0;
+        IntIterator iterator = above.getIntIterator();
+        while (iterator.hasNext()) {
+            int neighbour = iterator.next();
+            RoaringBitmap others = RoaringBitmap.remove(above, 0L, neighbour + 1L);
+            if (!others.isEmpty()) {
+                closed += intersect(stores, neighbour, others).getCardinality();
+            }
+        }
+        return closed;
+    }
+
+    // The node's neighbours go into a table once; each neighbour's own are only streamed against it.
+    private static long trianglesFrom(AdjacencyStore[] stores, String node) {
+        OccurrenceCounter.Keys neighbours = keys(stores, node);
+        int[] seen = new int[neighbours.capacity()];
+        long closed = 0;
+        for (int slot = 0; slot < neighbours.capacity(); slot++) {
+            String neighbour = neighbours.key(slot);
+            if (neighbours.count(slot) != 0 && neighbour.compareTo(node) > 0) {
+                closed += closing(stores, neighbour, neighbours, neighbour, seen, slot + 1);
+            }
+        }
+        return closed;
+    }
+
+    // How many of the neighbour's own neighbours are in the table, or only those that sort after above when it isn't
+    // null. Seen has the stamp of the last neighbour to count each slot, so a node reached along both stores counts
+    // once.
+    private static long closing(AdjacencyStore[] stores, String neighbour, OccurrenceCounter.Keys table, String above,
+                                int[] seen, int stamp) {
+        long[] closed = new long[1];
+        for (AdjacencyStore store : stores) {
+            store.forEach(neighbour, other -> {
+                int slot = table.slotOf(other);
+                if (slot >= 0 && seen[slot] != stamp && (above == null || table.key(slot).compareTo(above) > 0)) {
+                    seen[slot] = stamp;
+                    closed[0]++;
+                }
+            });
+        }
+        return closed[0];
+    }
+
+    private static RoaringBitmap commonIds(AdjacencyStore[] stores, String a, String b, NodeDictionary dictionary) {
+        int aId = dictionary.get(a);
+        int bId = dictionary.get(b);
+        if (aId < 0 || bId < 0) {
+            return new RoaringBitmap();
+        }
+        // Degrees are kept apart from the neighbours, so picking the smaller side costs nothing.
+        if (degree(stores, bId) < degree(stores, aId)) {
+            int swap = aId;
+            aId = bId;
+            bId = swap;
+        }
+        return intersect(stores, bId, ids(stores, aId));
+    }
+
+    private static OccurrenceCounter.Keys commonKeys(AdjacencyStore[] stores, String a, String b) {
+        if (degree(stores, b) < degree(stores, a)) {
+            String swap = a;
+            a = b;
+            b = swap;
+        }
+        OccurrenceCounter.Keys smaller = keys(stores, a);
+        OccurrenceCounter.Keys shared = new OccurrenceCounter.Keys(Math.min(smaller.size(), EXPECTED_NEIGHBOURS));
+        if (smaller.size() == 0) {
+            return shared;
+        }
+        // A neighbour both ways along BOTH is streamed twice, but the shared table only keeps it once.
+        for (AdjacencyStore store : stores) {
+            store.forEach(b, neighbour -> {
+                if (smaller.contains(neighbour)) {
+                    shared.increment(neighbour);
+                }
+            });
+        }
+        return shared;
+    }
+
+    private static int size(AdjacencyStore[] stores, String node, NodeDictionary dictionary) {
+        if (stores.length == 1) {
+            return stores[0].degree(node);
+        }
+        if (stores[0] instanceof BitmapAdjacencyStore) {
+            int nodeId = dictionary.get(node);
+            return nodeId < 0 ? 0 : ids(stores, nodeId).getCardinality();
+        }
+        return keys(stores, node).size();
+    }
+
+    private static int degree(AdjacencyStore[] stores, int nodeId) {
+        int degree = 0;
+        for (AdjacencyStore store : stores) {
+            degree += ((BitmapAdjacencyStore) store).degree(nodeId);
+        }
+        return degree;
+    }
+
+    private static int degree(AdjacencyStore[] stores, String node) {
+        int degree = 0;
+        for (AdjacencyStore store : stores) {
+            degree += store.degree(node);
+        }
+        return degree;
+    }
+
+    private static RoaringBitmap ids(AdjacencyStore[] stores, int nodeId) {
+        RoaringBitmap ids = new RoaringBitmap();
+        for (AdjacencyStore store : stores) {
+            RoaringBitmap some = ((BitmapAdjacencyStore) store).getIds(nodeId);
+            if (some != null) {
+                ids.or(some);
+            }
+        }
+        return ids;
+    }
+
+    private static RoaringBitmap intersect(AdjacencyStore[] stores, int nodeId, RoaringBitmap ids) {
+        RoaringBitmap shared = ((BitmapAdjacencyStore) stores[0]).intersect(nodeId, ids);
+        for (int i = 1; i < stores.length; i++) {
+            shared.or(((BitmapAdjacencyStore) stores[i]).intersect(nodeId, ids));
+        }
+        return shared;
+    }
+
+    private static OccurrenceCounter.Keys keys(AdjacencyStore[] stores, String node) {
+        OccurrenceCounter.Keys keys = new OccurrenceCounter.Keys(EXPECTED_NEIGHBOURS);
+        for (AdjacencyStore store : stores) {
+            store.forEach(node, keys::increment);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,72 @@
+package com.maxdemarzi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Nodes fetched together, held as parallel arrays rather than a map per node. Either every node is decoded whole, or
+ * only the requested properties are read out of each one in place and kept as columns, one row per node. Rows come
+ * in the order the keys were given; nodes without properties have null ones.
+ */
+public class NodeBatch {
+
+    private final String[] keys;
+    // Null when whole nodes were fetched.
+    private final String[] properties;
+    private final Object[] values;
+
+    NodeBatch(String[] keys, String[] properties, Object[] values) {
+        this.keys = keys;
+        this.properties = properties;
+        this.values = values;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String getKey(int row) {
+        checkRow(row);
+        return keys[row];
+    }
+
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    // The requested properties, or an empty list when whole nodes were fetched.
+    public List<String> getProperties() {
+        return properties == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(properties));
+    }
+
+    // The whole node, when no properties were asked for.
+    public Object getNode(int row) {
+        checkRow(row);
+        if (properties != null) {
+            throw new IllegalStateException("Only " + Arrays.toString(properties) + " were fetched");
+        }
+        return values[row];
+    }
+
+    public Object getProperty(int row, String property) {
+        checkRow(row);
+        if (properties == null) {
+            Object node = values[row];
+            return node instanceof Map ? ((Map) node).get(property) : null;
+        }
+        for (int column = 0; column < properties.length; column++) {
+            if (properties[column].equals(property)) {
+                return values[row * properties.length + column];
+            }
+        }
+        throw new IllegalArgumentException(property + " was not fetched");
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= keys.length) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + keys.length);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapAbsentEntry;
+import net.openhft.chronicle.map.MapEntry;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+public class NodeDictionary {
+
+    private final ChronicleMap<String, Integer> ids;
+    private final ChronicleMap<Integer, String> keys;
+    private final AtomicInteger next;
+
+    public NodeDictionary(Integer maxNodes) {
+        this(GraphDirectory.inMemory(), maxNodes);
+    }
+
+    NodeDictionary(GraphDirectory directory, Integer maxNodes) {
+        this(directory, "node", maxNodes);
+    }
+
+    NodeDictionary(GraphDirectory directory, String name, Integer maxKeys) {
+        ids = directory.open(ChronicleMap
+                .of(String.class, Integer.class)
+                .name(name + "-ids")
+                .entries(maxKeys)
+                .averageKey("uno-dos-tres-cuatro"), name + "-ids");
+
+        keys = directory.open(ChronicleMap
+                .of(Integer.class, String.class)
+                .name(name + "-keys")
+                .entries(maxKeys)
+                .averageValue("uno-dos-tres-cuatro"), name + "-keys");
+
+        // After a crash an id may have been handed out without its key making it to disk, so find the real high
+        // water mark instead of trusting the size.
+        int highest = keys.size() - 1;
+        if (directory.isRecovering()) {
+            for (Integer id : keys.keySet()) {
+                highest = Math.max(highest, id);
+            }
+        }
+        next = new AtomicInteger(highest + 1);
+    }
+
+    // Ids are handed out densely and never reused, so they can index bitmaps and arrays directly.
+    public int getOrCreate(String key) {
+        try (ExternalMapQueryContext<String, Integer, ?> c = ids.queryContext(key)) {
+            c.updateLock().lock();
+            MapEntry<String, Integer> entry = c.entry();
+            if (entry != null) {
+                return entry.value().get();
+            }
+            int id = next.getAndIncrement();
+            keys.put(id, key);
+            MapAbsentEntry<String, Integer> absentEntry = c.absentEntry();
+            assert absentEntry != null;
+            absentEntry.doInsert(c.wrapValueAsData(id));
+            return id;
+        }
+    }
+
+    // Reads the id in place rather than boxing it, since every neighbour read in bitmap mode starts here.
+    public int get(String key) {
+        try (ExternalMapQueryContext<String, Integer, ?> c = ids.queryContext(key)) {
+            c.readLock().lock();
+            MapEntry<String, Integer> entry = c.entry();
+            if (entry == null) {
+                return -1;
+            }
+            Data<Integer> value = entry.value();
+            return value.bytes().readInt(value.offset());
+        }
+    }
+
+    // Like get, but for a reused sequence, so no String is made for it. String keys are stored as their UTF-8 bytes,
+    // which for ASCII is a byte per char; any other key is left to get.
+    int get(CharSequence key, ReadBuffers buffers) {
+        int size = key.length();
+        byte[] bytes = buffers.bytes(size);
+        for (int i = 0; i < size; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                return get(key.toString());
+            }
+            bytes[i] = (byte) c;
+        }
+        try (ExternalMapQueryContext<String, Integer, ?> c = ids.queryContext(buffers.wrapped(), 0, size)) {
+            c.readLock().lock();
+            MapEntry<String, Integer> entry = c.entry();
+            if (entry == null) {
+                return -1;
+            }
+            Data<Integer> value = entry.value();
+            return value.bytes().readInt(value.offset());
+        }
+    }
+
+    public String getKey(int id) {
+        return keys.get(id);
+    }
+
+    // Decodes the key's UTF-8 bytes straight into the builder instead of materializing a String.
+    boolean readKey(int id, ReadBuffers buffers, StringBuilder into) {
+        into.setLength(0);
+        try (ExternalMapQueryContext<Integer, String, ?> c = keys.queryContext(buffers.key(id), 0, 4)) {
+            c.readLock().lock();
+            MapEntry<Integer, String> entry = c.entry();
+            if (entry == null) {
+                return false;
+            }
+            Data<String> value = entry.value();
+            int size = (int) value.size();
+            byte[] bytes = buffers.bytes(size);
+            value.bytes().read(value.offset(), bytes, 0, size);
+            for (int i = 0; i < size; ) {
+                int b = bytes[i++] & 0xFF;
+                if (b < 0x80) {
+                    into.append((char) b);
+                } else if (b < 0xE0) {
+                    into.append((char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F)));
+                } else if (b < 0xF0) {
+                    into.append((char) (((b & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F)));
+                } else {
+                    into.appendCodePoint(((b & 0x07) << 18) | ((bytes[i++] & 0x3F) << 12)
+                            | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+                }
+            }
+            return true;
+        }
+    }
+
+    void forEach(ObjIntConsumer<String> consumer) {
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int size() {
+        return next.get();
+    }
+
+    public void close() {
+        ids.close();
+        keys.close();
+    }
+}
@@ -0,0 +1,115 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapAbsentEntry;
+import net.openhft.chronicle.map.MapEntry;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/*
+ * Records which relationship types, and in which direction, each node has ever taken part in, as a bit set with one
+ * bit per slot (type id * 2, plus one for incoming). Bits are only cleared when the whole node goes, so a node that
+ * lost its last edge of a type still points at that type; that costs a wasted probe, never a missed edge. The labels
+ * index keeps each node's label ids in a second one of these, with a slot per label.
+ */
+class NodeTypeMemberships {
+
+    static final int OUTGOING = 0;
+    static final int INCOMING = 1;
+
+    private final ChronicleMap<String, byte[]> memberships;
+
+    NodeTypeMemberships(GraphDirectory directory, Integer maxNodes) {
+        this(directory, "node-types", maxNodes);
+    }
+
+    NodeTypeMemberships(GraphDirectory directory, String name, Integer maxNodes) {
+        memberships = directory.open(ChronicleMap
+                .of(String.class, byte[].class)
+                .name(name)
+                .entries(maxNodes)
+                .averageKey("uno-dos-tres-cuatro")
+                .averageValueSize(2), name);
+    }
+
+    static int slot(int typeId, int direction) {
+        return typeId * 2 + direction;
+    }
+
+    // Nearly every edge lands on a node that already has its type, so check with a lock free read before locking.
+    void add(String node, int slot) {
+        int index = slot >>> 3;
+        byte bit = (byte) (1 << (slot & 7));
+        byte[] current = memberships.get(node);
+        if (current != null && index < current.length && (current[index] & bit) != 0) {
+            return;
+        }
+        try (ExternalMapQueryContext<String, byte[], ?> c = memberships.queryContext(node)) {
+            c.updateLock().lock();
+            MapEntry<String, byte[]> entry = c.entry();
+            if (entry == null) {
+                byte[] slots = new byte[index + 1];
+                slots[index] = bit;
+                MapAbsentEntry<String, byte[]> absentEntry = c.absentEntry();
+                assert absentEntry != null;
+                absentEntry.doInsert(c.wrapValueAsData(slots));
+                return;
+            }
+            Data<byte[]> value = entry.value();
+            if (index < value.size() && (value.bytes().readByte(value.offset() + index) & bit) != 0) {
+                return;
+            }
+            byte[] slots = value.get();
+            if (index >= slots.length) {
+                slots = Arrays.copyOf(slots, index + 1);
+            }
+            slots[index] |= bit;
+            entry.doReplaceValue(c.wrapValueAsData(slots));
+        }
+    }
+
+    // Replaces all of the node's slots with these in a single put, or forgets the node for none, and hands back the
+    // slots it had, in ascending order.
+    IntList set(String node, Collection<Integer> slots) {
+        if (slots.isEmpty()) {
+            return remove(node);
+        }
+        byte[] bits = new byte[(Collections.max(slots) >>> 3) + 1];
+        for (int slot : slots) {
+            bits[slot >>> 3] |= (byte) (1 << (slot & 7));
+        }
+        return slots(memberships.put(node, bits));
+    }
+
+    // The node's slots in ascending order.
+    IntList get(String node) {
+        return slots(memberships.get(node));
+    }
+
+    // Forgets the node and hands back the slots it had, in ascending order.
+    IntList remove(String node) {
+        return slots(memberships.remove(node));
+    }
+
+    private static IntList slots(byte[] bits) {
+        IntList slots = new IntList();
+        if (bits != null) {
+            for (int i = 0; i < bits.length; i++) {
+                for (int b = 0; b < 8; b++) {
+                    if ((bits[i] & (1 << b)) != 0) {
+                        slots.add(i * 8 + b);
+                    }
+                }
+            }
+        }
+        return slots;
+    }
+
+    void close() {
+        memberships.close();
+    }
+}
@@ -0,0 +1,280 @@
+package com.maxdemarzi;
+
+/*
+ * Open addressing counters for co-occurrence queries. Counting never boxes and a key is only stored the first time it
+ * is seen, so each hit costs a hash probe. A count of zero marks an empty slot. top() picks the highest counts with a
+ * bounded min-heap instead of sorting every candidate.
+ */
+abstract class OccurrenceCounter {
+
+    private static final int MIN_CAPACITY = 16;
+
+    int[] counts;
+    int mask;
+    int size;
+
+    OccurrenceCounter(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expected * 2) - 1) << 1;
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return counts.length;
+    }
+
+    int count(int slot) {
+        return counts[slot];
+    }
+
+    abstract int compareKeys(int slot, int other);
+
+    // Returns the slots with the highest counts, best first. Ties go to the smaller key so results are repeatable.
+    int[] top(int limit) {
+        int[] heap = new int[Math.max(0, Math.min(limit, size))];
+        if (heap.length == 0) {
+            return heap;
+        }
+        int n = 0;
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] == 0) {
+                continue;
+            }
+            if (n < heap.length) {
+                heap[n] = slot;
+                siftUp(heap, n++);
+            } else if (better(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, 0, n);
+            }
+        }
+        // The root is always the worst of what's left, so moving it to the back leaves the array best first.
+        for (int end = n - 1; end > 0; end--) {
+            swap(heap, 0, end);
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    private boolean better(int slot, int other) {
+        if (counts[slot] != counts[other]) {
+            return counts[slot] > counts[other];
+        }
+        return compareKeys(slot, other) < 0;
+    }
+
+    private void siftUp(int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(heap[parent], heap[index])) {
+                return;
+            }
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int index, int n) {
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < n && better(heap[worst], heap[left])) {
+                worst = left;
+            }
+            if (right < n && better(heap[worst], heap[right])) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(heap, worst, index);
+            index = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    static final class Ints extends OccurrenceCounter {
+
+        private int[] keys;
+
+        Ints(int expected) {
+            super(expected);
+            keys = new int[counts.length];
+        }
+
+        void increment(int key) {
+            add(key, 1);
+        }
+
+        void add(int key, int count) {
+            int slot = slot(key);
+            if (counts[slot] != 0) {
+                counts[slot] += count;
+                return;
+            }
+            keys[slot] = key;
+            counts[slot] = count;
+            if (++size * 2 > counts.length) {
+                grow();
+            }
+        }
+
+        void addAll(Ints other) {
+            for (int slot = 0; slot < other.counts.length; slot++) {
+                if (other.counts[slot] != 0) {
+                    add(other.keys[slot], other.counts[slot]);
+                }
+            }
+        }
+
+        boolean contains(int key) {
+            return counts[slot(key)] != 0;
+        }
+
+        int key(int slot) {
+            return keys[slot];
+        }
+
+        @Override
+        int compareKeys(int slot, int other) {
+            return Integer.compare(keys[slot], keys[other]);
+        }
+
+        private int slot(int key) {
+            int slot = mix(key) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            counts = new int[oldCounts.length * 2];
+            keys = new int[counts.length];
+            mask = counts.length - 1;
+            for (int i = 0; i < oldCounts.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+
+    // Keyed by node key. Lookups take any CharSequence, so reused buffers can be counted without making a String.
+    static final class Keys extends OccurrenceCounter {
+
+        private String[] keys;
+        private int[] hashes;
+
+        Keys(int expected) {
+            super(expected);
+            keys = new String[counts.length];
+            hashes = new int[counts.length];
+        }
+
+        void increment(CharSequence key) {
+            add(key, 1);
+        }
+
+        void add(CharSequence key, int count) {
+            int hash = hash(key);
+            int slot = slot(key, hash);
+            if (counts[slot] != 0) {
+                counts[slot] += count;
+                return;
+            }
+            keys[slot] = key.toString();
+            hashes[slot] = hash;
+            counts[slot] = count;
+            if (++size * 2 > counts.length) {
+                grow();
+            }
+        }
+
+        void addAll(Keys other) {
+            for (int slot = 0; slot < other.counts.length; slot++) {
+                if (other.counts[slot] != 0) {
+                    add(other.keys[slot], other.counts[slot]);
+                }
+            }
+        }
+
+        boolean contains(CharSequence key) {
+            return counts[slot(key, hash(key))] != 0;
+        }
+
+        // The key's slot, or -1 if it hasn't been counted.
+        int slotOf(CharSequence key) {
+            int slot = slot(key, hash(key));
+            return counts[slot] != 0 ? slot : -1;
+        }
+
+        String key(int slot) {
+            return keys[slot];
+        }
+
+        @Override
+        int compareKeys(int slot, int other) {
+            return keys[slot].compareTo(keys[other]);
+        }
+
+        private int slot(CharSequence key, int hash) {
+            int slot = hash & mask;
+            while (counts[slot] != 0 && (hashes[slot] != hash || !keys[slot].contentEquals(key))) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldCounts = counts;
+            counts = new int[oldCounts.length * 2];
+            keys = new String[counts.length];
+            hashes = new int[counts.length];
+            mask = counts.length - 1;
+            for (int i = 0; i < oldCounts.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = slot(oldKeys[i], oldHashes[i]);
+                    keys[slot] = oldKeys[i];
+                    hashes[slot] = oldHashes[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        // Same as String.hashCode, so Strings can use their cached hash.
+        private static int hash(CharSequence key) {
+            int hash;
+            if (key instanceof String) {
+                hash = key.hashCode();
+            } else {
+                hash = 0;
+                for (int i = 0; i < key.length(); i++) {
+                    hash = 31 * hash + key.charAt(i);
+                }
+            }
+            return mix(hash);
+        }
+    }
+}
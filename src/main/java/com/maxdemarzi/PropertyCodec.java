@@ -0,0 +1,317 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.map.ChronicleMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Turns node and relationship properties into compact bytes. Every value starts with a tag byte: property maps whose
+// values are all primitives or strings become a schema id followed by the bare values, a single primitive or string
+// is stored as its type tag and value, and anything else falls back to Java serialization.
+class PropertyCodec {
+
+    static final byte SERIALIZED = 0;
+    static final byte SCHEMA = 64;
+
+    private static final int HEADER = 1 + 4;
+    private static final int MAX_SCHEMAS = 10_000;
+
+    // Schema ids are handed out densely and kept on disk so stored values can still be read after a restart.
+    private final ChronicleMap<Integer, String> catalog;
+    private final ConcurrentHashMap<String, PropertySchema> schemas = new ConcurrentHashMap<>();
+    private volatile PropertySchema[] byId = new PropertySchema[0];
+    // Most writes repeat the shape of the one before, so try that before building a descriptor.
+    private final ThreadLocal<PropertySchema> last = new ThreadLocal<>();
+
+    PropertyCodec(GraphDirectory directory) {
+        catalog = directory.open(ChronicleMap
+                .of(Integer.class, String.class)
+                .name("property-schemas")
+                .entries(MAX_SCHEMAS)
+                .averageValue("i2:ids8:username"), "property-schemas");
+
+        for (Map.Entry<Integer, String> entry : catalog.entrySet()) {
+            register(new PropertySchema(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    // For reading values encoded by another graph, with its schemas handed over through define as they turn up.
+    PropertyCodec() {
+        catalog = null;
+    }
+
+    byte[] encode(Object value) {
+        PropertyType type = PropertyType.of(value);
+        if (type != null) {
+            byte[] text = type == PropertyType.STRING ? utf8(value) : null;
+            Bytes<byte[]> out = Bytes.wrapForWrite(new byte[1 + sizeOf(type, text)]);
+            out.writeByte(type.tag());
+            write(out, type, value, text);
+            return out.underlyingObject();
+        }
+        if (value instanceof Map) {
+            Map<?, ?> properties = (Map<?, ?>) value;
+            PropertySchema schema = schemaOf(properties);
+            if (schema != null) {
+                return encode(schema, properties);
+            }
+        }
+        return serialize(value);
+    }
+
+    Object decode(byte[] value) {
+        return decode(BytesStore.wrap(value), 0, value.length);
+    }
+
+    Object decode(RandomDataInput in, long offset, long size) {
+        byte tag = in.readByte(offset);
+        if (tag == SCHEMA) {
+            PropertySchema schema = schema(in.readInt(offset + 1));
+            HashMap<String, Object> properties = new HashMap<>((int) (schema.names.length / 0.75) + 1);
+            long strings = offset + HEADER + schema.fixedSize;
+            for (int i = 0; i < schema.names.length; i++) {
+                PropertyType type = schema.types[i];
+                if (type.isFixedWidth()) {
+                    properties.put(schema.names[i], read(in, offset + HEADER + schema.offsets[i], type));
+                } else {
+                    int length = in.readInt(strings);
+                    properties.put(schema.names[i], readUtf8(in, strings + 4, length));
+                    strings += 4 + length;
+                }
+            }
+            return properties;
+        }
+        if (tag == SERIALIZED) {
+            return deserialize(in, offset + 1, size - 1);
+        }
+        return read(in, offset + 1, PropertyType.ofTag(tag));
+    }
+
+    // Reads one property in place, skipping over the strings ahead of it but decoding nothing else.
+    Object property(RandomDataInput in, long offset, long size, String name) {
+        byte tag = in.readByte(offset);
+        if (tag == SCHEMA) {
+            PropertySchema schema = schema(in.readInt(offset + 1));
+            int index = schema.indexOf(name);
+            if (index < 0) {
+                return null;
+            }
+            PropertyType type = schema.types[index];
+            if (type.isFixedWidth()) {
+                return read(in, offset + HEADER + schema.offsets[index], type);
+            }
+            long strings = offset + HEADER + schema.fixedSize;
+            for (int i = 0; i < schema.offsets[index]; i++) {
+                strings += 4 + in.readInt(strings);
+            }
+            return readUtf8(in, strings + 4, in.readInt(strings));
+        }
+        if (tag == SERIALIZED) {
+            Object value = deserialize(in, offset + 1, size - 1);
+            return value instanceof Map ? ((Map) value).get(name) : null;
+        }
+        return null;
+    }
+
+    // The encoded size without registering a schema, for sizing maps from a sample value.
+    static int sizeOf(Object value) {
+        PropertyType type = PropertyType.of(value);
+        if (type != null) {
+            return 1 + sizeOf(type, type == PropertyType.STRING ? utf8(value) : null);
+        }
+        if (value instanceof Map && PropertySchema.descriptorOf((Map<?, ?>) value) != null) {
+            int size = HEADER;
+            for (Object property : ((Map<?, ?>) value).values()) {
+                PropertyType propertyType = PropertyType.of(property);
+                size += sizeOf(propertyType, propertyType == PropertyType.STRING ? utf8(property) : null);
+            }
+            return size;
+        }
+        return serialize(value).length;
+    }
+
+    // The schema id an encoded value was written with, or -1 if it didn't use one.
+    static int schemaIdOf(byte[] encoded) {
+        return encoded.length > 0 && encoded[0] == SCHEMA ? BytesStore.wrap(encoded).readInt(1) : -1;
+    }
+
+    String descriptor(int id) {
+        return schema(id).descriptor;
+    }
+
+    void define(int id, String descriptor) {
+        PropertySchema[] current = byId;
+        if (id >= current.length || current[id] == null) {
+            register(new PropertySchema(id, descriptor));
+        }
+    }
+
+    int schemaCount() {
+        return byId.length;
+    }
+
+    void close() {
+        if (catalog != null) {
+            catalog.close();
+        }
+    }
+
+    private PropertySchema schemaOf(Map<?, ?> properties) {
+        PropertySchema schema = last.get();
+        if (schema != null && schema.matches(properties)) {
+            return schema;
+        }
+        String descriptor = PropertySchema.descriptorOf(properties);
+        if (descriptor == null) {
+            return null;
+        }
+        schema = schemas.get(descriptor);
+        if (schema == null) {
+            schema = create(descriptor);
+        }
+        if (schema != null) {
+            last.set(schema);
+        }
+        return schema;
+    }
+
+    // Once the catalog is full, new shapes are serialized instead.
+    private synchronized PropertySchema create(String descriptor) {
+        PropertySchema schema = schemas.get(descriptor);
+        if (schema == null && byId.length < MAX_SCHEMAS) {
+            schema = new PropertySchema(byId.length, descriptor);
+            if (catalog != null) {
+                catalog.put(schema.id, descriptor);
+            }
+            register(schema);
+        }
+        return schema;
+    }
+
+    private synchronized void register(PropertySchema schema) {
+        PropertySchema[] grown = Arrays.copyOf(byId, Math.max(byId.length, schema.id + 1));
+        grown[schema.id] = schema;
+        byId = grown;
+        schemas.put(schema.descriptor, schema);
+    }
+
+    private PropertySchema schema(int id) {
+        PropertySchema[] current = byId;
+        if (id >= current.length || current[id] == null) {
+            throw new IORuntimeException("Unknown property schema " + id);
+        }
+        return current[id];
+    }
+
+    private static byte[] encode(PropertySchema schema, Map<?, ?> properties) {
+        byte[][] texts = new byte[schema.names.length][];
+        int size = HEADER + schema.fixedSize;
+        for (int i = 0; i < schema.names.length; i++) {
+            if (!schema.types[i].isFixedWidth()) {
+                texts[i] = utf8(properties.get(schema.names[i]));
+                size += 4 + texts[i].length;
+            }
+        }
+        Bytes<byte[]> out = Bytes.wrapForWrite(new byte[size]);
+        out.writeByte(SCHEMA);
+        out.writeInt(schema.id);
+        for (int i = 0; i < schema.names.length; i++) {
+            if (schema.types[i].isFixedWidth()) {
+                write(out, schema.types[i], properties.get(schema.names[i]), null);
+            }
+        }
+        for (int i = 0; i < schema.names.length; i++) {
+            if (texts[i] != null) {
+                write(out, PropertyType.STRING, null, texts[i]);
+            }
+        }
+        return out.underlyingObject();
+    }
+
+    private static int sizeOf(PropertyType type, byte[] text) {
+        return type.isFixedWidth() ? type.width : 4 + text.length;
+    }
+
+    static void write(Bytes<byte[]> out, PropertyType type, Object value, byte[] text) {
+        switch (type) {
+            case BOOLEAN:
+                out.writeByte((byte) ((Boolean) value ? 1 : 0));
+                break;
+            case INT:
+                out.writeInt((Integer) value);
+                break;
+            case LONG:
+                out.writeLong((Long) value);
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            default:
+                out.writeInt(text.length);
+                out.write(text);
+        }
+    }
+
+    static Object read(RandomDataInput in, long offset, PropertyType type) {
+        switch (type) {
+            case BOOLEAN:
+                return in.readByte(offset) != 0;
+            case INT:
+                return in.readInt(offset);
+            case LONG:
+                return in.readLong(offset);
+            case FLOAT:
+                return in.readFloat(offset);
+            case DOUBLE:
+                return in.readDouble(offset);
+            default:
+                return readUtf8(in, offset + 4, in.readInt(offset));
+        }
+    }
+
+    private static byte[] utf8(Object value) {
+        return ((String) value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readUtf8(RandomDataInput in, long offset, int length) {
+        byte[] bytes = new byte[length];
+        in.read(offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        serialized.write(SERIALIZED);
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        return serialized.toByteArray();
+    }
+
+    private static Object deserialize(RandomDataInput in, long offset, long size) {
+        byte[] bytes = new byte[(int) size];
+        in.read(offset, bytes, 0, bytes.length);
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objects.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * Index of one node property. Every distinct value gets an id from its own dictionary, and the value's posting list
+ * of node ids lives in a chunked bitmap store keyed by that id, so exact matches are one lookup and a popular value
+ * never outgrows a single map entry. Whole numbers are kept as longs, so 50 and 50.0 are the same value and longs
+ * past 2^53 stay exact, and only the rest are doubles. Range scans walk an on-heap skip list of the distinct values,
+ * which is rebuilt from the value dictionary on open.
+ */
+class PropertyIndex {
+
+    private static final int AVERAGE_NODES_PER_VALUE = 10;
+
+    private static final Comparator<Object> VALUE_ORDER = PropertyIndex::compare;
+    // 2^63, the first double past the end of the long range.
+    private static final double LONG_RANGE = 0x1p63;
+
+    private final GraphDirectory directory;
+    private final String property;
+    private final NodeDictionary values;
+    private final BitmapAdjacencyStore postings;
+    private final ConcurrentSkipListMap<Object, Integer> sorted = new ConcurrentSkipListMap<>(VALUE_ORDER);
+    // Set once every node already in the graph has been indexed.
+    private volatile boolean ready;
+
+    PropertyIndex(GraphDirectory directory, String property, Integer maxNodes, NodeDictionary dictionary) {
+        this.directory = directory;
+        this.property = property;
+        values = new NodeDictionary(directory, fileName(property) + "-values", maxNodes);
+        postings = new BitmapAdjacencyStore(directory, fileName(property), maxNodes, AVERAGE_NODES_PER_VALUE, dictionary);
+        values.forEach((value, valueId) -> sorted.put(decode(value), valueId));
+    }
+
+    static String fileName(String property) {
+        return "index-" + property;
+    }
+
+    String property() {
+        return property;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void ready() {
+        ready = true;
+    }
+
+    Object valueOf(Object properties) {
+        if (properties instanceof Map) {
+            return ((Map) properties).get(property);
+        }
+        return null;
+    }
+
+    void add(Object value, int nodeId) {
+        Object normalized = normalize(value);
+        int valueId = values.getOrCreate(encode(normalized));
+        postings.add(valueId, nodeId);
+        sorted.putIfAbsent(normalized, valueId);
+    }
+
+    void remove(Object value, int nodeId) {
+        int valueId = values.get(encode(normalize(value)));
+        if (valueId >= 0) {
+            postings.remove(valueId, nodeId);
+        }
+    }
+
+    RoaringBitmap find(Object value) {
+        int valueId = values.get(encode(normalize(value)));
+        RoaringBitmap nodeIds = valueId < 0 ? null : postings.getIds(valueId);
+        return nodeIds == null ? new RoaringBitmap() : nodeIds;
+    }
+
+    // Both ends are inclusive, and a low end above the high one matches nothing.
+    RoaringBitmap findInRange(Object low, Object high) {
+        RoaringBitmap nodeIds = new RoaringBitmap();
+        Object from = normalize(low);
+        Object to = normalize(high);
+        if (compare(from, to) > 0) {
+            return nodeIds;
+        }
+        for (int valueId : sorted.subMap(from, true, to, true).values()) {
+            RoaringBitmap matches = postings.getIds(valueId);
+            if (matches != null) {
+                nodeIds.or(matches);
+            }
+        }
+        return nodeIds;
+    }
+
+    void close() {
+        postings.close();
+        values.close();
+    }
+
+    // Only for an index nothing else has open.
+    void delete() {
+        postings.delete();
+        values.close();
+        directory.delete(fileName(property) + "-values-ids");
+        directory.delete(fileName(property) + "-values-keys");
+    }
+
+    // Numbers sort before booleans, which sort before everything else, compared as strings. Both values are
+    // normalized, so once their ranks match they are the same Comparable type, unless one is a long and the other a
+    // double.
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        int order = Integer.compare(rank(a), rank(b));
+        if (order != 0) {
+            return order;
+        }
+        if (a instanceof Long && b instanceof Double) {
+            return compare(((Long) a).longValue(), ((Double) b).doubleValue());
+        }
+        if (a instanceof Double && b instanceof Long) {
+            return -compare(((Long) b).longValue(), ((Double) a).doubleValue());
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    // The double is never a whole number that fits a long, so either it is out of the long range altogether or it has
+    // a fraction, and then it is below 2^52 where turning the long into a double can't make the two look equal.
+    private static int compare(long a, double b) {
+        if (b >= LONG_RANGE) {
+            return -1;
+        }
+        if (b < -LONG_RANGE) {
+            return 1;
+        }
+        return Double.compare(a, b);
+    }
+
+    static Object normalize(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && number >= -LONG_RANGE && number < LONG_RANGE) {
+                return (long) number;
+            }
+            return number;
+        }
+        if (value instanceof Boolean) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    static boolean sameValue(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return normalize(a).equals(normalize(b));
+    }
+
+    static boolean inRange(Object value, Object low, Object high) {
+        if (value == null) {
+            return false;
+        }
+        Object normalized = normalize(value);
+        return VALUE_ORDER.compare(normalized, normalize(low)) >= 0 && VALUE_ORDER.compare(normalized, normalize(high)) <= 0;
+    }
+
+    private static int rank(Object normalized) {
+        if (normalized instanceof Number) {
+            return 0;
+        }
+        if (normalized instanceof Boolean) {
+            return 1;
+        }
+        return 2;
+    }
+
+    private static String encode(Object normalized) {
+        return (normalized instanceof Long ? 'l' : "dbs".charAt(rank(normalized))) + normalized.toString();
+    }
+
+    private static Object decode(String encoded) {
+        String value = encoded.substring(1);
+        switch (encoded.charAt(0)) {
+            case 'l':
+                return Long.valueOf(value);
+            case 'd':
+                return Double.valueOf(value);
+            case 'b':
+                return Boolean.valueOf(value);
+            default:
+                return value;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+class PropertyIndexRegistry {
+
+    private final GraphDirectory directory;
+    private final NodeDictionary dictionary;
+    private final Integer maxNodes;
+    // Catalog values are the node capacity the index was sized for.
+    private final ChronicleMap<String, Integer> catalog;
+    private final ConcurrentHashMap<String, PropertyIndex> indexes = new ConcurrentHashMap<>();
+
+    PropertyIndexRegistry(GraphDirectory directory, NodeDictionary dictionary, Integer maxNodes) {
+        this.directory = directory;
+        this.dictionary = dictionary;
+        this.maxNodes = maxNodes;
+
+        catalog = directory.open(ChronicleMap
+                .of(String.class, Integer.class)
+                .name("property-indexes")
+                .entries(1_000)
+                .averageKey("property-name"), "property-indexes");
+
+        for (Map.Entry<String, Integer> entry : catalog.entrySet()) {
+            PropertyIndex index = new PropertyIndex(directory, entry.getKey(), entry.getValue(), dictionary);
+            index.ready();
+            indexes.put(entry.getKey(), index);
+        }
+    }
+
+    // Indexes the nodes already in the graph too, so it is ready to answer as soon as this returns. The index is
+    // handed to update() before the scan, so writes that land while it runs keep it current, and each node is read
+    // again under its lock so the scan never puts back a value a writer has just moved it off. Until the scan is done
+    // queries on the property still scan the nodes, and the catalog only names the index once it is complete, so a
+    // build cut short by a crash is started over rather than trusted.
+    synchronized boolean create(String property, PropertyStore<String> nodes, EdgeLocks nodeLocks) {
+        if (indexes.containsKey(property)) {
+            return false;
+        }
+        if (directory.exists(PropertyIndex.fileName(property))) {
+            new PropertyIndex(directory, property, maxNodes, dictionary).delete();
+        }
+        PropertyIndex index = new PropertyIndex(directory, property, maxNodes, dictionary);
+        indexes.put(property, index);
+        try {
+            nodes.forEachKey(key -> {
+                synchronized (nodeLocks.lockFor(key)) {
+                    Object value = index.valueOf(nodes.get(key));
+                    if (value != null) {
+                        index.add(value, dictionary.getOrCreate(key));
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Writers may still be holding it, so its maps are left for the next create to clear away.
+            indexes.remove(property);
+            throw e;
+        }
+        catalog.put(property, maxNodes);
+        index.ready();
+        return true;
+    }
+
+    boolean contains(String property) {
+        PropertyIndex index = indexes.get(property);
+        return index != null && index.isReady();
+    }
+
+    Set<String> getIndexedProperties() {
+        Set<String> properties = new HashSet<>();
+        indexes.forEach((property, index) -> {
+            if (index.isReady()) {
+                properties.add(property);
+            }
+        });
+        return properties;
+    }
+
+    // Moves the node between posting lists for every indexed property whose value changed, including indexes that
+    // are still being built.
+    void update(String key, Object previous, Object current) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        for (PropertyIndex index : indexes.values()) {
+            Object before = index.valueOf(previous);
+            Object after = index.valueOf(current);
+            if (PropertyIndex.sameValue(before, after)) {
+                continue;
+            }
+            int nodeId = dictionary.getOrCreate(key);
+            if (before != null) {
+                index.remove(before, nodeId);
+            }
+            if (after != null) {
+                index.add(after, nodeId);
+            }
+        }
+    }
+
+    Set<String> find(String property, Object value) {
+        return toKeys(indexes.get(property).find(value));
+    }
+
+    Set<String> findInRange(String property, Object low, Object high) {
+        return toKeys(indexes.get(property).findInRange(low, high));
+    }
+
+    void close() {
+        for (PropertyIndex index : indexes.values()) {
+            index.close();
+        }
+        catalog.close();
+    }
+
+    private Set<String> toKeys(RoaringBitmap nodeIds) {
+        Set<String> keys = new HashSet<>((int) (nodeIds.getCardinality() / 0.75) + 1);
+        IntIterator iterator = nodeIds.getIntIterator();
+        while (iterator.hasNext()) {
+            keys.add(dictionary.getKey(iterator.next()));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,93 @@
+package com.maxdemarzi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The names and types of a property map, laid out with the fixed width values first at known offsets and the strings
+// after them in order, so a single property can be found without decoding the others.
+final class PropertySchema {
+
+    final int id;
+    final String descriptor;
+    final String[] names;
+    final PropertyType[] types;
+    // Byte offset of each fixed width value, or the position among the strings for a string.
+    final int[] offsets;
+    final int fixedSize;
+    private final HashMap<String, Integer> fields;
+
+    PropertySchema(int id, String descriptor) {
+        this.id = id;
+        this.descriptor = descriptor;
+        List<String> names = new ArrayList<>();
+        List<PropertyType> types = new ArrayList<>();
+        for (int i = 0; i < descriptor.length(); ) {
+            PropertyType type = PropertyType.ofCode(descriptor.charAt(i++));
+            int colon = descriptor.indexOf(':', i);
+            int length = Integer.parseInt(descriptor.substring(i, colon));
+            names.add(descriptor.substring(colon + 1, colon + 1 + length));
+            types.add(type);
+            i = colon + 1 + length;
+        }
+        this.names = names.toArray(new String[0]);
+        this.types = types.toArray(new PropertyType[0]);
+        this.offsets = new int[this.names.length];
+        this.fields = new HashMap<>(this.names.length * 2);
+        int fixed = 0;
+        int strings = 0;
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.types[i].isFixedWidth()) {
+                offsets[i] = fixed;
+                fixed += this.types[i].width;
+            } else {
+                offsets[i] = strings++;
+            }
+            fields.put(this.names[i], i);
+        }
+        this.fixedSize = fixed;
+    }
+
+    int indexOf(String name) {
+        Integer index = fields.get(name);
+        return index == null ? -1 : index;
+    }
+
+    boolean matches(Map<?, ?> properties) {
+        if (properties.size() != names.length) {
+            return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (PropertyType.of(properties.get(names[i])) != types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns null when the map holds something the schema encoding can't express, like nested maps or null values.
+    static String descriptorOf(Map<?, ?> properties) {
+        String[] fields = new String[properties.size()];
+        int i = 0;
+        for (Map.Entry<?, ?> entry : properties.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                return null;
+            }
+            PropertyType type = PropertyType.of(entry.getValue());
+            if (type == null) {
+                return null;
+            }
+            String name = (String) entry.getKey();
+            // Fixed width types sort ahead of strings, then by name, so every map with the same shape agrees.
+            fields[i++] = (type.isFixedWidth() ? '0' : '1') + name + '\u0000' + type.code + name.length() + ':' + name;
+        }
+        Arrays.sort(fields);
+        StringBuilder descriptor = new StringBuilder();
+        for (String field : fields) {
+            descriptor.append(field, field.indexOf('\u0000') + 1, field.length());
+        }
+        return descriptor.toString();
+    }
+}
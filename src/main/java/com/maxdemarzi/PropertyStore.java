@@ -0,0 +1,136 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Node properties keyed by their String key, or relationship properties keyed by an EdgeKey, stored as PropertyCodec
+// bytes rather than serialized objects.
+class PropertyStore<K> {
+
+    private final ChronicleMap<K, byte[]> properties;
+    private final PropertyCodec codec;
+    private final GraphMetrics.ByteCounter bytes;
+
+    // The builder comes with its keys already described.
+    PropertyStore(GraphDirectory directory, String name, ChronicleMapBuilder<K, byte[]> builder, Integer maximum,
+                  Object averageValue, PropertyCodec codec, GraphMetrics.ByteCounter bytes) {
+        this.codec = codec;
+        this.bytes = bytes;
+        properties = directory.open(builder
+                .name(name)
+                .entries(maximum)
+                .averageValueSize(PropertyCodec.sizeOf(averageValue)), name);
+    }
+
+    // Returns the previous value, if there was one.
+    Object put(K key, Object value) {
+        return putEncoded(key, codec.encode(value));
+    }
+
+    // For callers that need the encoded bytes themselves as well.
+    Object putEncoded(K key, byte[] encoded) {
+        byte[] previous = properties.put(key, encoded);
+        bytes.wrote(encoded.length);
+        if (previous == null) {
+            return null;
+        }
+        bytes.read(previous.length);
+        return codec.decode(previous);
+    }
+
+    Object get(K key) {
+        byte[] value = properties.get(key);
+        if (value == null) {
+            return null;
+        }
+        bytes.read(value.length);
+        return codec.decode(value);
+    }
+
+    Object getProperty(K key, String property) {
+        try (ExternalMapQueryContext<K, byte[], ?> c = properties.queryContext(key)) {
+            c.readLock().lock();
+            MapEntry<K, byte[]> entry = c.entry();
+            if (entry == null) {
+                return null;
+            }
+            Data<byte[]> value = entry.value();
+            bytes.read(value.size());
+            return codec.property(value.bytes(), value.offset(), value.size(), property);
+        }
+    }
+
+    // A plain get copies the bytes out but skips the external query context, which costs more than the copy for values
+    // this small. Keys without properties are left null.
+    void getAll(K[] keys, Object[] into) {
+        for (int i = 0; i < keys.length; i++) {
+            byte[] value = properties.get(keys[i]);
+            if (value != null) {
+                bytes.read(value.length);
+                into[i] = codec.decode(value);
+            }
+        }
+    }
+
+    // Just the named properties, a row of them per key: property j of key i goes in into[i * names.length + j].
+    void getAll(K[] keys, String[] names, Object[] into) {
+        for (int i = 0; i < keys.length; i++) {
+            byte[] value = properties.get(keys[i]);
+            if (value != null) {
+                bytes.read(value.length);
+                BytesStore<?, byte[]> in = BytesStore.wrap(value);
+                for (int j = 0; j < names.length; j++) {
+                    into[i * names.length + j] = codec.property(in, 0, value.length, names[j]);
+                }
+            }
+        }
+    }
+
+    boolean containsKey(K key) {
+        return properties.containsKey(key);
+    }
+
+    Object remove(K key) {
+        byte[] previous = properties.remove(key);
+        return previous == null ? null : codec.decode(previous);
+    }
+
+    // Like remove, but without decoding what was there.
+    boolean delete(K key) {
+        return properties.remove(key) != null;
+    }
+
+    void forEachKey(Consumer<K> consumer) {
+        for (K key : properties.keySet()) {
+            consumer.accept(key);
+        }
+    }
+
+    void forEach(BiConsumer<K, Object> consumer) {
+        for (Map.Entry<K, byte[]> entry : properties.entrySet()) {
+            consumer.accept(entry.getKey(), codec.decode(entry.getValue()));
+        }
+    }
+
+    int segmentOf(K key) {
+        try (ExternalMapQueryContext<K, byte[], ?> c = properties.queryContext(key)) {
+            return c.segmentIndex();
+        }
+    }
+
+    int size() {
+        return properties.size();
+    }
+
+    void close() {
+        properties.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.maxdemarzi;
+
+enum PropertyType {
+    BOOLEAN('z', 1),
+    INT('i', 4),
+    LONG('j', 8),
+    FLOAT('f', 4),
+    DOUBLE('d', 8),
+    // Strings are an int byte count followed by the UTF-8 bytes.
+    STRING('s', -1);
+
+    private static final PropertyType[] TYPES = values();
+
+    final char code;
+    final int width;
+
+    PropertyType(char code, int width) {
+        this.code = code;
+        this.width = width;
+    }
+
+    boolean isFixedWidth() {
+        return width > 0;
+    }
+
+    byte tag() {
+        return (byte) (ordinal() + 1);
+    }
+
+    static PropertyType of(Object value) {
+        if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof Integer) {
+            return INT;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        }
+        return null;
+    }
+
+    static PropertyType ofTag(byte tag) {
+        return tag > 0 && tag <= TYPES.length ? TYPES[tag - 1] : null;
+    }
+
+    static PropertyType ofCode(char code) {
+        for (PropertyType type : TYPES) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown property type " + code);
+    }
+}
@@ -0,0 +1,81 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.BytesStore;
+
+/*
+ * Scratch space for reading neighbours straight out of the off-heap maps without allocating. Neighbours are copied
+ * out under the entry's read lock and handed to the consumer after it is released, so a consumer is free to go back
+ * into the graph. Each thread keeps a chain of these, one per level of nesting, so a traversal started from inside a
+ * callback doesn't clobber the buffers the outer one is still walking.
+ */
+final class ReadBuffers {
+
+    private static final ThreadLocal<ReadBuffers> BUFFERS = ThreadLocal.withInitial(ReadBuffers::new);
+
+    private final BytesStore<?, byte[]> key = BytesStore.wrap(new byte[8]);
+    final StringBuilder text = new StringBuilder();
+    final IntList ends = new IntList();
+    final IntList ids = new IntList();
+    final IntList chunks = new IntList();
+    final StringBuilder current = new StringBuilder();
+    private byte[] bytes = new byte[64];
+    private BytesStore<?, byte[]> wrapped = BytesStore.wrap(bytes);
+    private ReadBuffers inner;
+    private boolean inUse;
+
+    static ReadBuffers acquire() {
+        ReadBuffers buffers = BUFFERS.get();
+        while (buffers.inUse) {
+            if (buffers.inner == null) {
+                buffers.inner = new ReadBuffers();
+            }
+            buffers = buffers.inner;
+        }
+        buffers.inUse = true;
+        buffers.text.setLength(0);
+        buffers.ends.clear();
+        buffers.ids.clear();
+        buffers.chunks.clear();
+        return buffers;
+    }
+
+    void release() {
+        inUse = false;
+    }
+
+    // Integer and Long map keys are stored as their native bytes, so these can be handed to queryContext as is.
+    BytesStore<?, byte[]> key(int value) {
+        key.writeInt(0, value);
+        return key;
+    }
+
+    BytesStore<?, byte[]> key(long value) {
+        key.writeLong(0, value);
+        return key;
+    }
+
+    byte[] bytes(int size) {
+        if (bytes.length < size) {
+            bytes = new byte[Math.max(size, bytes.length * 2)];
+            wrapped = BytesStore.wrap(bytes);
+        }
+        return bytes;
+    }
+
+    // The array bytes() last returned, for handing to queryContext as a serialized key.
+    BytesStore<?, byte[]> wrapped() {
+        return wrapped;
+    }
+
+    // Hands every neighbour gathered in text/ends to the consumer and returns how many there were.
+    int emit(NeighbourConsumer consumer) {
+        int start = 0;
+        for (int i = 0; i < ends.size(); i++) {
+            current.setLength(0);
+            current.append(text, start, ends.get(i));
+            consumer.accept(current);
+            start = ends.get(i);
+        }
+        return ends.size();
+    }
+}
@@ -0,0 +1,243 @@
+package com.maxdemarzi;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/*
+ * A bounded on-heap cache of decoded values in front of the off-heap maps, for the few keys that get most of the reads.
+ * Keys are spread over stripes that each hold a slice of the byte budget and evict by segmented LRU: a key comes in on
+ * probation and only moves to the protected segment when it is read again, so a scan over cold keys can push out other
+ * cold keys but not the hot ones. Sizes are the caller's estimate of the heap a value takes.
+ *
+ * Writers invalidate after changing the map underneath. A reader that missed remembers how many invalidations its
+ * stripe had seen before loading and only keeps what it loaded if there have been none since, so a value read before
+ * a write can never be cached after it.
+ */
+class ReadCache<K, V> {
+
+    private static final int STRIPES = 16;
+    // Of each stripe's budget, how much the protected segment may hold.
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final Stripe<K, V>[] stripes;
+    private final ToLongFunction<V> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    ReadCache(long maximumBytes, ToLongFunction<V> weigher) {
+        this.weigher = weigher;
+        stripes = (Stripe<K, V>[]) new Stripe<?, ?>[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>(maximumBytes / STRIPES);
+        }
+    }
+
+    private Stripe<K, V> stripeFor(Object key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    // Loads and caches on a miss. Nothing is cached for keys the loader returns null for.
+    V get(K key, Function<K, V> loader) {
+        Stripe<K, V> stripe = stripeFor(key);
+        long invalidations;
+        synchronized (stripe) {
+            V value = stripe.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            invalidations = stripe.invalidations;
+        }
+        misses.increment();
+        V value = loader.apply(key);
+        if (value != null) {
+            long weight = weigher.applyAsLong(value);
+            synchronized (stripe) {
+                if (stripe.invalidations == invalidations) {
+                    evictions.add(stripe.put(key, value, weight));
+                }
+            }
+        }
+        return value;
+    }
+
+    void invalidate(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.invalidations++;
+            stripe.remove(key);
+        }
+    }
+
+    void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.invalidations++;
+                stripe.clear();
+            }
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.probationBytes + stripe.protectedBytes;
+            }
+        }
+        return weight;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.probation.size() + stripe.protectedEntries.size();
+            }
+        }
+        return size;
+    }
+
+    // Rough heap bytes of a decoded property value, on a 64 bit JVM with compressed oops.
+    static long estimate(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Map) {
+            long weight = 64;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                weight += 36 + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return weight;
+        }
+        if (value instanceof Collection) {
+            long weight = 40;
+            for (Object element : (Collection<?>) value) {
+                weight += 8 + estimate(element);
+            }
+            return weight;
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 24;
+    }
+
+    private static final class Cached<V> {
+        private final V value;
+        private final long weight;
+
+        Cached(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    // Both segments iterate least recently used first. Callers hold the stripe's monitor.
+    private static final class Stripe<K, V> {
+        private final long maximumBytes;
+        private final long protectedMaximumBytes;
+        private final LinkedHashMap<K, Cached<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Cached<V>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+        private long invalidations;
+
+        Stripe(long maximumBytes) {
+            this.maximumBytes = maximumBytes;
+            this.protectedMaximumBytes = (long) (maximumBytes * PROTECTED_SHARE);
+        }
+
+        V get(K key) {
+            Cached<V> cached = protectedEntries.get(key);
+            if (cached != null) {
+                return cached.value;
+            }
+            cached = probation.remove(key);
+            if (cached == null) {
+                return null;
+            }
+            // Read a second time, so it has earned its place.
+            probationBytes -= cached.weight;
+            protectedEntries.put(key, cached);
+            protectedBytes += cached.weight;
+            Iterator<Map.Entry<K, Cached<V>>> eldest = protectedEntries.entrySet().iterator();
+            while (protectedBytes > protectedMaximumBytes && eldest.hasNext()) {
+                Map.Entry<K, Cached<V>> demoted = eldest.next();
+                if (demoted.getKey().equals(key)) {
+                    break;
+                }
+                eldest.remove();
+                protectedBytes -= demoted.getValue().weight;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().weight;
+            }
+            return cached.value;
+        }
+
+        // Returns how many entries had to go to make room.
+        int put(K key, V value, long weight) {
+            if (weight > maximumBytes - protectedMaximumBytes) {
+                return 0;
+            }
+            remove(key);
+            probation.put(key, new Cached<>(value, weight));
+            probationBytes += weight;
+            int evicted = 0;
+            while (probationBytes + protectedBytes > maximumBytes) {
+                LinkedHashMap<K, Cached<V>> victims = probation.isEmpty() ? protectedEntries : probation;
+                Iterator<Map.Entry<K, Cached<V>>> eldest = victims.entrySet().iterator();
+                Cached<V> victim = eldest.next().getValue();
+                eldest.remove();
+                if (victims == probation) {
+                    probationBytes -= victim.weight;
+                } else {
+                    protectedBytes -= victim.weight;
+                }
+                evicted++;
+            }
+            return evicted;
+        }
+
+        void remove(K key) {
+            Cached<V> cached = probation.remove(key);
+            if (cached != null) {
+                probationBytes -= cached.weight;
+            }
+            cached = protectedEntries.remove(key);
+            if (cached != null) {
+                protectedBytes -= cached.weight;
+            }
+        }
+
+        void clear() {
+            probation.clear();
+            protectedEntries.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.maxdemarzi;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/*
+ * "People who liked what you liked also liked": walk start -out-> item -in-> person -out-> candidate and count how
+ * often each candidate the start node isn't already connected to turns up. Bitmap stores are walked by node id and
+ * everything else by key. When an item has enough people behind it, their second hops are split across the fork join
+ * pool and each task counts into its own counter, merged at the end.
+ */
+final class Recommender {
+
+    static final int PARALLEL_THRESHOLD = 1_000;
+    private static final int SPLIT_SIZE = 256;
+    private static final int EXPECTED_CANDIDATES = 256;
+
+    private Recommender() {
+    }
+
+    static List<Map.Entry<String, Integer>> recommend(AdjacencyStore out, AdjacencyStore in, String start, int limit,
+                                                      NodeDictionary dictionary) {
+        if (out instanceof BitmapAdjacencyStore) {
+            return recommendById((BitmapAdjacencyStore) out, (BitmapAdjacencyStore) in, start, limit, dictionary);
+        }
+        return recommendByKey(out, in, start, limit);
+    }
+
+    private static List<Map.Entry<String, Integer>> recommendById(BitmapAdjacencyStore out, BitmapAdjacencyStore in,
+                                                                  String start, int limit, NodeDictionary dictionary) {
+        OccurrenceCounter.Ints liked = new OccurrenceCounter.Ints(EXPECTED_CANDIDATES);
+        out.forEachId(start, liked::increment);
+
+        OccurrenceCounter.Ints occurrences = new OccurrenceCounter.Ints(EXPECTED_CANDIDATES);
+        IntConsumer count = candidate -> {
+            if (!liked.contains(candidate)) {
+                occurrences.increment(candidate);
+            }
+        };
+        IntList people = new IntList();
+        for (int slot = 0; slot < liked.capacity(); slot++) {
+            if (liked.count(slot) == 0) {
+                continue;
+            }
+            people.clear();
+            in.forEachId(liked.key(slot), people::add);
+            if (people.size() >= PARALLEL_THRESHOLD) {
+                occurrences.addAll(ForkJoinPool.commonPool().invoke(new IdHop(out, liked, people, 0, people.size())));
+            } else {
+                for (int i = 0; i < people.size(); i++) {
+                    out.forEachId(people.get(i), count);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> results = new ArrayList<>();
+        for (int slot : occurrences.top(limit)) {
+            results.add(new AbstractMap.SimpleImmutableEntry<>(dictionary.getKey(occurrences.key(slot)), occurrences.count(slot)));
+        }
+        return results;
+    }
+
+    private static List<Map.Entry<String, Integer>> recommendByKey(AdjacencyStore out, AdjacencyStore in,
+                                                                   String start, int limit) {
+        OccurrenceCounter.Keys liked = new OccurrenceCounter.Keys(EXPECTED_CANDIDATES);
+        out.forEach(start, liked::increment);
+
+        OccurrenceCounter.Keys occurrences = new OccurrenceCounter.Keys(EXPECTED_CANDIDATES);
+        NeighbourConsumer count = candidate -> {
+            if (!liked.contains(candidate)) {
+                occurrences.increment(candidate);
+            }
+        };
+        List<String> people = new ArrayList<>();
+        for (int slot = 0; slot < liked.capacity(); slot++) {
+            if (liked.count(slot) == 0) {
+                continue;
+            }
+            people.clear();
+            in.forEach(liked.key(slot), person -> people.add(person.toString()));
+            if (people.size() >= PARALLEL_THRESHOLD) {
+                occurrences.addAll(ForkJoinPool.commonPool().invoke(new KeyHop(out, liked, people, 0, people.size())));
+            } else {
+                for (String person : people) {
+                    out.forEach(person, count);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> results = new ArrayList<>();
+        for (int slot : occurrences.top(limit)) {
+            results.add(new AbstractMap.SimpleImmutableEntry<>(occurrences.key(slot), occurrences.count(slot)));
+        }
+        return results;
+    }
+
+    private static final class IdHop extends RecursiveTask<OccurrenceCounter.Ints> {
+        private static final long serialVersionUID = 1L;
+
+        private final BitmapAdjacencyStore out;
+        private final OccurrenceCounter.Ints liked;
+        private final IntList people;
+        private final int from;
+        private final int to;
+
+        IdHop(BitmapAdjacencyStore out, OccurrenceCounter.Ints liked, IntList people, int from, int to) {
+            this.out = out;
+            this.liked = liked;
+            this.people = people;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected OccurrenceCounter.Ints compute() {
+            if (to - from > SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                IdHop left = new IdHop(out, liked, people, from, middle);
+                left.fork();
+                OccurrenceCounter.Ints occurrences = new IdHop(out, liked, people, middle, to).compute();
+                occurrences.addAll(left.join());
+                return occurrences;
+            }
+            OccurrenceCounter.Ints occurrences = new OccurrenceCounter.Ints(EXPECTED_CANDIDATES);
+            IntConsumer count = candidate -> {
+                if (!liked.contains(candidate)) {
+                    occurrences.increment(candidate);
+                }
+            };
+            for (int i = from; i < to; i++) {
+                out.forEachId(people.get(i), count);
+            }
+            return occurrences;
+        }
+    }
+
+    private static final class KeyHop extends RecursiveTask<OccurrenceCounter.Keys> {
+        private static final long serialVersionUID = 1L;
+
+        private final AdjacencyStore out;
+        private final OccurrenceCounter.Keys liked;
+        private final List<String> people;
+        private final int from;
+        private final int to;
+
+        KeyHop(AdjacencyStore out, OccurrenceCounter.Keys liked, List<String> people, int from, int to) {
+            this.out = out;
+            this.liked = liked;
+            this.people = people;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected OccurrenceCounter.Keys compute() {
+            if (to - from > SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                KeyHop left = new KeyHop(out, liked, people, from, middle);
+                left.fork();
+                OccurrenceCounter.Keys occurrences = new KeyHop(out, liked, people, middle, to).compute();
+                occurrences.addAll(left.join());
+                return occurrences;
+            }
+            OccurrenceCounter.Keys occurrences = new OccurrenceCounter.Keys(EXPECTED_CANDIDATES);
+            NeighbourConsumer count = candidate -> {
+                if (!liked.contains(candidate)) {
+                    occurrences.increment(candidate);
+                }
+            };
+            for (int i = from; i < to; i++) {
+                out.forEach(people.get(i), count);
+            }
+            return occurrences;
+        }
+    }
+}
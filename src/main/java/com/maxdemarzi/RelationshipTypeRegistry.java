@@ -0,0 +1,520 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.map.ChronicleMap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Opens and sizes the adjacency maps of every relationship type. A type whose maps are filling up, or whose neighbour
+ * lists turn out much bigger or smaller than the averages it was sized for, is rebuilt into right-sized maps: on a
+ * background thread when a sampled write notices, or right away when a write has already failed for lack of room.
+ * Writers share the type's lock and the rebuild takes it alone, so writes to that type wait out the copy while reads
+ * carry on against the old maps. Those are only deleted once every reader that might still be on them is done: readers
+ * that hold on to maps across calls, like traversals, streams and analytics, take a Lease for as long as they do, and
+ * retired maps wait for every lease taken before the swap, and for RETIRE_DELAY_SECONDS besides, which covers the
+ * single node reads that don't bother with one.
+ */
+class RelationshipTypeRegistry {
+
+    // Catalog values are {maximum, average_outgoing, average_incoming, storage mode ordinal, type id, generation}
+    private static final int MAXIMUM = 0;
+    private static final int AVERAGE_OUTGOING = 1;
+    private static final int AVERAGE_INCOMING = 2;
+    private static final int STORAGE_MODE = 3;
+    private static final int TYPE_ID = 4;
+    private static final int GENERATION = 5;
+
+    // About one write in this many checks whether its type needs resizing.
+    static final int CHECK_INTERVAL = 4096;
+    // Grow once this share of the maximum nodes have neighbours.
+    static final double GROW_AT = 0.75;
+    // Averages aren't judged until enough nodes have neighbours for them to mean something.
+    static final int MIN_NODES_TO_JUDGE = 1000;
+    static final int MAX_GROW_ATTEMPTS = 5;
+    static final long RETIRE_DELAY_SECONDS = 30;
+
+    private final GraphDirectory directory;
+    private final StorageMode storageMode;
+    private final NodeDictionary dictionary;
+    private final GraphMetrics metrics;
+    private final ChronicleMap<String, int[]> catalog;
+    // Schema descriptors of the types that keep their relationship properties inline.
+    private final ChronicleMap<String, String> inlineCatalog;
+    private final ConcurrentHashMap<String, AdjacencyStore> related = new ConcurrentHashMap<>();
+    // Keyed by the bare type so hot read paths don't have to build the "-out"/"-in" name on every call.
+    private final ConcurrentHashMap<String, AdjacencyStore> outgoing = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AdjacencyStore> incoming = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, InlineEdgeStore> inline = new ConcurrentHashMap<>();
+    // Small dense ids so per-node records can say which types a node is in with a bit per type.
+    private final ConcurrentHashMap<String, Integer> typeIds = new ConcurrentHashMap<>();
+    private volatile String[] types = new String[0];
+    private final ConcurrentHashMap<String, int[]> sizings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ReentrantReadWriteLock> writeLocks = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Maps a rebuild replaced, waiting for their readers to drain.
+    private final ConcurrentLinkedQueue<Retired> retired = new ConcurrentLinkedQueue<>();
+    // Leases are counted against the epoch current when they were taken, and every swap starts a new one.
+    private volatile Epoch epoch = new Epoch(null);
+    private final ScheduledThreadPoolExecutor resizer;
+    private final long retireDelayMillis;
+
+    RelationshipTypeRegistry(GraphDirectory directory, StorageMode storageMode, NodeDictionary dictionary,
+                             GraphMetrics metrics) {
+        this(directory, storageMode, dictionary, metrics, TimeUnit.SECONDS.toMillis(RETIRE_DELAY_SECONDS));
+    }
+
+    RelationshipTypeRegistry(GraphDirectory directory, StorageMode storageMode, NodeDictionary dictionary,
+                             GraphMetrics metrics, long retireDelayMillis) {
+        this.directory = directory;
+        this.retireDelayMillis = retireDelayMillis;
+        this.storageMode = storageMode;
+        this.dictionary = dictionary;
+        this.metrics = metrics;
+
+        resizer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "relationship-type-resizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        resizer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        catalog = directory.open(ChronicleMap
+                .of(String.class, int[].class)
+                .name("relationship-types")
+                .entries(1_000)
+                .averageKey("RELATIONSHIP_TYPE")
+                .averageValue(new int[6]), "relationship-types");
+        inlineCatalog = directory.open(ChronicleMap
+                .of(String.class, String.class)
+                .name("relationship-inline-properties")
+                .entries(1_000)
+                .averageKey("RELATIONSHIP_TYPE")
+                .averageValue("d6:weightj9:timestamp"), "relationship-inline-properties");
+
+        List<Map.Entry<String, int[]>> unnumbered = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : catalog.entrySet()) {
+            open(entry.getKey(), entry.getValue());
+            if (entry.getValue().length <= TYPE_ID) {
+                unnumbered.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+        }
+        // Catalogs written before types had ids get theirs now.
+        for (Map.Entry<String, int[]> entry : unnumbered) {
+            int[] sizing = Arrays.copyOf(entry.getValue(), GENERATION + 1);
+            sizing[TYPE_ID] = types.length;
+            catalog.put(entry.getKey(), sizing);
+            sizings.put(entry.getKey(), sizing);
+            register(entry.getKey(), sizing[TYPE_ID]);
+        }
+    }
+
+    // Lookups never lock; only the first writer to see a new type opens its maps, and the rest wait for it here
+    // rather than opening a second copy.
+    synchronized void addRelationshipType(String type, Integer maximum, Integer average_outgoing, Integer average_incoming) {
+        addRelationshipType(type, maximum, average_outgoing, average_incoming, null);
+    }
+
+    // A type that already exists keeps the properties it had, inline or not.
+    synchronized void addRelationshipType(String type, Integer maximum, Integer average_outgoing, Integer average_incoming,
+                                          PropertySchema inlineSchema) {
+        if (related.containsKey(type + "-out")) {
+            return;
+        }
+        int[] sizing = new int[] {maximum, average_outgoing, average_incoming, storageMode.ordinal(), types.length, 0};
+        if (inlineSchema != null) {
+            inlineCatalog.put(type, inlineSchema.descriptor);
+        }
+        catalog.put(type, sizing);
+        open(type, sizing);
+    }
+
+    boolean containsKey(String name) {
+        return related.containsKey(name);
+    }
+
+    AdjacencyStore get(String name) {
+        return related.get(name);
+    }
+
+    AdjacencyStore outgoing(String type) {
+        return outgoing.get(type);
+    }
+
+    AdjacencyStore incoming(String type) {
+        return incoming.get(type);
+    }
+
+    // Null unless the type keeps its relationship properties inline.
+    InlineEdgeStore inline(String type) {
+        return inline.get(type);
+    }
+
+    // Keeps every map the reader sees from being deleted until the lease is released.
+    Lease lease() {
+        Epoch current = epoch;
+        current.readers.incrementAndGet();
+        return new Lease(current);
+    }
+
+    // Held by every writer of the type for as long as it uses the type's maps; a resize takes the other side.
+    Lock writeLock(String type) {
+        return writeLocks.get(type).readLock();
+    }
+
+    // The side a resize takes, for writers that have to keep every other writer of the type out while they work. The
+    // holder can still take writeLock and grow the type.
+    Lock exclusiveLock(String type) {
+        return writeLocks.get(type).writeLock();
+    }
+
+    // Changes whenever the type's maps are swapped for new ones.
+    int generation(String type) {
+        return sizings.get(type)[GENERATION];
+    }
+
+    // {maximum, average outgoing, average incoming} the type's maps are currently sized for.
+    int[] sizing(String type) {
+        return Arrays.copyOf(sizings.get(type), AVERAGE_INCOMING + 1);
+    }
+
+    void wrote(String type) {
+        if (ThreadLocalRandom.current().nextInt(CHECK_INTERVAL) == 0) {
+            checkCapacity(type);
+        }
+    }
+
+    // Queues a rebuild if the type has outgrown its sizing, unless one is already on the way.
+    boolean checkCapacity(String type) {
+        int[] sizing = sizings.get(type);
+        AdjacencyStore out = outgoing.get(type);
+        AdjacencyStore in = incoming.get(type);
+        int[] next = plan(sizing, out.size(), out.edgeCount(), in.size(), in.edgeCount());
+        if (next == null || !pending.add(type)) {
+            return false;
+        }
+        resizer.execute(() -> {
+            try {
+                resize(type, sizing[GENERATION], next, "capacity check");
+            } catch (RuntimeException e) {
+                metrics.failedResize(type);
+            } finally {
+                pending.remove(type);
+            }
+        });
+        return true;
+    }
+
+    // A write to the type failed for lack of room. Rebuilds it bigger, unless it already was since the writer saw
+    // the given generation, and says whether the write is worth another try. Each attempt grows by more than the last.
+    boolean grow(String type, int generation, RuntimeException failure, int attempt) {
+        if (attempt > MAX_GROW_ATTEMPTS) {
+            return false;
+        }
+        int[] sizing = sizings.get(type);
+        if (sizing[GENERATION] != generation) {
+            return true;
+        }
+        AdjacencyStore out = outgoing.get(type);
+        AdjacencyStore in = incoming.get(type);
+        int[] next = plan(sizing, out.size(), out.edgeCount(), in.size(), in.edgeCount());
+        if (next == null) {
+            next = sizing.clone();
+        }
+        // Too big a value is an IllegalArgumentException; running out of segment space an IllegalStateException.
+        if (failure instanceof IllegalArgumentException) {
+            next[AVERAGE_OUTGOING] = Math.max(next[AVERAGE_OUTGOING], scale(sizing[AVERAGE_OUTGOING], 2 * attempt));
+            next[AVERAGE_INCOMING] = Math.max(next[AVERAGE_INCOMING], scale(sizing[AVERAGE_INCOMING], 2 * attempt));
+        } else {
+            next[MAXIMUM] = Math.max(next[MAXIMUM], scale(sizing[MAXIMUM], attempt));
+        }
+        String message = String.valueOf(failure.getMessage());
+        int end = message.indexOf('\n');
+        try {
+            resize(type, generation, next, "write failed: " + (end < 0 ? message : message.substring(0, end)));
+        } catch (RuntimeException e) {
+            metrics.failedResize(type);
+        }
+        return true;
+    }
+
+    void failed(String type, long writes) {
+        metrics.failedWrite(type, writes);
+    }
+
+    int typeId(String type) {
+        Integer id = typeIds.get(type);
+        return id == null ? -1 : id;
+    }
+
+    String typeName(int typeId) {
+        return types[typeId];
+    }
+
+    Set<Map.Entry<String, AdjacencyStore>> entrySet() {
+        return related.entrySet();
+    }
+
+    // Sources with neighbours in each map, by map name.
+    Map<String, Long> sizes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        related.forEach((name, store) -> sizes.put(name, (long) store.size()));
+        return sizes;
+    }
+
+    // Relationships of each type, counted on the outgoing side.
+    Map<String, Long> edgeCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        outgoing.forEach((type, store) -> counts.put(type, store.edgeCount()));
+        return counts;
+    }
+
+    Set<String> getRelationshipTypes() {
+        return new HashSet<>(catalog.keySet());
+    }
+
+    // Lets a rebuild that is under way finish, and closes the maps retired ones left behind.
+    void close() {
+        resizer.shutdown();
+        try {
+            resizer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Retired maps = retired.poll(); maps != null; maps = retired.poll()) {
+            maps.delete.run();
+        }
+        for (AdjacencyStore store : related.values()) {
+            store.close();
+        }
+        for (InlineEdgeStore store : inline.values()) {
+            store.close();
+        }
+        catalog.close();
+        inlineCatalog.close();
+    }
+
+    // Returns the new sizing if the type has outgrown the one it has, otherwise null.
+    static int[] plan(int[] sizing, long outNodes, long outEdges, long inNodes, long inEdges) {
+        int[] next = sizing.clone();
+        long nodes = Math.max(outNodes, inNodes);
+        if (nodes > sizing[MAXIMUM] * GROW_AT) {
+            next[MAXIMUM] = (int) Math.min(Integer.MAX_VALUE, Math.max(nodes, sizing[MAXIMUM]) * 2);
+        }
+        next[AVERAGE_OUTGOING] = fit(sizing[AVERAGE_OUTGOING], outNodes, outEdges);
+        next[AVERAGE_INCOMING] = fit(sizing[AVERAGE_INCOMING], inNodes, inEdges);
+        return Arrays.equals(next, sizing) ? null : next;
+    }
+
+    // Leaves the average alone unless it is off by more than 2x over or 4x under, then sizes for the real one with room.
+    private static int fit(int average, long nodes, long edges) {
+        if (nodes < MIN_NODES_TO_JUDGE) {
+            return average;
+        }
+        double actual = (double) edges / nodes;
+        if (actual > average * 2 || actual < average / 4.0) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(1, Math.ceil(actual * 1.5)));
+        }
+        return average;
+    }
+
+    private static int scale(int value, int doublings) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) value << doublings);
+    }
+
+    // Copies the type into maps of the new sizing and swaps them in, all while holding off its writers.
+    private void resize(String type, int generation, int[] next, String reason) {
+        ReentrantReadWriteLock.WriteLock lock = writeLocks.get(type).writeLock();
+        lock.lock();
+        try {
+            int[] sizing = sizings.get(type);
+            if (sizing[GENERATION] != generation) {
+                return;
+            }
+            long start = System.nanoTime();
+            AdjacencyStore out = outgoing.get(type);
+            AdjacencyStore in = incoming.get(type);
+            next = next.clone();
+            next[GENERATION] = generation + 1;
+            // Files a rebuild left behind when the process died half way through are skipped, not reused.
+            while (directory.exists(fileName(type + "-out", next)) || directory.exists(fileName(type + "-in", next))
+                    || directory.exists(fileName(type + "-inline", next))) {
+                next[GENERATION]++;
+            }
+            AdjacencyStore newOut = create(type + "-out", next, next[AVERAGE_OUTGOING]);
+            AdjacencyStore newIn = create(type + "-in", next, next[AVERAGE_INCOMING]);
+            InlineEdgeStore properties = inline.get(type);
+            InlineEdgeStore newProperties = properties == null ? null : createInline(type, next, properties.schema());
+            try {
+                out.copyTo(newOut);
+                in.copyTo(newIn);
+                if (properties != null) {
+                    properties.copyTo(newProperties);
+                }
+            } catch (RuntimeException e) {
+                newOut.delete();
+                newIn.delete();
+                if (newProperties != null) {
+                    newProperties.delete();
+                }
+                throw e;
+            }
+
+            catalog.put(type, next);
+            sizings.put(type, next);
+            outgoing.put(type, newOut);
+            incoming.put(type, newIn);
+            if (properties != null) {
+                inline.put(type, newProperties);
+            }
+            related.put(type + "-in", newIn);
+            related.put(type + "-out", newOut);
+            retire(out::delete, in::delete, properties == null ? null : properties::delete);
+            metrics.resized(new GraphMetrics.SizingDecision(type, reason, Arrays.copyOf(sizing, AVERAGE_INCOMING + 1),
+                    Arrays.copyOf(next, AVERAGE_INCOMING + 1), newOut.size(), newOut.edgeCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Only called once the new maps are in, so readers leased from the new epoch can't see the old ones.
+    private void retire(Runnable... deletes) {
+        Epoch ended = epoch;
+        epoch = new Epoch(ended);
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retireDelayMillis);
+        for (Runnable delete : deletes) {
+            if (delete != null) {
+                retired.add(new Retired(delete, ended, due));
+            }
+        }
+        resizer.schedule(this::drain, retireDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Deletes the retired maps that are past their delay and whose readers are all gone. The rest are looked at again
+    // when the last lease on their epoch is released, or at close() at the latest.
+    private synchronized void drain() {
+        long now = System.nanoTime();
+        for (Retired maps : retired) {
+            if (now - maps.due >= 0 && maps.epoch.drained() && retired.remove(maps)) {
+                maps.delete.run();
+            }
+        }
+    }
+
+    private static final class Retired {
+        final Runnable delete;
+        final Epoch epoch;
+        final long due;
+
+        Retired(Runnable delete, Epoch epoch, long due) {
+            this.delete = delete;
+            this.epoch = epoch;
+            this.due = due;
+        }
+    }
+
+    private static final class Epoch {
+        final AtomicInteger readers = new AtomicInteger();
+        private volatile Epoch previous;
+
+        Epoch(Epoch previous) {
+            this.previous = previous;
+        }
+
+        // True once no lease is open on this epoch or any before it. Those never take new leases, so once drained
+        // the chain back to them can be let go.
+        boolean drained() {
+            for (Epoch e = this; e != null; e = e.previous) {
+                if (e.readers.get() > 0) {
+                    return false;
+                }
+            }
+            previous = null;
+            return true;
+        }
+    }
+
+    // Taken around any read that keeps a type's maps past a single call, and released in a finally block.
+    final class Lease {
+        private final Epoch taken;
+        private boolean released;
+
+        private Lease(Epoch taken) {
+            this.taken = taken;
+        }
+
+        void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (taken.readers.decrementAndGet() == 0 && taken != epoch && !retired.isEmpty()) {
+                drain();
+            }
+        }
+    }
+
+    private static String fileName(String name, int[] sizing) {
+        return sizing[GENERATION] == 0 ? name : name + "." + sizing[GENERATION];
+    }
+
+    private AdjacencyStore create(String name, int[] sizing, int average) {
+        if (StorageMode.values()[sizing[STORAGE_MODE]] == StorageMode.BITMAPS) {
+            return new BitmapAdjacencyStore(directory, name, fileName(name, sizing), sizing[MAXIMUM], average, dictionary,
+                    metrics.bytes(name));
+        }
+        return new SetAdjacencyStore(directory, name, fileName(name, sizing), sizing[MAXIMUM], average,
+                metrics.bytes(name));
+    }
+
+    // Inline records are sized for the outgoing average, one per neighbour.
+    private InlineEdgeStore createInline(String type, int[] sizing, PropertySchema schema) {
+        return new InlineEdgeStore(directory, type + "-inline", fileName(type + "-inline", sizing), sizing[MAXIMUM],
+                sizing[AVERAGE_OUTGOING], schema, metrics.bytes(type + "-inline"));
+    }
+
+    private void open(String type, int[] sizing) {
+        boolean numbered = sizing.length > TYPE_ID;
+        // Catalogs written before resizing have no generation; those maps are generation 0.
+        sizing = Arrays.copyOf(sizing, Math.max(sizing.length, GENERATION + 1));
+        AdjacencyStore out = create(type + "-out", sizing, sizing[AVERAGE_OUTGOING]);
+        AdjacencyStore in = create(type + "-in", sizing, sizing[AVERAGE_INCOMING]);
+        String descriptor = inlineCatalog.get(type);
+        if (descriptor != null) {
+            inline.put(type, createInline(type, sizing, new PropertySchema(-1, descriptor)));
+        }
+
+        // Writers check for "-out" before using a type, so it goes in last, once everything else is visible.
+        sizings.put(type, sizing);
+        writeLocks.putIfAbsent(type, new ReentrantReadWriteLock());
+        outgoing.put(type, out);
+        incoming.put(type, in);
+        if (numbered) {
+            register(type, sizing[TYPE_ID]);
+        }
+        related.put(type + "-in", in);
+        related.put(type + "-out", out);
+    }
+
+    private synchronized void register(String type, int typeId) {
+        String[] grown = Arrays.copyOf(types, Math.max(types.length, typeId + 1));
+        grown[typeId] = type;
+        types = grown;
+        typeIds.put(type, typeId);
+    }
+}
@@ -0,0 +1,158 @@
+package com.maxdemarzi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * A shard behind a ShardServer. A call takes an idle connection, or opens one if they are all busy, and gives it back
+ * when the answer is in, so the coordinator's threads never queue behind each other on one socket. Exceptions the
+ * graph threw come back as themselves; a connection that fails is dropped and the failure is an UncheckedIOException.
+ * Answers are deserialized, so like the server it only talks to the loopback interface.
+ */
+class RemoteShard implements GraphShard {
+
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    RemoteShard(InetSocketAddress address) {
+        if (!ShardServer.isLoopback(address)) {
+            throw new IllegalArgumentException("Shards are only reached over the loopback interface, not " + address);
+        }
+        this.address = address;
+    }
+
+    @Override
+    public boolean addNode(String key, Object properties) {
+        return (Boolean) call(ShardServer.Call.ADD_NODE, key, properties);
+    }
+
+    @Override
+    public Object getNode(String key) {
+        return call(ShardServer.Call.GET_NODE, key);
+    }
+
+    @Override
+    public boolean removeNode(String key) {
+        return (Boolean) call(ShardServer.Call.REMOVE_NODE, key);
+    }
+
+    @Override
+    public void addRelationshipType(String type, Integer maximum, Integer averageOutgoing, Integer averageIncoming) {
+        call(ShardServer.Call.ADD_RELATIONSHIP_TYPE, type, maximum, averageOutgoing, averageIncoming);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getRelationshipTypes() {
+        return (Set<String>) call(ShardServer.Call.GET_RELATIONSHIP_TYPES);
+    }
+
+    @Override
+    public boolean addRelationship(String type, String from, String to, Object properties) {
+        return (Boolean) call(ShardServer.Call.ADD_RELATIONSHIP, type, from, to, properties);
+    }
+
+    @Override
+    public long importRelationships(String type, List<String[]> relationships) {
+        // The list may be a view or a type the other side doesn't have.
+        return (Long) call(ShardServer.Call.IMPORT_RELATIONSHIPS, type, new ArrayList<>(relationships));
+    }
+
+    @Override
+    public Object getRelationship(String type, String from, String to) {
+        return call(ShardServer.Call.GET_RELATIONSHIP, type, from, to);
+    }
+
+    @Override
+    public boolean removeRelationship(String type, String from, String to) {
+        return (Boolean) call(ShardServer.Call.REMOVE_RELATIONSHIP, type, from, to);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Integer> expand(Traversal.Direction direction, String[] types, Map<String, Integer> frontier) {
+        return (Map<String, Integer>) call(ShardServer.Call.EXPAND, direction, types, frontier);
+    }
+
+    // Closes the connections, not the server.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+            connection.socket.close();
+        }
+    }
+
+    private Object call(ShardServer.Call call, Object... arguments) {
+        if (closed) {
+            throw new IllegalStateException("The shard at " + address + " is closed");
+        }
+        Connection connection = idle.poll();
+        boolean worked;
+        Object result;
+        try {
+            if (connection == null) {
+                connection = new Connection(address);
+            }
+            ObjectOutputStream out = connection.out;
+            out.write(call.ordinal());
+            for (Object argument : arguments) {
+                out.writeObject(argument);
+            }
+            out.reset();
+            out.flush();
+            worked = connection.in.readBoolean();
+            result = connection.in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException("Call to the shard at " + address + " failed",
+                    e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+        if (closed) {
+            connection.close();
+        } else {
+            idle.add(connection);
+        }
+        if (!worked) {
+            throw (RuntimeException) result;
+        }
+        return result;
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final ObjectOutputStream out;
+        final ObjectInputStream in;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken; nothing more to do with it.
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.hash.serialization.impl.EnumMarshallable;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+public final class RoaringBitmapMarshaller implements BytesReader<RoaringBitmap>, BytesWriter<RoaringBitmap>,
+        EnumMarshallable<RoaringBitmapMarshaller> {
+
+    public static final RoaringBitmapMarshaller INSTANCE = new RoaringBitmapMarshaller();
+
+    // Layout of the portable RoaringBitmap serialization, which is always little endian.
+    private static final int SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
+    private static final int SERIAL_COOKIE = 12347;
+    private static final int NO_OFFSET_THRESHOLD = 4;
+    private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    private static final int BITMAP_CONTAINER_WORDS = 1024;
+    private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    private RoaringBitmapMarshaller() {
+    }
+
+    // BytesReader and BytesWriter take a raw Bytes, so the overrides have to as well.
+    @Override
+    @SuppressWarnings("rawtypes")
+    public RoaringBitmap read(Bytes in, RoaringBitmap using) {
+        if (using == null) {
+            using = new RoaringBitmap();
+        }
+        // The bytes handed to a reader can run on to the end of the segment, so let the bitmap consume only what it
+        // needs from a stream rather than copying everything that remains.
+        try {
+            using.deserialize(new DataInputStream(in.inputStream()));
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        return using;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void write(Bytes out, RoaringBitmap toWrite) {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream(toWrite.serializedSizeInBytes());
+        try {
+            toWrite.serialize(new DataOutputStream(serialized));
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        out.write(serialized.toByteArray());
+    }
+
+    // Walks a serialized bitmap in place and adds its values to the list in ascending order, without building the
+    // bitmap on the heap.
+    static void readInto(RandomDataInput in, long offset, IntList into) {
+        int cookie = readInt(in, offset);
+        boolean hasRun = (cookie & 0xFFFF) == SERIAL_COOKIE;
+        int size;
+        long runMarkers = 0;
+        long position;
+        if (hasRun) {
+            size = (cookie >>> 16) + 1;
+            runMarkers = offset + 4;
+            position = runMarkers + (size + 7) / 8;
+        } else if (cookie == SERIAL_COOKIE_NO_RUNCONTAINER) {
+            size = readInt(in, offset + 4);
+            position = offset + 8;
+        } else {
+            throw new IORuntimeException("Not a serialized RoaringBitmap, cookie " + cookie);
+        }
+
+        long header = position;
+        position += 4L * size;
+        if (!hasRun || size >= NO_OFFSET_THRESHOLD) {
+            position += 4L * size;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int high = readUnsignedShort(in, header + 4L * i) << 16;
+            int cardinality = readUnsignedShort(in, header + 4L * i + 2) + 1;
+            if (hasRun && (in.readByte(runMarkers + i / 8) & (1 << (i % 8))) != 0) {
+                int runs = readUnsignedShort(in, position);
+                position += 2;
+                for (int r = 0; r < runs; r++) {
+                    int start = readUnsignedShort(in, position);
+                    int length = readUnsignedShort(in, position + 2);
+                    for (int value = start; value <= start + length; value++) {
+                        into.add(high | value);
+                    }
+                    position += 4;
+                }
+            } else if (cardinality > ARRAY_CONTAINER_MAX_SIZE) {
+                for (int w = 0; w < BITMAP_CONTAINER_WORDS; w++) {
+                    long word = readLong(in, position);
+                    while (word != 0) {
+                        into.add(high | (w * 64 + Long.numberOfTrailingZeros(word)));
+                        word &= word - 1;
+                    }
+                    position += 8;
+                }
+            } else {
+                for (int c = 0; c < cardinality; c++) {
+                    into.add(high | readUnsignedShort(in, position));
+                    position += 2;
+                }
+            }
+        }
+    }
+
+    private static int readInt(RandomDataInput in, long offset) {
+        int value = in.readInt(offset);
+        return BIG_ENDIAN ? Integer.reverseBytes(value) : value;
+    }
+
+    private static int readUnsignedShort(RandomDataInput in, long offset) {
+        short value = in.readShort(offset);
+        return (BIG_ENDIAN ? Short.reverseBytes(value) : value) & 0xFFFF;
+    }
+
+    private static long readLong(RandomDataInput in, long offset) {
+        long value = in.readLong(offset);
+        return BIG_ENDIAN ? Long.reverseBytes(value) : value;
+    }
+
+    @Override
+    public RoaringBitmapMarshaller readResolve() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,341 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.serialization.SetMarshaller;
+import net.openhft.chronicle.hash.serialization.impl.CharSequenceBytesWriter;
+import net.openhft.chronicle.hash.serialization.impl.StringBytesReader;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapAbsentEntry;
+import net.openhft.chronicle.map.MapEntry;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/*
+ * Each node's neighbours are one serialized set of keys under the node's own entry, so reading them all is a single
+ * lookup, but adding or removing one edge decodes and rewrites the whole set and costs time in proportion to the
+ * node's degree. Splitting neighbours into bounded chunks is only done in BITMAPS mode, where chunks line up with id
+ * ranges; graphs with nodes of very high degree that change often belong in that mode rather than this one.
+ */
+class SetAdjacencyStore implements AdjacencyStore {
+
+    private final GraphDirectory directory;
+    private final String file;
+    private final ChronicleMap<String, Set<String>> graph;
+    // Changed under the entry lock by however much the entry actually changed, so it never drifts from the sets.
+    private final LongAdder edges = new LongAdder();
+    private final GraphMetrics.ByteCounter bytes;
+
+    SetAdjacencyStore(GraphDirectory directory, String name, Integer maximum, Integer average) {
+        this(directory, name, name, maximum, average, GraphMetrics.UNCOUNTED);
+    }
+
+    SetAdjacencyStore(GraphDirectory directory, String name, String file, Integer maximum, Integer average,
+                      GraphMetrics.ByteCounter bytes) {
+        this.directory = directory;
+        this.file = file;
+        this.bytes = bytes;
+        HashSet<String> avgValue = new HashSet<>();
+        for (int i = 0; i < average; i++) {
+            avgValue.add("some key" + i);
+        }
+
+        SetMarshaller<String> cmValueMashaller = SetMarshaller
+                .of(new StringBytesReader(), CharSequenceBytesWriter.INSTANCE);
+        graph = directory.open(ChronicleMap
+                .of(String.class, (Class<Set<String>>) (Class) Set.class)
+                .name(name)
+                .entries(maximum)
+                .averageValue(avgValue)
+                .averageKey("one key - another key")
+                .valueMarshaller(cmValueMashaller), file);
+        // Reopened maps already hold edges; counting them reads only the leading count of each set.
+        forEachDegree(edges::add);
+    }
+
+    @Override
+    public String name() {
+        return graph.name();
+    }
+
+    @Override
+    public int size() {
+        return graph.size();
+    }
+
+    @Override
+    public long offHeapMemoryUsed() {
+        return graph.offHeapMemoryUsed();
+    }
+
+    @Override
+    public long edgeCount() {
+        return edges.sum();
+    }
+
+    // SetMarshaller writes the element count ahead of the elements, so the degree is just the entry's first int.
+    @Override
+    public int degree(String source) {
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.readLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            if (sEntry == null) {
+                return 0;
+            }
+            Data<Set<String>> value = sEntry.value();
+            return value.bytes().readInt(value.offset());
+        }
+    }
+
+    @Override
+    public void forEachDegree(IntConsumer consumer) {
+        graph.forEachEntry(entry -> {
+            Data<Set<String>> value = entry.value();
+            consumer.accept(value.bytes().readInt(value.offset()));
+        });
+    }
+
+    @Override
+    public boolean add(String source, String target) {
+        if (source.equals(target)) {
+            return false;
+        }
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.updateLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            if (sEntry != null) {
+                Set<String> sNeighbours = sEntry.value().get();
+                if (sNeighbours.add(target)) {
+                    Data<Set<String>> data = sc.wrapValueAsData(sNeighbours);
+                    sEntry.doReplaceValue(data);
+                    bytes.wrote(data);
+                    edges.increment();
+                }
+            } else {
+                Set<String> sNeighbours = new HashSet<>();
+                sNeighbours.add(target);
+                MapAbsentEntry<String, Set<String>> sAbsentEntry = sc.absentEntry();
+                assert sAbsentEntry != null;
+                Data<Set<String>> data = sc.wrapValueAsData(sNeighbours);
+                sAbsentEntry.doInsert(data);
+                bytes.wrote(data);
+                edges.increment();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(String source, Collection<String> targets) {
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.updateLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            Set<String> sNeighbours = sEntry != null ? sEntry.value().get() : new HashSet<>(targets.size() * 2);
+            int before = sNeighbours.size();
+            sNeighbours.addAll(targets);
+            sNeighbours.remove(source);
+            if (sEntry != null) {
+                if (sNeighbours.size() != before) {
+                    Data<Set<String>> data = sc.wrapValueAsData(sNeighbours);
+                    sEntry.doReplaceValue(data);
+                    bytes.wrote(data);
+                    edges.add(sNeighbours.size() - before);
+                }
+            } else if (!sNeighbours.isEmpty()) {
+                MapAbsentEntry<String, Set<String>> sAbsentEntry = sc.absentEntry();
+                assert sAbsentEntry != null;
+                Data<Set<String>> data = sc.wrapValueAsData(sNeighbours);
+                sAbsentEntry.doInsert(data);
+                bytes.wrote(data);
+                edges.add(sNeighbours.size());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(String source, String target) {
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.updateLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            if (sEntry == null) {
+                return false;
+            }
+            Set<String> sNeighbours = sEntry.value().get();
+            if (!sNeighbours.remove(target)) {
+                return false;
+            }
+            if (sNeighbours.isEmpty()) {
+                sc.remove(sEntry);
+            } else {
+                Data<Set<String>> data = sc.wrapValueAsData(sNeighbours);
+                sEntry.doReplaceValue(data);
+                bytes.wrote(data);
+            }
+            edges.decrement();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(String source, String target) {
+        Set<String> neighbours = graph.get(source);
+        return neighbours != null && neighbours.contains(target);
+    }
+
+    @Override
+    public boolean containsKey(String source) {
+        return graph.containsKey(source);
+    }
+
+    // The plain lookup never sees the serialized set, so counting its size means going through a context instead.
+    @Override
+    public Set<String> get(String source) {
+        if (!bytes.counting()) {
+            return graph.get(source);
+        }
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.readLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            if (sEntry == null) {
+                return null;
+            }
+            Data<Set<String>> value = sEntry.value();
+            bytes.read(value);
+            return value.getUsing(null);
+        }
+    }
+
+    @Override
+    public Set<String> remove(String source) {
+        Set<String> neighbours = graph.remove(source);
+        if (neighbours != null) {
+            edges.add(-neighbours.size());
+        }
+        return neighbours;
+    }
+
+    // SetMarshaller lays a set out as an int count followed by each element as stop bit length prefixed UTF-8.
+    @Override
+    public int forEach(String source, NeighbourConsumer consumer) {
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+                sc.readLock().lock();
+                MapEntry<String, Set<String>> sEntry = sc.entry();
+                if (sEntry == null) {
+                    return 0;
+                }
+                Data<Set<String>> value = sEntry.value();
+                bytes.read(value);
+                RandomDataInput in = value.bytes();
+                long offset = value.offset();
+                int count = in.readInt(offset);
+                offset += 4;
+                for (int i = 0; i < count; i++) {
+                    offset = in.readUtf8(offset, buffers.current);
+                    buffers.text.append(buffers.current);
+                    buffers.ends.add(buffers.text.length());
+                }
+            }
+            return buffers.emit(consumer);
+        } finally {
+            buffers.release();
+        }
+    }
+
+    // Sets are stored in hash order, which changes as they grow, so pages go by key. That takes a pass over the whole
+    // serialized set per page, in place, keeping only the smallest keys after the cursor that fit on the page.
+    @Override
+    public String page(String source, String cursor, int limit, List<String> into) {
+        PriorityQueue<String> smallest = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+        boolean more = false;
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            sc.readLock().lock();
+            MapEntry<String, Set<String>> sEntry = sc.entry();
+            if (sEntry == null) {
+                return null;
+            }
+            Data<Set<String>> value = sEntry.value();
+            bytes.read(value);
+            RandomDataInput in = value.bytes();
+            long offset = value.offset();
+            int count = in.readInt(offset);
+            offset += 4;
+            for (int i = 0; i < count; i++) {
+                offset = in.readUtf8(offset, buffers.current);
+                if (cursor != null && compare(buffers.current, cursor) <= 0) {
+                    continue;
+                }
+                if (smallest.size() < limit) {
+                    smallest.add(buffers.current.toString());
+                } else {
+                    more = true;
+                    if (compare(buffers.current, smallest.peek()) < 0) {
+                        smallest.poll();
+                        smallest.add(buffers.current.toString());
+                    }
+                }
+            }
+        } finally {
+            buffers.release();
+        }
+        String[] page = smallest.toArray(new String[0]);
+        Arrays.sort(page);
+        into.addAll(Arrays.asList(page));
+        return more ? page[page.length - 1] : null;
+    }
+
+    // The same order as String.compareTo, without making a String of the neighbour first.
+    static int compare(CharSequence a, CharSequence b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int difference = a.charAt(i) - b.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    @Override
+    public void forEachSource(Consumer<String> consumer) {
+        graph.keySet().forEach(consumer);
+    }
+
+    @Override
+    public int segmentOf(String source) {
+        try (ExternalMapQueryContext<String, Set<String>, ?> sc = graph.queryContext(source)) {
+            return sc.segmentIndex();
+        }
+    }
+
+    @Override
+    public void close() {
+        graph.close();
+    }
+
+    @Override
+    public void copyTo(AdjacencyStore target) {
+        SetAdjacencyStore store = (SetAdjacencyStore) target;
+        AdjacencyStore.copyEntries(graph, store.graph);
+        store.edges.add(edges.sum());
+    }
+
+    @Override
+    public void delete() {
+        graph.close();
+        directory.delete(file);
+    }
+}
@@ -0,0 +1,193 @@
+package com.maxdemarzi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Serves one ChronicleGraph to ShardedGraph coordinators over TCP. A call is its Call ordinal and its arguments as
+ * serialized objects, and the answer is whether it worked and then the result or the exception. Each connection has
+ * a thread of its own and a coordinator keeps several open, so calls from many of its threads run side by side.
+ * Properties have to be Serializable to cross.
+ *
+ * Java serialization runs whatever classes the bytes name, so the server only binds to the loopback interface and
+ * only coordinators on the same machine can reach it, the way ShardedGraphBenchmark runs its shards.
+ */
+public class ShardServer implements AutoCloseable {
+
+    enum Call {
+        ADD_NODE, GET_NODE, REMOVE_NODE, ADD_RELATIONSHIP_TYPE, GET_RELATIONSHIP_TYPES, ADD_RELATIONSHIP,
+        IMPORT_RELATIONSHIPS, GET_RELATIONSHIP, REMOVE_RELATIONSHIP, EXPAND
+    }
+
+    private static final Call[] CALLS = Call.values();
+
+    private final GraphShard shard;
+    private final ServerSocket server;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    // Listens on the loopback interface; a port of 0 picks a free one.
+    public ShardServer(ChronicleGraph graph, int port) throws IOException {
+        this(graph, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public ShardServer(ChronicleGraph graph, InetSocketAddress address) throws IOException {
+        if (!isLoopback(address)) {
+            throw new IllegalArgumentException("Shard servers only listen on the loopback interface, not " + address);
+        }
+        this.shard = new LocalShard(graph);
+        this.server = new ServerSocket();
+        server.bind(address);
+        threads.execute(this::accept);
+    }
+
+    static boolean isLoopback(InetSocketAddress address) {
+        return address.getAddress() != null && address.getAddress().isLoopbackAddress();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    // Stops serving. The graph stays open; it belongs to whoever made the server.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        threads.shutdown();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket connection = server.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                threads.execute(() -> serve(connection));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Shard server stopped accepting connections: " + e);
+                }
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket socket = connection;
+             ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                int call = in.read();
+                if (call < 0) {
+                    return;
+                }
+                Object result;
+                boolean worked;
+                try {
+                    result = answer(CALLS[call], in);
+                    worked = true;
+                } catch (RuntimeException e) {
+                    result = e;
+                    worked = false;
+                }
+                out.writeBoolean(worked);
+                out.writeObject(result);
+                // Forget what was written, or the stream holds on to every result it has ever sent.
+                out.reset();
+                out.flush();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (!closed) {
+                System.err.println("Shard connection from " + connection.getRemoteSocketAddress() + " failed: " + e);
+            }
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object answer(Call call, ObjectInputStream in) throws IOException, ClassNotFoundException {
+        switch (call) {
+            case ADD_NODE:
+                return shard.addNode((String) in.readObject(), in.readObject());
+            case GET_NODE:
+                return shard.getNode((String) in.readObject());
+            case REMOVE_NODE:
+                return shard.removeNode((String) in.readObject());
+            case ADD_RELATIONSHIP_TYPE:
+                shard.addRelationshipType((String) in.readObject(), (Integer) in.readObject(), (Integer) in.readObject(),
+                        (Integer) in.readObject());
+                return null;
+            case GET_RELATIONSHIP_TYPES:
+                return shard.getRelationshipTypes();
+            case ADD_RELATIONSHIP:
+                return shard.addRelationship((String) in.readObject(), (String) in.readObject(),
+                        (String) in.readObject(), in.readObject());
+            case IMPORT_RELATIONSHIPS:
+                return shard.importRelationships((String) in.readObject(), (List<String[]>) in.readObject());
+            case GET_RELATIONSHIP:
+                return shard.getRelationship((String) in.readObject(), (String) in.readObject(),
+                        (String) in.readObject());
+            case REMOVE_RELATIONSHIP:
+                return shard.removeRelationship((String) in.readObject(), (String) in.readObject(),
+                        (String) in.readObject());
+            case EXPAND:
+                return shard.expand((Traversal.Direction) in.readObject(), (String[]) in.readObject(),
+                        (Map<String, Integer>) in.readObject());
+            default:
+                throw new IllegalArgumentException("Unknown call " + call);
+        }
+    }
+
+    /*
+     * Runs a shard as a process of its own:
+     *   ShardServer <port> <maxNodes> <maxRelationships> [SETS|BITMAPS] [dataDirectory]
+     * It prints the port it listens on once it is ready, and stops when its standard input is closed, which is also
+     * what happens when the process that started it goes away.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: ShardServer <port> <maxNodes> <maxRelationships> [SETS|BITMAPS] [dataDirectory]");
+            System.exit(1);
+        }
+        StorageMode mode = args.length > 3 ? StorageMode.valueOf(args[3]) : StorageMode.SETS;
+        Integer maxNodes = Integer.valueOf(args[1]);
+        Integer maxRelationships = Integer.valueOf(args[2]);
+        ChronicleGraph graph = args.length > 4
+                ? new ChronicleGraph(new File(args[4]), maxNodes, maxRelationships, mode)
+                : new ChronicleGraph(maxNodes, maxRelationships, mode);
+        try (ShardServer server = new ShardServer(graph, Integer.parseInt(args[0]))) {
+            System.out.println(server.getAddress().getPort());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // Nothing to read, only waiting for the end.
+            }
+        } finally {
+            graph.close();
+        }
+    }
+}
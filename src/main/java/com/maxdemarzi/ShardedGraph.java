@@ -0,0 +1,356 @@
+package com.maxdemarzi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * A graph hash-partitioned across several ChronicleGraphs, each one in this process or behind a ShardServer. A node
+ * and its properties live on the shard its key hashes to. A relationship is added to the shards of both its ends, so
+ * the "-out" half on the source's shard and the "-in" half on the target's are each whole; its properties stay with
+ * the source. That makes every neighbour list a single shard's to answer, and a shard's own counts include the edges
+ * it only keeps a half of for one of its nodes.
+ *
+ * Traversals are scatter-gather a hop at a time: the frontier is split by shard, every shard expands its part in one
+ * call, in parallel, and the results are merged into the next frontier. Each node in a frontier carries how many paths
+ * reached it, which is all a recommendation needs to count.
+ */
+public class ShardedGraph implements AutoCloseable {
+
+    static final int IMPORT_BATCH_SIZE = 10_000;
+
+    private final GraphShard[] shards;
+    private final ExecutorService scatter;
+
+    ShardedGraph(List<? extends GraphShard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A sharded graph needs at least one shard");
+        }
+        this.shards = shards.toArray(new GraphShard[0]);
+        this.scatter = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Shards in this process. Closing the sharded graph closes them.
+    public static ShardedGraph local(List<ChronicleGraph> graphs) {
+        return new ShardedGraph(graphs.stream().map(LocalShard::new).collect(Collectors.toList()));
+    }
+
+    // Shards served by ShardServers on this machine, in the same order every time: a node's shard is picked by position.
+    public static ShardedGraph connect(List<InetSocketAddress> addresses) {
+        return new ShardedGraph(addresses.stream().map(RemoteShard::new).collect(Collectors.toList()));
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // String.hashCode is the same in every JVM, so any coordinator routes a key to the same shard.
+    int shardOf(String key) {
+        return Math.floorMod(key.hashCode(), shards.length);
+    }
+
+    private GraphShard shard(String key) {
+        return shards[shardOf(key)];
+    }
+
+    @Override
+    public void close() throws IOException {
+        scatter.shutdown();
+        IOException failed = null;
+        for (GraphShard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failed = e;
+            }
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    public void addRelationshipType(String type, Integer maximum, Integer average_outgoing, Integer average_incoming) {
+        everyShard(shard -> {
+            shard.addRelationshipType(type, maximum, average_outgoing, average_incoming);
+            return null;
+        });
+    }
+
+    public Set<String> getRelationshipTypes() {
+        Set<String> types = new HashSet<>();
+        for (Set<String> some : everyShard(GraphShard::getRelationshipTypes)) {
+            types.addAll(some);
+        }
+        return types;
+    }
+
+    public boolean addNode(String key) {
+        return shard(key).addNode(key, null);
+    }
+
+    public boolean addNode(String key, Object properties) {
+        return shard(key).addNode(key, properties);
+    }
+
+    public Object getNode(String key) {
+        return shard(key).getNode(key);
+    }
+
+    // Clears the node's relationships off the shards of its neighbours as well as its own.
+    public boolean removeNode(String key) {
+        GraphShard home = shard(key);
+        Map<String, Integer> start = Collections.singletonMap(key, 1);
+        List<String[]> outgoing = new ArrayList<>();
+        List<String[]> incoming = new ArrayList<>();
+        for (String type : home.getRelationshipTypes()) {
+            String[] types = {type};
+            for (String other : home.expand(Traversal.Direction.OUTGOING, types, start).keySet()) {
+                outgoing.add(new String[] {type, other});
+            }
+            for (String other : home.expand(Traversal.Direction.INCOMING, types, start).keySet()) {
+                incoming.add(new String[] {type, other});
+            }
+        }
+        boolean removed = home.removeNode(key);
+        for (String[] edge : outgoing) {
+            if (shard(edge[1]) != home) {
+                shard(edge[1]).removeRelationship(edge[0], key, edge[1]);
+            }
+        }
+        for (String[] edge : incoming) {
+            if (shard(edge[1]) != home) {
+                shard(edge[1]).removeRelationship(edge[0], edge[1], key);
+            }
+        }
+        return removed;
+    }
+
+    public boolean addRelationship(String type, String from, String to) {
+        return addRelationship(type, from, to, null);
+    }
+
+    // When the target's shard fails, a relationship that was new is taken off the source's shard again before the
+    // failure is thrown. Properties it overwrote on a relationship that was already there stay overwritten.
+    public boolean addRelationship(String type, String from, String to, Object properties) {
+        GraphShard source = shard(from);
+        GraphShard target = shard(to);
+        boolean added = source.addRelationship(type, from, to, properties);
+        if (target != source) {
+            try {
+                target.addRelationship(type, from, to, null);
+            } catch (RuntimeException e) {
+                if (added) {
+                    undo(e, () -> source.removeRelationship(type, from, to));
+                }
+                throw e;
+            }
+        }
+        return added;
+    }
+
+    // Splits the relationships by the shards of both ends and sends each shard its share in batches, all shards at
+    // once. A shard gets the relationships it holds the source of apart from the ones it only holds the target of, so
+    // that only the former are counted and what is returned is, like ChronicleGraph.importRelationships, how many
+    // relationships are new.
+    public long importRelationships(String type, Iterator<String[]> relationships) {
+        // Sources at 2 * shard, targets only at 2 * shard + 1.
+        List<List<String[]>> batches = new ArrayList<>(2 * shards.length);
+        for (int i = 0; i < 2 * shards.length; i++) {
+            batches.add(new ArrayList<>(IMPORT_BATCH_SIZE));
+        }
+        List<CompletableFuture<Long>> sent = new ArrayList<>();
+        long count = 0;
+        while (relationships.hasNext()) {
+            String[] relationship = relationships.next();
+            if (relationship[0].equals(relationship[1])) {
+                continue;
+            }
+            int source = shardOf(relationship[0]);
+            int target = shardOf(relationship[1]);
+            for (int batch : source == target ? new int[] {2 * source} : new int[] {2 * source, 2 * target + 1}) {
+                List<String[]> batched = batches.get(batch);
+                batched.add(relationship);
+                if (batched.size() == IMPORT_BATCH_SIZE) {
+                    sent.add(send(type, batch, batched));
+                    batches.set(batch, new ArrayList<>(IMPORT_BATCH_SIZE));
+                }
+            }
+            // A couple of batches in flight per shard keeps them all busy without reading the whole input ahead.
+            while (sent.size() > 2 * shards.length) {
+                count += join(sent.remove(0));
+            }
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            if (!batches.get(i).isEmpty()) {
+                sent.add(send(type, i, batches.get(i)));
+            }
+        }
+        for (CompletableFuture<Long> batch : sent) {
+            count += join(batch);
+        }
+        return count;
+    }
+
+    private CompletableFuture<Long> send(String type, int batch, List<String[]> relationships) {
+        CompletableFuture<Long> added = async(shards[batch / 2], each -> each.importRelationships(type, relationships));
+        return batch % 2 == 0 ? added : added.thenApply(ignored -> 0L);
+    }
+
+    public Object getRelationship(String type, String from, String to) {
+        return shard(from).getRelationship(type, from, to);
+    }
+
+    // The target's shard goes first, since its half has no properties to lose: if the source's shard then fails, the
+    // target's half is put back as it was before the failure is thrown.
+    public boolean removeRelationship(String type, String from, String to) {
+        GraphShard source = shard(from);
+        GraphShard target = shard(to);
+        if (target == source) {
+            return source.removeRelationship(type, from, to);
+        }
+        boolean removedFromTarget = target.removeRelationship(type, from, to);
+        try {
+            return source.removeRelationship(type, from, to);
+        } catch (RuntimeException e) {
+            if (removedFromTarget) {
+                undo(e, () -> target.addRelationship(type, from, to, null));
+            }
+            throw e;
+        }
+    }
+
+    // A shard that can't be reached can't be undone either; the undo's own failure goes along with the first one.
+    private static void undo(RuntimeException failure, Runnable undo) {
+        try {
+            undo.run();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    // Null when there are none, like ChronicleGraph.
+    public Set<String> getOutgoingRelationshipNodeIds(String type, String from) {
+        return neighbours(Traversal.Direction.OUTGOING, type, from);
+    }
+
+    public Set<String> getIncomingRelationshipNodeIds(String type, String to) {
+        return neighbours(Traversal.Direction.INCOMING, type, to);
+    }
+
+    private Set<String> neighbours(Traversal.Direction direction, String type, String key) {
+        Map<String, Integer> reached = shard(key).expand(direction, new String[] {type},
+                Collections.singletonMap(key, 1));
+        return reached.isEmpty() ? null : new HashSet<>(reached.keySet());
+    }
+
+    // The nodes reached after exactly that many hops along the types, like traverse(start).out(type)... .keys().
+    public Set<String> traverse(Collection<String> start, Traversal.Direction direction, int hops, String... types) {
+        Map<String, Integer> frontier = new HashMap<>();
+        for (String key : start) {
+            frontier.put(key, 1);
+        }
+        for (int hop = 0; hop < hops && !frontier.isEmpty(); hop++) {
+            frontier = expand(direction, types, frontier);
+            // Only whether a node was reached matters here, not along how many paths.
+            frontier.replaceAll((key, paths) -> 1);
+        }
+        return frontier.keySet();
+    }
+
+    // People the node's friends are friends with, leaving out the node itself and the friends it already has.
+    public Set<String> friendsOfFriends(String type, String node) {
+        String[] types = {type};
+        Map<String, Integer> friends = expand(Traversal.Direction.OUTGOING, types, Collections.singletonMap(node, 1));
+        friends.remove(node);
+        friends.replaceAll((key, paths) -> 1);
+        Set<String> reached = expand(Traversal.Direction.OUTGOING, types, friends).keySet();
+        reached.removeAll(friends.keySet());
+        reached.remove(node);
+        return reached;
+    }
+
+    // Like ChronicleGraph.recommend: nodes reached by start -out-> x -in-> y -out-> candidate that start isn't
+    // already connected to, with how many paths reach each one, most first.
+    public List<Map.Entry<String, Integer>> recommend(String type, String start, int limit) {
+        String[] types = {type};
+        Map<String, Integer> liked = expand(Traversal.Direction.OUTGOING, types, Collections.singletonMap(start, 1));
+        Map<String, Integer> people = expand(Traversal.Direction.INCOMING, types, liked);
+        Map<String, Integer> candidates = expand(Traversal.Direction.OUTGOING, types, people);
+        candidates.keySet().removeAll(liked.keySet());
+        return candidates.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(entry -> new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    // One hop: each shard expands the part of the frontier it owns, all at once, and the path counts are summed.
+    private Map<String, Integer> expand(Traversal.Direction direction, String[] types, Map<String, Integer> frontier) {
+        List<Map<String, Integer>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new HashMap<>());
+        }
+        for (Map.Entry<String, Integer> entry : frontier.entrySet()) {
+            parts.get(shardOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+        }
+        List<CompletableFuture<Map<String, Integer>>> expanded = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            Map<String, Integer> part = parts.get(i);
+            if (!part.isEmpty()) {
+                expanded.add(async(shards[i], shard -> shard.expand(direction, types, part)));
+            }
+        }
+        Map<String, Integer> next = new HashMap<>();
+        for (CompletableFuture<Map<String, Integer>> part : expanded) {
+            join(part).forEach((key, paths) -> next.merge(key, paths, Integer::sum));
+        }
+        return next;
+    }
+
+    private <T> List<T> everyShard(Function<GraphShard, T> call) {
+        List<CompletableFuture<T>> calls = new ArrayList<>(shards.length);
+        for (GraphShard shard : shards) {
+            calls.add(async(shard, call));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> result : calls) {
+            results.add(join(result));
+        }
+        return results;
+    }
+
+    private <T> CompletableFuture<T> async(GraphShard shard, Function<GraphShard, T> call) {
+        return CompletableFuture.supplyAsync(() -> call.apply(shard), scatter);
+    }
+
+    // Whatever a shard threw, rather than the CompletionException around it.
+    private static <T> T join(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.maxdemarzi;
+
+public enum StorageMode {
+    // Neighbour keys as one set per node: whole-list reads are cheapest, single edge writes grow with the degree.
+    SETS,
+    // Neighbour ids in chunked bitmaps: single edge writes stay the same cost at any degree.
+    BITMAPS
+}
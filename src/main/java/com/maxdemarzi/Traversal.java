@@ -0,0 +1,456 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/*
+ * Breadth first expansion over any number of hops, e.g. traverse("max").out("FRIENDS").out("LIKES").distinct().
+ * Each frontier is a bitmap of dense node ids, so a node reached along many paths is only expanded once per level,
+ * and frontiers big enough to be worth it are expanded in parallel on the fork join pool. Bitmap stores already keep
+ * dictionary ids; when any store on the way keeps keys, the traversal hands out its own ids as it meets nodes.
+ */
+public class Traversal {
+
+    public enum Direction { OUTGOING, INCOMING, BOTH }
+
+    static final int PARALLEL_THRESHOLD = 1_000;
+    private static final int SPLIT_SIZE = 256;
+
+    private final RelationshipTypeRegistry related;
+    private final NodeDictionary dictionary;
+    private final List<String> start;
+    private final List<Hop> hops = new ArrayList<>();
+    private boolean distinct;
+    private int limit = Integer.MAX_VALUE;
+
+    Traversal(RelationshipTypeRegistry related, NodeDictionary dictionary, List<String> start) {
+        this.related = related;
+        this.dictionary = dictionary;
+        this.start = start;
+    }
+
+    public Traversal out(String... types) {
+        return hop(Direction.OUTGOING, 1, 1, types);
+    }
+
+    public Traversal in(String... types) {
+        return hop(Direction.INCOMING, 1, 1, types);
+    }
+
+    public Traversal both(String... types) {
+        return hop(Direction.BOTH, 1, 1, types);
+    }
+
+    // Follows the types between minDepth and maxDepth times, keeping every node reached at a depth in that range.
+    public Traversal hop(Direction direction, int minDepth, int maxDepth, String... types) {
+        if (minDepth < 0 || maxDepth < minDepth) {
+            throw new IllegalArgumentException("Invalid depth range " + minDepth + ".." + maxDepth);
+        }
+        hops.add(new Hop(direction, types, minDepth, maxDepth));
+        return this;
+    }
+
+    // Never returns to a node, including the start nodes, so each is reached at its shortest depth only.
+    public Traversal distinct() {
+        distinct = true;
+        return this;
+    }
+
+    public Traversal limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public Set<String> keys() {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            AdjacencyStore[][] stores = stores();
+            NodeIds ids = nodeIds(stores);
+            RoaringBitmap reached = run(ids, stores);
+            Set<String> keys = new HashSet<>((int) (Math.min(limit, reached.getCardinality()) / 0.75) + 1);
+            IntIterator iterator = reached.getIntIterator();
+            while (iterator.hasNext() && keys.size() < limit) {
+                keys.add(ids.key(iterator.next()));
+            }
+            return keys;
+        } finally {
+            lease.release();
+        }
+    }
+
+    public int count() {
+        RelationshipTypeRegistry.Lease lease = related.lease();
+        try {
+            AdjacencyStore[][] stores = stores();
+            return Math.min(limit, run(nodeIds(stores), stores).getCardinality());
+        } finally {
+            lease.release();
+        }
+    }
+
+    // Each hop's maps are looked up when the traversal runs, not when it is built, so a traversal kept around follows
+    // its types to new maps when they are resized.
+    private AdjacencyStore[][] stores() {
+        AdjacencyStore[][] stores = new AdjacencyStore[hops.size()][];
+        for (int i = 0; i < stores.length; i++) {
+            stores[i] = stores(related, hops.get(i).direction, hops.get(i).types);
+        }
+        return stores;
+    }
+
+    private RoaringBitmap run(NodeIds ids, AdjacencyStore[][] stores) {
+        RoaringBitmap frontier = new RoaringBitmap();
+        for (String key : start) {
+            int id = ids.id(key);
+            if (id >= 0) {
+                frontier.add(id);
+            }
+        }
+        RoaringBitmap visited = distinct ? frontier.clone() : null;
+        for (int i = 0; i < hops.size(); i++) {
+            Hop hop = hops.get(i);
+            RoaringBitmap reached = hop.minDepth == 0 ? frontier.clone() : new RoaringBitmap();
+            for (int depth = 1; depth <= hop.maxDepth && !frontier.isEmpty(); depth++) {
+                frontier = ids.expand(stores[i], frontier);
+                if (visited != null) {
+                    frontier.andNot(visited);
+                    visited.or(frontier);
+                }
+                if (depth >= hop.minDepth) {
+                    reached.or(frontier);
+                }
+            }
+            frontier = reached;
+        }
+        return frontier;
+    }
+
+    private NodeIds nodeIds(AdjacencyStore[][] stores) {
+        for (AdjacencyStore[] hop : stores) {
+            if (!allBitmaps(hop)) {
+                return new LocalIds();
+            }
+        }
+        return new DictionaryIds(dictionary);
+    }
+
+    // Finds a shortest path by searching from both ends at once, always growing the smaller side, so it only has to
+    // look about half as deep from each. Returns the keys along the path, or an empty list if there is none within
+    // maxDepth hops.
+    static List<String> shortestPath(RelationshipTypeRegistry related, NodeDictionary dictionary, String from,
+                                     String to, Direction direction, int maxDepth, String... types) {
+        AdjacencyStore[] forward = stores(related, direction, types);
+        AdjacencyStore[] backward = stores(related, reverse(direction), types);
+        NodeIds ids = allBitmaps(forward) && allBitmaps(backward) ? new DictionaryIds(dictionary) : new LocalIds();
+        int source = ids.id(from);
+        int target = ids.id(to);
+        if (source < 0 || target < 0) {
+            return Collections.emptyList();
+        }
+        if (source == target) {
+            return Collections.singletonList(from);
+        }
+
+        Search ahead = new Search(ids, forward, source);
+        Search behind = new Search(ids, backward, target);
+        for (int depth = 0; depth < maxDepth && ahead.frontier.size() > 0 && behind.frontier.size() > 0; depth++) {
+            boolean forwards = ahead.frontier.size() <= behind.frontier.size();
+            Search side = forwards ? ahead : behind;
+            int meeting = side.advance(forwards ? behind : ahead);
+            if (meeting >= 0) {
+                List<String> path = new ArrayList<>();
+                for (int id = meeting; id != source; id = ahead.parent(id)) {
+                    path.add(ids.key(id));
+                }
+                path.add(from);
+                Collections.reverse(path);
+                for (int id = meeting; id != target; ) {
+                    id = behind.parent(id);
+                    path.add(ids.key(id));
+                }
+                return path;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static AdjacencyStore[] stores(RelationshipTypeRegistry related, Direction direction, String... types) {
+        List<AdjacencyStore> stores = new ArrayList<>();
+        for (String type : types) {
+            if (direction != Direction.INCOMING && related.outgoing(type) != null) {
+                stores.add(related.outgoing(type));
+            }
+            if (direction != Direction.OUTGOING && related.incoming(type) != null) {
+                stores.add(related.incoming(type));
+            }
+        }
+        return stores.toArray(new AdjacencyStore[0]);
+    }
+
+    private static Direction reverse(Direction direction) {
+        switch (direction) {
+            case OUTGOING:
+                return Direction.INCOMING;
+            case INCOMING:
+                return Direction.OUTGOING;
+            default:
+                return Direction.BOTH;
+        }
+    }
+
+    private static boolean allBitmaps(AdjacencyStore[] stores) {
+        for (AdjacencyStore store : stores) {
+            if (!(store instanceof BitmapAdjacencyStore)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Hop {
+        final Direction direction;
+        final String[] types;
+        final int minDepth;
+        final int maxDepth;
+
+        Hop(Direction direction, String[] types, int minDepth, int maxDepth) {
+            this.direction = direction;
+            this.types = types;
+            this.minDepth = minDepth;
+            this.maxDepth = maxDepth;
+        }
+    }
+
+    private static final class Expand extends RecursiveTask<RoaringBitmap> {
+        private static final long serialVersionUID = 1L;
+
+        private final NodeIds ids;
+        private final AdjacencyStore[] stores;
+        private final int[] nodes;
+        private final int from;
+        private final int to;
+
+        Expand(NodeIds ids, AdjacencyStore[] stores, int[] nodes, int from, int to) {
+            this.ids = ids;
+            this.stores = stores;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected RoaringBitmap compute() {
+            if (to - from > SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                Expand left = new Expand(ids, stores, nodes, from, middle);
+                left.fork();
+                RoaringBitmap next = new Expand(ids, stores, nodes, middle, to).compute();
+                next.or(left.join());
+                return next;
+            }
+            RoaringBitmap next = new RoaringBitmap();
+            IntConsumer add = next::add;
+            for (int i = from; i < to; i++) {
+                for (AdjacencyStore store : stores) {
+                    ids.forEachNeighbour(store, nodes[i], add);
+                }
+            }
+            return next;
+        }
+    }
+
+    // One side of the shortest path search: the nodes it has seen, who reached each of them, and its newest level.
+    private static final class Search {
+        private final NodeIds ids;
+        private final AdjacencyStore[] stores;
+        private final RoaringBitmap seen = new RoaringBitmap();
+        // Keyed by id rather than indexed by it, so a search that only meets a few nodes with large ids stays small.
+        private final IntIntMap parents = new IntIntMap();
+        IntList frontier = new IntList();
+
+        Search(NodeIds ids, AdjacencyStore[] stores, int origin) {
+            this.ids = ids;
+            this.stores = stores;
+            seen.add(origin);
+            frontier.add(origin);
+        }
+
+        int parent(int id) {
+            return parents.get(id);
+        }
+
+        // Grows this side by one level and returns the first node the other side has already seen, or -1.
+        int advance(Search other) {
+            IntList next = new IntList();
+            int[] meeting = {-1};
+            for (int i = 0; i < frontier.size() && meeting[0] < 0; i++) {
+                int node = frontier.get(i);
+                IntConsumer visit = neighbour -> {
+                    if (meeting[0] >= 0 || !seen.checkedAdd(neighbour)) {
+                        return;
+                    }
+                    parents.put(neighbour, node);
+                    next.add(neighbour);
+                    if (other.seen.contains(neighbour)) {
+                        meeting[0] = neighbour;
+                    }
+                };
+                for (AdjacencyStore store : stores) {
+                    ids.forEachNeighbour(store, node, visit);
+                }
+            }
+            frontier = next;
+            return meeting[0];
+        }
+    }
+
+    abstract static class NodeIds {
+        abstract int id(String key);
+
+        abstract String key(int id);
+
+        abstract void forEachNeighbour(AdjacencyStore store, int id, IntConsumer consumer);
+
+        RoaringBitmap expand(AdjacencyStore[] stores, RoaringBitmap frontier) {
+            if (frontier.getCardinality() >= PARALLEL_THRESHOLD) {
+                int[] nodes = frontier.toArray();
+                return ForkJoinPool.commonPool().invoke(new Expand(this, stores, nodes, 0, nodes.length));
+            }
+            RoaringBitmap next = new RoaringBitmap();
+            IntConsumer add = next::add;
+            IntIterator iterator = frontier.getIntIterator();
+            while (iterator.hasNext()) {
+                int node = iterator.next();
+                for (AdjacencyStore store : stores) {
+                    forEachNeighbour(store, node, add);
+                }
+            }
+            return next;
+        }
+    }
+
+    private static final class DictionaryIds extends NodeIds {
+        private final NodeDictionary dictionary;
+
+        DictionaryIds(NodeDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        int id(String key) {
+            return dictionary.get(key);
+        }
+
+        @Override
+        String key(int id) {
+            return dictionary.getKey(id);
+        }
+
+        @Override
+        void forEachNeighbour(AdjacencyStore store, int id, IntConsumer consumer) {
+            ((BitmapAdjacencyStore) store).forEachId(id, consumer);
+        }
+    }
+
+    // Ids for stores that only know keys, handed out in the order nodes are met and only good for one traversal. Only
+    // the traversing thread hands out ids; parallel expansions just gather neighbour keys and leave the ids to it.
+    private static final class LocalIds extends NodeIds {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> keys = new ArrayList<>();
+
+        @Override
+        int id(String key) {
+            Integer id = ids.putIfAbsent(key, keys.size());
+            if (id != null) {
+                return id;
+            }
+            keys.add(key);
+            return keys.size() - 1;
+        }
+
+        @Override
+        String key(int id) {
+            return keys.get(id);
+        }
+
+        @Override
+        void forEachNeighbour(AdjacencyStore store, int id, IntConsumer consumer) {
+            forEachNeighbour(store, keys.get(id), neighbour -> consumer.accept(id(neighbour)));
+        }
+
+        @Override
+        RoaringBitmap expand(AdjacencyStore[] stores, RoaringBitmap frontier) {
+            if (frontier.getCardinality() < PARALLEL_THRESHOLD) {
+                return super.expand(stores, frontier);
+            }
+            String[] nodes = new String[frontier.getCardinality()];
+            IntIterator iterator = frontier.getIntIterator();
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = keys.get(iterator.next());
+            }
+            RoaringBitmap next = new RoaringBitmap();
+            for (String neighbour : ForkJoinPool.commonPool().invoke(new KeyExpand(stores, nodes, 0, nodes.length))) {
+                next.add(id(neighbour));
+            }
+            return next;
+        }
+
+        // Needs every neighbour as a String anyway, so the lock free get beats visiting the entry under its lock.
+        static void forEachNeighbour(AdjacencyStore store, String key, Consumer<String> consumer) {
+            if (store instanceof BitmapAdjacencyStore) {
+                store.forEach(key, neighbour -> consumer.accept(neighbour.toString()));
+                return;
+            }
+            Set<String> neighbours = store.get(key);
+            if (neighbours != null) {
+                neighbours.forEach(consumer);
+            }
+        }
+    }
+
+    private static final class KeyExpand extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final AdjacencyStore[] stores;
+        private final String[] nodes;
+        private final int from;
+        private final int to;
+
+        KeyExpand(AdjacencyStore[] stores, String[] nodes, int from, int to) {
+            this.stores = stores;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from > SPLIT_SIZE) {
+                int middle = (from + to) >>> 1;
+                KeyExpand left = new KeyExpand(stores, nodes, from, middle);
+                left.fork();
+                List<String> neighbours = new KeyExpand(stores, nodes, middle, to).compute();
+                neighbours.addAll(left.join());
+                return neighbours;
+            }
+            List<String> neighbours = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                for (AdjacencyStore store : stores) {
+                    LocalIds.forEachNeighbour(store, nodes[i], neighbours::add);
+                }
+            }
+            return neighbours;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.maxdemarzi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// Generated graphs that come out the same on every run, so benchmarks loading them into different engines compare the
+// same data. Neighbours are never the node itself, and distinct unless said otherwise, since ChronicleGraph keeps an
+// edge only once.
+final class BenchmarkDataset {
+
+    static final long SEED = 42;
+
+    private BenchmarkDataset() {
+    }
+
+    static String user(int user) {
+        return "user" + user;
+    }
+
+    static String person(int person) {
+        return "person" + person;
+    }
+
+    static String item(int item) {
+        return "item" + item;
+    }
+
+    static Map<String, Object> userProperties(int user) {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "name" + user);
+        properties.put("age", 18 + user % 60);
+        return properties;
+    }
+
+    static Map<String, Object> itemProperties(int item) {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("id", item);
+        properties.put("itemname", "itemname" + item);
+        return properties;
+    }
+
+    // FRIENDS: each user to friendsCount others.
+    static List<String[]> friendships(int userCount, int friendsCount) {
+        Random rand = new Random(SEED);
+        List<String[]> friendships = new ArrayList<>(userCount * friendsCount);
+        for (int user = 0; user < userCount; user++) {
+            for (int friend : distinct(rand, userCount, Math.min(friendsCount, userCount - 1), user)) {
+                friendships.add(new String[] {user(user), user(friend)});
+            }
+        }
+        return friendships;
+    }
+
+    // LIKES: each person to likesCount items, like ChronicleGraphRecommendationBenchmark.
+    static List<String[]> likes(int personCount, int itemCount, int likesCount) {
+        Random rand = new Random(SEED + 1);
+        List<String[]> likes = new ArrayList<>(personCount * likesCount);
+        for (int person = 0; person < personCount; person++) {
+            for (int item : distinct(rand, itemCount, Math.min(likesCount, itemCount), -1)) {
+                likes.add(new String[] {person(person), item(item)});
+            }
+        }
+        return likes;
+    }
+
+    // FRIENDS with both ends drawn from the Zipfian, so degrees in and out follow a power law: a few users have
+    // thousands of friends and most have a handful. Repeats are left in, as they would be in a stream of writes.
+    static List<String[]> powerLawFriendships(ZipfianGenerator users, int count) {
+        Random rand = new Random(SEED + 2);
+        List<String[]> friendships = new ArrayList<>(count);
+        while (friendships.size() < count) {
+            int from = users.next(rand);
+            int to = users.next(rand);
+            if (from != to) {
+                friendships.add(new String[] {user(from), user(to)});
+            }
+        }
+        return friendships;
+    }
+
+    private static Set<Integer> distinct(Random rand, int bound, int count, int except) {
+        Set<Integer> picked = new HashSet<>();
+        while (picked.size() < count) {
+            int next = rand.nextInt(bound);
+            if (next != except) {
+                picked.add(next);
+            }
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,87 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class BitmapAdjacencyStoreTest {
+    public NodeDictionary dictionary;
+    public BitmapAdjacencyStore store;
+
+    @Before
+    public void setup() {
+        dictionary = new NodeDictionary(100000);
+        // Push the ids of the later keys past the first chunk
+        for (int i = 0; i < 70000; i++) {
+            dictionary.getOrCreate("key" + i);
+        }
+        store = new BitmapAdjacencyStore(GraphDirectory.inMemory(), "LIKES-out", 1000, 10, dictionary);
+    }
+
+    @Test
+    public void shouldAddEdgesAcrossChunks() {
+        Assert.assertTrue(store.add("key1", "key5"));
+        Assert.assertTrue(store.add("key1", "key69999"));
+        Assert.assertEquals(1, store.size());
+        Assert.assertTrue(store.contains("key1", "key5"));
+        Assert.assertTrue(store.contains("key1", "key69999"));
+        Assert.assertFalse(store.contains("key1", "key6"));
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); add("key69999"); }}, store.get("key1"));
+    }
+
+    @Test
+    public void shouldRemoveEmptyChunks() {
+        store.add("key1", "key5");
+        store.add("key1", "key69999");
+        Assert.assertTrue(store.remove("key1", "key69999"));
+        Assert.assertFalse(store.remove("key1", "key69999"));
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); }}, store.get("key1"));
+        Assert.assertTrue(store.remove("key1", "key5"));
+        Assert.assertFalse(store.containsKey("key1"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void shouldRemoveAllChunksOfNode() {
+        store.add("key1", "key5");
+        store.add("key1", "key69999");
+        store.add("key2", "key5");
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); add("key69999"); }}, store.remove("key1"));
+        Assert.assertNull(store.get("key1"));
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); }}, store.get("key2"));
+    }
+
+    @Test
+    public void shouldAddAllAcrossChunks() {
+        store.add("key1", "key5");
+        Assert.assertTrue(store.addAll("key1", Arrays.asList("key6", "key69999", "key1", "key5")));
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); add("key6"); add("key69999"); }}, store.get("key1"));
+        Assert.assertTrue(store.remove("key1", "key69999"));
+        Assert.assertEquals(new HashSet<String>() {{ add("key5"); add("key6"); }}, store.get("key1"));
+    }
+
+    @Test
+    public void shouldVisitNeighboursAcrossChunksInIdOrder() {
+        List<String> targets = new ArrayList<>();
+        for (int i = 2; i < 6000; i++) {
+            targets.add("key" + i);
+        }
+        targets.add("key69999");
+        store.addAll("key1", targets);
+
+        List<Integer> ids = new ArrayList<>();
+        Assert.assertEquals(5999, store.forEachId("key1", ids::add));
+        Assert.assertEquals(dictionary.get("key2"), (int) ids.get(0));
+        Assert.assertEquals(dictionary.get("key69999"), (int) ids.get(5998));
+
+        List<String> keys = new ArrayList<>();
+        Assert.assertEquals(5999, store.forEach("key1", neighbour -> keys.add(neighbour.toString())));
+        Assert.assertEquals(targets, keys);
+        Assert.assertEquals(0, store.forEach("key2", neighbour -> Assert.fail()));
+    }
+}
@@ -0,0 +1,265 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayChangesIntoAnotherGraph() throws IOException {
+        File changes = folder.newFolder("changes");
+        ChronicleGraph cg = new ChronicleGraph(10000, 100000);
+        // Small segments, so the log rolls over a few times.
+        cg.openChangeLog(changes, 0, 0, 4096);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "max");
+        properties.put("age", 37);
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 == 0) {
+                cg.addNode("node" + i, properties);
+            } else {
+                cg.addNode("node" + i, properties, i % 2 == 0 ? "Person" : "Bot");
+            }
+            cg.addRelationship("FRIENDS", "node" + i, "node" + (i + 1));
+        }
+        cg.addNode("tags", new ArrayList<>(Arrays.asList("one", "two")));
+        cg.addRelationship("LIKES", "max", "tags", 5);
+        cg.removeRelationship("FRIENDS", "node1", "node2");
+        cg.removeNode("node3");
+        Assert.assertEquals(404, cg.getChangeLogSequence());
+        Assert.assertTrue(ChangeLog.segments(changes).size() > 1);
+
+        List<GraphChange> read = new ArrayList<>();
+        try (ChangeTailer tailer = ChronicleGraph.readChanges(changes, 0)) {
+            for (GraphChange change = tailer.poll(); change != null; change = tailer.poll()) {
+                read.add(change);
+            }
+        }
+        Assert.assertEquals(404, read.size());
+        Assert.assertEquals(GraphChange.Kind.ADD_NODE, read.get(0).getKind());
+        Assert.assertEquals(properties, read.get(0).getProperties());
+        Assert.assertNull(read.get(0).getLabels());
+        Assert.assertArrayEquals(new String[] {"Bot"}, read.get(2).getLabels());
+        Assert.assertEquals("node0", read.get(1).getFrom());
+        Assert.assertNull(read.get(1).getProperties());
+        Assert.assertEquals(5, read.get(401).getProperties());
+        Assert.assertEquals(GraphChange.Kind.REMOVE_NODE, read.get(403).getKind());
+        for (int i = 0; i < read.size(); i++) {
+            Assert.assertEquals(i, read.get(i).getSequence());
+        }
+
+        try (ChangeTailer tailer = ChronicleGraph.readChanges(changes, 399)) {
+            Assert.assertEquals(399, tailer.poll().getSequence());
+        }
+
+        ChronicleGraph replica = new ChronicleGraph(10000, 100000);
+        Assert.assertEquals(404, replica.replayChanges(changes));
+        assertSameGraph(cg, replica);
+        cg.close();
+        replica.close();
+    }
+
+    @Test
+    public void shouldLogImportsOnceTheyAreIn() throws IOException {
+        File changes = folder.newFolder("changes");
+        ChronicleGraph cg = new ChronicleGraph(10000, 100000);
+        cg.openChangeLog(changes, 0, 0);
+        HashMap<String, Object> nodes = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            nodes.put("node" + i, i);
+        }
+        Assert.assertEquals(100, cg.importNodes(nodes.entrySet().iterator()));
+        cg.addRelationship("FRIENDS", "node0", "node1");
+        List<String[]> friends = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            friends.add(new String[] {"node" + i, "node" + (i + 1) % 100});
+        }
+        friends.add(new String[] {"node5", "node6"});
+        friends.add(new String[] {"node7", "node7"});
+        Assert.assertEquals(99, cg.importRelationships("FRIENDS", friends.iterator()));
+
+        // Every node, the one edge added on its own, then each imported edge once, self loop left out.
+        Assert.assertEquals(100 + 1 + 100, cg.getChangeLogSequence());
+        ChronicleGraph replica = new ChronicleGraph(10000, 100000);
+        replica.replayChanges(changes);
+        assertSameGraph(cg, replica);
+        cg.close();
+        replica.close();
+    }
+
+    @Test
+    public void shouldTailChangesAsTheyAreMade() throws Exception {
+        ChronicleGraph cg = new ChronicleGraph(10000, 100000);
+        cg.openChangeLog(folder.newFolder("changes"), 1, 0, 4096);
+        cg.addNode("max");
+        try (ChangeTailer tailer = cg.tailChanges(0)) {
+            Assert.assertEquals("max", tailer.next(1, TimeUnit.SECONDS).getKey());
+            Assert.assertNull(tailer.next(10, TimeUnit.MILLISECONDS));
+
+            CompletableFuture<List<GraphChange>> tailed = CompletableFuture.supplyAsync(() -> {
+                List<GraphChange> seen = new ArrayList<>();
+                try {
+                    while (seen.size() < 300) {
+                        GraphChange change = tailer.next(10, TimeUnit.SECONDS);
+                        if (change == null) {
+                            break;
+                        }
+                        seen.add(change);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return seen;
+            });
+            for (int i = 0; i < 300; i++) {
+                cg.addRelationship("FRIENDS", "max", "friend" + i);
+            }
+            List<GraphChange> seen = tailed.get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(300, seen.size());
+            Assert.assertEquals("friend299", seen.get(299).getTo());
+            Assert.assertEquals(301, tailer.getSequence());
+        }
+        cg.close();
+    }
+
+    @Test
+    public void shouldCarryOnAfterReopening() throws IOException {
+        File directory = folder.newFolder("graph");
+        File changes = folder.newFolder("changes");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000);
+        cg.openChangeLog(changes, 0, 0, 4096);
+        for (int i = 0; i < 100; i++) {
+            cg.addRelationship("FRIENDS", "max", "friend" + i, i);
+        }
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000);
+        cg.openChangeLog(changes, 0, 0, 4096);
+        Assert.assertEquals(100, cg.getChangeLogSequence());
+        cg.addRelationship("FRIENDS", "max", "friend100", 100);
+        Assert.assertEquals(101, cg.getChangeLogSequence());
+        int segments = ChangeLog.segments(changes).size();
+        Assert.assertTrue(cg.truncateChangeLog(100) > 0);
+        Assert.assertTrue(ChangeLog.segments(changes).size() < segments);
+        try (ChangeTailer tailer = ChronicleGraph.readChanges(changes, 100)) {
+            GraphChange change = tailer.poll();
+            Assert.assertEquals(100, change.getProperties());
+            Assert.assertNull(tailer.poll());
+        }
+        cg.close();
+    }
+
+    @Test
+    public void shouldClearWhatATornRecordLeftBehind() throws IOException {
+        File changes = folder.newFolder("changes");
+        ChronicleGraph cg = new ChronicleGraph(10000, 100000);
+        cg.openChangeLog(changes, 0, 0, 4096);
+        cg.addNode("max", 37);
+        cg.close();
+        // What a crash part way through a later record might leave, well after the last whole one.
+        File segment = ChangeLog.segments(changes).get(0);
+        byte[] torn = new byte[100];
+        Arrays.fill(torn, (byte) 0x7F);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(1000);
+            file.write(torn);
+        }
+
+        cg = new ChronicleGraph(10000, 100000);
+        cg.openChangeLog(changes, 0, 0, 4096);
+        Assert.assertEquals(1, cg.getChangeLogSequence());
+        cg.addNode("tom", 42);
+        cg.close();
+        byte[] after = new byte[torn.length];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            file.seek(1000);
+            file.readFully(after);
+        }
+        Assert.assertArrayEquals(new byte[torn.length], after);
+        try (ChangeTailer tailer = ChronicleGraph.readChanges(changes, 0)) {
+            Assert.assertEquals("max", tailer.poll().getKey());
+            Assert.assertEquals("tom", tailer.poll().getKey());
+            Assert.assertNull(tailer.poll());
+        }
+    }
+
+    @Test
+    public void shouldRecoverFromSnapshotTakenWhileWriting() throws Exception {
+        for (StorageMode mode : StorageMode.values()) {
+            File changes = folder.newFolder("changes-" + mode);
+            File snapshot = new File(folder.getRoot(), "snapshot-" + mode);
+            ChronicleGraph cg = new ChronicleGraph(10000, 100000, mode);
+            cg.openChangeLog(changes);
+            cg.createIndex("name");
+            for (int i = 0; i < 1000; i++) {
+                HashMap<String, Object> properties = new HashMap<>();
+                properties.put("name", "node" + i);
+                cg.addNode("node" + i, properties, i % 3 == 0 ? "Fizz" : "Node");
+                cg.addRelationship("FRIENDS", "node" + i, "node" + ((i * 7 + 1) % 1000), i);
+            }
+
+            CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cg.addRelationship("LIKES", "node" + i, "node" + (i * 3 % 1000));
+                    cg.removeRelationship("FRIENDS", "node" + i, "node" + ((i * 7 + 1) % 1000));
+                    if (i % 10 == 0) {
+                        cg.removeNode("node" + (999 - i));
+                    }
+                }
+            });
+            long from = cg.snapshot(snapshot);
+            writes.get(60, TimeUnit.SECONDS);
+            Assert.assertTrue(from >= 2000);
+
+            ChronicleGraph recovered = new ChronicleGraph(snapshot, 10000, 100000, mode);
+            Assert.assertEquals(cg.getChangeLogSequence(), recovered.replayChanges(changes));
+            assertSameGraph(cg, recovered);
+            Assert.assertEquals(cg.findNodes("name", "node5"), recovered.findNodes("name", "node5"));
+            recovered.close();
+            cg.close();
+        }
+    }
+
+    private static void assertSameGraph(ChronicleGraph expected, ChronicleGraph actual) {
+        Assert.assertEquals(expected.getRelationshipTypes(), actual.getRelationshipTypes());
+        Assert.assertEquals(expected.getLabels(), actual.getLabels());
+        for (String label : expected.getLabels()) {
+            Assert.assertEquals(expected.getNodesByLabel(label), actual.getNodesByLabel(label));
+        }
+        for (int i = 0; i <= 1000; i++) {
+            String node = "node" + i;
+            Assert.assertEquals(expected.getNode(node), actual.getNode(node));
+            Assert.assertEquals(expected.getNodeLabels(node), actual.getNodeLabels(node));
+            for (String type : expected.getRelationshipTypes()) {
+                Set<String> outgoing = expected.getOutgoingRelationshipNodeIds(type, node);
+                Assert.assertEquals(outgoing, actual.getOutgoingRelationshipNodeIds(type, node));
+                Assert.assertEquals(expected.getIncomingRelationshipNodeIds(type, node),
+                        actual.getIncomingRelationshipNodeIds(type, node));
+                if (outgoing != null) {
+                    for (String other : outgoing) {
+                        Assert.assertEquals(expected.getRelationship(type, node, other),
+                                actual.getRelationship(type, node, other));
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(expected.getNode("tags"), actual.getNode("tags"));
+        Assert.assertEquals(expected.getRelationship("LIKES", "max", "tags"), actual.getRelationship("LIKES", "max", "tags"));
+    }
+}
@@ -1,15 +1,23 @@
 package com.maxdemarzi;
 
 import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @State(Scope.Benchmark)
 public class ChronicleGraphBenchmark {
@@ -96,7 +104,7 @@ public class ChronicleGraphBenchmark {
     @Warmup(iterations = 10)
     @Measurement(iterations = 10)
     @Fork(1)
-    @Threads(1)
+    @Threads(4)
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
     public int measureCreateEmptyNodesAndRelationships() throws IOException {
@@ -112,6 +120,25 @@ public class ChronicleGraphBenchmark {
         return user;
     }
 
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long measureImportEmptyNodesAndRelationships() throws IOException {
+        List<Map.Entry<String, Object>> users = new ArrayList<>(userCount);
+        List<String[]> friends = new ArrayList<>(userCount * friendsCount);
+        for (int user = 0; user < userCount; user++) {
+            users.add(new AbstractMap.SimpleEntry<>("user" + user, ""));
+            for (int like = 0; like < friendsCount; like++) {
+                friends.add(new String[]{"user" + user, "user" + rand.nextInt(userCount)});
+            }
+        }
+        return db.importNodes(users.iterator()) + db.importRelationships("FRIENDS", friends.iterator());
+    }
+
     @Benchmark
     @Warmup(iterations = 10)
     @Measurement(iterations = 10)
@@ -142,6 +169,36 @@ public class ChronicleGraphBenchmark {
         return person;
     }
 
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTraverseAndGetNodeBatch() throws IOException {
+        int person;
+        for (person = 0; person < personCount; person++) {
+            db.getOutgoingRelationshipNodeBatch("LIKES", "person" + person);
+        }
+        return person;
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTraverseAndGetNodeNames() throws IOException {
+        int person;
+        for (person = 0; person < personCount; person++) {
+            db.getOutgoingRelationshipNodeBatch("LIKES", "person" + person, "itemname");
+        }
+        return person;
+    }
+
     @Benchmark
     @Warmup(iterations = 10)
     @Measurement(iterations = 10)
@@ -153,6 +210,113 @@ public class ChronicleGraphBenchmark {
         db.getOutgoingRelationshipNodeIds("LIKES", "person" + rand.nextInt(personCount));
     }
 
+    // Run the traversal benchmarks with -prof gc to compare allocation rates.
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureSingleTraversalForEach(Blackhole bh) throws IOException {
+        return db.forEachOutgoing("LIKES", "person" + rand.nextInt(personCount), bh::consume);
+    }
+
+    @State(Scope.Benchmark)
+    public static class TraversalState {
+        private ChronicleGraph db;
+        private String[] people;
+
+        @Param({"SETS", "BITMAPS"})
+        private StorageMode storage;
+
+        @Param({"100"})
+        private int peopleCount;
+
+        @Param({"200"})
+        private int itemCount;
+
+        @Param({"100"})
+        private int likesCount;
+
+        @Setup(Level.Trial)
+        public void prepare() throws IOException {
+            Random rand = new Random(42);
+            db = new ChronicleGraph(peopleCount + itemCount, peopleCount * likesCount, storage);
+            db.addRelationshipType("LIKES", peopleCount + itemCount, likesCount, likesCount);
+            people = new String[peopleCount];
+            for (int person = 0; person < peopleCount; person++) {
+                people[person] = "person" + person;
+                for (int like = 0; like < likesCount; like++) {
+                    db.addRelationship("LIKES", people[person], "item" + rand.nextInt(itemCount));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            db.close();
+        }
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Set<String> measureTraversalGetIds(TraversalState state) {
+        return state.db.getOutgoingRelationshipNodeIds("LIKES", state.people[ThreadLocalRandom.current().nextInt(state.peopleCount)]);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTraversalForEach(TraversalState state, Blackhole bh) {
+        return state.db.forEachOutgoing("LIKES", state.people[ThreadLocalRandom.current().nextInt(state.peopleCount)], bh::consume);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTraversalForEachId(TraversalState state, Blackhole bh) {
+        if (state.storage != StorageMode.BITMAPS) {
+            return 0;
+        }
+        return state.db.forEachOutgoingId("LIKES", state.people[ThreadLocalRandom.current().nextInt(state.peopleCount)], bh::consume);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureDegreeBySetSize(TraversalState state) {
+        return state.db.getOutgoingRelationshipNodeIds("LIKES", state.people[ThreadLocalRandom.current().nextInt(state.peopleCount)]).size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureOutDegree(TraversalState state) {
+        return state.db.getOutDegree("LIKES", state.people[ThreadLocalRandom.current().nextInt(state.peopleCount)]);
+    }
+
     @Benchmark
     @Warmup(iterations = 10)
     @Measurement(iterations = 10)
@@ -164,6 +328,45 @@ public class ChronicleGraphBenchmark {
         db.getOutgoingRelationshipNodes("LIKES", "person" + rand.nextInt(personCount));
     }
 
+    @State(Scope.Benchmark)
+    public static class HighDegreeState {
+        private ChronicleGraph db;
+        private AtomicInteger fans = new AtomicInteger();
+
+        @Param({"SETS", "BITMAPS"})
+        private StorageMode storage;
+
+        @Param({"1000", "10000", "100000"})
+        private int degree;
+
+        @Param({"1000"})
+        private int fanCount;
+
+        @Setup(Level.Trial)
+        public void prepare() throws IOException {
+            db = new ChronicleGraph(degree + fanCount + 1, degree + fanCount, storage);
+            db.addRelationshipType("LIKES", degree + fanCount + 1, 1, 1);
+            for (int person = 0; person < degree; person++) {
+                db.addRelationship("LIKES", "person" + person, "celebrity");
+            }
+        }
+    }
+
+    // Adds an edge to a node that already has high degree and takes it away again, so the degree stays put
+    // across iterations.
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddAndRemoveRelationshipOnHighDegreeNode(HighDegreeState state) throws IOException {
+        String fan = "fan" + (state.fans.getAndIncrement() % state.fanCount);
+        state.db.addRelationship("LIKES", fan, "celebrity");
+        return state.db.removeRelationship("LIKES", fan, "celebrity");
+    }
+
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
                 .include(ChronicleGraphBenchmark.class.getSimpleName() + ".measureCreateEmptyNodesAndRelationships")
@@ -0,0 +1,330 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class ChronicleGraphBitmapTest {
+    public ChronicleGraph cg;
+
+    @Before
+    public void setup() {
+        cg = new ChronicleGraph(10000, 100000, StorageMode.BITMAPS);
+    }
+
+    @Test
+    public void shouldAddRelationship() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        Assert.assertEquals(1, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-out"));
+        Assert.assertEquals(1, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-in"));
+        Assert.assertTrue(cg.hasRelationship("FRIENDS", "one", "two"));
+        Assert.assertFalse(cg.hasRelationship("FRIENDS", "two", "one"));
+    }
+
+    @Test
+    public void shouldAddRelationshipWithProperties() {
+        cg.addRelationshipType("RATED", 10000, 100, 100);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("stars", 5);
+        cg.addRelationship("RATED", "one", "two", properties);
+        Assert.assertEquals(properties, cg.getRelationship("RATED", "one", "two"));
+    }
+
+    @Test
+    public void shouldRemoveRelationship() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.removeRelationship("FRIENDS", "one", "two");
+        Assert.assertEquals(new HashSet<String>() {{ add("three"); }}, cg.getOutgoingRelationshipNodeIds("FRIENDS", "one"));
+        cg.removeRelationship("FRIENDS", "one", "three");
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-out"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-in"));
+    }
+
+    @Test
+    public void shouldRemoveNodeRelationships() {
+        cg.addNode("one");
+        cg.addNode("two");
+        cg.addNode("three");
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two", 9);
+        cg.addRelationship("FRIENDS", "three", "one", 10);
+
+        boolean result = cg.removeNode("one");
+        Assert.assertTrue(result);
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-out"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-in"));
+
+        Assert.assertEquals(null, cg.getRelationship("FRIENDS", "one", "two"));
+        Assert.assertEquals(null, cg.getRelationship("FRIENDS", "three", "one"));
+    }
+
+    @Test
+    public void shouldGetNodeOutgoingRelationshipNodeIds() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "one", "three");
+        Set<String> actual = cg.getOutgoingRelationshipNodeIds("FRIENDS", "one");
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three");}}, actual);
+    }
+
+    @Test
+    public void shouldGetNodeIncomingRelationshipNodeIds() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        Set<String> actual = cg.getIncomingRelationshipNodeIds("FRIENDS", "two");
+        Assert.assertEquals(new HashSet<String>() {{ add("one"); }}, actual);
+    }
+
+    @Test
+    public void shouldGetNodeOutgoingRelationshipNodes() {
+        cg.addNode("one", 1);
+        cg.addNode("two", "node two");
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        Set<Object> actual = cg.getOutgoingRelationshipNodes("FRIENDS", "one");
+
+        Set<Object> expected = new HashSet<Object>() {{
+            add( new HashMap<String, Object>() {{
+                put("_id", "two");
+                put("properties", "node two");
+            }});
+        }};
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void shouldGetNeighbourNodeBatches() {
+        HashMap<String, Object> two = new HashMap<>();
+        two.put("name", "two");
+        cg.addNode("two", two);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+
+        NodeBatch batch = cg.getOutgoingRelationshipNodeBatch("FRIENDS", "one", "name");
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); }}, new HashSet<>(batch.getKeys()));
+        int row = batch.getKeys().indexOf("two");
+        Assert.assertEquals("two", batch.getProperty(row, "name"));
+        Assert.assertNull(batch.getProperty(1 - row, "name"));
+        Assert.assertEquals(Arrays.asList("one"), cg.getIncomingRelationshipNodeBatch("FRIENDS", "two").getKeys());
+        Assert.assertEquals(two, cg.getNodes(Arrays.asList("two")).getNode(0));
+    }
+
+    @Test
+    public void shouldImportRelationships() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "four");
+        List<String[]> relationships = new ArrayList<>();
+        relationships.add(new String[]{"one", "two"});
+        relationships.add(new String[]{"one", "three"});
+        relationships.add(new String[]{"two", "three"});
+
+        Assert.assertEquals(3, cg.importRelationships("FRIENDS", relationships.iterator()));
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); add("four"); }}, cg.getOutgoingRelationshipNodeIds("FRIENDS", "one"));
+        Assert.assertEquals(new HashSet<String>() {{ add("one"); add("two"); }}, cg.getIncomingRelationshipNodeIds("FRIENDS", "three"));
+    }
+
+    @Test
+    public void shouldVisitNeighbourIds() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "four", "three");
+        Set<String> neighbours = new HashSet<>();
+        Assert.assertEquals(2, cg.forEachOutgoingId("FRIENDS", "one", id -> neighbours.add(cg.getNodeKey(id))));
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); }}, neighbours);
+        neighbours.clear();
+        Assert.assertEquals(2, cg.forEachIncoming("FRIENDS", "three", neighbour -> neighbours.add(neighbour.toString())));
+        Assert.assertEquals(new HashSet<String>() {{ add("one"); add("four"); }}, neighbours);
+        Assert.assertEquals(-1, cg.getNodeId("five"));
+        Assert.assertEquals(0, cg.forEachOutgoingId("FRIENDS", "five", id -> Assert.fail()));
+    }
+
+    @Test
+    public void shouldRecommend() {
+        cg.addRelationshipType("LIKES", 10000, 100, 100);
+        cg.addRelationship("LIKES", "person0", "item0");
+        cg.addRelationship("LIKES", "person0", "item1");
+        cg.addRelationship("LIKES", "person1", "item0");
+        cg.addRelationship("LIKES", "person1", "item2");
+        cg.addRelationship("LIKES", "person2", "item1");
+        cg.addRelationship("LIKES", "person2", "item2");
+        cg.addRelationship("LIKES", "person2", "item3");
+        cg.addRelationship("LIKES", "person3", "item0");
+        cg.addRelationship("LIKES", "person3", "item3");
+        cg.addRelationship("LIKES", "person4", "item1");
+        cg.addRelationship("LIKES", "person4", "item3");
+
+        List<Map.Entry<String, Integer>> recommendations = cg.recommend("LIKES", "person0", 10);
+        Assert.assertEquals(2, recommendations.size());
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item3", 3), recommendations.get(0));
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item2", 2), recommendations.get(1));
+        Assert.assertEquals(1, cg.recommend("LIKES", "person0", 1).size());
+        Assert.assertTrue(cg.recommend("LIKES", "person5", 10).isEmpty());
+        Assert.assertTrue(cg.recommend("FRIENDS", "person0", 10).isEmpty());
+    }
+
+    @Test
+    public void shouldRecommendAcrossPopularItemsInParallel() {
+        cg.addRelationshipType("LIKES", 10000, 100, 100);
+        cg.addRelationship("LIKES", "person", "popular");
+        for (int fan = 0; fan < Recommender.PARALLEL_THRESHOLD * 2; fan++) {
+            cg.addRelationship("LIKES", "fan" + fan, "popular");
+            cg.addRelationship("LIKES", "fan" + fan, "item" + (fan % 3));
+        }
+
+        List<Map.Entry<String, Integer>> recommendations = cg.recommend("LIKES", "person", 2);
+        Assert.assertEquals(2, recommendations.size());
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item0", 667), recommendations.get(0));
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item1", 667), recommendations.get(1));
+    }
+
+    @Test
+    public void shouldAddRelationshipsFromManyThreads() throws InterruptedException {
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    cg.addRelationship("TYPE" + (i % 5), "node" + (i % 50), "node" + ((i * 7 + writer) % 50));
+                    cg.removeRelationship("TYPE" + (i % 5), "node" + (i % 50), "node" + ((i * 3 + writer) % 50));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Assert.assertEquals(5, cg.getRelationshipTypes().size());
+        for (String type : cg.getRelationshipTypes()) {
+            for (int node = 0; node < 50; node++) {
+                Set<String> outgoing = cg.getOutgoingRelationshipNodeIds(type, "node" + node);
+                if (outgoing == null) {
+                    continue;
+                }
+                for (String other : outgoing) {
+                    Assert.assertTrue(cg.getIncomingRelationshipNodeIds(type, other).contains("node" + node));
+                }
+            }
+            for (int node = 0; node < 50; node++) {
+                Set<String> incoming = cg.getIncomingRelationshipNodeIds(type, "node" + node);
+                if (incoming == null) {
+                    continue;
+                }
+                for (String other : incoming) {
+                    Assert.assertTrue(cg.hasRelationship(type, other, "node" + node));
+                }
+            }
+            long edges = 0;
+            for (int node = 0; node < 50; node++) {
+                Set<String> outgoing = cg.getOutgoingRelationshipNodeIds(type, "node" + node);
+                Set<String> incoming = cg.getIncomingRelationshipNodeIds(type, "node" + node);
+                Assert.assertEquals(outgoing == null ? 0 : outgoing.size(), cg.getOutDegree(type, "node" + node));
+                Assert.assertEquals(incoming == null ? 0 : incoming.size(), cg.getInDegree(type, "node" + node));
+                edges += cg.getOutDegree(type, "node" + node);
+            }
+            Assert.assertEquals(edges, cg.getRelationshipTypeAttributes(type).get(type + "-edges"));
+        }
+    }
+
+    @Test
+    public void shouldCountDegrees() {
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "two", "three");
+        cg.importRelationships("FRIENDS", Arrays.asList(new String[] {"one", "four"}, new String[] {"one", "two"}).iterator());
+        Assert.assertEquals(3, cg.getOutDegree("FRIENDS", "one"));
+        Assert.assertEquals(2, cg.getInDegree("FRIENDS", "three"));
+        Assert.assertEquals(0, cg.getInDegree("FRIENDS", "one"));
+        Assert.assertEquals(0, cg.getOutDegree("FRIENDS", "nobody"));
+        Assert.assertEquals(0, cg.getOutDegree("UNKNOWN", "one"));
+        Assert.assertEquals(4L, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-edges"));
+
+        DegreeStatistics statistics = cg.getOutDegreeStatistics("FRIENDS");
+        Assert.assertEquals(2, statistics.getNodes());
+        Assert.assertEquals(4, statistics.getEdges());
+        Assert.assertEquals(3, statistics.getMaxDegree());
+        Assert.assertArrayEquals(new long[] {1, 1}, statistics.getHistogram());
+        Assert.assertEquals(3, cg.getInDegreeStatistics("FRIENDS").getNodes());
+
+        cg.removeRelationship("FRIENDS", "one", "two");
+        cg.removeNode("three");
+        Assert.assertEquals(1, cg.getOutDegree("FRIENDS", "one"));
+        Assert.assertEquals(0, cg.getOutDegree("FRIENDS", "two"));
+        Assert.assertEquals(1L, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-edges"));
+        Assert.assertEquals(1, cg.getOutDegreeStatistics("FRIENDS").getMaxDegree());
+    }
+
+    @Test
+    public void shouldGrowTypesThatRunOutOfRoom() {
+        cg.addRelationshipType("TINY", 100, 1, 1);
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertTrue(cg.addRelationship("TINY", "node" + i, "node" + (i + 1)));
+        }
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(cg.addRelationship("TINY", "hub", "spoke" + i));
+        }
+        List<String[]> imported = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            imported.add(new String[] {"importer" + (i % 2000), "imported" + i});
+        }
+        Assert.assertEquals(5000, cg.importRelationships("TINY", imported.iterator()));
+
+        Assert.assertTrue(cg.hasRelationship("TINY", "node2999", "node3000"));
+        Assert.assertEquals(5000, cg.getOutDegree("TINY", "hub"));
+        Assert.assertEquals(new HashSet<String>() {{ add("hub"); }}, cg.getIncomingRelationshipNodeIds("TINY", "spoke4321"));
+        Assert.assertEquals(3, cg.getOutDegree("TINY", "importer7"));
+        Assert.assertEquals(13000L, cg.getRelationshipTypeAttributes("TINY").get("TINY-edges"));
+        Assert.assertTrue((Integer) cg.getRelationshipTypeAttributes("TINY").get("TINY-maximum") > 100);
+        Assert.assertTrue(cg.getMetrics().getResizes("TINY") > 0);
+        Assert.assertEquals(0, cg.getMetrics().getFailedWrites("TINY"));
+        Assert.assertEquals(cg.getMetrics().getResizes("TINY"), cg.getMetrics().getSizingDecisions().size());
+    }
+
+    @Test
+    public void shouldPageThroughNeighbours() {
+        Set<String> followers = new HashSet<>();
+        for (int i = 0; i < 250; i++) {
+            cg.addRelationship("FOLLOWS", "fan" + i, "celebrity");
+            followers.add("fan" + i);
+        }
+
+        Set<String> paged = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            NeighbourPage page = cg.getIncomingRelationshipNodeIdPage("FOLLOWS", "celebrity", cursor, 100);
+            Assert.assertTrue(page.getKeys().size() <= 100);
+            for (String fan : page.getKeys()) {
+                Assert.assertTrue(fan + " came back twice", paged.add(fan));
+            }
+            cursor = page.getCursor();
+            // Edges added between pages don't disturb the cursor.
+            if (pages == 0) {
+                cg.addRelationship("FOLLOWS", "latecomer", "celebrity");
+                followers.add("latecomer");
+            }
+            pages++;
+        } while (cursor != null);
+        Assert.assertEquals(3, pages);
+        followers.removeAll(paged);
+        Assert.assertTrue(followers.isEmpty() || followers.equals(Collections.singleton("latecomer")));
+
+        Assert.assertEquals(251, cg.streamIncomingRelationshipNodeIds("FOLLOWS", "celebrity").count());
+        Assert.assertEquals(Arrays.asList("celebrity"),
+                cg.streamOutgoingRelationshipNodeIds("FOLLOWS", "fan7").collect(Collectors.toList()));
+        Assert.assertFalse(cg.getOutgoingRelationshipNodeIdPage("FOLLOWS", "nobody", null, 10).hasMore());
+        Assert.assertEquals(0, cg.streamOutgoingRelationshipNodeIds("LIKES", "fan7").count());
+    }
+}
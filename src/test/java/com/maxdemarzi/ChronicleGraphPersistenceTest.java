@@ -0,0 +1,206 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class ChronicleGraphPersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReopenGraph() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "max");
+        cg.addNode("max", properties);
+        cg.addNode("two");
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "max", "two", 5);
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000);
+        Assert.assertEquals(properties, cg.getNode("max"));
+        Assert.assertEquals("max", cg.getNodeProperty("max", "name"));
+        Assert.assertEquals(new HashSet<String>() {{ add("FRIENDS"); }}, cg.getRelationshipTypes());
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); }}, cg.getOutgoingRelationshipNodeIds("FRIENDS", "max"));
+        Assert.assertEquals(new HashSet<String>() {{ add("max"); }}, cg.getIncomingRelationshipNodeIds("FRIENDS", "two"));
+        Assert.assertEquals(5, cg.getRelationship("FRIENDS", "max", "two"));
+        Assert.assertEquals(1, cg.getOutDegree("FRIENDS", "max"));
+        Assert.assertEquals(1L, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-edges"));
+        cg.removeNode("two");
+        Assert.assertNull(cg.getOutgoingRelationshipNodeIds("FRIENDS", "max"));
+        Assert.assertNull(cg.getRelationship("FRIENDS", "max", "two"));
+        cg.close();
+    }
+
+    @Test
+    public void shouldReopenBitmapGraph() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        cg.addRelationship("LIKES", "person", "item1");
+        cg.addRelationship("LIKES", "person", "item2");
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        Assert.assertEquals(new HashSet<String>() {{ add("item1"); add("item2"); }}, cg.getOutgoingRelationshipNodeIds("LIKES", "person"));
+        Assert.assertEquals(2, cg.getOutDegree("LIKES", "person"));
+        Assert.assertEquals(2L, cg.getRelationshipTypeAttributes("LIKES").get("LIKES-edges"));
+        cg.addRelationship("LIKES", "another", "item3");
+        Assert.assertEquals(new HashSet<String>() {{ add("another"); }}, cg.getIncomingRelationshipNodeIds("LIKES", "item3"));
+        cg.close();
+    }
+
+    @Test
+    public void shouldReopenLabels() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        cg.addNode("max", null, "Person");
+        cg.addNode("item1", null, "Item");
+        cg.addRelationship("LIKES", "max", "item1");
+        cg.addRelationship("LIKES", "max", "item2");
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        Assert.assertEquals(new HashSet<String>() {{ add("Person"); }}, cg.getNodeLabels("max"));
+        Assert.assertEquals(new HashSet<String>() {{ add("item1"); }}, cg.getNodesByLabel("Item"));
+        Assert.assertEquals(new HashSet<String>() {{ add("item1"); }}, cg.getOutgoingRelationshipNodeIds("LIKES", "max", "Item"));
+        cg.addNode("item2", null, "Item");
+        Assert.assertEquals(2, cg.getLabelCount("Item"));
+        cg.close();
+    }
+
+    @Test
+    public void shouldRemoveNodesFromGraphsWithoutMemberships() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            File directory = folder.newFolder("graph-" + mode);
+            ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000, mode);
+            cg.addRelationship("FRIENDS", "max", "tom", 5);
+            cg.addRelationship("FRIENDS", "ben", "max");
+            cg.addRelationship("LIKES", "max", "item1");
+            cg.close();
+            // Graphs saved before node types were recorded don't have the file at all.
+            Assert.assertTrue(new File(directory, "node-types.dat").delete());
+
+            cg = new ChronicleGraph(directory, 10000, 100000, mode);
+            Assert.assertTrue(cg.removeNode("max"));
+            Assert.assertNull(cg.getIncomingRelationshipNodeIds("FRIENDS", "tom"));
+            Assert.assertNull(cg.getOutgoingRelationshipNodeIds("FRIENDS", "ben"));
+            Assert.assertNull(cg.getIncomingRelationshipNodeIds("LIKES", "item1"));
+            Assert.assertNull(cg.getRelationship("FRIENDS", "max", "tom"));
+            cg.close();
+        }
+    }
+
+    @Test
+    public void shouldRecoverWithoutCleanShutdown() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        cg.addRelationship("LIKES", "person", "item1");
+
+        cg = new ChronicleGraph(directory, 10000, 100000, StorageMode.BITMAPS);
+        Assert.assertEquals(new HashSet<String>() {{ add("item1"); }}, cg.getOutgoingRelationshipNodeIds("LIKES", "person"));
+        cg.addRelationship("LIKES", "person", "item2");
+        Assert.assertEquals(new HashSet<String>() {{ add("person"); }}, cg.getIncomingRelationshipNodeIds("LIKES", "item2"));
+        cg.close();
+    }
+
+    @Test
+    public void shouldReopenPropertyIndexes() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000);
+        cg.createIndex("age");
+        for (int i = 0; i < 5; i++) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("age", 20 + i);
+            cg.addNode("person" + i, properties);
+        }
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000);
+        Assert.assertEquals(new HashSet<String>() {{ add("age"); }}, cg.getIndexedProperties());
+        Assert.assertEquals(new HashSet<String>() {{ add("person2"); }}, cg.findNodes("age", 22));
+        Assert.assertEquals(new HashSet<String>() {{ add("person3"); add("person4"); }}, cg.findNodesInRange("age", 23, 30));
+        cg.close();
+    }
+
+    @Test
+    public void shouldReopenResizedTypes() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            File directory = folder.newFolder("graph-" + mode);
+            ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000, mode);
+            cg.addRelationshipType("TINY", 100, 1, 1);
+            for (int i = 0; i < 1000; i++) {
+                cg.addRelationship("TINY", "node" + i, "node" + (i + 1));
+            }
+            Assert.assertTrue(cg.getMetrics().getResizes("TINY") > 0);
+            Object maximum = cg.getRelationshipTypeAttributes("TINY").get("TINY-maximum");
+            cg.close();
+            // Only the current generation of each map is left behind.
+            Assert.assertFalse(new File(directory, "TINY-out.dat").exists());
+
+            cg = new ChronicleGraph(directory, 10000, 100000, mode);
+            Assert.assertEquals(maximum, cg.getRelationshipTypeAttributes("TINY").get("TINY-maximum"));
+            Assert.assertEquals(1000L, cg.getRelationshipTypeAttributes("TINY").get("TINY-edges"));
+            Assert.assertTrue(cg.hasRelationship("TINY", "node500", "node501"));
+            cg.addRelationship("TINY", "node1000", "node0");
+            Assert.assertEquals(new HashSet<String>() {{ add("node1000"); }}, cg.getIncomingRelationshipNodeIds("TINY", "node0"));
+            cg.close();
+        }
+    }
+
+    @Test
+    public void shouldReopenInlineRelationshipProperties() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("weight", 0.25);
+        cg.addRelationshipType("WEIGHED", 10000, 100, 100, properties);
+        cg.addRelationship("WEIGHED", "max", "two", properties);
+        cg.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000);
+        Assert.assertEquals(properties, cg.getRelationship("WEIGHED", "max", "two"));
+        Assert.assertEquals(1, cg.getOutgoingRelationshipProperties("WEIGHED", "max").size());
+        try {
+            cg.addRelationship("WEIGHED", "max", "three", 5);
+            Assert.fail("The type should still keep its properties inline");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        cg.close();
+    }
+
+    @Test
+    public void shouldMoveRelationshipPropertiesToEdgeKeys() throws IOException {
+        File directory = folder.newFolder("graph");
+        ChronicleGraph cg = new ChronicleGraph(directory, 10000, 100000);
+        cg.addRelationship("FRIENDS", "max", "two");
+        cg.close();
+        // Written, and sized, the way graphs did before edge keys went binary.
+        GraphDirectory graphDirectory = new GraphDirectory(directory);
+        PropertyCodec codec = new PropertyCodec(graphDirectory);
+        HashMap<String, Object> average = new HashMap<>();
+        average.put("one", 10000);
+        PropertyStore<String> old = new PropertyStore<>(graphDirectory, "relationships", ChronicleMap
+                .of(String.class, byte[].class)
+                .averageKey("100000-100000-TYPE"), 100000, average, codec, GraphMetrics.UNCOUNTED);
+        old.put("max-twoFRIENDS", 5);
+        old.close();
+        codec.close();
+
+        cg = new ChronicleGraph(directory, 10000, 100000);
+        Assert.assertEquals(5, cg.getRelationship("FRIENDS", "max", "two"));
+        Assert.assertFalse(new File(directory, "relationships.dat").exists());
+        cg.close();
+    }
+}
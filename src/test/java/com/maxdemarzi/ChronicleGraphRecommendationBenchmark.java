@@ -28,9 +28,17 @@ public class ChronicleGraphRecommendationBenchmark {
     @Param({"10"})
     private int likesCount;
 
+    @Param({"SETS", "BITMAPS"})
+    private StorageMode storage;
+
+    // Bytes of neighbour lists kept on the heap; 0 reads everything from the off-heap maps.
+    @Param({"0", "67108864"})
+    private long cacheBytes;
+
     @Setup
     public void prepare() throws IOException {
-        db = new ChronicleGraph(maxNodes, maxRels);
+        db = new ChronicleGraph(maxNodes, maxRels, storage);
+        db.setCacheSize(cacheBytes, 0);
         db.addRelationshipType("LIKES", maxRels, likesCount, (personCount * likesCount / itemCount));
 
         for (int item = 0; item < itemCount; item++) {
@@ -61,6 +69,10 @@ public class ChronicleGraphRecommendationBenchmark {
         for (String item : itemsYouLike) {
             for (String person : db.getIncomingRelationshipNodeIds("LIKES", item)) {
                 Set<String> itemsYouMightLike = db.getOutgoingRelationshipNodeIds("LIKES", person);
+                // Cached neighbour sets are read only, so the liked items come out of a copy.
+                if (cacheBytes > 0) {
+                    itemsYouMightLike = new HashSet<>(itemsYouMightLike);
+                }
                 itemsYouMightLike.removeAll(itemsYouLike);
                 for (String unlikeditem : itemsYouMightLike) {
                     occurrences.computeIfAbsent(unlikeditem, (t) -> new LongAdder()).increment();
@@ -71,4 +83,15 @@ public class ChronicleGraphRecommendationBenchmark {
         Collections.sort(itemList, (a, b) -> ( b.getValue().intValue() - a.getValue().intValue() ));
         return itemList.subList(0, Math.min(itemList.size(), 10));
     }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List measureRecommend() throws IOException {
+        return db.recommend("LIKES", "person" + rand.nextInt(personCount), 10);
+    }
 }
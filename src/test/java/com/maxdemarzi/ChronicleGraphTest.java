@@ -7,9 +7,8 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
 
 @State(Scope.Benchmark)
 public class ChronicleGraphTest {
@@ -36,6 +35,24 @@ public class ChronicleGraphTest {
         Assert.assertEquals(1, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-in"));
     }
 
+    @Test
+    public void shouldCountOffHeapBytesOfEveryMap() throws IOException {
+        // Maps take their memory when they are made, not as entries arrive.
+        long empty = cg.getOffHeapBytesUsed();
+        Assert.assertTrue(empty > 0);
+        cg.addNode("max", 37);
+        Assert.assertTrue(cg.getOffHeapBytesUsed() >= empty);
+        cg.addRelationship("FRIENDS", "max", "tom", 5);
+        long relationship = cg.getOffHeapBytesUsed();
+        Assert.assertTrue(relationship > empty);
+
+        // Another graph's maps aren't counted.
+        ChronicleGraph other = new ChronicleGraph(10000, 100000);
+        other.addNode("max", 37);
+        Assert.assertEquals(relationship, cg.getOffHeapBytesUsed());
+        other.close();
+    }
+
     @Test
     public void shouldAddRelationshipBeforeItExists() {
         cg.addRelationship("FRIENDS", "one", "two", 3);
@@ -55,6 +72,75 @@ public class ChronicleGraphTest {
         Assert.assertEquals(1, cg.getRelationshipTypeAttributes("RATED").get("RATED-in"));
     }
 
+    @Test
+    public void shouldKeepRelationshipPropertiesInline() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph graph = new ChronicleGraph(10000, 100000, mode);
+            HashMap<String, Object> rating = new HashMap<>();
+            rating.put("stars", 5);
+            rating.put("weight", 0.5);
+            rating.put("verified", true);
+            graph.addRelationshipType("RATED", 10000, 100, 100, rating);
+            for (int i = 0; i < 100; i++) {
+                HashMap<String, Object> properties = new HashMap<>(rating);
+                properties.put("stars", i);
+                Assert.assertTrue(graph.addRelationship("RATED", "max", "item" + i, properties));
+            }
+            graph.addRelationship("RATED", "tom", "item7");
+
+            rating.put("stars", 5);
+            Assert.assertEquals(rating, graph.getRelationship("RATED", "max", "item5"));
+            Assert.assertEquals(42, graph.getRelationshipProperty("RATED", "max", "item42", "stars"));
+            Assert.assertEquals(true, graph.getRelationshipProperty("RATED", "max", "item42", "verified"));
+            Assert.assertNull(graph.getRelationshipProperty("RATED", "max", "item42", "review"));
+            Assert.assertNull(graph.getRelationship("RATED", "tom", "item7"));
+            Assert.assertNull(graph.getRelationship("RATED", "max", "nothing"));
+
+            Map<String, Object> all = graph.getOutgoingRelationshipProperties("RATED", "max");
+            Assert.assertEquals(100, all.size());
+            Assert.assertEquals(99, ((Map) all.get("item99")).get("stars"));
+            Assert.assertTrue(graph.getOutgoingRelationshipProperties("RATED", "tom").isEmpty());
+
+            try {
+                graph.addRelationship("RATED", "max", "item100", 5);
+                Assert.fail("Properties that don't match the type's should be refused");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertFalse(graph.hasRelationship("RATED", "max", "item100"));
+
+            graph.removeRelationship("RATED", "max", "item5");
+            Assert.assertNull(graph.getRelationship("RATED", "max", "item5"));
+            graph.removeNode("item6");
+            Assert.assertNull(graph.getRelationship("RATED", "max", "item6"));
+            Assert.assertEquals(98, graph.getOutgoingRelationshipProperties("RATED", "max").size());
+            graph.removeNode("max");
+            Assert.assertTrue(graph.getOutgoingRelationshipProperties("RATED", "max").isEmpty());
+            graph.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldOnlyKeepFixedWidthPropertiesInline() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("review", "great");
+        cg.addRelationshipType("RATED", 10000, 100, 100, properties);
+    }
+
+    @Test
+    public void shouldGetOutgoingRelationshipProperties() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("review", "great");
+        cg.addRelationship("RATED", "max", "one", properties);
+        cg.addRelationship("RATED", "max", "two", 4);
+        cg.addRelationship("RATED", "max", "three");
+        Map<String, Object> all = cg.getOutgoingRelationshipProperties("RATED", "max");
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(properties, all.get("one"));
+        Assert.assertEquals(4, all.get("two"));
+        Assert.assertTrue(cg.getOutgoingRelationshipProperties("LIKES", "max").isEmpty());
+    }
+
     @Test
     public void shouldRemoveRelationship() {
         cg.addRelationshipType("FRIENDS", 10000, 100, 100);
@@ -116,6 +202,39 @@ public class ChronicleGraphTest {
         Assert.assertEquals(null, cg.getRelationship("FRIENDS", "three", "one"));
     }
 
+    @Test
+    public void shouldRemoveNodeAcrossTypesAndDirections() {
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("LIKES", "three", "one", 4);
+        cg.addRelationship("LIKES", "three", "two");
+        List<String[]> follows = new ArrayList<>();
+        follows.add(new String[]{"one", "four"});
+        follows.add(new String[]{"four", "one"});
+        cg.importRelationships("FOLLOWS", follows.iterator());
+        cg.removeRelationship("FRIENDS", "one", "two");
+
+        Assert.assertTrue(cg.removeNode("one"));
+        Assert.assertFalse(cg.hasRelationship("LIKES", "three", "one"));
+        Assert.assertTrue(cg.hasRelationship("LIKES", "three", "two"));
+        Assert.assertNull(cg.getRelationship("LIKES", "three", "one"));
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); }}, cg.getOutgoingRelationshipNodeIds("LIKES", "three"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FOLLOWS").get("FOLLOWS-out"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FOLLOWS").get("FOLLOWS-in"));
+        Assert.assertTrue(cg.removeNode("one"));
+    }
+
+    @Test
+    public void shouldRemoveNodeWithManyNeighbours() {
+        for (int i = 0; i < ChronicleGraph.PARALLEL_UNLINK_THRESHOLD * 2; i++) {
+            cg.addRelationship("FRIENDS", "hub", "node" + i, i);
+            cg.addRelationship("FRIENDS", "node" + i, "hub");
+        }
+        Assert.assertTrue(cg.removeNode("hub"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-out"));
+        Assert.assertEquals(0, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-in"));
+        Assert.assertNull(cg.getRelationship("FRIENDS", "hub", "node7"));
+    }
+
     @Test
     public void shouldAddNodeWithObjectProperties() {
         HashMap<String, Object> address = new HashMap<>();
@@ -133,6 +252,32 @@ public class ChronicleGraphTest {
         Assert.assertEquals(properties, cg.getNode("complex"));
     }
 
+    @Test
+    public void shouldGetNodeProperty() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "max");
+        properties.put("email", "maxdemarzi@hotmail.com");
+        properties.put("age", 37);
+        cg.addNode("max", properties);
+        cg.addNode("simple", 5);
+        Assert.assertEquals("maxdemarzi@hotmail.com", cg.getNodeProperty("max", "email"));
+        Assert.assertEquals(37, cg.getNodeProperty("max", "age"));
+        Assert.assertNull(cg.getNodeProperty("max", "height"));
+        Assert.assertNull(cg.getNodeProperty("simple", "name"));
+        Assert.assertNull(cg.getNodeProperty("missing", "name"));
+    }
+
+    @Test
+    public void shouldGetRelationshipProperty() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("stars", 5);
+        properties.put("review", "great");
+        cg.addRelationship("RATED", "one", "two", properties);
+        Assert.assertEquals(5, cg.getRelationshipProperty("RATED", "one", "two", "stars"));
+        Assert.assertEquals("great", cg.getRelationshipProperty("RATED", "one", "two", "review"));
+        Assert.assertNull(cg.getRelationshipProperty("RATED", "two", "one", "stars"));
+    }
+
     @Test
     public void shouldGetNodeOutgoingRelationshipNodeIds() {
         cg.addNode("one");
@@ -184,6 +329,45 @@ public class ChronicleGraphTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void shouldGetNeighbourNodeBatches() {
+        HashMap<String, Object> tom = new HashMap<>();
+        tom.put("name", "tom");
+        tom.put("age", 33);
+        cg.addNode("tom", tom);
+        cg.addNode("ben", "node ben");
+        cg.addRelationship("FRIENDS", "max", "tom");
+        cg.addRelationship("FRIENDS", "max", "ben");
+        cg.addRelationship("FRIENDS", "max", "joe");
+
+        NodeBatch batch = cg.getOutgoingRelationshipNodeBatch("FRIENDS", "max");
+        Assert.assertEquals(new HashSet<String>() {{ add("tom"); add("ben"); add("joe"); }}, new HashSet<>(batch.getKeys()));
+        for (int row = 0; row < batch.size(); row++) {
+            Object node = batch.getNode(row);
+            switch (batch.getKey(row)) {
+                case "tom": Assert.assertEquals(tom, node); Assert.assertEquals(33, batch.getProperty(row, "age")); break;
+                case "ben": Assert.assertEquals("node ben", node); break;
+                default: Assert.assertNull(node);
+            }
+        }
+
+        NodeBatch names = cg.getIncomingRelationshipNodeBatch("FRIENDS", "tom", "name", "missing");
+        Assert.assertEquals(Arrays.asList("max"), names.getKeys());
+        Assert.assertNull(names.getProperty(0, "name"));
+        names = cg.getNodes(Arrays.asList("ben", "tom"), "name", "missing");
+        Assert.assertEquals(Arrays.asList("name", "missing"), names.getProperties());
+        Assert.assertNull(names.getProperty(0, "name"));
+        Assert.assertEquals("tom", names.getProperty(1, "name"));
+        Assert.assertNull(names.getProperty(1, "missing"));
+        try {
+            names.getNode(1);
+            Assert.fail("Only some properties were fetched");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(0, cg.getOutgoingRelationshipNodeBatch("LIKES", "max").size());
+    }
+
     @Test
     public void shouldGetNodeIncomingRelationshipNodes() {
         cg.addNode("one", 1);
@@ -210,4 +394,472 @@ public class ChronicleGraphTest {
         }};
         Assert.assertEquals(expected, actual);
     }
+
+    @Test
+    public void shouldImportNodes() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "max");
+        HashMap<String, Object> entries = new HashMap<>();
+        entries.put("one", "");
+        entries.put("max", properties);
+
+        Assert.assertEquals(2, cg.importNodes(entries.entrySet().iterator()));
+        Assert.assertEquals("", cg.getNode("one"));
+        Assert.assertEquals(properties, cg.getNode("max"));
+    }
+
+    @Test
+    public void shouldImportRelationships() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "four");
+        List<String[]> relationships = new ArrayList<>();
+        relationships.add(new String[]{"one", "two"});
+        relationships.add(new String[]{"one", "three"});
+        relationships.add(new String[]{"two", "three"});
+        relationships.add(new String[]{"three", "three"});
+        relationships.add(new String[]{"one", "two"});
+        relationships.add(new String[]{"one", "four"});
+
+        Assert.assertEquals(3, cg.importRelationships("FRIENDS", relationships.iterator()));
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); add("four"); }}, cg.getOutgoingRelationshipNodeIds("FRIENDS", "one"));
+        Assert.assertEquals(new HashSet<String>() {{ add("one"); add("two"); }}, cg.getIncomingRelationshipNodeIds("FRIENDS", "three"));
+        Assert.assertNull(cg.getOutgoingRelationshipNodeIds("FRIENDS", "three"));
+    }
+
+    @Test
+    public void shouldKeepBothHalvesWhenRemovingDuringAnImport() throws InterruptedException {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        List<String[]> relationships = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            relationships.add(new String[]{"node" + (i % 50), "node" + ((i * 7 + 1) % 50)});
+        }
+        Thread remover = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                cg.removeRelationship("FRIENDS", "node" + (i % 50), "node" + ((i * 7 + 1) % 50));
+            }
+        });
+        remover.start();
+        cg.importRelationships("FRIENDS", relationships.iterator());
+        remover.join();
+
+        for (int node = 0; node < 50; node++) {
+            for (int other = 0; other < 50; other++) {
+                Set<String> incoming = cg.getIncomingRelationshipNodeIds("FRIENDS", "node" + other);
+                Assert.assertEquals(cg.hasRelationship("FRIENDS", "node" + node, "node" + other),
+                        incoming != null && incoming.contains("node" + node));
+            }
+        }
+    }
+
+    @Test
+    public void shouldVisitNeighbours() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "three", "four");
+        Set<String> neighbours = new HashSet<>();
+        Assert.assertEquals(2, cg.forEachOutgoing("FRIENDS", "one", neighbour -> neighbours.add(neighbour.toString())));
+        Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); }}, neighbours);
+        Assert.assertEquals(0, cg.forEachIncoming("FRIENDS", "one", neighbour -> Assert.fail()));
+        Assert.assertEquals(0, cg.forEachOutgoing("LIKES", "one", neighbour -> Assert.fail()));
+
+        // Only neighbours that have been given an id, here by a label, are visited, and none are given one by it.
+        neighbours.clear();
+        cg.addNode("two", null, "Person");
+        Assert.assertEquals(1, cg.forEachOutgoingId("FRIENDS", "one", id -> neighbours.add(cg.getNodeKey(id))));
+        Assert.assertEquals(Collections.singleton("two"), neighbours);
+        Assert.assertEquals(0, cg.forEachIncomingId("FRIENDS", "four", id -> Assert.fail()));
+        Assert.assertEquals(-1, cg.getNodeId("three"));
+    }
+
+    @Test
+    public void shouldVisitNeighboursOfNeighbours() {
+        cg.addRelationshipType("FRIENDS", 10000, 100, 100);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "two", "four");
+        cg.addRelationship("FRIENDS", "three", "five");
+        Set<String> neighbours = new HashSet<>();
+        cg.forEachOutgoing("FRIENDS", "one", friend ->
+                cg.forEachOutgoing("FRIENDS", friend.toString(), neighbour -> neighbours.add(neighbour.toString())));
+        Assert.assertEquals(new HashSet<String>() {{ add("four"); add("five"); }}, neighbours);
+    }
+
+    @Test
+    public void shouldRecommend() {
+        cg.addRelationshipType("LIKES", 10000, 100, 100);
+        cg.addRelationship("LIKES", "person0", "item0");
+        cg.addRelationship("LIKES", "person0", "item1");
+        cg.addRelationship("LIKES", "person1", "item0");
+        cg.addRelationship("LIKES", "person1", "item2");
+        cg.addRelationship("LIKES", "person2", "item1");
+        cg.addRelationship("LIKES", "person2", "item2");
+        cg.addRelationship("LIKES", "person2", "item3");
+        cg.addRelationship("LIKES", "person3", "item0");
+        cg.addRelationship("LIKES", "person3", "item3");
+        cg.addRelationship("LIKES", "person4", "item1");
+        cg.addRelationship("LIKES", "person4", "item3");
+
+        List<Map.Entry<String, Integer>> recommendations = cg.recommend("LIKES", "person0", 10);
+        Assert.assertEquals(2, recommendations.size());
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item3", 3), recommendations.get(0));
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item2", 2), recommendations.get(1));
+        Assert.assertEquals(1, cg.recommend("LIKES", "person0", 1).size());
+        Assert.assertTrue(cg.recommend("LIKES", "person5", 10).isEmpty());
+        Assert.assertTrue(cg.recommend("FRIENDS", "person0", 10).isEmpty());
+    }
+
+    @Test
+    public void shouldRecommendAcrossPopularItemsInParallel() {
+        cg.addRelationshipType("LIKES", 10000, 100, 100);
+        cg.addRelationship("LIKES", "person", "popular");
+        for (int fan = 0; fan < Recommender.PARALLEL_THRESHOLD * 2; fan++) {
+            cg.addRelationship("LIKES", "fan" + fan, "popular");
+            cg.addRelationship("LIKES", "fan" + fan, "item" + (fan % 3));
+        }
+
+        List<Map.Entry<String, Integer>> recommendations = cg.recommend("LIKES", "person", 2);
+        Assert.assertEquals(2, recommendations.size());
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item0", 667), recommendations.get(0));
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item1", 667), recommendations.get(1));
+    }
+
+    @Test
+    public void shouldAddRelationshipsFromManyThreads() throws InterruptedException {
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int writer = t;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    cg.addRelationship("TYPE" + (i % 5), "node" + (i % 50), "node" + ((i * 7 + writer) % 50));
+                    cg.removeRelationship("TYPE" + (i % 5), "node" + (i % 50), "node" + ((i * 3 + writer) % 50));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Assert.assertEquals(5, cg.getRelationshipTypes().size());
+        for (String type : cg.getRelationshipTypes()) {
+            for (int node = 0; node < 50; node++) {
+                Set<String> outgoing = cg.getOutgoingRelationshipNodeIds(type, "node" + node);
+                if (outgoing == null) {
+                    continue;
+                }
+                for (String other : outgoing) {
+                    Assert.assertTrue(cg.getIncomingRelationshipNodeIds(type, other).contains("node" + node));
+                }
+            }
+            for (int node = 0; node < 50; node++) {
+                Set<String> incoming = cg.getIncomingRelationshipNodeIds(type, "node" + node);
+                if (incoming == null) {
+                    continue;
+                }
+                for (String other : incoming) {
+                    Assert.assertTrue(cg.hasRelationship(type, other, "node" + node));
+                }
+            }
+            long edges = 0;
+            for (int node = 0; node < 50; node++) {
+                Set<String> outgoing = cg.getOutgoingRelationshipNodeIds(type, "node" + node);
+                Set<String> incoming = cg.getIncomingRelationshipNodeIds(type, "node" + node);
+                Assert.assertEquals(outgoing == null ? 0 : outgoing.size(), cg.getOutDegree(type, "node" + node));
+                Assert.assertEquals(incoming == null ? 0 : incoming.size(), cg.getInDegree(type, "node" + node));
+                edges += cg.getOutDegree(type, "node" + node);
+            }
+            Assert.assertEquals(edges, cg.getRelationshipTypeAttributes(type).get(type + "-edges"));
+        }
+    }
+
+    @Test
+    public void shouldKeepGraphsApart() {
+        ChronicleGraph other = new ChronicleGraph(10000, 100000);
+        cg.addNode("max", "one");
+        other.addNode("max", "other");
+        cg.addRelationship("FRIENDS", "max", "two");
+        Assert.assertEquals("one", cg.getNode("max"));
+        Assert.assertEquals("other", other.getNode("max"));
+        Assert.assertTrue(other.getRelationshipTypes().isEmpty());
+    }
+
+    @Test
+    public void shouldCountDegrees() {
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "one", "three");
+        cg.addRelationship("FRIENDS", "two", "three");
+        cg.importRelationships("FRIENDS", Arrays.asList(new String[] {"one", "four"}, new String[] {"one", "two"}).iterator());
+        Assert.assertEquals(3, cg.getOutDegree("FRIENDS", "one"));
+        Assert.assertEquals(2, cg.getInDegree("FRIENDS", "three"));
+        Assert.assertEquals(0, cg.getInDegree("FRIENDS", "one"));
+        Assert.assertEquals(0, cg.getOutDegree("FRIENDS", "nobody"));
+        Assert.assertEquals(0, cg.getOutDegree("UNKNOWN", "one"));
+        Assert.assertEquals(4L, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-edges"));
+
+        DegreeStatistics statistics = cg.getOutDegreeStatistics("FRIENDS");
+        Assert.assertEquals(2, statistics.getNodes());
+        Assert.assertEquals(4, statistics.getEdges());
+        Assert.assertEquals(3, statistics.getMaxDegree());
+        Assert.assertArrayEquals(new long[] {1, 1}, statistics.getHistogram());
+        Assert.assertEquals(3, cg.getInDegreeStatistics("FRIENDS").getNodes());
+
+        cg.removeRelationship("FRIENDS", "one", "two");
+        cg.removeNode("three");
+        Assert.assertEquals(1, cg.getOutDegree("FRIENDS", "one"));
+        Assert.assertEquals(0, cg.getOutDegree("FRIENDS", "two"));
+        Assert.assertEquals(1L, cg.getRelationshipTypeAttributes("FRIENDS").get("FRIENDS-edges"));
+        Assert.assertEquals(1, cg.getOutDegreeStatistics("FRIENDS").getMaxDegree());
+    }
+
+    @Test
+    public void shouldGrowTypesThatRunOutOfRoom() {
+        cg.addRelationshipType("TINY", 100, 1, 1);
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertTrue(cg.addRelationship("TINY", "node" + i, "node" + (i + 1)));
+        }
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(cg.addRelationship("TINY", "hub", "spoke" + i));
+        }
+        List<String[]> imported = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            imported.add(new String[] {"importer" + (i % 2000), "imported" + i});
+        }
+        Assert.assertEquals(5000, cg.importRelationships("TINY", imported.iterator()));
+
+        Assert.assertTrue(cg.hasRelationship("TINY", "node2999", "node3000"));
+        Assert.assertEquals(5000, cg.getOutDegree("TINY", "hub"));
+        Assert.assertEquals(new HashSet<String>() {{ add("hub"); }}, cg.getIncomingRelationshipNodeIds("TINY", "spoke4321"));
+        Assert.assertEquals(3, cg.getOutDegree("TINY", "importer7"));
+        Assert.assertEquals(13000L, cg.getRelationshipTypeAttributes("TINY").get("TINY-edges"));
+        Assert.assertTrue((Integer) cg.getRelationshipTypeAttributes("TINY").get("TINY-maximum") > 100);
+        Assert.assertTrue(cg.getMetrics().getResizes("TINY") > 0);
+        Assert.assertEquals(0, cg.getMetrics().getFailedWrites("TINY"));
+        Assert.assertEquals(cg.getMetrics().getResizes("TINY"), cg.getMetrics().getSizingDecisions().size());
+    }
+
+    @Test
+    public void shouldGrowTypesWithInlineProperties() {
+        HashMap<String, Object> weight = new HashMap<>();
+        weight.put("weight", 1L);
+        cg.addRelationshipType("TINY", 100, 1, 1, weight);
+        for (int i = 0; i < 3000; i++) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("weight", (long) i);
+            Assert.assertTrue(cg.addRelationship("TINY", "hub", "spoke" + i, properties));
+        }
+        Assert.assertTrue(cg.getMetrics().getResizes("TINY") > 0);
+        Assert.assertEquals(2999L, cg.getRelationshipProperty("TINY", "hub", "spoke2999", "weight"));
+        Assert.assertEquals(3000, cg.getOutgoingRelationshipProperties("TINY", "hub").size());
+    }
+
+    @Test
+    public void shouldCacheReads() {
+        cg.setCacheSize(1 << 20, 1 << 20);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "max");
+        cg.addNode("max", properties);
+        cg.addRelationship("FRIENDS", "max", "tom");
+        cg.addRelationship("FRIENDS", "max", "ben");
+
+        Set<String> friends = cg.getOutgoingRelationshipNodeIds("FRIENDS", "max");
+        Assert.assertEquals(new HashSet<String>() {{ add("tom"); add("ben"); }}, friends);
+        Assert.assertSame(friends, cg.getOutgoingRelationshipNodeIds("FRIENDS", "max"));
+        try {
+            friends.remove("tom");
+            Assert.fail("Cached neighbours should be read only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(1, cg.getMetrics().getCacheCounts().get("neighbours-hits").longValue());
+
+        cg.addRelationship("FRIENDS", "max", "joe");
+        Assert.assertEquals(new HashSet<String>() {{ add("tom"); add("ben"); add("joe"); }},
+                cg.getOutgoingRelationshipNodeIds("FRIENDS", "max"));
+        Assert.assertEquals(new HashSet<String>() {{ add("max"); }}, cg.getIncomingRelationshipNodeIds("FRIENDS", "joe"));
+        cg.removeRelationship("FRIENDS", "max", "joe");
+        Assert.assertNull(cg.getIncomingRelationshipNodeIds("FRIENDS", "joe"));
+        cg.removeNode("tom");
+        Assert.assertEquals(new HashSet<String>() {{ add("ben"); }}, cg.getOutgoingRelationshipNodeIds("FRIENDS", "max"));
+
+        Assert.assertEquals(properties, cg.getNode("max"));
+        properties.put("name", "maxdemarzi");
+        cg.addNode("max", properties);
+        Assert.assertEquals("maxdemarzi", ((Map) cg.getNode("max")).get("name"));
+        cg.removeNode("max");
+        Assert.assertEquals(new HashMap<>(), cg.getNode("max"));
+        Assert.assertNull(cg.getIncomingRelationshipNodeIds("FRIENDS", "ben"));
+
+        cg.setCacheSize(0, 0);
+        Assert.assertFalse(cg.getMetrics().getCacheCounts().containsKey("neighbours-hits"));
+    }
+
+    @Test
+    public void shouldPageThroughNeighbours() {
+        Set<String> followers = new HashSet<>();
+        for (int i = 0; i < 250; i++) {
+            cg.addRelationship("FOLLOWS", "fan" + i, "celebrity");
+            followers.add("fan" + i);
+        }
+
+        Set<String> paged = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            NeighbourPage page = cg.getIncomingRelationshipNodeIdPage("FOLLOWS", "celebrity", cursor, 100);
+            Assert.assertTrue(page.getKeys().size() <= 100);
+            for (String fan : page.getKeys()) {
+                Assert.assertTrue(fan + " came back twice", paged.add(fan));
+            }
+            cursor = page.getCursor();
+            // Edges added between pages don't disturb the cursor.
+            if (pages == 0) {
+                cg.addRelationship("FOLLOWS", "latecomer", "celebrity");
+                followers.add("latecomer");
+            }
+            pages++;
+        } while (cursor != null);
+        Assert.assertEquals(3, pages);
+        followers.removeAll(paged);
+        Assert.assertTrue(followers.isEmpty() || followers.equals(Collections.singleton("latecomer")));
+
+        Assert.assertEquals(251, cg.streamIncomingRelationshipNodeIds("FOLLOWS", "celebrity").count());
+        Assert.assertEquals(Arrays.asList("celebrity"),
+                cg.streamOutgoingRelationshipNodeIds("FOLLOWS", "fan7").collect(Collectors.toList()));
+        Assert.assertFalse(cg.getOutgoingRelationshipNodeIdPage("FOLLOWS", "nobody", null, 10).hasMore());
+        Assert.assertEquals(0, cg.streamOutgoingRelationshipNodeIds("LIKES", "fan7").count());
+    }
+
+    @Test
+    public void shouldFindNodesByLabel() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph graph = new ChronicleGraph(10000, 100000, mode);
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("name", "max");
+            graph.addNode("max", properties, "Person", "Admin");
+            // Enough items that each label's nodes span several of its chunks.
+            for (int i = 0; i < 1000; i++) {
+                graph.addNode("item" + i, null, i % 2 == 0 ? "Item" : "Ad");
+                graph.addRelationship("LIKES", "max", "item" + i);
+            }
+            graph.addRelationship("LIKES", "max", "unlabelled");
+            graph.addRelationship("LIKES", "tom", "max");
+
+            Assert.assertEquals(properties, graph.getNode("max"));
+            Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("Person", "Admin")), graph.getNodeLabels("max"));
+            Assert.assertEquals(new HashSet<String>() {{ add("Person"); add("Admin"); add("Item"); add("Ad"); }},
+                    graph.getLabels());
+            Assert.assertEquals(500, graph.getLabelCount("Item"));
+            Assert.assertEquals(0, graph.getLabelCount("Nothing"));
+            Assert.assertEquals(Collections.singleton("max"), graph.getNodesByLabel("Person"));
+            Assert.assertTrue(graph.getNodesByLabel("Nothing").isEmpty());
+            Assert.assertTrue(graph.getNodeLabels("unlabelled").isEmpty());
+
+            Set<String> items = graph.getOutgoingRelationshipNodeIds("LIKES", "max", "Item");
+            Assert.assertEquals(500, items.size());
+            Assert.assertTrue(items.contains("item42"));
+            Assert.assertFalse(items.contains("item7"));
+            Assert.assertEquals(Collections.singleton("tom"), graph.getIncomingRelationshipNodeIds("LIKES", "max"));
+            Assert.assertNull(graph.getIncomingRelationshipNodeIds("LIKES", "max", "Person"));
+            Assert.assertEquals(Collections.singleton("max"), graph.getIncomingRelationshipNodeIds("LIKES", "item7", "Admin"));
+            Assert.assertNull(graph.getOutgoingRelationshipNodeIds("FOLLOWS", "max", "Item"));
+
+            // Adding a node again without labels leaves them be; with some replaces them.
+            graph.addNode("max", 37);
+            Assert.assertEquals(2, graph.getNodeLabels("max").size());
+            graph.addNode("item42", null, "Ad");
+            Assert.assertEquals(499, graph.getLabelCount("Item"));
+            Assert.assertEquals(501, graph.getLabelCount("Ad"));
+            Assert.assertEquals(Collections.singleton("Ad"), graph.getNodeLabels("item42"));
+            Assert.assertEquals(501, graph.getNodesByLabel("Ad").size());
+            Assert.assertFalse(graph.getOutgoingRelationshipNodeIds("LIKES", "max", "Item").contains("item42"));
+
+            graph.removeNode("max");
+            Assert.assertTrue(graph.getNodesByLabel("Person").isEmpty());
+            Assert.assertEquals(new HashSet<String>() {{ add("Item"); add("Ad"); }}, graph.getLabels());
+            Assert.assertTrue(graph.getNodeLabels("max").isEmpty());
+            try {
+                graph.addNode("bad", null, "Item", "");
+                Assert.fail("Empty labels should be refused");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            graph.close();
+        }
+    }
+
+    @Test
+    public void shouldIntersectNeighbours() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph graph = new ChronicleGraph(10000, 100000, mode);
+            for (int i = 0; i < 10; i++) {
+                graph.addRelationship("FRIENDS", "max", "friend" + i);
+                graph.addRelationship("FRIENDS", "tom", "friend" + (i + 5));
+            }
+            graph.addRelationship("FRIENDS", "friend7", "max");
+            graph.addRelationship("FRIENDS", "friend8", "tom");
+
+            Assert.assertEquals(new HashSet<String>() {{ add("friend5"); add("friend6"); add("friend7"); add("friend8"); add("friend9"); }},
+                    graph.commonNeighbours("FRIENDS", "max", "tom"));
+            Assert.assertEquals(5, graph.intersectionSize("FRIENDS", "tom", "max"));
+            Assert.assertEquals(5.0 / 15, graph.jaccard("FRIENDS", "max", "tom"), 0.0001);
+            Assert.assertEquals(new HashSet<String>() {{ add("max"); add("tom"); }},
+                    graph.commonNeighbours("FRIENDS", "friend5", "friend9", Traversal.Direction.INCOMING));
+            // friend7 and friend8 turn up both ways but are only counted once.
+            Assert.assertEquals(new HashSet<String>() {{ add("friend5"); add("friend6"); add("friend7"); add("friend8"); add("friend9"); }},
+                    graph.commonNeighbours("FRIENDS", "max", "tom", Traversal.Direction.BOTH));
+            Assert.assertTrue(graph.commonNeighbours("FRIENDS", "max", "nobody").isEmpty());
+            Assert.assertEquals(0, graph.intersectionSize("LIKES", "max", "tom"));
+            Assert.assertEquals(0.0, graph.jaccard("FRIENDS", "nobody", "else"), 0.0);
+            graph.close();
+        }
+    }
+
+    @Test
+    public void shouldCountTriangles() throws IOException {
+        Random random = new Random(42);
+        List<String[]> edges = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            edges.add(new String[] {"node" + random.nextInt(200), "node" + random.nextInt(200)});
+        }
+        // Counted the slow way: every pair of a node's neighbours that are neighbours of each other.
+        Map<String, Set<String>> undirected = new HashMap<>();
+        for (String[] edge : edges) {
+            if (!edge[0].equals(edge[1])) {
+                undirected.computeIfAbsent(edge[0], key -> new HashSet<>()).add(edge[1]);
+                undirected.computeIfAbsent(edge[1], key -> new HashSet<>()).add(edge[0]);
+            }
+        }
+        Map<String, Long> expected = new HashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Set<String>> node : undirected.entrySet()) {
+            long closed = 0;
+            for (String a : node.getValue()) {
+                for (String b : node.getValue()) {
+                    if (a.compareTo(b) < 0 && undirected.get(a).contains(b)) {
+                        closed++;
+                    }
+                }
+            }
+            expected.put(node.getKey(), closed);
+            total += closed;
+        }
+
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph graph = new ChronicleGraph(10000, 100000, mode);
+            for (String[] edge : edges) {
+                graph.addRelationship("FRIENDS", edge[0], edge[1]);
+            }
+            Assert.assertEquals(total / 3, graph.countTriangles("FRIENDS"));
+            for (int i = 0; i < 200; i += 7) {
+                Assert.assertEquals(expected.getOrDefault("node" + i, 0L).longValue(), graph.countTriangles("FRIENDS", "node" + i));
+            }
+            Assert.assertEquals(0, graph.countTriangles("LIKES"));
+            Assert.assertEquals(0, graph.countTriangles("FRIENDS", "nobody"));
+            graph.close();
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.maxdemarzi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Two and three hop expansions through the traversal API next to the HashSet breadth first search it replaces.
+@State(Scope.Benchmark)
+public class ChronicleGraphTraversalBenchmark {
+
+    private ChronicleGraph db;
+
+    @Param({"100000"})
+    private int userCount;
+
+    @Param({"20"})
+    private int friendsCount;
+
+    @Param({"SETS", "BITMAPS"})
+    private StorageMode storage;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        Random rand = new Random(42);
+        db = new ChronicleGraph(userCount, userCount * friendsCount, storage);
+        db.addRelationshipType("FRIENDS", userCount, friendsCount, friendsCount);
+        for (int user = 0; user < userCount; user++) {
+            for (int friend = 0; friend < friendsCount; friend++) {
+                db.addRelationship("FRIENDS", "user" + user, "user" + rand.nextInt(userCount));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+    }
+
+    private String randomUser() {
+        return "user" + ThreadLocalRandom.current().nextInt(userCount);
+    }
+
+    private Set<String> hashSetHops(String start, int hops) {
+        Set<String> frontier = new HashSet<>();
+        frontier.add(start);
+        for (int hop = 0; hop < hops; hop++) {
+            Set<String> next = new HashSet<>();
+            for (String node : frontier) {
+                Set<String> friends = db.getOutgoingRelationshipNodeIds("FRIENDS", node);
+                if (friends != null) {
+                    next.addAll(friends);
+                }
+            }
+            frontier = next;
+        }
+        return frontier;
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTwoHopHashSets() {
+        return hashSetHops(randomUser(), 2).size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTwoHopTraversal() {
+        return db.traverse(randomUser()).out("FRIENDS").out("FRIENDS").count();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureThreeHopHashSets() {
+        return hashSetHops(randomUser(), 3).size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureThreeHopTraversal() {
+        return db.traverse(randomUser()).out("FRIENDS").out("FRIENDS").out("FRIENDS").count();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureShortestPath() {
+        return db.shortestPath("FRIENDS", randomUser(), randomUser(), 6).size();
+    }
+}
@@ -0,0 +1,124 @@
+package com.maxdemarzi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The same write at 1, 2, 4 and 8 threads, to see how throughput scales with cores, and node writes with and without
+// a label.
+@State(Scope.Benchmark)
+public class ChronicleGraphWriteBenchmark {
+
+    private ChronicleGraph db;
+    private final Map<String, Object> properties = new HashMap<>();
+
+    @Param({"1000000"})
+    private int maxNodes;
+
+    @Param({"10000000"})
+    private int maxRels;
+
+    @Param({"100000"})
+    private int userCount;
+
+    @Param({"4"})
+    private int typeCount;
+
+    @Param({"SETS", "BITMAPS"})
+    private StorageMode storage;
+
+    // Start every iteration from an empty graph so it doesn't slow down as the neighbour lists fill up. Types are
+    // left for the writers to create, so they race to add them too.
+    @Setup(Level.Iteration)
+    public void prepare() throws IOException {
+        if (db != null) {
+            db.close();
+        }
+        db = new ChronicleGraph(maxNodes, maxRels, storage);
+        properties.put("one", 10000);
+        properties.put("two", "username10000");
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        db.close();
+    }
+
+    private boolean addRandomRelationship() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return db.addRelationship("TYPE" + random.nextInt(typeCount),
+                "user" + random.nextInt(userCount), "user" + random.nextInt(userCount));
+    }
+
+    // Nodes come back with a different label most of the time, so the label index is written on nearly every call.
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddLabelledNode() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return db.addNode("user" + random.nextInt(userCount), properties, "Label" + random.nextInt(typeCount));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddNode() {
+        return db.addNode("user" + ThreadLocalRandom.current().nextInt(userCount), properties);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddRelationship1Thread() {
+        return addRandomRelationship();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(2)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddRelationship2Threads() {
+        return addRandomRelationship();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddRelationship4Threads() {
+        return addRandomRelationship();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddRelationship8Threads() {
+        return addRandomRelationship();
+    }
+}
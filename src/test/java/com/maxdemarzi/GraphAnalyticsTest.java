@@ -0,0 +1,91 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+public class GraphAnalyticsTest {
+    public ChronicleGraph cg;
+
+    @Before
+    public void setup() {
+        cg = new ChronicleGraph(10000, 100000);
+    }
+
+    @Test
+    public void shouldSnapshotAdjacencyMatrix() {
+        cg.addRelationship("FOLLOWS", "a", "b");
+        cg.addRelationship("FOLLOWS", "a", "c");
+        cg.addRelationship("FOLLOWS", "b", "c");
+        GraphAnalytics analytics = cg.analytics("FOLLOWS");
+        Assert.assertEquals(3, analytics.size());
+        int a = analytics.getIndex("a");
+        int b = analytics.getIndex("b");
+        int c = analytics.getIndex("c");
+        Assert.assertEquals("a", analytics.getNode(a));
+        Assert.assertEquals(1.0, analytics.getAdjacencyMatrix().get(a, c), 0.0);
+        Assert.assertEquals(1.0, analytics.getAdjacencyMatrix().get(b, c), 0.0);
+        Assert.assertEquals(0.0, analytics.getAdjacencyMatrix().get(c, a), 0.0);
+        Assert.assertEquals(-1, analytics.getIndex("d"));
+    }
+
+    @Test
+    public void shouldRankACycleEvenly() {
+        cg.addRelationship("FOLLOWS", "a", "b");
+        cg.addRelationship("FOLLOWS", "b", "c");
+        cg.addRelationship("FOLLOWS", "c", "a");
+        double[] rank = cg.analytics("FOLLOWS").pageRank(0.85, 100, 1e-9);
+        for (double r : rank) {
+            Assert.assertEquals(1.0 / 3, r, 1e-6);
+        }
+    }
+
+    @Test
+    public void shouldRankAStarWithADanglingCentre() {
+        cg.addRelationship("FOLLOWS", "b", "a");
+        cg.addRelationship("FOLLOWS", "c", "a");
+        GraphAnalytics analytics = cg.analytics("FOLLOWS");
+        double[] rank = analytics.pageRank(0.85, 100, 1e-9);
+        Assert.assertEquals(0.05 / 0.235 * 2.7, rank[analytics.getIndex("a")], 1e-6);
+        Assert.assertEquals(0.05 / 0.235, rank[analytics.getIndex("b")], 1e-6);
+        Assert.assertEquals(0.05 / 0.235, rank[analytics.getIndex("c")], 1e-6);
+    }
+
+    @Test
+    public void shouldScoreItemSimilarity() {
+        cg.addRelationship("LIKES", "person1", "item1");
+        cg.addRelationship("LIKES", "person1", "item2");
+        cg.addRelationship("LIKES", "person2", "item1");
+        cg.addRelationship("LIKES", "person2", "item2");
+        cg.addRelationship("LIKES", "person3", "item1");
+        cg.addRelationship("LIKES", "person3", "item3");
+        GraphAnalytics analytics = cg.analytics("LIKES");
+
+        List<Map.Entry<String, Double>> similar = analytics.similarTo("item1", 10);
+        Assert.assertEquals(2, similar.size());
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item2", 2 / Math.sqrt(6)), similar.get(0));
+        Assert.assertEquals(new AbstractMap.SimpleImmutableEntry<>("item3", 1 / Math.sqrt(3)), similar.get(1));
+        Assert.assertEquals(1, analytics.similarTo("item1", 1).size());
+
+        Map<String, List<Map.Entry<String, Double>>> similarities = analytics.similarities(10);
+        Assert.assertEquals(3, similarities.size());
+        Assert.assertEquals(similar, similarities.get("item1"));
+        Assert.assertEquals(1, similarities.get("item3").size());
+        Assert.assertFalse(similarities.containsKey("person1"));
+    }
+
+    @Test
+    public void shouldSnapshotBitmapStores() {
+        ChronicleGraph bitmaps = new ChronicleGraph(10000, 100000, StorageMode.BITMAPS);
+        bitmaps.addRelationship("FOLLOWS", "a", "b");
+        bitmaps.addRelationship("FOLLOWS", "b", "c");
+        bitmaps.addRelationship("FOLLOWS", "c", "a");
+        GraphAnalytics analytics = bitmaps.analytics("FOLLOWS");
+        Assert.assertEquals(3, analytics.size());
+        Assert.assertEquals(1.0, analytics.getAdjacencyMatrix().get(analytics.getIndex("c"), analytics.getIndex("a")), 0.0);
+    }
+}
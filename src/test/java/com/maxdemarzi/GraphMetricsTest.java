@@ -0,0 +1,97 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+
+public class GraphMetricsTest {
+
+    @Test
+    public void shouldBucketLatencies() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            Assert.assertTrue(value <= LatencyHistogram.highestIn(bucket));
+            Assert.assertTrue(bucket == 0 || value > LatencyHistogram.highestIn(bucket - 1));
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10000; nanos++) {
+            latency.record(nanos);
+        }
+        Assert.assertEquals(10000, latency.getCount());
+        Assert.assertEquals(5000.5, latency.getMean(), 0.001);
+        Assert.assertEquals(10000, latency.getMax());
+        Assert.assertEquals(5000, latency.getPercentile(50), 5000 / 16);
+        Assert.assertEquals(9900, latency.getPercentile(99), 9900 / 16);
+        Assert.assertEquals(10000, latency.getPercentile(100));
+
+        latency.reset();
+        Assert.assertEquals(0, latency.getCount());
+        Assert.assertEquals(0, latency.getPercentile(99));
+    }
+
+    @Test
+    public void shouldTimeOperationsAndCountBytes() throws IOException {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph db = new ChronicleGraph(1000, 1000, mode);
+            GraphMetrics metrics = db.getMetrics();
+            db.addNode("one");
+            db.addNode("two");
+            db.addRelationship("FRIENDS", "one", "two");
+            db.addRelationship("FRIENDS", "one", "three");
+            Assert.assertEquals(new HashSet<String>() {{ add("two"); add("three"); }},
+                    db.getOutgoingRelationshipNodeIds("FRIENDS", "one"));
+            db.forEachIncoming("FRIENDS", "two", key -> { });
+            db.removeNode("three");
+
+            Assert.assertEquals(2, metrics.getLatency(GraphMetrics.Operation.ADD_NODE).getCount());
+            Assert.assertEquals(2, metrics.getLatency(GraphMetrics.Operation.ADD_RELATIONSHIP).getCount());
+            Assert.assertEquals(1, metrics.getLatency(GraphMetrics.Operation.GET_OUTGOING).getCount());
+            Assert.assertEquals(1, metrics.getLatency(GraphMetrics.Operation.GET_INCOMING).getCount());
+            Assert.assertEquals(1, metrics.getLatency(GraphMetrics.Operation.REMOVE_NODE).getCount());
+            Assert.assertTrue(metrics.getLatency(GraphMetrics.Operation.ADD_RELATIONSHIP).getPercentile(50) > 0);
+            Assert.assertTrue(metrics.getBytesWritten("FRIENDS-out") > 0);
+            Assert.assertTrue(metrics.getBytesRead("FRIENDS-out") > 0);
+            Assert.assertTrue(metrics.getBytesRead("FRIENDS-in") > 0);
+            Assert.assertTrue(metrics.getBytesWritten("nodes") > 0);
+            Assert.assertEquals(Long.valueOf(1), metrics.getAdjacencySizes().get("FRIENDS-out"));
+            Assert.assertEquals(Long.valueOf(1), metrics.getRelationshipCounts().get("FRIENDS"));
+
+            metrics.setEnabled(false);
+            metrics.reset();
+            db.addRelationship("FRIENDS", "two", "one");
+            db.getOutgoingRelationshipNodeIds("FRIENDS", "two");
+            Assert.assertEquals(0, metrics.getLatency(GraphMetrics.Operation.ADD_RELATIONSHIP).getCount());
+            Assert.assertEquals(0, metrics.getLatency(GraphMetrics.Operation.GET_OUTGOING).getCount());
+            Assert.assertEquals(0, metrics.getBytesWritten("FRIENDS-out"));
+            Assert.assertEquals(0, metrics.getBytesRead("FRIENDS-out"));
+            db.close();
+        }
+    }
+
+    @Test
+    public void shouldRegisterMBean() throws Exception {
+        ChronicleGraph db = new ChronicleGraph(1000, 1000);
+        db.addRelationship("FRIENDS", "one", "two");
+        ObjectName name = db.registerMBean("metrics-test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertEquals(true, server.getAttribute(name, "Enabled"));
+
+        TabularData counts = (TabularData) server.getAttribute(name, "OperationCounts");
+        CompositeData row = counts.get(new Object[] {"ADD_RELATIONSHIP"});
+        Assert.assertEquals(1L, row.get("value"));
+        TabularData relationships = (TabularData) server.getAttribute(name, "RelationshipCounts");
+        Assert.assertEquals(1L, relationships.get(new Object[] {"FRIENDS"}).get("value"));
+
+        db.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
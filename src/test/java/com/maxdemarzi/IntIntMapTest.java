@@ -0,0 +1,22 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntIntMapTest {
+
+    @Test
+    public void shouldGrowWithWhatIsPutRatherThanWithTheIds() {
+        IntIntMap map = new IntIntMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(Integer.MAX_VALUE - i * 7919, i);
+        }
+        map.put(Integer.MAX_VALUE, 42);
+        map.put(0, 0);
+        Assert.assertEquals(1001, map.size());
+        Assert.assertEquals(42, map.get(Integer.MAX_VALUE));
+        Assert.assertEquals(999, map.get(Integer.MAX_VALUE - 999 * 7919));
+        Assert.assertEquals(0, map.get(0));
+        Assert.assertEquals(-1, map.get(1));
+    }
+}
@@ -0,0 +1,124 @@
+package com.maxdemarzi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * YCSB-style read/write mixes over a graph whose degrees follow a power law, with the nodes each operation touches
+ * drawn from the same skew, so a few hot nodes get most of the traffic the way they do in production:
+ *
+ *   A  50% reads, 50% writes
+ *   B  95% reads,  5% writes
+ *   C  100% reads
+ *
+ * Reads are split between a node's properties and its neighbours, writes between updating a node and adding a
+ * relationship. Each thread draws with its own Random. Runs in sample time mode for the p50, p99 and p999 of the mix
+ * as a whole, and the graph's own metrics are printed after every iteration with the same percentiles per operation.
+ */
+@State(Scope.Benchmark)
+public class MixedWorkloadBenchmark {
+
+    private ChronicleGraph db;
+    private ZipfianGenerator nodes;
+    private int readPercent;
+
+    @Param({"1000000"})
+    private int maxNodes;
+
+    @Param({"10000000"})
+    private int maxRels;
+
+    @Param({"A", "B", "C"})
+    private String workload;
+
+    @Param({"SETS", "BITMAPS"})
+    private StorageMode storage;
+
+    @Param({"100000"})
+    private int userCount;
+
+    @Param({"20"})
+    private int averageDegree;
+
+    @Param({"0.99"})
+    private double zipfConstant;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        readPercent = workload.equals("A") ? 50 : workload.equals("B") ? 95 : 100;
+        if (userCount > maxNodes || (long) userCount * averageDegree > maxRels) {
+            throw new IllegalArgumentException(userCount + " users with " + averageDegree
+                    + " friends each don't fit in " + maxNodes + " nodes and " + maxRels + " relationships");
+        }
+        nodes = new ZipfianGenerator(userCount, zipfConstant, true);
+        db = new ChronicleGraph(maxNodes, maxRels, storage);
+        db.addRelationshipType("FRIENDS", maxNodes, averageDegree, averageDegree);
+        for (int user = 0; user < userCount; user++) {
+            db.addNode(BenchmarkDataset.user(user), BenchmarkDataset.userProperties(user));
+        }
+        db.importRelationships("FRIENDS", BenchmarkDataset.powerLawFriendships(nodes, userCount * averageDegree).iterator());
+        db.getMetrics().setEnabled(true);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetMetrics() {
+        db.getMetrics().reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printMetrics() {
+        GraphMetrics metrics = db.getMetrics();
+        Map<String, Long> counts = metrics.getOperationCounts();
+        Map<String, Long> p50 = metrics.getP50LatencyNanos();
+        Map<String, Long> p99 = metrics.getP99LatencyNanos();
+        Map<String, Long> p999 = metrics.getP999LatencyNanos();
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            if (count.getValue() > 0) {
+                report.append(String.format("%n  %-20s n = %d, p50 = %.1f us, p99 = %.1f us, p999 = %.1f us", count.getKey(),
+                        count.getValue(), p50.get(count.getKey()) / 1e3, p99.get(count.getKey()) / 1e3,
+                        p999.get(count.getKey()) / 1e3));
+            }
+        }
+        System.out.println(report);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final Random random = new Random(ThreadLocalRandom.current().nextLong());
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object measureMix(Client client) {
+        Random random = client.random;
+        String user = BenchmarkDataset.user(nodes.next(random));
+        int operation = random.nextInt(100);
+        if (operation < readPercent) {
+            return operation % 2 == 0 ? db.getNode(user) : db.getOutgoingRelationshipNodeIds("FRIENDS", user);
+        }
+        if (operation % 2 == 0) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("name", user);
+            properties.put("age", random.nextInt(100));
+            return db.addNode(user, properties);
+        }
+        return db.addRelationship("FRIENDS", user, BenchmarkDataset.user(nodes.next(random)));
+    }
+}
@@ -0,0 +1,403 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.io.fs.FileSystemAbstraction;
+import org.neo4j.io.pagecache.PageCache;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The same operations against ChronicleGraph, in either storage mode, and an embedded impermanent Neo4j, each loaded
+ * with the same BenchmarkDataset graphs. Every benchmark runs in throughput and sample time modes, so the results
+ * have operations per millisecond and the p50 and p99 latencies next to each other, one row per engine. How much
+ * memory the loaded graph takes is printed at the end of setup: the heap it grew by after a full collection, and then
+ * what each engine keeps outside of that. For ChronicleGraph that is the off-heap memory of all of its maps, as
+ * Chronicle counts it. The impermanent Neo4j keeps its store files in direct buffers, off the heap, and reads them
+ * through a page cache that is off the heap too, so the store's size is printed next to the page cache's.
+ *
+ * Neo4j finds nodes by key through a schema index on the label the caller names, the way an application would look
+ * them up, and each write is a transaction of its own. Adding a node that is already there updates it, in both.
+ */
+@State(Scope.Benchmark)
+public class Neo4jComparisonBenchmark {
+
+    private Engine db;
+    private final AtomicLong created = new AtomicLong();
+
+    @Param({"SETS", "BITMAPS", "NEO4J"})
+    private String engine;
+
+    // Room for the dataset and everything the write benchmarks add to ChronicleGraph on top of it.
+    @Param({"1000000"})
+    private int maxNodes;
+
+    // measureCreateNode goes round this many keys, so however long it runs the graph stays within maxNodes.
+    @Param({"100000"})
+    private int createdCount;
+
+    @Param({"10000000"})
+    private int maxRels;
+
+    @Param({"10000"})
+    private int userCount;
+
+    @Param({"20"})
+    private int friendsCount;
+
+    @Param({"1000"})
+    private int personCount;
+
+    @Param({"200"})
+    private int itemCount;
+
+    @Param({"10"})
+    private int likesCount;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        long before = usedHeap();
+        db = engine.equals("NEO4J") ? new Neo4j() : new Chronicle(StorageMode.valueOf(engine), maxNodes, maxRels);
+        for (int user = 0; user < userCount; user++) {
+            db.addNode("User", BenchmarkDataset.user(user), BenchmarkDataset.userProperties(user));
+        }
+        for (int person = 0; person < personCount; person++) {
+            db.addNode("Person", BenchmarkDataset.person(person), new HashMap<>());
+        }
+        for (int item = 0; item < itemCount; item++) {
+            db.addNode("Item", BenchmarkDataset.item(item), BenchmarkDataset.itemProperties(item));
+        }
+        db.load("FRIENDS", "User", "User", BenchmarkDataset.friendships(userCount, friendsCount));
+        db.load("LIKES", "Person", "Item", BenchmarkDataset.likes(personCount, itemCount, likesCount));
+        long heap = usedHeap() - before;
+        StringBuilder footprint = new StringBuilder(String.format("%n%s footprint: %.1f MB heap", engine, heap / 1048576.0));
+        db.memory().forEach((what, bytes) -> footprint.append(String.format(", %.1f MB %s", bytes / 1048576.0, what)));
+        System.out.println(footprint);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String randomUser() {
+        return BenchmarkDataset.user(ThreadLocalRandom.current().nextInt(userCount));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean measureCreateNode() {
+        int node = (int) (created.incrementAndGet() % createdCount);
+        return db.addNode("User", "created" + node, BenchmarkDataset.userProperties(node));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean measureCreateRelationship() {
+        return db.addRelationship("FOLLOWS", "User", randomUser(), "User", randomUser());
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int measureOneHop() {
+        return db.neighbours("FRIENDS", "User", randomUser()).size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int measureOneHopWithNodes() {
+        return db.neighbourNodes("FRIENDS", "User", randomUser()).size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(1)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> measureRecommendation() {
+        return db.recommend("LIKES", "Person", BenchmarkDataset.person(ThreadLocalRandom.current().nextInt(personCount)),
+                10);
+    }
+
+    // What each engine has to answer; the benchmarks only go through this. Nodes are named by label and key, and
+    // engines that find nodes by key alone ignore the label.
+    interface Engine {
+        boolean addNode(String label, String key, Map<String, Object> properties);
+
+        void load(String type, String fromLabel, String toLabel, List<String[]> relationships);
+
+        boolean addRelationship(String type, String fromLabel, String from, String toLabel, String to);
+
+        Set<String> neighbours(String type, String label, String key);
+
+        List<Object> neighbourNodes(String type, String label, String key);
+
+        // The ChronicleGraphRecommendationBenchmark query: items liked by people who like what this person likes.
+        List<String> recommend(String type, String label, String person, int limit);
+
+        // What the engine keeps outside the heap figure, by what it is, in bytes.
+        Map<String, Long> memory();
+
+        void close() throws IOException;
+    }
+
+    static class Chronicle implements Engine {
+        private final ChronicleGraph graph;
+
+        Chronicle(StorageMode mode, int maxNodes, int maxRels) throws IOException {
+            graph = new ChronicleGraph(maxNodes, maxRels, mode);
+        }
+
+        @Override
+        public boolean addNode(String label, String key, Map<String, Object> properties) {
+            return graph.addNode(key, properties, label);
+        }
+
+        @Override
+        public void load(String type, String fromLabel, String toLabel, List<String[]> relationships) {
+            graph.importRelationships(type, relationships.iterator());
+        }
+
+        @Override
+        public boolean addRelationship(String type, String fromLabel, String from, String toLabel, String to) {
+            return graph.addRelationship(type, from, to);
+        }
+
+        @Override
+        public Set<String> neighbours(String type, String label, String key) {
+            Set<String> neighbours = graph.getOutgoingRelationshipNodeIds(type, key);
+            return neighbours == null ? new HashSet<>() : neighbours;
+        }
+
+        @Override
+        public List<Object> neighbourNodes(String type, String label, String key) {
+            List<Object> nodes = new ArrayList<>();
+            for (String neighbour : neighbours(type, label, key)) {
+                nodes.add(graph.getNode(neighbour));
+            }
+            return nodes;
+        }
+
+        @Override
+        public List<String> recommend(String type, String label, String person, int limit) {
+            List<String> items = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : graph.recommend(type, person, limit)) {
+                items.add(entry.getKey());
+            }
+            return items;
+        }
+
+        @Override
+        public Map<String, Long> memory() {
+            return Collections.singletonMap("off-heap maps", graph.getOffHeapBytesUsed());
+        }
+
+        @Override
+        public void close() throws IOException {
+            graph.close();
+        }
+    }
+
+    static class Neo4j implements Engine {
+        private static final int BATCH_SIZE = 10_000;
+        private static final Label[] LABELS = {Label.label("User"), Label.label("Person"), Label.label("Item")};
+
+        private final GraphDatabaseService graph;
+
+        Neo4j() {
+            graph = new TestGraphDatabaseFactory().newImpermanentDatabase();
+            try (Transaction tx = graph.beginTx()) {
+                for (Label label : LABELS) {
+                    graph.schema().indexFor(label).on("key").create();
+                }
+                tx.success();
+            }
+            try (Transaction tx = graph.beginTx()) {
+                graph.schema().awaitIndexesOnline(1, TimeUnit.MINUTES);
+                tx.success();
+            }
+        }
+
+        @Override
+        public boolean addNode(String label, String key, Map<String, Object> properties) {
+            try (Transaction tx = graph.beginTx()) {
+                Node node = find(label, key);
+                if (node == null) {
+                    node = graph.createNode(Label.label(label));
+                    node.setProperty("key", key);
+                }
+                for (Map.Entry<String, Object> property : properties.entrySet()) {
+                    node.setProperty(property.getKey(), property.getValue());
+                }
+                tx.success();
+            }
+            return true;
+        }
+
+        private Node find(String label, String key) {
+            return graph.findNode(Label.label(label), "key", key);
+        }
+
+        @Override
+        public void load(String type, String fromLabel, String toLabel, List<String[]> relationships) {
+            RelationshipType relationshipType = RelationshipType.withName(type);
+            Map<String, Node> nodes = new HashMap<>();
+            for (int start = 0; start < relationships.size(); start += BATCH_SIZE) {
+                try (Transaction tx = graph.beginTx()) {
+                    for (String[] relationship : relationships.subList(start, Math.min(start + BATCH_SIZE, relationships.size()))) {
+                        Node from = nodes.computeIfAbsent(relationship[0], key -> find(fromLabel, key));
+                        Node to = nodes.computeIfAbsent(relationship[1], key -> find(toLabel, key));
+                        from.createRelationshipTo(to, relationshipType);
+                    }
+                    tx.success();
+                }
+            }
+        }
+
+        @Override
+        public boolean addRelationship(String type, String fromLabel, String from, String toLabel, String to) {
+            try (Transaction tx = graph.beginTx()) {
+                find(fromLabel, from).createRelationshipTo(find(toLabel, to), RelationshipType.withName(type));
+                tx.success();
+            }
+            return true;
+        }
+
+        @Override
+        public Set<String> neighbours(String type, String label, String key) {
+            Set<String> neighbours = new HashSet<>();
+            try (Transaction tx = graph.beginTx()) {
+                for (Relationship relationship : find(label, key).getRelationships(Direction.OUTGOING, RelationshipType.withName(type))) {
+                    neighbours.add((String) relationship.getEndNode().getProperty("key"));
+                }
+                tx.success();
+            }
+            return neighbours;
+        }
+
+        @Override
+        public List<Object> neighbourNodes(String type, String label, String key) {
+            List<Object> nodes = new ArrayList<>();
+            try (Transaction tx = graph.beginTx()) {
+                for (Relationship relationship : find(label, key).getRelationships(Direction.OUTGOING, RelationshipType.withName(type))) {
+                    nodes.add(relationship.getEndNode().getAllProperties());
+                }
+                tx.success();
+            }
+            return nodes;
+        }
+
+        @Override
+        public List<String> recommend(String type, String label, String person, int limit) {
+            RelationshipType likes = RelationshipType.withName(type);
+            Map<Node, LongAdder> occurrences = new HashMap<>();
+            List<String> items = new ArrayList<>();
+            try (Transaction tx = graph.beginTx()) {
+                Node start = find(label, person);
+                Set<Node> liked = new HashSet<>();
+                for (Relationship relationship : start.getRelationships(Direction.OUTGOING, likes)) {
+                    liked.add(relationship.getEndNode());
+                }
+                for (Node item : liked) {
+                    for (Relationship like : item.getRelationships(Direction.INCOMING, likes)) {
+                        for (Relationship other : like.getStartNode().getRelationships(Direction.OUTGOING, likes)) {
+                            Node candidate = other.getEndNode();
+                            if (!liked.contains(candidate)) {
+                                occurrences.computeIfAbsent(candidate, node -> new LongAdder()).increment();
+                            }
+                        }
+                    }
+                }
+                List<Map.Entry<Node, LongAdder>> ranked = new ArrayList<>(occurrences.entrySet());
+                ranked.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+                for (Map.Entry<Node, LongAdder> entry : ranked.subList(0, Math.min(ranked.size(), limit))) {
+                    items.add((String) entry.getKey().getProperty("key"));
+                }
+                tx.success();
+            }
+            return items;
+        }
+
+        // The page cache fills up only as far as the store it caches, so it uses the smaller of the two.
+        @Override
+        public Map<String, Long> memory() {
+            DependencyResolver resolver = ((GraphDatabaseAPI) graph).getDependencyResolver();
+            PageCache pageCache = resolver.resolveDependency(PageCache.class);
+            long store = sizeOf(resolver.resolveDependency(FileSystemAbstraction.class),
+                    new File(((GraphDatabaseAPI) graph).getStoreDir()));
+            Map<String, Long> memory = new LinkedHashMap<>();
+            memory.put("page cache configured", (long) pageCache.maxCachedPages() * pageCache.pageSize());
+            memory.put("store files", store);
+            return memory;
+        }
+
+        private static long sizeOf(FileSystemAbstraction files, File file) {
+            if (!files.isDirectory(file)) {
+                return files.getFileSize(file);
+            }
+            long size = 0;
+            File[] children = files.listFiles(file);
+            for (File child : children == null ? new File[0] : children) {
+                size += sizeOf(files, child);
+            }
+            return size;
+        }
+
+        @Override
+        public void close() {
+            graph.shutdown();
+        }
+    }
+}
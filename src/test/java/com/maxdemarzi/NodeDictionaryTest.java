@@ -0,0 +1,61 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeDictionaryTest {
+    public NodeDictionary dictionary;
+
+    @Before
+    public void setup() {
+        dictionary = new NodeDictionary(1000);
+    }
+
+    @Test
+    public void shouldAssignDenseIds() {
+        Assert.assertEquals(0, dictionary.getOrCreate("one"));
+        Assert.assertEquals(1, dictionary.getOrCreate("two"));
+        Assert.assertEquals(2, dictionary.getOrCreate("three"));
+        Assert.assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void shouldReuseExistingIds() {
+        int id = dictionary.getOrCreate("one");
+        Assert.assertEquals(id, dictionary.getOrCreate("one"));
+        Assert.assertEquals(id, dictionary.get("one"));
+        Assert.assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void shouldGetKeyFromId() {
+        int id = dictionary.getOrCreate("one");
+        Assert.assertEquals("one", dictionary.getKey(id));
+    }
+
+    @Test
+    public void shouldNotFindMissingKey() {
+        Assert.assertEquals(-1, dictionary.get("missing"));
+        Assert.assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void shouldFindKeysGivenAsSequences() {
+        int one = dictionary.getOrCreate("one");
+        int accented = dictionary.getOrCreate("caf\u00e9");
+        StringBuilder key = new StringBuilder();
+        ReadBuffers buffers = ReadBuffers.acquire();
+        try {
+            Assert.assertEquals(one, dictionary.get(key.append("one"), buffers));
+            key.setLength(0);
+            Assert.assertEquals(accented, dictionary.get(key.append("caf\u00e9"), buffers));
+            key.setLength(0);
+            Assert.assertEquals(-1, dictionary.get(key.append("on"), buffers));
+            key.setLength(0);
+            Assert.assertEquals(-1, dictionary.get(key.append(new String(new char[100]).replace('\0', 'x')), buffers));
+        } finally {
+            buffers.release();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OccurrenceCounterTest {
+
+    @Test
+    public void shouldCountIdsAndPickTheTopOnes() {
+        OccurrenceCounter.Ints counter = new OccurrenceCounter.Ints(4);
+        for (int key = 0; key < 1000; key++) {
+            for (int hit = 0; hit <= key % 10; hit++) {
+                counter.increment(key);
+            }
+        }
+        Assert.assertEquals(1000, counter.size());
+        Assert.assertTrue(counter.contains(999));
+        Assert.assertFalse(counter.contains(1000));
+
+        int[] top = counter.top(3);
+        Assert.assertEquals(3, top.length);
+        Assert.assertEquals(9, counter.key(top[0]));
+        Assert.assertEquals(19, counter.key(top[1]));
+        Assert.assertEquals(29, counter.key(top[2]));
+        Assert.assertEquals(10, counter.count(top[2]));
+        Assert.assertEquals(0, counter.top(0).length);
+    }
+
+    @Test
+    public void shouldCountKeysWithoutCaringAboutTheirType() {
+        OccurrenceCounter.Keys counter = new OccurrenceCounter.Keys(4);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            key.setLength(0);
+            key.append("item").append(i % 7);
+            counter.increment(key);
+        }
+        OccurrenceCounter.Keys other = new OccurrenceCounter.Keys(4);
+        other.increment("item6");
+        other.increment("item6");
+        counter.addAll(other);
+
+        Assert.assertEquals(7, counter.size());
+        Assert.assertTrue(counter.contains("item3"));
+        int[] top = counter.top(10);
+        Assert.assertEquals(7, top.length);
+        Assert.assertEquals("item6", counter.key(top[0]));
+        Assert.assertEquals(16, counter.count(top[0]));
+        Assert.assertEquals("item0", counter.key(top[1]));
+        Assert.assertEquals("item1", counter.key(top[2]));
+    }
+}
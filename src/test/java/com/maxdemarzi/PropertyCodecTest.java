@@ -0,0 +1,95 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.BytesStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class PropertyCodecTest {
+    public PropertyCodec codec;
+
+    @Before
+    public void setup() {
+        codec = new PropertyCodec(GraphDirectory.inMemory());
+    }
+
+    @Test
+    public void shouldRoundTripPropertyMaps() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "Mäx");
+        properties.put("id", 7);
+        properties.put("followers", 12345678901L);
+        properties.put("weight", 50.55D);
+        properties.put("ratio", 0.5F);
+        properties.put("active", true);
+        properties.put("email", "");
+        byte[] encoded = codec.encode(properties);
+        Assert.assertEquals(PropertyCodec.SCHEMA, encoded[0]);
+        Assert.assertEquals(PropertyCodec.sizeOf(properties), encoded.length);
+        Assert.assertEquals(properties, codec.decode(encoded));
+    }
+
+    @Test
+    public void shouldShareSchemasBetweenMapsOfTheSameShape() {
+        HashMap<String, Object> one = new HashMap<>();
+        one.put("name", "one");
+        one.put("id", 1);
+        HashMap<String, Object> two = new HashMap<>();
+        two.put("id", 2);
+        two.put("name", "two");
+        HashMap<String, Object> other = new HashMap<>();
+        other.put("id", "3");
+        other.put("name", "three");
+        codec.encode(one);
+        codec.encode(two);
+        Assert.assertEquals(1, codec.schemaCount());
+        codec.encode(other);
+        Assert.assertEquals(2, codec.schemaCount());
+        Assert.assertEquals(other, codec.decode(codec.encode(other)));
+    }
+
+    @Test
+    public void shouldReadSinglePropertiesInPlace() {
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("a", "first");
+        properties.put("b", "second");
+        properties.put("c", "third");
+        properties.put("id", 9L);
+        byte[] encoded = codec.encode(properties);
+        for (String name : properties.keySet()) {
+            Assert.assertEquals(properties.get(name),
+                    codec.property(BytesStore.wrap(encoded), 0, encoded.length, name));
+        }
+        Assert.assertNull(codec.property(BytesStore.wrap(encoded), 0, encoded.length, "d"));
+    }
+
+    @Test
+    public void shouldFallBackToSerialization() {
+        HashMap<String, Object> address = new HashMap<>();
+        address.put("City", "Chicago");
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("address", address);
+        properties.put("missing", null);
+        byte[] encoded = codec.encode(properties);
+        Assert.assertEquals(PropertyCodec.SERIALIZED, encoded[0]);
+        Assert.assertEquals(properties, codec.decode(encoded));
+        Assert.assertEquals(address, codec.property(BytesStore.wrap(encoded), 0, encoded.length, "address"));
+
+        ArrayList<String> list = new ArrayList<>();
+        list.add("one");
+        Assert.assertEquals(list, codec.decode(codec.encode(list)));
+        Assert.assertEquals(0, codec.schemaCount());
+    }
+
+    @Test
+    public void shouldRoundTripSingleValues() {
+        Assert.assertEquals("", codec.decode(codec.encode("")));
+        Assert.assertEquals(5, codec.decode(codec.encode(5)));
+        Assert.assertEquals(5L, codec.decode(codec.encode(5L)));
+        Assert.assertEquals(false, codec.decode(codec.encode(false)));
+        Assert.assertEquals(2, codec.encode(false).length);
+    }
+}
@@ -0,0 +1,130 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class PropertyIndexTest {
+    public ChronicleGraph cg;
+
+    @Before
+    public void setup() {
+        cg = new ChronicleGraph(10000, 100000);
+        for (int i = 0; i < 10; i++) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("username", "user" + i);
+            properties.put("four", 45.5 + i);
+            if (i % 2 == 0) {
+                properties.put("active", true);
+            }
+            cg.addNode("node" + i, properties);
+        }
+        cg.addNode("empty");
+    }
+
+    @Test
+    public void shouldIndexExistingNodes() {
+        Assert.assertTrue(cg.createIndex("username"));
+        Assert.assertFalse(cg.createIndex("username"));
+        Assert.assertEquals(new HashSet<String>() {{ add("node3"); }}, cg.findNodes("username", "user3"));
+        Assert.assertTrue(cg.findNodes("username", "user10").isEmpty());
+    }
+
+    @Test
+    public void shouldMatchNumbersWhateverTheirType() {
+        cg.createIndex("four");
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("four", 50);
+        cg.addNode("integer", properties);
+        Assert.assertEquals(new HashSet<String>() {{ add("integer"); }}, cg.findNodes("four", 50.0));
+        Assert.assertEquals(new HashSet<String>() {{ add("node5"); }}, cg.findNodes("four", 50.5f));
+    }
+
+    @Test
+    public void shouldKeepUpWithWritesWhileBuilding() throws Exception {
+        ChronicleGraph graph = new ChronicleGraph(50000, 100000);
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            graph.addNode("n" + i, Collections.singletonMap("score", i));
+        }
+        Thread writer = new Thread(() -> {
+            for (int i = count - 1; i >= 0; i--) {
+                graph.addNode("n" + i, Collections.singletonMap("score", -i - 1));
+            }
+        });
+        writer.start();
+        Assert.assertTrue(graph.createIndex("score"));
+        writer.join();
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(Collections.singleton("n" + i), graph.findNodes("score", -i - 1));
+            Assert.assertTrue(graph.findNodes("score", i).isEmpty());
+        }
+        graph.close();
+    }
+
+    @Test
+    public void shouldKeepLongsExact() {
+        cg.addNode("big", Collections.singletonMap("id", 9007199254740992L));
+        cg.addNode("bigger", Collections.singletonMap("id", 9007199254740993L));
+        cg.addNode("half", Collections.singletonMap("id", 0.5));
+        Assert.assertEquals(Collections.singleton("bigger"), cg.findNodes("id", 9007199254740993L));
+        cg.createIndex("id");
+        Assert.assertEquals(Collections.singleton("bigger"), cg.findNodes("id", 9007199254740993L));
+        Assert.assertEquals(Collections.singleton("big"), cg.findNodes("id", 9007199254740992.0));
+        Assert.assertEquals(new HashSet<String>() {{ add("big"); add("bigger"); }},
+                cg.findNodesInRange("id", 9007199254740992L, Long.MAX_VALUE));
+        Assert.assertEquals(Collections.singleton("big"), cg.findNodesInRange("id", 1.5, 9007199254740992L));
+        Assert.assertEquals(Collections.singleton("bigger"), cg.findNodesInRange("id", 9007199254740993L, 1e19));
+        Assert.assertEquals(Collections.singleton("half"), cg.findNodesInRange("id", 0, 1));
+    }
+
+    @Test
+    public void shouldFindNodesInRange() {
+        cg.createIndex("four");
+        Assert.assertEquals(new HashSet<String>() {{ add("node5"); add("node6"); add("node7"); add("node8"); add("node9"); }},
+                cg.findNodesInRange("four", 50.0, 100));
+        Assert.assertEquals(new HashSet<String>() {{ add("node0"); add("node1"); }}, cg.findNodesInRange("four", 0, 46.5));
+        Assert.assertTrue(cg.findNodesInRange("four", 100, 200).isEmpty());
+        Assert.assertTrue(cg.findNodesInRange("four", 100, 50).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepIndexUpToDate() {
+        cg.createIndex("username");
+        cg.createIndex("active");
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("username", "renamed");
+        cg.addNode("node2", properties);
+        cg.removeNode("node4");
+
+        Assert.assertTrue(cg.findNodes("username", "user2").isEmpty());
+        Assert.assertEquals(new HashSet<String>() {{ add("node2"); }}, cg.findNodes("username", "renamed"));
+        Assert.assertTrue(cg.findNodes("username", "user4").isEmpty());
+        Assert.assertEquals(new HashSet<String>() {{ add("node0"); add("node6"); add("node8"); }}, cg.findNodes("active", true));
+        Assert.assertEquals(new HashSet<String>() {{ add("node1"); add("node3"); add("node5"); add("node6"); add("node7"); add("node8"); }},
+                cg.findNodesInRange("username", "user1", "user8"));
+    }
+
+    @Test
+    public void shouldIndexImportedNodes() {
+        cg.createIndex("username");
+        Map<String, Object> properties = Collections.singletonMap("username", "imported");
+        cg.importNodes(Collections.<Map.Entry<String, Object>>singletonList(
+                new AbstractMap.SimpleEntry<>("node11", properties)).iterator());
+        Assert.assertEquals(new HashSet<String>() {{ add("node11"); }}, cg.findNodes("username", "imported"));
+    }
+
+    @Test
+    public void shouldScanWhenPropertyIsNotIndexed() {
+        Assert.assertEquals(new HashSet<String>() {{ add("node3"); }}, cg.findNodes("username", "user3"));
+        Assert.assertEquals(new HashSet<String>() {{ add("node0"); add("node1"); }}, cg.findNodesInRange("four", 0, 46.5));
+        cg.createIndex("four");
+        Assert.assertEquals(new HashSet<String>() {{ add("node0"); add("node1"); }}, cg.findNodesInRange("four", 0, 46.5));
+    }
+}
@@ -0,0 +1,79 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class ReadCacheTest {
+
+    // One key per stripe sized so that a stripe holds ten of them: eight protected and two on probation.
+    private static final long STRIPE_BYTES = 1000;
+
+    private static ReadCache<Integer, String> cache() {
+        return new ReadCache<>(STRIPE_BYTES * 16, value -> 100);
+    }
+
+    @Test
+    public void shouldLoadOnlyOnMiss() {
+        ReadCache<Integer, String> cache = cache();
+        Assert.assertEquals("1", cache.get(1, String::valueOf));
+        Assert.assertEquals("1", cache.get(1, key -> "loaded again"));
+        Assert.assertNull(cache.get(2, key -> null));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(2, cache.misses());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(100, cache.weight());
+
+        cache.invalidate(1);
+        Assert.assertEquals("loaded again", cache.get(1, key -> "loaded again"));
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldKeepHotKeysThroughAScan() {
+        ReadCache<Integer, String> cache = cache();
+        // Keys that are multiples of 16 all land in the same stripe.
+        for (int hot = 0; hot < 5; hot++) {
+            cache.get(hot * 16, String::valueOf);
+            cache.get(hot * 16, String::valueOf);
+        }
+        for (int cold = 5; cold < 1000; cold++) {
+            cache.get(cold * 16, String::valueOf);
+        }
+        for (int hot = 0; hot < 5; hot++) {
+            Assert.assertEquals("hot", String.valueOf(hot * 16), cache.get(hot * 16, key -> "evicted"));
+        }
+        Assert.assertTrue(cache.evictions() > 0);
+        Assert.assertTrue(cache.weight() <= STRIPE_BYTES * 16);
+    }
+
+    @Test
+    public void shouldNotCacheWhatWasReadBeforeAnInvalidation() {
+        ReadCache<Integer, String> cache = cache();
+        // The write lands between the reader's miss and its load finishing.
+        Assert.assertEquals("stale", cache.get(1, key -> {
+            cache.invalidate(1);
+            return "stale";
+        }));
+        Assert.assertEquals("fresh", cache.get(1, key -> "fresh"));
+    }
+
+    @Test
+    public void shouldNotCacheValuesTooBigForAStripe() {
+        ReadCache<Integer, String> cache = new ReadCache<>(STRIPE_BYTES * 16, value -> STRIPE_BYTES);
+        cache.get(1, String::valueOf);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldCopyCachedKeysIntoAPlainObjectArray() {
+        Object[] keys = CompactKeySet.of(new HashSet<>(Arrays.asList("two", "one"))).toArray();
+        Assert.assertEquals(Object[].class, keys.getClass());
+        Assert.assertArrayEquals(new Object[] {"one", "two"}, keys);
+        // A String[] would throw an ArrayStoreException here.
+        keys[0] = 1;
+    }
+}
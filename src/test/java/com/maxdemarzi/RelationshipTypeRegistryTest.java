@@ -0,0 +1,100 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+public class RelationshipTypeRegistryTest {
+
+    @Test
+    public void shouldPlanSizing() {
+        int[] sizing = new int[] {1000, 10, 10, 0, 0, 0};
+        Assert.assertNull(RelationshipTypeRegistry.plan(sizing, 500, 5000, 500, 5000));
+        Assert.assertEquals(2000, RelationshipTypeRegistry.plan(sizing, 800, 8000, 800, 8000)[0]);
+        // Too few nodes to judge the averages by yet.
+        Assert.assertNull(RelationshipTypeRegistry.plan(sizing, 100, 10000, 100, 10000));
+
+        int[] next = RelationshipTypeRegistry.plan(new int[] {10000, 10, 10, 0, 0, 0}, 2000, 100000, 2000, 2000);
+        Assert.assertEquals(10000, next[0]);
+        Assert.assertEquals(75, next[1]);
+        Assert.assertEquals(2, next[2]);
+        next = RelationshipTypeRegistry.plan(new int[] {10000, 10, 10, 0, 0, 0}, 2000, 2000, 2000, 20000);
+        Assert.assertEquals(2, next[1]);
+        Assert.assertEquals(10, next[2]);
+    }
+
+    @Test
+    public void shouldGrowInTheBackground() throws InterruptedException {
+        for (StorageMode mode : StorageMode.values()) {
+            GraphMetrics metrics = new GraphMetrics();
+            RelationshipTypeRegistry registry = new RelationshipTypeRegistry(GraphDirectory.inMemory(), mode,
+                    new NodeDictionary(10000), metrics);
+            registry.addRelationshipType("FRIENDS", 1000, 2, 2);
+            Assert.assertFalse(registry.checkCapacity("FRIENDS"));
+            for (int i = 0; i < 900; i++) {
+                registry.outgoing("FRIENDS").add("one" + i, "two" + i);
+                registry.incoming("FRIENDS").add("two" + i, "one" + i);
+            }
+            AdjacencyStore before = registry.outgoing("FRIENDS");
+            Assert.assertTrue(registry.checkCapacity("FRIENDS"));
+            for (int wait = 0; wait < 100 && metrics.getResizes("FRIENDS") == 0; wait++) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertEquals(1, metrics.getResizes("FRIENDS"));
+            Assert.assertNotSame(before, registry.outgoing("FRIENDS"));
+            Assert.assertEquals(1, registry.generation("FRIENDS"));
+            Assert.assertEquals(2000, registry.sizing("FRIENDS")[0]);
+            GraphMetrics.SizingDecision decision = metrics.getSizingDecisions().get(0);
+            Assert.assertEquals(1000, decision.getPreviousMaximum());
+            Assert.assertEquals(2000, decision.getMaximum());
+            Assert.assertEquals(900, decision.getEdges());
+            Assert.assertEquals(900, registry.outgoing("FRIENDS").edgeCount());
+            Assert.assertEquals(new HashSet<String>() {{ add("two7"); }}, registry.outgoing("FRIENDS").get("one7"));
+            Assert.assertEquals(new HashSet<String>() {{ add("one7"); }}, registry.get("FRIENDS-in").get("two7"));
+            // The old maps stay readable until they are retired.
+            Assert.assertTrue(before.contains("one7", "two7"));
+            registry.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepRetiredMapsUntilTheirReadersAreDone() throws InterruptedException {
+        for (StorageMode mode : StorageMode.values()) {
+            GraphMetrics metrics = new GraphMetrics();
+            RelationshipTypeRegistry registry = new RelationshipTypeRegistry(GraphDirectory.inMemory(), mode,
+                    new NodeDictionary(10000), metrics, 0);
+            registry.addRelationshipType("FRIENDS", 1000, 2, 2);
+            for (int i = 0; i < 900; i++) {
+                registry.outgoing("FRIENDS").add("one" + i, "two" + i);
+                registry.incoming("FRIENDS").add("two" + i, "one" + i);
+            }
+            RelationshipTypeRegistry.Lease reader = registry.lease();
+            AdjacencyStore before = registry.outgoing("FRIENDS");
+            Assert.assertTrue(registry.checkCapacity("FRIENDS"));
+            for (int wait = 0; wait < 100 && metrics.getResizes("FRIENDS") == 0; wait++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(1, metrics.getResizes("FRIENDS"));
+
+            // Readers that come along after the swap don't hold up the old maps.
+            RelationshipTypeRegistry.Lease later = registry.lease();
+            Thread.sleep(200);
+            Assert.assertTrue(before.contains("one7", "two7"));
+            Assert.assertEquals(900, before.edgeCount());
+            later.release();
+            Assert.assertTrue(before.contains("one7", "two7"));
+
+            reader.release();
+            try {
+                before.contains("one7", "two7");
+                Assert.fail("The old maps should be closed once their last reader is done");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            Assert.assertTrue(registry.outgoing("FRIENDS").contains("one7", "two7"));
+            registry.close();
+        }
+    }
+}
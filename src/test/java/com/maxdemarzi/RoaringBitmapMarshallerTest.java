@@ -0,0 +1,39 @@
+package com.maxdemarzi;
+
+import net.openhft.chronicle.bytes.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class RoaringBitmapMarshallerTest {
+
+    @Test
+    public void shouldReadEveryContainerTypeInPlace() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        bitmap.add(1);
+        bitmap.add(7);
+        for (int i = 70000; i < 80000; i += 2) {
+            bitmap.add(i);
+        }
+        for (int i = 200000; i < 201000; i++) {
+            bitmap.add(i);
+        }
+        assertReadsBack(bitmap);
+        bitmap.runOptimize();
+        assertReadsBack(bitmap);
+        assertReadsBack(new RoaringBitmap());
+    }
+
+    private void assertReadsBack(RoaringBitmap bitmap) {
+        Bytes bytes = Bytes.allocateElasticDirect();
+        RoaringBitmapMarshaller.INSTANCE.write(bytes, bitmap);
+        IntList ids = new IntList();
+        RoaringBitmapMarshaller.readInto(bytes, bytes.readPosition(), ids);
+        Assert.assertEquals(bitmap.getCardinality(), ids.size());
+        int[] expected = bitmap.toArray();
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], ids.get(i));
+        }
+        Assert.assertEquals(bitmap, RoaringBitmapMarshaller.INSTANCE.read(bytes, null));
+    }
+}
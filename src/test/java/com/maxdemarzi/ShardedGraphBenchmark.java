@@ -0,0 +1,121 @@
+package com.maxdemarzi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Writes and traversals through a coordinator, with each shard a ShardServer process of its own on this machine, to
+// see how throughput scales with the number of shards. The coordinator's threads are kept busy with @Threads(4).
+@State(Scope.Benchmark)
+public class ShardedGraphBenchmark {
+
+    private final List<Process> processes = new ArrayList<>();
+    private ShardedGraph db;
+
+    @Param({"1", "2", "4"})
+    private int shards;
+
+    @Param({"100000"})
+    private int userCount;
+
+    @Param({"20"})
+    private int friendsCount;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < shards; i++) {
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ShardServer.class.getName(), "0", String.valueOf(userCount),
+                    String.valueOf(userCount * friendsCount)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            processes.add(process);
+            BufferedReader ready = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(ready.readLine().trim())));
+        }
+        db = ShardedGraph.connect(addresses);
+        db.addRelationshipType("FRIENDS", userCount, friendsCount, friendsCount);
+        Random rand = new Random(42);
+        List<String[]> friends = new ArrayList<>(userCount * friendsCount);
+        for (int user = 0; user < userCount; user++) {
+            for (int friend = 0; friend < friendsCount; friend++) {
+                friends.add(new String[] {"user" + user, "user" + rand.nextInt(userCount)});
+            }
+        }
+        db.importRelationships("FRIENDS", friends.iterator());
+    }
+
+    // Closing their standard input is what stops the shard processes.
+    @TearDown(Level.Trial)
+    public void close() throws IOException, InterruptedException {
+        db.close();
+        for (Process process : processes) {
+            process.getOutputStream().close();
+        }
+        for (Process process : processes) {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private String randomUser() {
+        return "user" + ThreadLocalRandom.current().nextInt(userCount);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean measureAddRelationship() {
+        return db.addRelationship("LIKES", randomUser(), randomUser());
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureTwoHopTraversal() {
+        return db.traverse(Collections.singletonList(randomUser()), Traversal.Direction.OUTGOING, 2, "FRIENDS").size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureThreeHopTraversal() {
+        return db.traverse(Collections.singletonList(randomUser()), Traversal.Direction.OUTGOING, 3, "FRIENDS").size();
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int measureRecommend() {
+        return db.recommend("FRIENDS", randomUser(), 10).size();
+    }
+}
@@ -0,0 +1,239 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ShardedGraphTest {
+
+    @Test
+    public void shouldAnswerLikeASingleGraph() throws IOException {
+        List<ChronicleGraph> graphs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            graphs.add(new ChronicleGraph(10000, 100000));
+        }
+        try (ShardedGraph sharded = ShardedGraph.local(graphs)) {
+            ChronicleGraph single = new ChronicleGraph(10000, 100000);
+            Random random = new Random(42);
+            List<String[]> imported = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String from = "user" + random.nextInt(300);
+                String to = "user" + random.nextInt(300);
+                if (i % 2 == 0) {
+                    sharded.addRelationship("FRIENDS", from, to);
+                    single.addRelationship("FRIENDS", from, to);
+                } else {
+                    imported.add(new String[] {from, to});
+                }
+                sharded.addRelationship("LIKES", from, "item" + random.nextInt(100));
+            }
+            Assert.assertEquals(single.importRelationships("FRIENDS", imported.iterator()),
+                    sharded.importRelationships("FRIENDS", imported.iterator()));
+
+            for (int i = 0; i < 300; i++) {
+                String user = "user" + i;
+                Assert.assertEquals(single.getOutgoingRelationshipNodeIds("FRIENDS", user),
+                        sharded.getOutgoingRelationshipNodeIds("FRIENDS", user));
+                Assert.assertEquals(single.getIncomingRelationshipNodeIds("FRIENDS", user),
+                        sharded.getIncomingRelationshipNodeIds("FRIENDS", user));
+            }
+            for (String user : Arrays.asList("user1", "user42", "user299")) {
+                Assert.assertEquals(single.traverse(user).out("FRIENDS").out("FRIENDS").keys(),
+                        sharded.traverse(Arrays.asList(user), Traversal.Direction.OUTGOING, 2, "FRIENDS"));
+                Assert.assertEquals(single.traverse(user).in("FRIENDS").in("FRIENDS").in("FRIENDS").keys(),
+                        sharded.traverse(Arrays.asList(user), Traversal.Direction.INCOMING, 3, "FRIENDS"));
+                Assert.assertEquals(single.friendsOfFriends("FRIENDS", user), sharded.friendsOfFriends("FRIENDS", user));
+                Assert.assertEquals(asMap(single.recommend("FRIENDS", user, 1000)),
+                        asMap(sharded.recommend("FRIENDS", user, 1000)));
+            }
+            Assert.assertEquals(new HashSet<String>() {{ add("FRIENDS"); add("LIKES"); }}, sharded.getRelationshipTypes());
+            single.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepNodesAndPropertiesOnTheirShard() throws IOException {
+        List<ChronicleGraph> graphs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            graphs.add(new ChronicleGraph(10000, 100000));
+        }
+        try (ShardedGraph sharded = ShardedGraph.local(graphs)) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("name", "max");
+            for (int i = 0; i < 20; i++) {
+                sharded.addNode("node" + i, properties);
+            }
+            for (int i = 0; i < 20; i++) {
+                ChronicleGraph home = graphs.get(sharded.shardOf("node" + i));
+                ChronicleGraph other = graphs.get(1 - sharded.shardOf("node" + i));
+                Assert.assertEquals(properties, home.getNode("node" + i));
+                Assert.assertEquals(new HashMap<>(), other.getNode("node" + i));
+            }
+            Assert.assertEquals(properties, sharded.getNode("node7"));
+        }
+    }
+
+    @Test
+    public void shouldServeShardsOverLoopback() throws IOException {
+        List<ChronicleGraph> graphs = new ArrayList<>();
+        List<ShardServer> servers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            graphs.add(new ChronicleGraph(10000, 100000, i == 0 ? StorageMode.SETS : StorageMode.BITMAPS));
+            servers.add(new ShardServer(graphs.get(i), 0));
+            addresses.add(servers.get(i).getAddress());
+        }
+        ShardedGraph sharded = ShardedGraph.connect(addresses);
+        sharded.addRelationshipType("FRIENDS", 10000, 10, 10);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("weight", 0.5);
+        for (int i = 0; i < 50; i++) {
+            sharded.addRelationship("FRIENDS", "max", "friend" + i, properties);
+            sharded.addRelationship("FRIENDS", "friend" + i, "friend" + ((i + 1) % 50));
+        }
+        sharded.addNode("max", 37);
+        Assert.assertEquals(37, sharded.getNode("max"));
+        Assert.assertEquals(properties, sharded.getRelationship("FRIENDS", "max", "friend7"));
+        Assert.assertEquals(50, sharded.getOutgoingRelationshipNodeIds("FRIENDS", "max").size());
+        Assert.assertEquals(new HashSet<String>() {{ add("max"); add("friend6"); }},
+                sharded.getIncomingRelationshipNodeIds("FRIENDS", "friend7"));
+        Assert.assertEquals(50, sharded.traverse(Arrays.asList("max"), Traversal.Direction.OUTGOING, 2, "FRIENDS").size());
+        Assert.assertTrue(sharded.friendsOfFriends("FRIENDS", "max").isEmpty());
+
+        sharded.removeNode("friend7");
+        Assert.assertEquals(49, sharded.getOutgoingRelationshipNodeIds("FRIENDS", "max").size());
+        Assert.assertEquals(new HashSet<String>() {{ add("max"); }},
+                sharded.getIncomingRelationshipNodeIds("FRIENDS", "friend8"));
+        Assert.assertTrue(sharded.removeRelationship("FRIENDS", "max", "friend8"));
+        Assert.assertEquals(new HashSet<String>() {{ add("friend9"); }},
+                sharded.getOutgoingRelationshipNodeIds("FRIENDS", "friend8"));
+        Assert.assertEquals(new HashSet<String>() {{ add("max"); add("friend8"); }},
+                sharded.getIncomingRelationshipNodeIds("FRIENDS", "friend9"));
+        Assert.assertNull(sharded.getIncomingRelationshipNodeIds("FRIENDS", "friend8"));
+
+        // What the graph throws comes back as itself.
+        HashMap<String, Object> weight = new HashMap<>();
+        weight.put("weight", 1L);
+        graphs.get(sharded.shardOf("inline")).addRelationshipType("INLINE", 100, 1, 1, weight);
+        try {
+            sharded.addRelationship("INLINE", "inline", "other", "not a weight");
+            Assert.fail("The shard should have refused the properties");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // Only the loopback interface, on either side, since calls and answers are deserialized.
+        try {
+            new ShardServer(graphs.get(0), new InetSocketAddress(0));
+            Assert.fail("The server should have refused the wildcard address");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ShardedGraph.connect(Arrays.asList(new InetSocketAddress("192.0.2.1", addresses.get(0).getPort())));
+            Assert.fail("The coordinator should have refused an address off this machine");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        sharded.close();
+        for (ShardServer server : servers) {
+            server.close();
+        }
+        ShardedGraph gone = ShardedGraph.connect(addresses);
+        try {
+            gone.getNode("max");
+            Assert.fail("Nothing should be listening any more");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        gone.close();
+        for (ChronicleGraph graph : graphs) {
+            graph.close();
+        }
+    }
+
+    @Test
+    public void shouldUndoHalfWrittenRelationships() throws IOException {
+        List<ChronicleGraph> graphs = new ArrayList<>();
+        List<FailingShard> shards = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            graphs.add(new ChronicleGraph(10000, 100000));
+            shards.add(new FailingShard(graphs.get(i)));
+        }
+        try (ShardedGraph sharded = new ShardedGraph(shards)) {
+            sharded.addRelationshipType("FRIENDS", 10000, 10, 10);
+            String from = "max";
+            String to = "friend0";
+            for (int i = 1; sharded.shardOf(to) == sharded.shardOf(from); i++) {
+                to = "friend" + i;
+            }
+            ChronicleGraph source = graphs.get(sharded.shardOf(from));
+            ChronicleGraph target = graphs.get(sharded.shardOf(to));
+
+            shards.get(sharded.shardOf(to)).failing = true;
+            try {
+                sharded.addRelationship("FRIENDS", from, to);
+                Assert.fail("The target's shard should have failed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            Assert.assertFalse(source.hasRelationship("FRIENDS", from, to));
+            shards.get(sharded.shardOf(to)).failing = false;
+
+            Assert.assertTrue(sharded.addRelationship("FRIENDS", from, to));
+            shards.get(sharded.shardOf(from)).failing = true;
+            try {
+                sharded.removeRelationship("FRIENDS", from, to);
+                Assert.fail("The source's shard should have failed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            Assert.assertTrue(source.hasRelationship("FRIENDS", from, to));
+            Assert.assertTrue(target.hasRelationship("FRIENDS", from, to));
+        }
+    }
+
+    // Fails every relationship write while failing is set, like a shard that has gone away.
+    private static class FailingShard extends LocalShard {
+        volatile boolean failing;
+
+        FailingShard(ChronicleGraph graph) {
+            super(graph);
+        }
+
+        @Override
+        public boolean addRelationship(String type, String from, String to, Object properties) {
+            if (failing) {
+                throw new IllegalStateException("Shard down");
+            }
+            return super.addRelationship(type, from, to, properties);
+        }
+
+        @Override
+        public boolean removeRelationship(String type, String from, String to) {
+            if (failing) {
+                throw new IllegalStateException("Shard down");
+            }
+            return super.removeRelationship(type, from, to);
+        }
+    }
+
+    private static Map<String, Integer> asMap(List<Map.Entry<String, Integer>> entries) {
+        Map<String, Integer> map = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,96 @@
+package com.maxdemarzi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class TraversalTest {
+
+    // one -> two -> three -> four, one -> five -> three, and everyone likes something.
+    private ChronicleGraph graph(StorageMode mode) {
+        ChronicleGraph cg = new ChronicleGraph(10000, 100000, mode);
+        cg.addRelationship("FRIENDS", "one", "two");
+        cg.addRelationship("FRIENDS", "two", "three");
+        cg.addRelationship("FRIENDS", "three", "four");
+        cg.addRelationship("FRIENDS", "one", "five");
+        cg.addRelationship("FRIENDS", "five", "three");
+        cg.addRelationship("FRIENDS", "two", "one");
+        cg.addRelationship("LIKES", "two", "pizza");
+        cg.addRelationship("LIKES", "three", "tacos");
+        cg.addRelationship("LIKES", "four", "pizza");
+        return cg;
+    }
+
+    @Test
+    public void shouldExpandHops() {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph cg = graph(mode);
+            Assert.assertEquals(new HashSet<String>() {{ add("two"); add("five"); }}, cg.traverse("one").out("FRIENDS").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("one"); add("three"); }}, cg.traverse("one").out("FRIENDS").out("FRIENDS").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("tacos"); }},
+                    cg.traverse("one").out("FRIENDS").out("FRIENDS").out("LIKES").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("pizza"); }}, cg.traverse("one").out("FRIENDS").out("LIKES").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("two"); add("four"); }}, cg.traverse("pizza").in("LIKES").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("two"); add("five"); add("four"); }}, cg.traverse("three").both("FRIENDS").keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("one"); add("three"); add("pizza"); }},
+                    cg.traverse("one").out("FRIENDS", "LIKES").out("FRIENDS", "LIKES").keys());
+            Assert.assertTrue(cg.traverse("nobody").out("FRIENDS").keys().isEmpty());
+            Assert.assertTrue(cg.traverse("one").out("UNKNOWN").keys().isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldOnlyVisitNodesOnceWhenDistinct() {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph cg = graph(mode);
+            Assert.assertEquals(new HashSet<String>() {{ add("three"); }}, cg.traverse("one").out("FRIENDS").out("FRIENDS").distinct().keys());
+            Assert.assertEquals(new HashSet<String>() {{ add("three"); }}, cg.friendsOfFriends("FRIENDS", "one"));
+            Assert.assertEquals(4, cg.traverse("one").hop(Traversal.Direction.OUTGOING, 1, 5, "FRIENDS").distinct().count());
+            Assert.assertEquals(new HashSet<String>() {{ add("one"); add("two"); add("five"); }},
+                    cg.traverse("one").hop(Traversal.Direction.OUTGOING, 0, 1, "FRIENDS").keys());
+            Assert.assertEquals(2, cg.traverse("one").hop(Traversal.Direction.OUTGOING, 1, 5, "FRIENDS").distinct().limit(2).keys().size());
+            Assert.assertEquals(2, cg.traverse("one").hop(Traversal.Direction.OUTGOING, 1, 5, "FRIENDS").limit(2).count());
+        }
+    }
+
+    @Test
+    public void shouldExpandLargeFrontiersInParallel() {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph cg = new ChronicleGraph(10000, 100000, mode);
+            for (int i = 0; i < Traversal.PARALLEL_THRESHOLD * 2; i++) {
+                cg.addRelationship("FOLLOWS", "celebrity", "fan" + i);
+                cg.addRelationship("FOLLOWS", "fan" + i, "friend" + (i % 100));
+            }
+            Assert.assertEquals(100, cg.traverse("celebrity").out("FOLLOWS").out("FOLLOWS").count());
+            Assert.assertEquals(Traversal.PARALLEL_THRESHOLD * 2, cg.traverse("friend7").in("FOLLOWS").in("FOLLOWS").out("FOLLOWS").count());
+        }
+    }
+
+    @Test
+    public void shouldFindShortestPaths() {
+        for (StorageMode mode : StorageMode.values()) {
+            ChronicleGraph cg = graph(mode);
+            List<String> path = cg.shortestPath("FRIENDS", "one", "four", 5);
+            Assert.assertEquals(4, path.size());
+            Assert.assertEquals("one", path.get(0));
+            Assert.assertTrue(path.get(1).equals("two") || path.get(1).equals("five"));
+            Assert.assertEquals(Arrays.asList("three", "four"), path.subList(2, 4));
+            List<String> backwards = cg.shortestPath("four", "one", Traversal.Direction.INCOMING, 5, "FRIENDS");
+            Assert.assertEquals(4, backwards.size());
+            Assert.assertEquals(Arrays.asList("four", "three"), backwards.subList(0, 2));
+            Assert.assertEquals("one", backwards.get(3));
+            Assert.assertEquals(Arrays.asList("two", "pizza"), cg.shortestPath("two", "pizza", Traversal.Direction.BOTH, 5, "FRIENDS", "LIKES"));
+            List<String> undirected = cg.shortestPath("four", "one", Traversal.Direction.BOTH, 5, "LIKES", "FRIENDS");
+            Assert.assertEquals(4, undirected.size());
+            Assert.assertEquals("four", undirected.get(0));
+            Assert.assertEquals("one", undirected.get(3));
+            Assert.assertEquals(Arrays.asList("one"), cg.shortestPath("FRIENDS", "one", "one", 5));
+            Assert.assertTrue(cg.shortestPath("FRIENDS", "four", "one", 5).isEmpty());
+            Assert.assertTrue(cg.shortestPath("FRIENDS", "one", "four", 2).isEmpty());
+            Assert.assertTrue(cg.shortestPath("FRIENDS", "one", "nobody", 5).isEmpty());
+        }
+    }
+}
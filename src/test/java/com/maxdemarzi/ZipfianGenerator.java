@@ -0,0 +1,74 @@
+package com.maxdemarzi;
+
+import java.util.Random;
+
+/*
+ * Numbers from 0 to n - 1 where the i-th most popular comes up in proportion to 1 / (i + 1)^theta, drawn in constant
+ * time with the method from Gray et al., "Quickly Generating Billion-Record Synthetic Databases", the way YCSB does.
+ * Scrambled, the popular numbers are hashed across the whole range rather than bunched up at the start of it, so the
+ * hot nodes don't all share a segment or a bitmap chunk.
+ *
+ * Working out zeta(n) is O(n), so build one per dataset and share it; next takes the Random to draw with, which keeps
+ * it safe to use from many threads, each with a Random of its own.
+ */
+final class ZipfianGenerator {
+
+    // What YCSB uses unless told otherwise.
+    static final double ZIPFIAN_CONSTANT = 0.99;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 1099511628211L;
+
+    private final int items;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+    private final boolean scrambled;
+
+    ZipfianGenerator(int items, double theta, boolean scrambled) {
+        if (items < 2 || theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Needs at least two items and a theta between 0 and 1, not " + items
+                    + " and " + theta);
+        }
+        this.items = items;
+        this.theta = theta;
+        this.scrambled = scrambled;
+        double zeta2 = zeta(2, theta);
+        alpha = 1.0 / (1.0 - theta);
+        zetan = zeta(items, theta);
+        eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    int next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        int rank;
+        if (uz < 1.0) {
+            rank = 0;
+        } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+            rank = 1;
+        } else {
+            rank = Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+        return scrambled ? scramble(rank) : rank;
+    }
+
+    // FNV-1a over the rank's bytes, into the same range.
+    private int scramble(int rank) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < 4; i++) {
+            hash ^= (rank >>> (i * 8)) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return (int) Math.floorMod(hash, (long) items);
+    }
+}